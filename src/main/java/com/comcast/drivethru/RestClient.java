@@ -16,10 +16,15 @@
 package com.comcast.drivethru;
 
 import java.io.Closeable;
+import java.nio.file.Path;
 
 import com.comcast.drivethru.exception.HttpException;
 import com.comcast.drivethru.exception.HttpStatusException;
 import com.comcast.drivethru.security.SecurityProvider;
+import com.comcast.drivethru.stream.CloseableIterator;
+import com.comcast.drivethru.stream.EventStream;
+import com.comcast.drivethru.stream.ResponseStream;
+import com.comcast.drivethru.transfer.Downloader;
 import com.comcast.drivethru.transform.JsonTransformer;
 import com.comcast.drivethru.transform.Transformer;
 import com.comcast.drivethru.utils.RestRequest;
@@ -98,6 +103,157 @@ public interface RestClient extends Closeable {
      */
     RestResponse execute(RestRequest request) throws HttpException;
 
+    /**
+     * Execute the given {@link RestRequest} and return as soon as the response headers have
+     * arrived, leaving the body to be read off the connection as it arrives through
+     * {@link ResponseStream#getBodyStream()}. Like {@link #execute(RestRequest)}, this returns a
+     * response for any status code. The response holds a connection until it is closed.
+     *
+     * @param request
+     *            the request to execute
+     *
+     * @return the response from the target server with its body unread
+     *
+     * @throws HttpException
+     *             if an error occurred while making a connection
+     */
+    ResponseStream open(RestRequest request) throws HttpException;
+
+    /**
+     * Execute a HTTP GET on the given relative path from the set default base URL (
+     * {@link #getDefaultBaseUrl()}) and iterate the elements of the JSON array in the response,
+     * transforming each one into a java object of the given <code>elementType</code> as it
+     * arrives.
+     *
+     * @param path
+     *            the relative path to the URL to execute a GET against
+     * @param elementType
+     *            the Java object type to transform each element into
+     *
+     * @return an iterator over the elements, which must be closed if it is not read to the end
+     *
+     * @throws HttpException
+     *             if an error occurred while making a connection or the body is not an array
+     * @throws HttpStatusException
+     *             if the response code is not <code>200 OK</code>
+     *
+     * @see #getStream(URL, Class)
+     */
+    <T> CloseableIterator<T> getStream(String path, Class<T> elementType) throws HttpException;
+
+    /**
+     * Execute a HTTP GET on the given URL and iterate the elements of the JSON array in the
+     * response, transforming each one into a java object of the given <code>elementType</code>
+     * as it arrives. Only one element is held in memory at a time, so this suits arrays that are
+     * too large to read with {@link #get(URL, Class)}. If the baseUrl has not been set on the
+     * given <code>url</code> object, the default base URL ({@link #getDefaultBaseUrl()}) will be
+     * used.
+     *
+     * <pre>
+     * try (CloseableIterator&lt;User&gt; users = client.getStream(new URL().setPath("/users"), User.class)) {
+     *     while (users.hasNext()) {
+     *         process(users.next());
+     *     }
+     * }
+     * </pre>
+     *
+     * @param url
+     *            the URL to execute a GET against
+     * @param elementType
+     *            the Java object type to transform each element into
+     *
+     * @return an iterator over the elements, which must be closed if it is not read to the end
+     *
+     * @throws HttpException
+     *             if an error occurred while making a connection or the body is not an array
+     * @throws HttpStatusException
+     *             if the response code is not <code>200 OK</code>
+     */
+    <T> CloseableIterator<T> getStream(URL url, Class<T> elementType) throws HttpException;
+
+    /**
+     * Subscribe to the feed of server-sent events or newline-delimited records on the given
+     * relative path from the set default base URL ({@link #getDefaultBaseUrl()}), transforming
+     * the data of each one into a java object of the given <code>type</code> as it arrives.
+     *
+     * @param path
+     *            the relative path of the feed
+     * @param type
+     *            the Java object type to transform each record into
+     *
+     * @return the subscription, which must be closed when it is no longer needed
+     *
+     * @throws HttpException
+     *             if an error occurred while making a connection
+     * @throws HttpStatusException
+     *             if the response code is not <code>200 OK</code> or <code>204 No Content</code>
+     *
+     * @see #subscribe(URL, Class)
+     */
+    <T> EventStream<T> subscribe(String path, Class<T> type) throws HttpException;
+
+    /**
+     * Subscribe to the feed of server-sent events or newline-delimited records at the given URL,
+     * transforming the data of each one into a java object of the given <code>type</code> as it
+     * arrives. The subscription holds one connection, which is reconnected with the last event ID
+     * if a server-sent event stream drops. See {@link EventStream} for the details. Feeds that may
+     * sit idle should not be read through a client with a minimum throughput {@link
+     * com.comcast.drivethru.client.ReadGuard}.
+     *
+     * @param url
+     *            the URL of the feed
+     * @param type
+     *            the Java object type to transform each record into
+     *
+     * @return the subscription, which must be closed when it is no longer needed
+     *
+     * @throws HttpException
+     *             if an error occurred while making a connection
+     * @throws HttpStatusException
+     *             if the response code is not <code>200 OK</code> or <code>204 No Content</code>
+     */
+    <T> EventStream<T> subscribe(URL url, Class<T> type) throws HttpException;
+
+    /**
+     * Download the object on the given relative path from the set default base URL (
+     * {@link #getDefaultBaseUrl()}) into a file.
+     *
+     * @param path
+     *            the relative path of the object
+     * @param target
+     *            the file to write the object to
+     *
+     * @return the length of the object in bytes
+     *
+     * @throws HttpException
+     *             if the object can't be fetched or doesn't match what the server declared
+     * @throws HttpStatusException
+     *             if the response code is not <code>200 OK</code>
+     *
+     * @see #download(URL, Path)
+     */
+    long download(String path, Path target) throws HttpException;
+
+    /**
+     * Download the object at the given URL into a file, streaming it to disk rather than holding it
+     * in memory. Large objects on servers that accept byte ranges are fetched in parallel segments,
+     * and failed transfers are resumed from the last byte written. An existing file at the target is
+     * only replaced once the download is complete. See {@link Downloader} for the details.
+     *
+     * @param url
+     *            the URL of the object
+     * @param target
+     *            the file to write the object to
+     *
+     * @return the length of the object in bytes
+     *
+     * @throws HttpException
+     *             if the object can't be fetched or doesn't match what the server declared
+     * @throws HttpStatusException
+     *             if the response code is not <code>200 OK</code>
+     */
+    long download(URL url, Path target) throws HttpException;
+
     /**
      * Execute a HTTP GET on the given relative path from the set default base URL (
      * {@link #getDefaultBaseUrl()}) and transform the resulting contents into a java object of the
@@ -15,8 +15,12 @@
  */
 package com.comcast.drivethru;
 
+import org.apache.commons.io.IOUtils;
+
 import com.comcast.drivethru.client.DefaultEasyRestClient;
 import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.client.WarmUp;
+import com.comcast.drivethru.exception.HttpException;
 
 /**
  * Factory for creating various HttpClients.
@@ -37,6 +41,31 @@ public class RestFactory {
         return new DefaultRestClient(defaultBaseUrl);
     }
 
+    /**
+     * Get a new {@link RestClient} with the given <code>defaultBaseUrl</code> that has already been
+     * warmed up. Call this during startup, before the service reports that it is ready.
+     *
+     * @param defaultBaseUrl
+     *            the default base URL to use for the created HttpClient
+     * @param warmUp
+     *            what to warm up
+     *
+     * @return a new, warmed up {@link RestClient}
+     *
+     * @throws HttpException
+     *             if the warm-up fails
+     */
+    public RestClient getWarmClient(String defaultBaseUrl, WarmUp warmUp) throws HttpException {
+        DefaultRestClient client = new DefaultRestClient(defaultBaseUrl);
+        try {
+            client.warmUp(warmUp);
+        } catch (HttpException hex) {
+            IOUtils.closeQuietly(client);
+            throw hex;
+        }
+        return client;
+    }
+
     /**
      * Get a new {@link EasyRestClient} with the given REST <code>type</code> and
      * <code>defaultBaseUrl</code>.
@@ -22,6 +22,8 @@ package com.comcast.drivethru.api;
 import static org.apache.http.HttpStatus.*;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -45,16 +47,30 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.comcast.drivethru.client.CachingDnsResolver;
+import com.comcast.drivethru.client.ReadGuard;
+import com.comcast.drivethru.client.TlsContexts;
+import com.comcast.drivethru.exception.ResponseTooLargeException;
 import com.comcast.drivethru.model.ResponseContainer;
+import com.comcast.drivethru.utils.MultipartEntity;
+import com.comcast.drivethru.utils.RequestCompression;
+import com.comcast.drivethru.utils.SizeLimitedEntity;
 
 public class HTTPRequestManager
 {
@@ -87,6 +103,10 @@ public class HTTPRequestManager
     private Map<String, String> mHeaders;
     private String[] mCookies;
     private String mUserAgent;
+    private RequestCompression mCompression;
+    private DnsResolver mDnsResolver;
+    private ReadGuard mReadGuard;
+    private long mMaxResponseSize;
 
     // HTTP Request Types
     public enum METHOD
@@ -116,11 +136,22 @@ public class HTTPRequestManager
         mSocketTimeout = builder.mSocketTimeout;
         mConnectTimeout = builder.mConnectTimeout;
         mContentType = builder.mContentType;
+
+        // parts added to the builder become a streaming form with its own boundary
+        if (builder.mParts != null)
+        {
+            mMultipart = builder.mParts.build();
+            mContentType = mMultipart.getContentType().getValue();
+        }
         mAuth = builder.mAuth;
         mMethod = builder.mMethod;
         mHeaders = builder.mHeaders;
         mUserAgent = builder.mUserAgent;
         mCookies = builder.mCookies;
+        mCompression = builder.mCompression;
+        mDnsResolver = builder.mDnsResolver;
+        mReadGuard = builder.mReadGuard;
+        mMaxResponseSize = builder.mMaxResponseSize;
 
         // verify that all required members have been set
         if (mUrl == null) throw new IllegalStateException("URL is a required field");
@@ -138,11 +169,20 @@ public class HTTPRequestManager
         RequestConfig config = RequestConfig.custom().setSocketTimeout(mSocketTimeout).setConnectTimeout(mConnectTimeout).build();
         HttpClientBuilder builder = HttpClients.custom().setDefaultRequestConfig(config);
 
+        // share one TLS context between all requests so that sessions can be resumed
+        SSLConnectionSocketFactory sslFactory = TlsContexts.getDefault();
         if (mSocketFactory != null && mUrl.startsWith("https"))
         {
-            builder = builder.setSSLSocketFactory(mSocketFactory);
+            sslFactory = mSocketFactory;
         }
 
+        // the connection manager owns host resolution, so it has to be given the resolver directly
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", sslFactory)
+                .build();
+        builder = builder.setConnectionManager(new PoolingHttpClientConnectionManager(registry, mDnsResolver));
+
         return builder.build();
     }
 
@@ -249,9 +289,12 @@ public class HTTPRequestManager
         
         if (mMultipart != null)
         {
-            if (!mContentType.equals("multipart/form-data"))
+            if ((mContentType == null) || !mContentType.startsWith(MultipartEntity.MULTIPART_FORM_DATA))
                 throw new InvalidParameterException("Content type must be set to multipart/form-data for this type of request");
-                
+
+            // the entity's content type carries the boundary the server needs to split the parts
+            if (mMultipart.getContentType() != null) httpMethod.setHeader(mMultipart.getContentType());
+
             container = sendRequestWithMultipartData(client, httpMethod);
         }
         else if ((mData != null) && (mData.length > 0))
@@ -294,6 +337,12 @@ public class HTTPRequestManager
         HttpEntityEnclosingRequestBase httpMethod = (HttpEntityEnclosingRequestBase) request;
         HttpEntity entity = new ByteArrayEntity(mData);
 
+        // compress the body while it is written (if configured and large enough)
+        if ((mCompression != null) && mCompression.shouldCompress(mData.length))
+        {
+            entity = mCompression.compress(entity);
+        }
+
         httpMethod.setEntity(entity);
 
         return sendRequest(client, httpMethod);
@@ -309,6 +358,7 @@ public class HTTPRequestManager
     ResponseContainer sendRequest(CloseableHttpClient client, Object request) throws IOException
     {
         ResponseContainer responseContainer = null;
+        ReadGuard.Monitor monitor = (mReadGuard == null) ? null : mReadGuard.start((HttpUriRequest) request);
 
         try
         {
@@ -324,11 +374,14 @@ public class HTTPRequestManager
             {
                 response = client.execute((HttpUriRequest) request);
             }
+            if (monitor != null) monitor.responseStarted();
 
             int responseCode = response.getStatusLine().getStatusCode();
             String responseText = null;
-            if (null != response.getEntity()) {
-                responseText = EntityUtils.toString(response.getEntity());
+            HttpEntity entity = response.getEntity();
+            if (null != entity && mMaxResponseSize != Long.MAX_VALUE) entity = new SizeLimitedEntity(entity, mMaxResponseSize);
+            if (null != entity) {
+                responseText = EntityUtils.toString((monitor == null) ? entity : monitor.wrap(entity));
             }
             Header[] headers = response.getAllHeaders();
             String responseLog = "Response: " + responseCode + " - ";
@@ -348,10 +401,19 @@ public class HTTPRequestManager
         }
         catch (IOException e)
         {
+            // the response was larger than allowed and has been abandoned
+            if (e.getCause() instanceof ResponseTooLargeException) throw e;
+
+            // a response aborted for being too slow was sent, so report why it was aborted instead
+            if (monitor != null && monitor.isTripped())
+            {
+                throw new IOException(monitor.getException().getMessage(), monitor.getException());
+            }
             throw new IOException("Connection failed. Request not sent", e);
         }
         finally
         {
+            if (monitor != null) monitor.close();
             client.close();
         }
 
@@ -404,8 +466,13 @@ public class HTTPRequestManager
         private int mConnectTimeout = 30000;
         private byte[] mData;
         private HttpEntity mMultipart;
+        private MultipartEntity.Builder mParts;
         private String mUserAgent;
         private String[] mCookies;
+        private RequestCompression mCompression;
+        private DnsResolver mDnsResolver = CachingDnsResolver.getDefault();
+        private ReadGuard mReadGuard = null;
+        private long mMaxResponseSize = Long.MAX_VALUE;
 
         // CONSTRUCTORS ----------------------------------------------------------------------------------------------------
 
@@ -474,9 +541,81 @@ public class HTTPRequestManager
         public Builder multipart(HttpEntity multipart)
         {
             mMultipart = multipart;
+            mParts = null;
+            return this;
+        }
+
+        /**
+         * Adds a text field to the request's multipart data. Parts are sent in the order they are added as
+         * <code>multipart/form-data</code>, and the boundary and Content-Type are set automatically.
+         * @param name Name of the field
+         * @param value Value of the field, sent as UTF-8 text
+         * @return {@link Builder} object
+         */
+        public Builder part(String name, String value)
+        {
+            getParts().addPart(name, value);
             return this;
         }
 
+        /**
+         * Adds a part with the given content to the request's multipart data.
+         * @param name Name of the field
+         * @param data Content of the part
+         * @param contentType Content type of the part (Default application/octet-stream)
+         * @return {@link Builder} object
+         */
+        public Builder part(String name, byte[] data, ContentType contentType)
+        {
+            getParts().addPart(name, data, contentType);
+            return this;
+        }
+
+        /**
+         * Adds a file to the request's multipart data. The file is streamed from disk while the request is sent
+         * rather than read into memory, and counts towards a known Content-Length.
+         * @param name Name of the field
+         * @param file File to send, its name is sent as the part's filename
+         * @param contentType Content type of the part (Default application/octet-stream)
+         * @return {@link Builder} object
+         * @throws IOException When the size of the file can't be read
+         */
+        public Builder part(String name, Path file, ContentType contentType) throws IOException
+        {
+            getParts().addPart(name, file, contentType);
+            return this;
+        }
+
+        /**
+         * Adds a stream to the request's multipart data. The stream is copied while the request is sent and can
+         * only be read once. If its length is unknown the request is sent chunked.
+         * @param name Name of the field
+         * @param stream Content of the part
+         * @param length Number of bytes in the stream or -1 if unknown
+         * @param filename Filename of the part or null for none
+         * @param contentType Content type of the part (Default application/octet-stream)
+         * @return {@link Builder} object
+         */
+        public Builder part(String name, InputStream stream, long length, String filename, ContentType contentType)
+        {
+            getParts().addPart(name, stream, length, filename, contentType);
+            return this;
+        }
+
+        /**
+         * Gets the parts added so far, replacing any multipart data set with {@link #multipart(HttpEntity)}.
+         * @return the multipart form builder
+         */
+        private MultipartEntity.Builder getParts()
+        {
+            if (mParts == null)
+            {
+                mParts = new MultipartEntity.Builder();
+                mMultipart = null;
+            }
+            return mParts;
+        }
+
         /**
          * Sets request's url.
          * @param url URL to send request to
@@ -577,7 +716,9 @@ public class HTTPRequestManager
         }
 
         /**
-         * Sets {@link TrustManager} array to allow for custom handling of SSL.
+         * Sets {@link TrustManager} array to allow for custom handling of SSL. TLS sessions are only resumed between
+         * requests that share the same factory, so reuse one instance (see {@link TlsContexts#getSocketFactory}) rather
+         * than creating one per request.
          * @param socketFactory Array of {@link SSLConnectionSocketFactory} objects for SSL validation
          * @return {@link Builder} object
          */
@@ -609,6 +750,56 @@ public class HTTPRequestManager
             return this;
         }
 
+        /**
+         * Sets the compression applied to the request's data. Only enable this for servers that accept a
+         * compressed request body.
+         * @param compression Compression to apply to data at or above its threshold (Default none)
+         * @return {@link Builder} object
+         */
+        public Builder compression(RequestCompression compression)
+        {
+            mCompression = compression;
+            return this;
+        }
+
+        /**
+         * Sets the resolver used to look up the request's host. Every request builds its own client, so the default
+         * shared {@link CachingDnsResolver} keeps hosts from being looked up again on each request.
+         * @param dnsResolver Resolver to look up hosts with (Default {@link CachingDnsResolver#getDefault()})
+         * @return {@link Builder} object
+         */
+        public Builder dnsResolver(DnsResolver dnsResolver)
+        {
+            mDnsResolver = dnsResolver;
+            return this;
+        }
+
+        /**
+         * Sets the guard that aborts the response if its headers take too long to arrive or its body arrives too
+         * slowly. An aborted response fails with an {@link IOException} caused by a
+         * {@link com.comcast.drivethru.exception.SlowResponseException}.
+         * @param readGuard Guard to apply to the response (Default none)
+         * @return {@link Builder} object
+         */
+        public Builder readGuard(ReadGuard readGuard)
+        {
+            mReadGuard = readGuard;
+            return this;
+        }
+
+        /**
+         * Sets the largest response body that will be read. The whole body is held in the {@link ResponseContainer},
+         * so this keeps an unexpectedly large response from exhausting the heap. A larger response fails with an
+         * {@link IOException} caused by a {@link ResponseTooLargeException}.
+         * @param maxResponseSize Maximum size of the response body in bytes (Default no limit)
+         * @return {@link Builder} object
+         */
+        public Builder maxResponseSize(long maxResponseSize)
+        {
+            mMaxResponseSize = maxResponseSize;
+            return this;
+        }
+
         /**
          * Creates an instance of {@link HTTPRequestManager} class.
          * @return A fully configured {@link HTTPRequestManager} object that is ready to send the request
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.batch;
+
+import java.util.List;
+import java.util.Map;
+
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+
+/**
+ * A <i>BatchSplitter</i> knows how a backend's batch endpoint is called: it joins the keys of many
+ * individual lookups into one request and splits the response back into a result per key.
+ *
+ * @param <K>
+ *            the type of the keys being looked up
+ * @param <V>
+ *            the type of the results
+ */
+public interface BatchSplitter<K, V> {
+
+    /**
+     * Create the batch request for the given keys.
+     *
+     * @param keys
+     *            the distinct keys of the batch, in the order they were first asked for
+     *
+     * @return the request to execute
+     *
+     * @throws HttpException
+     *             if the request can't be created
+     */
+    RestRequest createRequest(List<K> keys) throws HttpException;
+
+    /**
+     * Split a successful (2xx) batch response into the result for each key.
+     *
+     * @param keys
+     *            the keys the request was created for
+     * @param response
+     *            the batch response, which is closed once this returns
+     *
+     * @return the result of each key that was found. Keys that are missing from the map get a
+     *         <code>null</code> result.
+     *
+     * @throws HttpException
+     *             if the response can't be read, which fails every key in the batch
+     */
+    Map<K, V> split(List<K> keys, RestResponse response) throws HttpException;
+}
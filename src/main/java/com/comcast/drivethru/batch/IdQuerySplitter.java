@@ -0,0 +1,175 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.batch;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.transform.JsonTransformer;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * A {@link BatchSplitter} for the most common kind of multi-get endpoint: a <code>GET</code> with
+ * the ids in a query parameter (i.e. <code>/devices?ids=1,2,3</code>) that answers with a JSON
+ * array of the objects found, each carrying its id in a member.
+ *
+ * @param <V>
+ *            the type of the results
+ */
+public class IdQuerySplitter<V> implements BatchSplitter<String, V> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String path;
+    private final String parameter;
+    private final String idMember;
+    private final Class<V> type;
+    private String separator = ",";
+    private String elements = null;
+    private Transformer transformer = new JsonTransformer();
+
+    /**
+     * Construct a new {@link IdQuerySplitter}.
+     *
+     * @param path
+     *            the path of the batch endpoint, relative to the client's default base URL
+     * @param parameter
+     *            the name of the query parameter holding the ids
+     * @param idMember
+     *            the name of the member of each returned object that holds its id
+     * @param type
+     *            the type each returned object is read as
+     */
+    public IdQuerySplitter(String path, String parameter, String idMember, Class<V> type) {
+        this.path = path;
+        this.parameter = parameter;
+        this.idMember = idMember;
+        this.type = type;
+    }
+
+    /**
+     * Set the separator the ids are joined with. Use <code>null</code> to repeat the query
+     * parameter for each id instead (i.e. <code>?id=1&amp;id=2</code>).
+     *
+     * @param separator
+     *            the separator or <code>null</code> to repeat the parameter
+     *
+     * @return <code>this</code>
+     */
+    public IdQuerySplitter<V> setSeparator(String separator) {
+        this.separator = separator;
+        return this;
+    }
+
+    /**
+     * Set the dotted path of the member holding the array of objects, for endpoints that wrap
+     * it (i.e. <code>data.items</code>). By default the array is the whole response.
+     *
+     * @param elements
+     *            the path of the array or <code>null</code> if the response is the array
+     *
+     * @return <code>this</code>
+     */
+    public IdQuerySplitter<V> setElements(String elements) {
+        this.elements = elements;
+        return this;
+    }
+
+    /**
+     * Set the {@link Transformer} each returned object is read with. The default is a
+     * {@link JsonTransformer}.
+     *
+     * @param transformer
+     *            the transformer
+     *
+     * @return <code>this</code>
+     */
+    public IdQuerySplitter<V> setTransformer(Transformer transformer) {
+        this.transformer = transformer;
+        return this;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.batch.BatchSplitter#createRequest(java.util.List)
+     */
+    @Override
+    public RestRequest createRequest(List<String> keys) {
+        URL url = new URL().setPath(path);
+        if (null == separator) {
+            for (String key : keys) {
+                url.addQuery(parameter, key);
+            }
+        } else {
+            StringBuilder ids = new StringBuilder();
+            for (String key : keys) {
+                if (ids.length() > 0) {
+                    ids.append(separator);
+                }
+                ids.append(key);
+            }
+            url.addQuery(parameter, ids.toString());
+        }
+        return new RestRequest(url, Method.GET);
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.batch.BatchSplitter#split(java.util.List,
+     * com.comcast.drivethru.utils.RestResponse)
+     */
+    @Override
+    public Map<String, V> split(List<String> keys, RestResponse response) throws HttpException {
+        byte[] body = response.getBody();
+        if (null == body) {
+            throw new HttpException("Batch response has no body");
+        }
+
+        JsonElement array;
+        try {
+            array = new JsonParser().parse(new String(body, UTF_8));
+        } catch (JsonParseException jpex) {
+            throw new HttpException("Batch response is not JSON", jpex);
+        }
+
+        if (null != elements) {
+            for (String name : elements.split("\\.")) {
+                array = ((null == array) || !array.isJsonObject()) ? null : ((JsonObject) array).get(name);
+            }
+        }
+        if ((null == array) || !array.isJsonArray()) {
+            throw new HttpException("Batch response has no array of results");
+        }
+
+        Map<String, V> results = new HashMap<>();
+        for (JsonElement element : array.getAsJsonArray()) {
+            JsonElement id = element.isJsonObject() ? ((JsonObject) element).get(idMember) : null;
+            if ((null != id) && id.isJsonPrimitive()) {
+                results.put(id.getAsString(), transformer.read(element.toString().getBytes(UTF_8), type));
+            }
+        }
+        return results;
+    }
+}
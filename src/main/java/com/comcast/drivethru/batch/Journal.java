@@ -0,0 +1,289 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An append-only journal of records kept in memory-mapped segment files. Each record is written
+ * as its length, a state byte and its payload, with the length written last so that a record
+ * torn by a crash is never read back. Delivered records are marked in place, and a segment is
+ * deleted once every record in it has been delivered. Reopening the directory picks up every
+ * record that was not marked.
+ */
+class Journal implements Closeable {
+
+    private static final Pattern SEGMENT = Pattern.compile("journal-(\\d+)\\.log");
+
+    /* Record layout: length (4 bytes), state (1 byte), payload */
+    private static final int HEADER = 5;
+    private static final byte PENDING = 0;
+    private static final byte DONE = 1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Deque<Record> pending = new ArrayDeque<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active = null;
+    private long nextSequence = 0;
+
+    /**
+     * Open the journal in the given directory, creating the directory if needed and recovering
+     * every record that was not delivered.
+     */
+    Journal(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Append a record.
+     */
+    synchronized Record append(byte[] payload) throws IOException {
+        int needed = HEADER + payload.length;
+        if ((null == active) || (active.buffer.capacity() - active.position < needed + 4)) {
+            active = createSegment(Math.max(segmentSize, needed + 4));
+        }
+
+        int offset = active.position;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(offset + 4);
+        buffer.put(PENDING).put(payload);
+        buffer.putInt(offset, payload.length);
+        active.position += needed;
+        active.pending++;
+
+        Record record = new Record(active, offset, payload.length);
+        pending.addLast(record);
+        return record;
+    }
+
+    /**
+     * Put records, in order, ahead of every undelivered record. As segments are only appended to,
+     * the new records are appended followed by copies of the undelivered ones, and the originals
+     * are marked as delivered.
+     */
+    synchronized void prepend(List<byte[]> payloads) throws IOException {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        List<Record> newer = new ArrayList<>(pending);
+        pending.clear();
+        int copied = 0;
+        try {
+            for (byte[] payload : payloads) {
+                append(payload);
+            }
+            for (; copied < newer.size(); copied++) {
+                append(read(newer.get(copied)));
+            }
+        } finally {
+            /* Anything that could not be copied stays pending behind what was written */
+            for (int i = copied; i < newer.size(); i++) {
+                pending.addLast(newer.get(i));
+            }
+            for (int i = 0; i < copied; i++) {
+                done(newer.get(i));
+            }
+        }
+    }
+
+    /**
+     * Get up to <code>max</code> of the oldest undelivered records without removing them.
+     */
+    synchronized List<Record> peek(int max) {
+        List<Record> records = new ArrayList<>(Math.min(max, pending.size()));
+        Iterator<Record> it = pending.iterator();
+        while (it.hasNext() && (records.size() < max)) {
+            records.add(it.next());
+        }
+        return records;
+    }
+
+    /**
+     * Read the payload of a record.
+     */
+    synchronized byte[] read(Record record) {
+        byte[] payload = new byte[record.length];
+        ByteBuffer buffer = record.segment.buffer.duplicate();
+        buffer.position(record.offset + HEADER);
+        buffer.get(payload);
+        return payload;
+    }
+
+    /**
+     * Mark a record as delivered, deleting its segment if it was the last one pending there.
+     */
+    synchronized void complete(Record record) throws IOException {
+        if (pending.remove(record)) {
+            done(record);
+        }
+    }
+
+    private void done(Record record) throws IOException {
+        Segment segment = record.segment;
+        segment.buffer.put(record.offset + 4, DONE);
+        segment.pending--;
+        if ((0 == segment.pending) && (segment != active)) {
+            delete(segment);
+        }
+    }
+
+    /**
+     * Get the number of undelivered records.
+     */
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Write every change to the storage device.
+     */
+    synchronized void force() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        if ((null != active) && (0 == active.pending)) {
+            delete(active);
+        }
+        active = null;
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path file : stream) {
+                Matcher matcher = SEGMENT.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    files.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+
+        for (Long sequence : files.keySet()) {
+            Segment segment = new Segment(files.get(sequence), map(files.get(sequence), -1));
+            segments.add(segment);
+            nextSequence = sequence + 1;
+
+            MappedByteBuffer buffer = segment.buffer;
+            int position = 0;
+            while (position + HEADER <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if ((length <= 0) || (position + HEADER + length > buffer.capacity())) {
+                    break;
+                }
+                if (PENDING == buffer.get(position + 4)) {
+                    pending.addLast(new Record(segment, position, length));
+                    segment.pending++;
+                }
+                position += HEADER + length;
+            }
+            segment.position = position;
+        }
+
+        /* Keep appending to the newest segment, and drop any that were fully delivered */
+        active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        for (Segment segment : new ArrayList<>(segments)) {
+            if ((0 == segment.pending) && (segment != active)) {
+                delete(segment);
+            }
+        }
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        long sequence = nextSequence++;
+        Path file = directory.resolve(String.format("journal-%020d.log", sequence));
+        Segment segment = new Segment(file, map(file, size));
+        segments.add(segment);
+
+        /* The previous segment may have been waiting to become inactive to be deleted */
+        if ((null != active) && (0 == active.pending)) {
+            delete(active);
+        }
+        return segment;
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long length = (size < 0) ? channel.size() : size;
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    private void delete(Segment segment) throws IOException {
+        segments.remove(segment);
+        Files.deleteIfExists(segment.file);
+    }
+
+    /**
+     * A mapped segment file.
+     */
+    private static class Segment {
+
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int position = 0;
+        private int pending = 0;
+
+        Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * The location of a record in the journal.
+     */
+    static class Record {
+
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        Record(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
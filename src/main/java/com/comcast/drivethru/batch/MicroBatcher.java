@@ -0,0 +1,411 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.batch;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.client.Watchdog;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.utils.RestResponse;
+
+/**
+ * Collects individual lookups for a short window and sends them to a backend as a single batch
+ * request, handing each caller its own result. A batch is sent when the first lookup in it has
+ * waited for the window or as soon as it holds the maximum batch size, whichever comes first, and
+ * lookups for a key that is already waiting share its result.
+ *
+ * <pre>
+ * MicroBatcher&lt;String, Device&gt; devices = new MicroBatcher.Builder&lt;&gt;(client,
+ *         new IdQuerySplitter&lt;&gt;("/devices", "ids", "id", Device.class))
+ *         .window(5, TimeUnit.MILLISECONDS).maxBatchSize(100).build();
+ *
+ * Device device = devices.get("42");
+ * </pre>
+ *
+ * @param <K>
+ *            the type of the keys being looked up
+ * @param <V>
+ *            the type of the results
+ */
+public class MicroBatcher<K, V> implements Closeable {
+
+    /** The default time the first lookup of a batch waits for others to join it: 5 milliseconds */
+    public static final long DEFAULT_WINDOW = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /** The default largest number of keys sent in one batch */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    private static ExecutorService senders;
+
+    private final RestClient client;
+    private final BatchSplitter<K, V> splitter;
+    private final long window;
+    private final int maxBatchSize;
+    private final Executor executor;
+
+    private Map<K, Result<V>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> timer = null;
+    private boolean closed = false;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    private MicroBatcher(Builder<K, V> builder) {
+        this.client = builder.client;
+        this.splitter = builder.splitter;
+        this.window = builder.window;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.executor = (null == builder.executor) ? getSenders() : builder.executor;
+    }
+
+    /**
+     * Look up a key as part of the next batch.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the result, which is <code>null</code> if the key was not found or fails with the
+     *         {@link HttpException} that failed its batch
+     *
+     * @throws IllegalStateException
+     *             if this batcher has been closed
+     */
+    public Future<V> submit(K key) {
+        lookups.incrementAndGet();
+
+        Map<K, Result<V>> full = null;
+        Result<V> result;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Batcher is closed");
+            }
+
+            result = pending.get(key);
+            if (null != result) {
+                coalesced.incrementAndGet();
+                return result;
+            }
+
+            result = new Result<>();
+            pending.put(key, result);
+            if (pending.size() >= maxBatchSize) {
+                full = take();
+            } else if (1 == pending.size()) {
+                timer = Watchdog.getScheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, window, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (null != full) {
+            dispatch(full);
+        }
+        return result;
+    }
+
+    /**
+     * Look up a key as part of the next batch and wait for its result.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the result or <code>null</code> if the key was not found
+     *
+     * @throws HttpException
+     *             if the batch failed or the wait was interrupted
+     */
+    public V get(K key) throws HttpException {
+        try {
+            return submit(key).get();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            throw new HttpException("Interrupted while waiting for a batch", iex);
+        } catch (ExecutionException eex) {
+            Throwable cause = eex.getCause();
+            if (cause instanceof HttpException) {
+                throw (HttpException) cause;
+            }
+            throw new HttpException("Batch request failed", cause);
+        }
+    }
+
+    /**
+     * Send the waiting lookups now rather than at the end of the window.
+     */
+    public void flush() {
+        Map<K, Result<V>> batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (null != batch) {
+            dispatch(batch);
+        }
+    }
+
+    /**
+     * Send the waiting lookups and refuse any new ones.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+    }
+
+    /**
+     * Get the number of lookups submitted.
+     *
+     * @return the number of lookups
+     */
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    /**
+     * Get the number of lookups that shared the result of an identical lookup already waiting.
+     *
+     * @return the number of coalesced lookups
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Get the number of batch requests sent.
+     *
+     * @return the number of batches
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Take every waiting lookup as a batch. Must be called holding the lock.
+     *
+     * @return the batch or <code>null</code> if nothing is waiting
+     */
+    private Map<K, Result<V>> take() {
+        if (null != timer) {
+            timer.cancel(false);
+            timer = null;
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+        Map<K, Result<V>> batch = pending;
+        pending = new LinkedHashMap<>();
+        return batch;
+    }
+
+    private void dispatch(final Map<K, Result<V>> batch) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(batch);
+                }
+            });
+        } catch (RuntimeException rex) {
+            fail(batch, new HttpException("Failed to schedule a batch", rex));
+        }
+    }
+
+    /**
+     * Send one batch and complete each of its lookups.
+     */
+    private void send(Map<K, Result<V>> batch) {
+        batches.incrementAndGet();
+        List<K> keys = new ArrayList<>(batch.keySet());
+        try {
+            Map<K, V> results;
+            RestResponse response = client.execute(splitter.createRequest(keys));
+            try {
+                int status = response.getStatusCode();
+                if ((status < 200) || (status >= 300)) {
+                    throw new HttpStatusException(status, response.getStatusMessage());
+                }
+                results = splitter.split(keys, response);
+            } finally {
+                response.close();
+            }
+
+            for (Entry<K, Result<V>> entry : batch.entrySet()) {
+                entry.getValue().complete(results.get(entry.getKey()));
+            }
+        } catch (HttpException hex) {
+            fail(batch, hex);
+        } catch (RuntimeException rex) {
+            fail(batch, new HttpException("Failed to split the batch response", rex));
+        }
+    }
+
+    private static <K, V> void fail(Map<K, Result<V>> batch, HttpException cause) {
+        for (Result<V> result : batch.values()) {
+            result.fail(cause);
+        }
+    }
+
+    private static synchronized Executor getSenders() {
+        if (null == senders) {
+            senders = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "drivethru-batch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return senders;
+    }
+
+    /**
+     * The future result of a single key, completed by the batch it is sent in.
+     */
+    private static class Result<V> extends FutureTask<V> {
+
+        private static final Callable<Object> NOTHING = new Callable<Object>() {
+            @Override
+            public Object call() {
+                return null;
+            }
+        };
+
+        @SuppressWarnings("unchecked")
+        Result() {
+            super((Callable<V>) NOTHING);
+        }
+
+        void complete(V value) {
+            set(value);
+        }
+
+        void fail(Throwable cause) {
+            setException(cause);
+        }
+    }
+
+    /**
+     * Builds a {@link MicroBatcher}.
+     *
+     * @param <K>
+     *            the type of the keys being looked up
+     * @param <V>
+     *            the type of the results
+     */
+    public static class Builder<K, V> {
+
+        private final RestClient client;
+        private final BatchSplitter<K, V> splitter;
+        private long window = DEFAULT_WINDOW;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private Executor executor = null;
+
+        /**
+         * Construct a new {@link Builder}.
+         *
+         * @param client
+         *            the client batch requests are sent through
+         * @param splitter
+         *            the splitter that creates batch requests and splits their responses
+         */
+        public Builder(RestClient client, BatchSplitter<K, V> splitter) {
+            this.client = client;
+            this.splitter = splitter;
+        }
+
+        /**
+         * Set how long the first lookup of a batch waits for others to join it.
+         *
+         * @param window
+         *            the window
+         * @param unit
+         *            the unit of the window
+         *
+         * @return <code>this</code>
+         */
+        public Builder<K, V> window(long window, TimeUnit unit) {
+            this.window = unit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * Set the largest number of distinct keys sent in one batch. A batch is sent as soon as it
+         * is full.
+         *
+         * @param maxBatchSize
+         *            the largest batch
+         *
+         * @return <code>this</code>
+         */
+        public Builder<K, V> maxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("Batches must hold at least one key");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Set the {@link Executor} batch requests are sent on. By default a shared pool of daemon
+         * threads is used.
+         *
+         * @param executor
+         *            the executor
+         *
+         * @return <code>this</code>
+         */
+        public Builder<K, V> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Build the batcher.
+         *
+         * @return the new batcher
+         */
+        public MicroBatcher<K, V> build() {
+            return new MicroBatcher<>(this);
+        }
+    }
+}
@@ -0,0 +1,679 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.batch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RequestTemplate;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+
+/**
+ * Sends fire-and-forget requests (telemetry, audit records and the like) in the background so
+ * that callers return as soon as a request is queued.
+ * <p>
+ * Requests wait in a bounded queue in memory and are sent in order, a batch at a time, by a
+ * single background thread. If a journal directory is configured, requests that don't fit in the
+ * queue, or that arrive while the target is failing, are appended to a memory-mapped journal on
+ * disk instead, and so are any requests still in memory when a send fails or the sender is closed,
+ * ahead of what was already journaled so that the order is kept. A sender opened on the same
+ * directory later sends whatever the journal still holds, so queued requests survive a restart.
+ * Delivery is at least once: a request that was sent just before a crash may be sent again.
+ * </p>
+ * <p>
+ * A request that fails to connect or is answered with a 5xx, 408 or 429 is retried after a
+ * backoff that doubles with each consecutive failure. Any other response, including other 4xx
+ * responses, completes the request.
+ * </p>
+ *
+ * <pre>
+ * WriteBehindSender audit = new WriteBehindSender.Builder(client)
+ *         .journal(Paths.get("/var/spool/audit")).build();
+ *
+ * RestRequest request = new RestRequest("/audit", Method.POST);
+ * request.setBody(json);
+ * audit.submit(request);
+ * </pre>
+ */
+public class WriteBehindSender implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindSender.class);
+
+    /** The default number of requests held in memory */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /** The default number of requests taken from the queue at a time */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /** The default size of each journal segment file: 16MB */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** The default wait after the first failure: 100 milliseconds */
+    public static final long DEFAULT_MIN_BACKOFF = 100;
+
+    /** The default longest wait between attempts: 30 seconds */
+    public static final long DEFAULT_MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+
+    private static final byte FORMAT = 1;
+
+    private final RestClient client;
+    private final int capacity;
+    private final int batchSize;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private final Journal journal;
+    private final Thread drainer;
+
+    /* Guarded by this */
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private int inFlight = 0;
+    private long backoff = 0;
+    private long downUntil = 0;
+    private boolean closed = false;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private WriteBehindSender(Builder builder) throws HttpException {
+        this.client = builder.client;
+        this.capacity = builder.capacity;
+        this.batchSize = builder.batchSize;
+        this.minBackoff = builder.minBackoff;
+        this.maxBackoff = builder.maxBackoff;
+
+        if (null == builder.directory) {
+            this.journal = null;
+        } else {
+            try {
+                this.journal = new Journal(builder.directory, builder.segmentSize);
+            } catch (IOException ioex) {
+                throw new HttpException("Failed to open the journal in " + builder.directory, ioex);
+            }
+        }
+
+        this.drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "drivethru-write-behind");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Queue a request to be sent in the background. Only requests with no body or a body set as
+     * bytes can be queued, and any deadline on the request is ignored.
+     *
+     * @param request
+     *            the request to send
+     *
+     * @return <code>true</code> if the request was queued or <code>false</code> if it was dropped
+     *         because the queue is full and there is no journal to hold it
+     *
+     * @throws HttpException
+     *             if the URL of the request is invalid
+     * @throws IllegalArgumentException
+     *             if the body of the request was set as an entity
+     * @throws IllegalStateException
+     *             if this sender has been closed
+     */
+    public boolean submit(RestRequest request) throws HttpException {
+        byte[] payload = encode(request, client.getDefaultBaseUrl());
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Sender is closed");
+            }
+            submitted.incrementAndGet();
+
+            boolean spill = (null != journal)
+                    && ((queue.size() >= capacity) || (journal.size() > 0) || (System.currentTimeMillis() < downUntil));
+            if (spill) {
+                try {
+                    journal.append(payload);
+                    spilled.incrementAndGet();
+                } catch (IOException ioex) {
+                    LOGGER.warn("Failed to journal a request, dropping it", ioex);
+                    dropped.incrementAndGet();
+                    return false;
+                }
+            } else if (queue.size() >= capacity) {
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                queue.addLast(new Entry(payload, null));
+            }
+            notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Wait until every queued request has been sent.
+     *
+     * @param timeout
+     *            the longest time to wait
+     * @param unit
+     *            the unit of the timeout
+     *
+     * @return <code>true</code> if nothing is left to send or <code>false</code> if the time ran out
+     *
+     * @throws InterruptedException
+     *             if the wait was interrupted
+     */
+    public synchronized boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long end = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (getPendingCount() > 0) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Stop sending. The batch being sent is finished first, then any requests still in memory
+     * are written to the journal (or dropped if there is none) and the journal is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            drainer.join();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            if (null != journal) {
+                List<byte[]> payloads = new ArrayList<>(queue.size());
+                for (Entry entry : queue) {
+                    payloads.add(entry.payload);
+                }
+                journal.prepend(payloads);
+                spilled.addAndGet(payloads.size());
+            } else {
+                dropped.addAndGet(queue.size());
+            }
+            queue.clear();
+            if (null != journal) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Get the number of requests waiting to be sent, in memory and in the journal.
+     *
+     * @return the number of pending requests
+     */
+    public synchronized int getPendingCount() {
+        return queue.size() + inFlight + ((null == journal) ? 0 : journal.size());
+    }
+
+    /**
+     * Get the number of requests accepted by {@link #submit(RestRequest)}, including any that were
+     * then dropped.
+     *
+     * @return the number of submitted requests
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Get the number of requests that were answered with a success.
+     *
+     * @return the number of sent requests
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * Get the number of requests that were written to the journal.
+     *
+     * @return the number of journaled requests
+     */
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    /**
+     * Get the number of failed attempts that were followed by a backoff and a retry.
+     *
+     * @return the number of retries
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Get the number of requests that were answered with a failure that won't succeed if sent again.
+     *
+     * @return the number of rejected requests
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Get the number of requests that were dropped because there was nowhere to keep them.
+     *
+     * @return the number of dropped requests
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Send batches until closed.
+     */
+    private void drain() {
+        while (true) {
+            List<Entry> batch;
+            synchronized (this) {
+                try {
+                    while (true) {
+                        if (closed) {
+                            return;
+                        }
+                        boolean empty = queue.isEmpty() && ((null == journal) || (0 == journal.size()));
+                        long wait = downUntil - System.currentTimeMillis();
+                        if (!empty && (wait <= 0)) {
+                            break;
+                        }
+                        wait(empty ? 0 : wait);
+                    }
+                } catch (InterruptedException iex) {
+                    return;
+                }
+                batch = take();
+            }
+
+            try {
+                deliver(batch);
+            } catch (RuntimeException rex) {
+                LOGGER.error("Unexpected failure sending queued requests", rex);
+                failed(batch);
+            }
+        }
+    }
+
+    /**
+     * Take the next batch, from memory first and then from the journal. Journaled requests stay
+     * in the journal until they are delivered. Must be called holding the lock.
+     */
+    private List<Entry> take() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while ((batch.size() < batchSize) && !queue.isEmpty()) {
+            batch.add(queue.pollFirst());
+        }
+        if ((batch.size() < batchSize) && (null != journal)) {
+            for (Journal.Record record : journal.peek(batchSize - batch.size())) {
+                batch.add(new Entry(null, record));
+            }
+        }
+        inFlight = 0;
+        for (Entry entry : batch) {
+            if (null == entry.record) {
+                inFlight++;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Send each request of a batch in turn, stopping at the first one that should be retried.
+     */
+    private void deliver(List<Entry> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            if (!send(entry)) {
+                failed(batch.subList(i, batch.size()));
+                return;
+            }
+
+            synchronized (this) {
+                if (null == entry.record) {
+                    inFlight--;
+                } else {
+                    try {
+                        journal.complete(entry.record);
+                    } catch (IOException ioex) {
+                        LOGGER.warn("Failed to remove a delivered request from the journal", ioex);
+                    }
+                }
+                backoff = 0;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Send a single request.
+     *
+     * @return <code>false</code> if it should be sent again later
+     */
+    private boolean send(Entry entry) {
+        byte[] payload;
+        synchronized (this) {
+            payload = (null == entry.record) ? entry.payload : journal.read(entry.record);
+        }
+
+        RestRequest request;
+        try {
+            request = decode(payload);
+        } catch (IOException | IllegalArgumentException ex) {
+            LOGGER.error("Dropping a queued request that can't be read", ex);
+            dropped.incrementAndGet();
+            return true;
+        }
+
+        int status;
+        try (RestResponse response = client.execute(request)) {
+            status = response.getStatusCode();
+        } catch (HttpException hex) {
+            return false;
+        }
+
+        if ((status >= 500) || (408 == status) || (429 == status)) {
+            return false;
+        }
+        if ((status >= 200) && (status < 300)) {
+            sent.incrementAndGet();
+        } else {
+            LOGGER.warn("Queued " + request.getMethod() + " was rejected with " + status + ", dropping it");
+            rejected.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Put the rest of a failed batch back and back off before the next attempt.
+     */
+    private synchronized void failed(List<Entry> remaining) {
+        retries.incrementAndGet();
+        backoff = (0 == backoff) ? minBackoff : Math.min(backoff * 2, maxBackoff);
+        downUntil = System.currentTimeMillis() + backoff;
+
+        List<Entry> unsent = new ArrayList<>();
+        for (Entry entry : remaining) {
+            if (null == entry.record) {
+                unsent.add(entry);
+            }
+        }
+        inFlight = 0;
+
+        /*
+         * Requests in memory are older than anything in the journal, so they are kept safe there
+         * while the target is down, in order and ahead of the records already journaled
+         */
+        if (null != journal) {
+            List<byte[]> payloads = new ArrayList<>(unsent.size() + queue.size());
+            for (Entry entry : unsent) {
+                payloads.add(entry.payload);
+            }
+            for (Entry entry : queue) {
+                payloads.add(entry.payload);
+            }
+            try {
+                journal.prepend(payloads);
+                spilled.addAndGet(payloads.size());
+                unsent.clear();
+                queue.clear();
+            } catch (IOException ioex) {
+                LOGGER.warn("Failed to journal requests, keeping them in memory", ioex);
+            }
+        }
+        for (int i = unsent.size() - 1; i >= 0; i--) {
+            queue.addFirst(unsent.get(i));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Serialize a request for the queue or the journal.
+     */
+    static byte[] encode(RestRequest request, String defaultBaseUrl) throws HttpException {
+        if (null != request.getEntity()) {
+            throw new IllegalArgumentException("Only requests with a body set as bytes can be queued");
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT);
+            out.writeUTF(request.getMethod().name());
+            out.writeUTF(request.getUrl().setDefaultBaseUrl(defaultBaseUrl).build());
+
+            List<String[]> headers = new ArrayList<>();
+            RequestTemplate<?> template = request.getTemplate();
+            if (null != template) {
+                for (Header header : template.getHeaders()) {
+                    headers.add(new String[] { header.getName(), header.getValue() });
+                }
+            }
+            if (request.hasHeaders()) {
+                Headers own = request.getAllHeaders();
+                for (int i = 0; i < own.size(); i++) {
+                    headers.add(new String[] { own.getName(i), own.getValue(i) });
+                }
+            }
+            out.writeInt(headers.size());
+            for (String[] header : headers) {
+                out.writeUTF(header[0]);
+                out.writeUTF(header[1]);
+            }
+
+            byte[] body = request.getBody();
+            out.writeInt((null == body) ? -1 : body.length);
+            if (null != body) {
+                out.write(body);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException ioex) {
+            throw new HttpException("Failed to serialize the request", ioex);
+        }
+    }
+
+    /**
+     * Read a request written by {@link #encode(RestRequest, String)}.
+     */
+    static RestRequest decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte format = in.readByte();
+        if (FORMAT != format) {
+            throw new IOException("Unknown request format " + format);
+        }
+
+        Method method = Method.valueOf(in.readUTF());
+        RestRequest request = new RestRequest(new URL(in.readUTF()), method);
+        int headers = in.readInt();
+        for (int i = 0; i < headers; i++) {
+            request.appendHeader(in.readUTF(), in.readUTF());
+        }
+
+        int length = in.readInt();
+        if (length >= 0) {
+            byte[] body = new byte[length];
+            in.readFully(body);
+            request.setBody(body);
+        }
+        return request;
+    }
+
+    /**
+     * A queued request: its serialized form if it is held in memory, or its record if it is in
+     * the journal.
+     */
+    private static class Entry {
+
+        private final byte[] payload;
+        private final Journal.Record record;
+
+        Entry(byte[] payload, Journal.Record record) {
+            this.payload = payload;
+            this.record = record;
+        }
+    }
+
+    /**
+     * A <i>Builder</i> configures a {@link WriteBehindSender}.
+     */
+    public static class Builder {
+
+        private final RestClient client;
+        private int capacity = DEFAULT_CAPACITY;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private Path directory = null;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private long minBackoff = DEFAULT_MIN_BACKOFF;
+        private long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+        /**
+         * Construct a new {@link Builder}.
+         *
+         * @param client
+         *            the client requests are sent through
+         */
+        public Builder(RestClient client) {
+            this.client = client;
+        }
+
+        /**
+         * Set the number of requests held in memory.
+         *
+         * @param capacity
+         *            the capacity of the queue
+         *
+         * @return <code>this</code>
+         */
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Set the number of requests taken from the queue at a time.
+         *
+         * @param batchSize
+         *            the batch size
+         *
+         * @return <code>this</code>
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Batches must hold at least one request");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Set the directory of the journal. Without a journal, requests that don't fit in memory
+         * are dropped and requests still queued when the sender is closed are lost.
+         *
+         * @param directory
+         *            the journal directory, which only one sender may use at a time
+         *
+         * @return <code>this</code>
+         */
+        public Builder journal(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Set the size of each journal segment file. Larger requests get a segment of their own.
+         *
+         * @param segmentSize
+         *            the segment size in bytes
+         *
+         * @return <code>this</code>
+         */
+        public Builder segmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Set the range of the backoff between failed attempts.
+         *
+         * @param minBackoff
+         *            the wait after the first failure
+         * @param maxBackoff
+         *            the longest wait
+         * @param unit
+         *            the unit of both waits
+         *
+         * @return <code>this</code>
+         */
+        public Builder backoff(long minBackoff, long maxBackoff, TimeUnit unit) {
+            this.minBackoff = Math.max(1, unit.toMillis(minBackoff));
+            this.maxBackoff = Math.max(this.minBackoff, unit.toMillis(maxBackoff));
+            return this;
+        }
+
+        /**
+         * Build the sender and start sending, beginning with anything left in the journal.
+         *
+         * @return the new sender
+         *
+         * @throws HttpException
+         *             if the journal can't be opened
+         */
+        public WriteBehindSender build() throws HttpException {
+            return new WriteBehindSender(this);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.Headers.CacheControl;
+import com.comcast.drivethru.utils.RestResponse;
+
+/**
+ * A response held by a {@link ResponseCache}, along with the time it was stored so that its
+ * freshness can be judged from its <code>Cache-Control</code>, <code>Expires</code> and
+ * <code>Age</code> headers.
+ */
+public class CachedResponse {
+
+    private static final byte FORMAT = 1;
+
+    private static final String AGE = "Age";
+
+    /* Headers a 304 Not Modified may update on the stored response */
+    private static final String[] REVALIDATED = { Headers.CACHE_CONTROL, Headers.DATE, Headers.ETAG,
+            Headers.EXPIRES, Headers.LAST_MODIFIED };
+
+    private final String key;
+    private final long storedAt;
+    private final int statusCode;
+    private final String statusMessage;
+    private final Headers headers;
+    private final byte[] body;
+
+    /**
+     * Construct a new {@link CachedResponse}.
+     *
+     * @param key
+     *            the key the response is cached under, normally its absolute URL
+     * @param storedAt
+     *            the time the response was generated in milliseconds since the epoch
+     * @param statusCode
+     *            the status code
+     * @param statusMessage
+     *            the status message
+     * @param headers
+     *            the response headers
+     * @param body
+     *            the body or <code>null</code> if there is none
+     */
+    public CachedResponse(String key, long storedAt, int statusCode, String statusMessage, Headers headers,
+            byte[] body) {
+        this.key = key;
+        this.storedAt = storedAt;
+        this.statusCode = statusCode;
+        this.statusMessage = statusMessage;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Create a cached copy of the given response as of now. Any <code>Age</code> header is taken
+     * into account, so the copy is as old as the response was when it arrived. A body that was
+     * spooled to disk is copied from the file and left there, so the response stays spooled for the
+     * caller.
+     *
+     * @param key
+     *            the key the response is cached under
+     * @param response
+     *            the response to copy
+     *
+     * @return the cached response
+     */
+    public static CachedResponse of(String key, RestResponse response) {
+        Headers headers = new Headers(response.getHeaders().toArray());
+        long storedAt = System.currentTimeMillis() - 1000 * seconds(headers.getFirst(AGE));
+        return new CachedResponse(key, storedAt, response.getStatusCode(), response.getStatusMessage(), headers,
+                copyBody(response));
+    }
+
+    /**
+     * Returns <code>true</code> if the given response may be stored: it must be a 200 that isn't
+     * marked <code>no-store</code>, doesn't vary by request header (other than
+     * <code>Accept-Encoding</code>, since bodies are decoded before they are cached) and can
+     * either be served without asking the server or be revalidated with a validator.
+     *
+     * @param response
+     *            the response
+     *
+     * @return <code>true</code> if the response may be cached
+     */
+    public static boolean isCacheable(RestResponse response) {
+        Headers headers = response.getHeaders();
+        if ((HttpStatus.SC_OK != response.getStatusCode()) || headers.getCacheControl().isNoStore()) {
+            return false;
+        }
+        for (String vary : headers.getAll(Headers.VARY)) {
+            for (String name : vary.split(",")) {
+                if (!name.trim().isEmpty() && !name.trim().equalsIgnoreCase(Headers.ACCEPT_ENCODING)) {
+                    return false;
+                }
+            }
+        }
+        return headers.contains(Headers.ETAG) || headers.contains(Headers.LAST_MODIFIED)
+                || (getFreshnessLifetime(headers, System.currentTimeMillis()) > 0);
+    }
+
+    /**
+     * Get the key this response is cached under.
+     *
+     * @return the key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the time this response was generated.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getStoredAt() {
+        return storedAt;
+    }
+
+    /**
+     * Get the status code.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Get the response headers.
+     *
+     * @return the headers
+     */
+    public Headers getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Get the body.
+     *
+     * @return the body or <code>null</code> if there is none
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Get the validator sent in <code>If-None-Match</code> when this response is revalidated.
+     *
+     * @return the entity tag or <code>null</code> if there is none
+     */
+    public String getETag() {
+        return headers.getFirst(Headers.ETAG);
+    }
+
+    /**
+     * Get the validator sent in <code>If-Modified-Since</code> when this response is
+     * revalidated.
+     *
+     * @return the last modified date or <code>null</code> if there is none
+     */
+    public String getLastModified() {
+        return headers.getFirst(Headers.LAST_MODIFIED);
+    }
+
+    /**
+     * Get how long this response may be served without asking the server, from
+     * <code>max-age</code> or otherwise from <code>Expires</code>.
+     *
+     * @return the freshness lifetime in milliseconds, <code>0</code> if it must always be
+     *         revalidated
+     */
+    public long getFreshnessLifetime() {
+        return headers.getCacheControl().isNoCache() ? 0 : getFreshnessLifetime(headers, storedAt);
+    }
+
+    /**
+     * Get the age of this response.
+     *
+     * @param now
+     *            the current time in milliseconds since the epoch
+     *
+     * @return the age in milliseconds
+     */
+    public long getAge(long now) {
+        return Math.max(0, now - storedAt);
+    }
+
+    /**
+     * Returns <code>true</code> if this response may still be served without asking the server.
+     *
+     * @param now
+     *            the current time in milliseconds since the epoch
+     *
+     * @return <code>true</code> if this response is fresh
+     */
+    public boolean isFresh(long now) {
+        return getAge(now) < getFreshnessLifetime();
+    }
+
+    /**
+     * Create the response that results from revalidating this one, keeping this body and taking
+     * the updated headers of the given <code>304 Not Modified</code>.
+     *
+     * @param notModified
+     *            the response to the conditional request
+     *
+     * @return the revalidated response
+     */
+    public CachedResponse revalidate(RestResponse notModified) {
+        Headers updated = new Headers(headers.toArray());
+        Headers received = notModified.getHeaders();
+        for (String name : REVALIDATED) {
+            String value = received.getFirst(name);
+            if (null != value) {
+                updated.set(name, value);
+            }
+        }
+        updated.remove(AGE);
+        long now = System.currentTimeMillis() - 1000 * seconds(received.getFirst(AGE));
+        return new CachedResponse(key, now, statusCode, statusMessage, updated, body);
+    }
+
+    /**
+     * Create a new {@link RestResponse} holding a copy of this response.
+     *
+     * @return the response
+     */
+    public RestResponse toResponse() {
+        RestResponse response = new RestResponse(statusCode, statusMessage);
+        response.addAll(headers.toArray());
+        if (null != body) {
+            response.setBody(body.clone());
+        }
+        return response;
+    }
+
+    /**
+     * Write this response in the form kept by both tiers of the cache. The key comes first so
+     * that the disk tier can index its files without reading them whole.
+     */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + ((null == body) ? 0 : body.length));
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT);
+            out.writeUTF(key);
+            out.writeLong(storedAt);
+            out.writeInt(statusCode);
+            out.writeUTF((null == statusMessage) ? "" : statusMessage);
+            out.writeInt(headers.size());
+            for (int i = 0; i < headers.size(); i++) {
+                out.writeUTF(headers.getName(i));
+                out.writeUTF(headers.getValue(i));
+            }
+            out.writeInt((null == body) ? -1 : body.length);
+            if (null != body) {
+                out.write(body);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException ioex) {
+            throw new IllegalStateException("Failed to encode the response for " + key, ioex);
+        }
+    }
+
+    /**
+     * Read back a response written by {@link #encode()}.
+     *
+     * @throws IOException
+     *             if the bytes are not an encoded response
+     */
+    static CachedResponse decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String key = readKey(in);
+        long storedAt = in.readLong();
+        int statusCode = in.readInt();
+        String statusMessage = in.readUTF();
+
+        int count = in.readInt();
+        Headers headers = new Headers(count);
+        for (int i = 0; i < count; i++) {
+            headers.add(in.readUTF(), in.readUTF());
+        }
+
+        int length = in.readInt();
+        byte[] body = null;
+        if (length >= 0) {
+            body = new byte[length];
+            in.readFully(body);
+        }
+        return new CachedResponse(key, storedAt, statusCode, statusMessage, headers, body);
+    }
+
+    /**
+     * Read the key from the start of an encoded response.
+     *
+     * @throws IOException
+     *             if the stream does not hold an encoded response
+     */
+    static String readKey(DataInputStream in) throws IOException {
+        byte format = in.readByte();
+        if (FORMAT != format) {
+            throw new IOException("Unknown cache entry format: " + format);
+        }
+        return in.readUTF();
+    }
+
+    private static long getFreshnessLifetime(Headers headers, long storedAt) {
+        CacheControl cc = headers.getCacheControl();
+        if (cc.getMaxAge() >= 0) {
+            return 1000 * cc.getMaxAge();
+        }
+
+        String expires = headers.getFirst(Headers.EXPIRES);
+        if (null != expires) {
+            Date expiry = DateUtils.parseDate(expires);
+            String date = headers.getFirst(Headers.DATE);
+            Date generated = (null == date) ? null : DateUtils.parseDate(date);
+            if (null != expiry) {
+                long from = (null == generated) ? storedAt : generated.getTime();
+                return Math.max(0, expiry.getTime() - from);
+            }
+        }
+        return 0;
+    }
+
+    private static long seconds(String value) {
+        if (null == value) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException nfex) {
+            return 0;
+        }
+    }
+
+    private static byte[] copyBody(RestResponse response) {
+        if (!response.isSpooled()) {
+            return response.getBody();
+        }
+
+        long length = response.getBodyLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Can't cache a body of " + length + " bytes");
+        }
+
+        byte[] body = new byte[(int) length];
+        try (DataInputStream in = new DataInputStream(response.getBodyStream())) {
+            in.readFully(body);
+        } catch (IOException ioex) {
+            throw new IllegalStateException("Failed to copy the spooled body", ioex);
+        }
+        return body;
+    }
+}
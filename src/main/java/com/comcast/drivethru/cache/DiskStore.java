@@ -0,0 +1,232 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.cache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The disk tier of a {@link ResponseCache}: one file per entry, named by a hash of its key, kept
+ * under a total size by evicting the least recently used files. Opening a directory indexes the
+ * files already in it, oldest first, so entries survive a restart.
+ */
+class DiskStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskStore.class);
+
+    private static final String SUFFIX = ".entry";
+
+    private final Path directory;
+    private final long capacity;
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long used = 0;
+
+    /**
+     * Open the store in the given directory, creating the directory if needed and indexing any
+     * entries already in it. Files that can't be read are deleted.
+     */
+    DiskStore(Path directory, long capacity) throws IOException {
+        this.directory = directory;
+        this.capacity = capacity;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * Read the entry stored under the given key.
+     *
+     * @return the entry or <code>null</code> if there is none
+     */
+    synchronized byte[] read(String key) {
+        if (null == index.get(key)) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(file(key));
+        } catch (IOException ioex) {
+            LOGGER.warn("Failed to read the cached response for " + key, ioex);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Write the entry for the given key, replacing any earlier entry, then evict the least
+     * recently used entries until the store fits its capacity again.
+     *
+     * @return the number of entries evicted
+     */
+    synchronized int write(String key, byte[] entry) throws IOException {
+        if (entry.length > capacity) {
+            remove(key);
+            return 0;
+        }
+
+        /* Write beside the final file and move it into place, so a crash never leaves half an entry */
+        Path file = file(key);
+        Path temp = Files.createTempFile(directory, "write-", ".tmp");
+        try {
+            Files.write(temp, entry);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        Long previous = index.put(key, (long) entry.length);
+        used += entry.length - ((null == previous) ? 0 : previous);
+
+        int evicted = 0;
+        Iterator<Map.Entry<String, Long>> eldest = index.entrySet().iterator();
+        while ((used > capacity) && eldest.hasNext()) {
+            Map.Entry<String, Long> next = eldest.next();
+            if (!next.getKey().equals(key)) {
+                eldest.remove();
+                used -= next.getValue();
+                delete(file(next.getKey()));
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Remove the entry for the given key.
+     *
+     * @return <code>true</code> if there was an entry
+     */
+    synchronized boolean remove(String key) {
+        Long length = index.remove(key);
+        if (null == length) {
+            return false;
+        }
+        used -= length;
+        delete(file(key));
+        return true;
+    }
+
+    /**
+     * Remove every entry.
+     */
+    synchronized void clear() {
+        for (String key : new ArrayList<>(index.keySet())) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Get the number of entries.
+     */
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Get the number of bytes used by entries.
+     */
+    synchronized long getUsed() {
+        return used;
+    }
+
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    files.add(file);
+                } else if (name.endsWith(".tmp")) {
+                    delete(file);
+                }
+            }
+        }
+
+        /* Index the oldest files first so the most recently written are evicted last */
+        final Map<Path, Long> modified = new LinkedHashMap<>();
+        for (Path file : files) {
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        Collections.sort(files, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Long.compare(modified.get(a), modified.get(b));
+            }
+        });
+
+        for (Path file : files) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                String key = CachedResponse.readKey(new DataInputStream(in));
+                if (!file.equals(file(key))) {
+                    throw new IOException("Entry for " + key + " is in the wrong file");
+                }
+                long length = Files.size(file);
+                index.put(key, length);
+                used += length;
+            } catch (IOException ioex) {
+                LOGGER.warn("Discarding unreadable cache entry " + file, ioex);
+                delete(file);
+            }
+        }
+
+        /* The capacity may have shrunk since the entries were written */
+        Iterator<String> eldest = new ArrayList<>(index.keySet()).iterator();
+        while ((used > capacity) && eldest.hasNext()) {
+            remove(eldest.next());
+        }
+    }
+
+    private Path file(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return directory.resolve(name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException nsaex) {
+            throw new IllegalStateException("SHA-1 is not available", nsaex);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.delete(file);
+        } catch (NoSuchFileException nsfex) {
+            /* Already gone */
+        } catch (IOException ioex) {
+            LOGGER.warn("Failed to delete cache entry " + file, ioex);
+        }
+    }
+}
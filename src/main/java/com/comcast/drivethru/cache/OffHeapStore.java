@@ -0,0 +1,121 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed region of direct memory carved into equal blocks. Each value occupies as many blocks as
+ * it needs, wherever they are free, so the region never fragments and its size never changes.
+ * This class is not thread-safe; the {@link ResponseCache} guards it with its own lock.
+ */
+class OffHeapStore {
+
+    private final ByteBuffer memory;
+    private final int blockSize;
+    private final int[] free;
+    private int freeCount;
+
+    /**
+     * Allocate a region of at most <code>capacity</code> bytes divided into blocks of
+     * <code>blockSize</code> bytes.
+     */
+    OffHeapStore(long capacity, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        int blocks = (int) Math.min(Integer.MAX_VALUE / blockSize, Math.max(0, capacity) / blockSize);
+        this.memory = ByteBuffer.allocateDirect(blocks * blockSize);
+        this.blockSize = blockSize;
+        this.free = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            free[i] = blocks - 1 - i;
+        }
+        this.freeCount = blocks;
+    }
+
+    /**
+     * Returns <code>true</code> if a value of the given length could ever fit.
+     */
+    boolean fits(int length) {
+        return blocksFor(length) <= free.length;
+    }
+
+    /**
+     * Copy the given value into free blocks.
+     *
+     * @return the blocks holding the value or <code>null</code> if there aren't enough free
+     */
+    int[] store(byte[] value) {
+        int count = blocksFor(value.length);
+        if (count > freeCount) {
+            return null;
+        }
+
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = free[--freeCount];
+            ByteBuffer block = block(blocks[i]);
+            block.put(value, i * blockSize, Math.min(blockSize, value.length - i * blockSize));
+        }
+        return blocks;
+    }
+
+    /**
+     * Copy a value of the given length out of the given blocks.
+     */
+    byte[] read(int[] blocks, int length) {
+        byte[] value = new byte[length];
+        for (int i = 0; i < blocks.length; i++) {
+            block(blocks[i]).get(value, i * blockSize, Math.min(blockSize, length - i * blockSize));
+        }
+        return value;
+    }
+
+    /**
+     * Return the given blocks to the free list.
+     */
+    void release(int[] blocks) {
+        for (int block : blocks) {
+            free[freeCount++] = block;
+        }
+    }
+
+    /**
+     * Get the number of bytes in blocks that are in use.
+     */
+    long getUsed() {
+        return (long) (free.length - freeCount) * blockSize;
+    }
+
+    /**
+     * Get the size of the region in bytes.
+     */
+    long getCapacity() {
+        return (long) free.length * blockSize;
+    }
+
+    private int blocksFor(int length) {
+        return Math.max(1, (length + blockSize - 1) / blockSize);
+    }
+
+    private ByteBuffer block(int index) {
+        ByteBuffer block = memory.duplicate();
+        block.position(index * blockSize);
+        block.limit(index * blockSize + blockSize);
+        return block;
+    }
+}
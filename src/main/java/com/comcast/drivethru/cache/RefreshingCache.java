@@ -0,0 +1,536 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.transform.JsonTransformer;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.Headers.CacheControl;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+
+/**
+ * A cache of read-mostly resources (configuration, lookup tables and other reference data) that
+ * holds each resource as the object it was read into, keyed by URL, and keeps it current in the
+ * background so that reads almost never wait for the network.
+ * <ul>
+ * <li>Once most of an entry's time to live has passed, the next read schedules a refresh in the
+ * background and is answered from the cache.</li>
+ * <li>For the <code>stale-while-revalidate</code> window after it expires, an entry is still
+ * served while a background refresh runs.</li>
+ * <li>If a resource can't be loaded, an expired entry is served for the
+ * <code>stale-if-error</code> window rather than failing the read.</li>
+ * <li>A 404 is remembered for the negative time to live, so missing resources don't cost a
+ * request on every read.</li>
+ * </ul>
+ * The time to live and both windows are taken from the <code>Cache-Control</code> header of each
+ * response when it sets them, and from the defaults of this cache otherwise. Refreshes send the
+ * entry's <code>ETag</code>, so a <code>304 Not Modified</code> keeps the object without reading
+ * it again. Concurrent reads of a resource that isn't cached share a single request.
+ *
+ * <pre>
+ * RefreshingCache&lt;Channel&gt; channels = new RefreshingCache&lt;&gt;(client, Channel.class);
+ * Channel channel = channels.get(new URL().setPath("/channels/" + id));
+ * </pre>
+ *
+ * @param <T>
+ *            the type the resources are read into
+ */
+public class RefreshingCache<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RefreshingCache.class);
+
+    /** The default time to live of an entry: 60 seconds */
+    public static final long DEFAULT_TTL = TimeUnit.SECONDS.toMillis(60);
+
+    /** The default time an expired entry is served while it is refreshed: 60 seconds */
+    public static final long DEFAULT_STALE_WHILE_REVALIDATE = TimeUnit.SECONDS.toMillis(60);
+
+    /** The default time an expired entry is served if it can't be refreshed: 10 minutes */
+    public static final long DEFAULT_STALE_IF_ERROR = TimeUnit.MINUTES.toMillis(10);
+
+    /** The default time a 404 is remembered: 10 seconds */
+    public static final long DEFAULT_NEGATIVE_TTL = TimeUnit.SECONDS.toMillis(10);
+
+    /** The fraction of the time to live after which a used entry is refreshed in the background */
+    private static final double REFRESH_AHEAD = 0.75;
+
+    private static ExecutorService refresher;
+
+    private final RestClient client;
+    private final Class<T> type;
+    private final Transformer transformer;
+    private final ConcurrentMap<String, Entry<T>> cache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, FutureTask<Entry<T>>> loading = new ConcurrentHashMap<>();
+
+    private long ttl = DEFAULT_TTL;
+    private long staleWhileRevalidate = DEFAULT_STALE_WHILE_REVALIDATE;
+    private long staleIfError = DEFAULT_STALE_IF_ERROR;
+    private long negativeTtl = DEFAULT_NEGATIVE_TTL;
+    private Executor executor = null;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong errorHits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Construct a new {@link RefreshingCache} that reads resources with a {@link JsonTransformer}.
+     *
+     * @param client
+     *            the client resources are loaded through
+     * @param type
+     *            the type resources are read into
+     */
+    public RefreshingCache(RestClient client, Class<T> type) {
+        this(client, type, new JsonTransformer());
+    }
+
+    /**
+     * Construct a new {@link RefreshingCache}.
+     *
+     * @param client
+     *            the client resources are loaded through
+     * @param type
+     *            the type resources are read into
+     * @param transformer
+     *            the transformer resources are read with
+     */
+    public RefreshingCache(RestClient client, Class<T> type, Transformer transformer) {
+        this.client = client;
+        this.type = type;
+        this.transformer = transformer;
+    }
+
+    /**
+     * Set the time to live of entries whose responses don't set a <code>max-age</code>.
+     *
+     * @param ttl
+     *            the time to live
+     * @param unit
+     *            the unit of the time to live
+     */
+    public void setTtl(long ttl, TimeUnit unit) {
+        this.ttl = unit.toMillis(ttl);
+    }
+
+    /**
+     * Set how long an expired entry is served while it is refreshed, for responses that don't set
+     * <code>stale-while-revalidate</code>.
+     *
+     * @param window
+     *            the window
+     * @param unit
+     *            the unit of the window
+     */
+    public void setStaleWhileRevalidate(long window, TimeUnit unit) {
+        this.staleWhileRevalidate = unit.toMillis(window);
+    }
+
+    /**
+     * Set how long an expired entry is served if it can't be refreshed, for responses that don't
+     * set <code>stale-if-error</code>.
+     *
+     * @param window
+     *            the window
+     * @param unit
+     *            the unit of the window
+     */
+    public void setStaleIfError(long window, TimeUnit unit) {
+        this.staleIfError = unit.toMillis(window);
+    }
+
+    /**
+     * Set how long a 404 is remembered.
+     *
+     * @param negativeTtl
+     *            the time to live of a 404 or <code>0</code> to not remember them
+     * @param unit
+     *            the unit of the time to live
+     */
+    public void setNegativeTtl(long negativeTtl, TimeUnit unit) {
+        this.negativeTtl = unit.toMillis(negativeTtl);
+    }
+
+    /**
+     * Set the {@link Executor} that background refreshes run on. By default a small shared pool of
+     * daemon threads is used.
+     *
+     * @param executor
+     *            the executor for background refreshes
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Get the resource at the given path relative to the client's default base URL.
+     *
+     * @param path
+     *            the path of the resource
+     *
+     * @return the resource
+     *
+     * @throws HttpStatusException
+     *             if the resource doesn't exist or couldn't be loaded and has no usable entry
+     * @throws HttpException
+     *             if the resource couldn't be loaded and has no usable entry
+     */
+    public T get(String path) throws HttpException {
+        return get(new URL().setPath(path));
+    }
+
+    /**
+     * Get the resource at the given URL.
+     *
+     * @param url
+     *            the URL of the resource
+     *
+     * @return the resource
+     *
+     * @throws HttpStatusException
+     *             if the resource doesn't exist or couldn't be loaded and has no usable entry
+     * @throws HttpException
+     *             if the resource couldn't be loaded and has no usable entry
+     */
+    public T get(URL url) throws HttpException {
+        String key = url.setDefaultBaseUrl(client.getDefaultBaseUrl()).build();
+        long now = now();
+        Entry<T> entry = cache.get(key);
+
+        if ((null != entry) && (now < entry.expires)) {
+            if (!entry.isNegative()) {
+                hits.incrementAndGet();
+            }
+            if (now >= entry.refreshAt) {
+                refreshInBackground(key, entry);
+            }
+            return entry.get(this);
+        }
+
+        if ((null != entry) && (now < entry.expires + entry.staleWhileRevalidate)) {
+            staleHits.incrementAndGet();
+            refreshInBackground(key, entry);
+            return entry.get(this);
+        }
+
+        misses.incrementAndGet();
+        try {
+            return load(key, entry).get(this);
+        } catch (HttpException hex) {
+            boolean notFound = (hex instanceof HttpStatusException)
+                    && (HttpStatus.SC_NOT_FOUND == ((HttpStatusException) hex).getStatusCode());
+            if (!notFound && (null != entry) && !entry.isNegative() && (now < entry.expires + entry.staleIfError)) {
+                LOGGER.warn("Failed to load " + key + ", serving the cached copy", hex);
+                errorHits.incrementAndGet();
+                return entry.value;
+            }
+            throw hex;
+        }
+    }
+
+    /**
+     * Remove the resource at the given URL from the cache, or every resource if <code>url</code>
+     * is <code>null</code>.
+     *
+     * @param url
+     *            the absolute URL of the resource to forget
+     */
+    public void invalidate(String url) {
+        if (null == url) {
+            cache.clear();
+        } else {
+            cache.remove(url);
+        }
+    }
+
+    /**
+     * Get the number of reads answered from an entry that had not expired.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of reads that had to load the resource on the calling thread.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of reads answered from an expired entry while it was refreshed.
+     *
+     * @return the number of stale-while-revalidate reads
+     */
+    public long getStaleCount() {
+        return staleHits.get();
+    }
+
+    /**
+     * Get the number of reads answered from an expired entry because it couldn't be loaded.
+     *
+     * @return the number of stale-if-error reads
+     */
+    public long getErrorCount() {
+        return errorHits.get();
+    }
+
+    /**
+     * Get the number of reads answered with a remembered 404.
+     *
+     * @return the number of negative hits
+     */
+    public long getNegativeHitCount() {
+        return negativeHits.get();
+    }
+
+    /**
+     * Get the number of background refreshes that completed successfully.
+     *
+     * @return the number of background refreshes
+     */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    /**
+     * Get the number of background refreshes that failed.
+     *
+     * @return the number of failed refreshes
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * The current time in milliseconds. Overridden by tests to control expiry.
+     *
+     * @return the current time in milliseconds
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Load the resource for the given key, sharing the request with any other thread loading it
+     * at the same time.
+     */
+    private Entry<T> load(final String key, final Entry<T> previous) throws HttpException {
+        FutureTask<Entry<T>> task = new FutureTask<>(new Callable<Entry<T>>() {
+            @Override
+            public Entry<T> call() throws HttpException {
+                try {
+                    Entry<T> entry = fetch(key, previous);
+                    cache.put(key, entry);
+                    return entry;
+                } finally {
+                    loading.remove(key);
+                }
+            }
+        });
+
+        FutureTask<Entry<T>> existing = loading.putIfAbsent(key, task);
+        if (null == existing) {
+            task.run();
+        } else {
+            task = existing;
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            throw new HttpException("Interrupted while loading " + key, iex);
+        } catch (ExecutionException eex) {
+            Throwable cause = eex.getCause();
+            if (cause instanceof HttpException) {
+                throw (HttpException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new HttpException("Failed to load " + key, cause);
+        }
+    }
+
+    /**
+     * Send the request for the given key, revalidating the previous entry if it has an entity tag.
+     */
+    private Entry<T> fetch(String key, Entry<T> previous) throws HttpException {
+        RestRequest request = new RestRequest(new URL(key), Method.GET);
+        if ((null != previous) && (null != previous.etag)) {
+            request.addHeader(Headers.IF_NONE_MATCH, previous.etag);
+        }
+
+        RestResponse response = client.execute(request);
+        try {
+            long now = now();
+            Headers headers = response.getHeaders();
+            int status = response.getStatusCode();
+
+            if ((HttpStatus.SC_NOT_MODIFIED == status) && (null != previous) && (null != previous.etag)) {
+                String etag = headers.getFirst(Headers.ETAG);
+                return new Entry<>(previous.value, (null == etag) ? previous.etag : etag, headers, now, this);
+            } else if ((HttpStatus.SC_NOT_FOUND == status) && (negativeTtl > 0)) {
+                return new Entry<>(now + negativeTtl);
+            } else if (HttpStatus.SC_OK != status) {
+                throw new HttpStatusException(status, response.getStatusMessage());
+            }
+
+            String mediaType = headers.getMediaType();
+            if ((null == mediaType) || !mediaType.equalsIgnoreCase(transformer.getMime())) {
+                throw new HttpException("Invalid Content Type: " + response.getContentType());
+            }
+            T value = transformer.read(response.getBody(), type);
+            return new Entry<>(value, headers.getFirst(Headers.ETAG), headers, now, this);
+        } finally {
+            response.close();
+        }
+    }
+
+    private void refreshInBackground(final String key, final Entry<T> entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        load(key, entry);
+                        refreshes.incrementAndGet();
+                    } catch (Exception ex) {
+                        failures.incrementAndGet();
+                        LOGGER.warn("Failed to refresh " + key + " in the background", ex);
+
+                        /* Try again on the next use, the entry itself is kept until it is too stale */
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException rex) {
+            entry.refreshing.set(false);
+            LOGGER.warn("Failed to schedule a refresh of " + key, rex);
+        }
+    }
+
+    private Executor getExecutor() {
+        if (null != executor) {
+            return executor;
+        }
+
+        synchronized (RefreshingCache.class) {
+            if (null == refresher) {
+                refresher = Executors.newFixedThreadPool(2, new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "drivethru-refresh-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return refresher;
+        }
+    }
+
+    /**
+     * A loaded resource, or a remembered 404 if it has no value.
+     */
+    private static class Entry<T> {
+
+        private final T value;
+        private final String etag;
+        private final boolean negative;
+        private final long refreshAt;
+        private final long expires;
+        private final long staleWhileRevalidate;
+        private final long staleIfError;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Entry(T value, String etag, Headers headers, long now, RefreshingCache<T> cache) {
+            CacheControl cc = headers.getCacheControl();
+            long ttl = cc.isNoCache() ? 0 : (cc.getMaxAge() >= 0) ? 1000 * cc.getMaxAge() : cache.ttl;
+
+            this.value = value;
+            this.etag = etag;
+            this.negative = false;
+            this.refreshAt = now + (long) (ttl * REFRESH_AHEAD);
+            this.expires = now + ttl;
+            this.staleWhileRevalidate = (cc.getStaleWhileRevalidate() >= 0) ? 1000 * cc.getStaleWhileRevalidate()
+                    : cache.staleWhileRevalidate;
+            this.staleIfError = (cc.getStaleIfError() >= 0) ? 1000 * cc.getStaleIfError() : cache.staleIfError;
+        }
+
+        Entry(long expires) {
+            this.value = null;
+            this.etag = null;
+            this.negative = true;
+            this.refreshAt = expires;
+            this.expires = expires;
+            this.staleWhileRevalidate = 0;
+            this.staleIfError = 0;
+        }
+
+        boolean isNegative() {
+            return negative;
+        }
+
+        /**
+         * Get the value, or fail with a 404 if this entry remembers that there is none.
+         */
+        T get(RefreshingCache<T> cache) throws HttpStatusException {
+            if (negative) {
+                cache.negativeHits.incrementAndGet();
+                throw new HttpStatusException(HttpStatus.SC_NOT_FOUND, "Not Found");
+            }
+            return value;
+        }
+    }
+}
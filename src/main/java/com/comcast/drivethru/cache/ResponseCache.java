@@ -0,0 +1,507 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.utils.RestResponse;
+
+/**
+ * A two-tier cache of responses that keeps large reference data off the Java heap and across
+ * restarts.
+ * <ul>
+ * <li>The memory tier is a fixed region of direct memory divided into blocks. Only a small index
+ * of keys and block numbers lives on the heap, so the heap cost doesn't grow with the size of the
+ * bodies. The least recently used entries are evicted when it is full.</li>
+ * <li>The optional disk tier holds one file per entry in a directory and is written through on
+ * every store, so it holds everything the memory tier does and more. It is indexed again when a
+ * cache is opened on the same directory, and entries read from it are promoted back into memory.
+ * </li>
+ * </ul>
+ * <p>
+ * Install a cache with {@link DefaultRestClient#setResponseCache(ResponseCache)} to have GET
+ * requests served from it while fresh and revalidated with <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code> once stale. Entries reloaded from disk after a restart are
+ * revalidated the same way the first time they are used after going stale, so a restart doesn't
+ * send every request back to the servers in full.
+ * </p>
+ *
+ * <pre>
+ * ResponseCache cache = new ResponseCache.Builder().memory(256 * 1024 * 1024)
+ *         .disk(Paths.get("/var/cache/catalog"), 4L * 1024 * 1024 * 1024).build();
+ * client.setResponseCache(cache);
+ * </pre>
+ */
+public class ResponseCache implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCache.class);
+
+    /** The default size of the memory tier in bytes: 64MB */
+    public static final long DEFAULT_MEMORY = 64 * 1024 * 1024;
+
+    /** The default size of the blocks the memory tier is divided into in bytes */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /** The default size of the disk tier in bytes: 1GB */
+    public static final long DEFAULT_DISK = 1024 * 1024 * 1024;
+
+    /** The default size of the largest response that is cached in bytes: 8MB */
+    public static final long DEFAULT_MAX_ENTRY_SIZE = 8 * 1024 * 1024;
+
+    private final OffHeapStore memory;
+    private final LinkedHashMap<String, Slot> index = new LinkedHashMap<>(16, 0.75f, true);
+    private final DiskStore disk;
+    private final long maxEntrySize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private ResponseCache(Builder builder) throws HttpException {
+        this.memory = new OffHeapStore(builder.memory, builder.blockSize);
+        this.maxEntrySize = builder.maxEntrySize;
+
+        if (null == builder.directory) {
+            this.disk = null;
+        } else {
+            try {
+                this.disk = new DiskStore(builder.directory, builder.disk);
+            } catch (IOException ioex) {
+                throw new HttpException("Failed to open the response cache in " + builder.directory, ioex);
+            }
+        }
+    }
+
+    /**
+     * Get the response cached under the given key, from memory if it is there and otherwise from
+     * disk. The response is returned whether or not it is still fresh.
+     *
+     * @param key
+     *            the key, normally the absolute URL of the request
+     *
+     * @return the cached response or <code>null</code> if there is none
+     */
+    public CachedResponse get(String key) {
+        byte[] entry = null;
+        synchronized (this) {
+            Slot slot = index.get(key);
+            if (null != slot) {
+                entry = memory.read(slot.blocks, slot.length);
+            }
+        }
+
+        if (null != entry) {
+            hits.incrementAndGet();
+        } else if ((null != disk) && (null != (entry = disk.read(key)))) {
+            diskHits.incrementAndGet();
+            storeInMemory(key, entry);
+        } else {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            return CachedResponse.decode(entry);
+        } catch (IOException ioex) {
+            LOGGER.warn("Discarding unreadable cached response for " + key, ioex);
+            remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Store the given response in both tiers, replacing any response already cached under its
+     * key. Responses larger than the largest entry size are not stored.
+     *
+     * @param response
+     *            the response to store
+     *
+     * @return <code>true</code> if the response was stored
+     */
+    public boolean put(CachedResponse response) {
+        byte[] entry = response.encode();
+        if (entry.length > maxEntrySize) {
+            remove(response.getKey());
+            return false;
+        }
+
+        stores.incrementAndGet();
+        storeInMemory(response.getKey(), entry);
+        if (null != disk) {
+            try {
+                diskEvictions.addAndGet(disk.write(response.getKey(), entry));
+            } catch (IOException ioex) {
+                LOGGER.warn("Failed to write the cached response for " + response.getKey() + " to disk", ioex);
+                disk.remove(response.getKey());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Update the cache with the response to a request for the given key, and get the response to
+     * hand back to the caller.
+     * <ul>
+     * <li>A <code>304 Not Modified</code> to a revalidation of <code>cached</code> refreshes the
+     * cached response, which is returned in its place.</li>
+     * <li>A cacheable response is stored, unless its body is larger than the largest entry. That
+     * is checked before the body is read, so a body that was spooled to disk stays there and isn't
+     * pulled onto the heap only to be turned away.</li>
+     * <li>Anything else is returned as is.</li>
+     * </ul>
+     *
+     * @param key
+     *            the key of the request
+     * @param cached
+     *            the response that was revalidated or <code>null</code> if there was none
+     * @param response
+     *            the response received from the server
+     *
+     * @return the response for the caller
+     */
+    public RestResponse update(String key, CachedResponse cached, RestResponse response) {
+        if ((null != cached) && (HttpStatus.SC_NOT_MODIFIED == response.getStatusCode())) {
+            revalidations.incrementAndGet();
+            CachedResponse revalidated = cached.revalidate(response);
+            put(revalidated);
+            response.close();
+            return revalidated.toResponse();
+        }
+
+        if (CachedResponse.isCacheable(response)) {
+            if (response.getBodyLength() > maxEntrySize) {
+                remove(key);
+            } else {
+                put(CachedResponse.of(key, response));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Remove the response cached under the given key from both tiers, or every response if
+     * <code>key</code> is <code>null</code>.
+     *
+     * @param key
+     *            the key to remove
+     */
+    public void remove(String key) {
+        synchronized (this) {
+            if (null == key) {
+                for (Slot slot : index.values()) {
+                    memory.release(slot.blocks);
+                }
+                index.clear();
+            } else {
+                Slot slot = index.remove(key);
+                if (null != slot) {
+                    memory.release(slot.blocks);
+                }
+            }
+        }
+
+        if (null != disk) {
+            if (null == key) {
+                disk.clear();
+            } else {
+                disk.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Get the number of lookups answered from the memory tier.
+     *
+     * @return the number of memory hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups answered from the disk tier.
+     *
+     * @return the number of disk hits
+     */
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /**
+     * Get the number of lookups that found nothing in either tier.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the fraction of lookups answered from either tier.
+     *
+     * @return the hit ratio between <code>0</code> and <code>1</code>
+     */
+    public double getHitRatio() {
+        long found = hits.get() + diskHits.get();
+        long total = found + misses.get();
+        return (0 == total) ? 0 : (double) found / total;
+    }
+
+    /**
+     * Get the number of responses stored.
+     *
+     * @return the number of stores
+     */
+    public long getStoreCount() {
+        return stores.get();
+    }
+
+    /**
+     * Get the number of entries evicted from the memory tier to make room for others. Evicted
+     * entries remain on disk if there is a disk tier.
+     *
+     * @return the number of memory evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the number of entries evicted from the disk tier to make room for others.
+     *
+     * @return the number of disk evictions
+     */
+    public long getDiskEvictionCount() {
+        return diskEvictions.get();
+    }
+
+    /**
+     * Get the number of stale responses that the server confirmed with a
+     * <code>304 Not Modified</code>.
+     *
+     * @return the number of revalidations
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     * Get the number of entries in the memory tier.
+     *
+     * @return the number of entries in memory
+     */
+    public synchronized int getMemoryEntryCount() {
+        return index.size();
+    }
+
+    /**
+     * Get the number of bytes of the memory tier in use, counted in whole blocks.
+     *
+     * @return the memory in use
+     */
+    public synchronized long getMemoryUsed() {
+        return memory.getUsed();
+    }
+
+    /**
+     * Get the size of the memory tier.
+     *
+     * @return the memory capacity in bytes
+     */
+    public long getMemoryCapacity() {
+        return memory.getCapacity();
+    }
+
+    /**
+     * Get the number of entries in the disk tier.
+     *
+     * @return the number of entries on disk or <code>0</code> if there is no disk tier
+     */
+    public int getDiskEntryCount() {
+        return (null == disk) ? 0 : disk.size();
+    }
+
+    /**
+     * Get the number of bytes used by the disk tier.
+     *
+     * @return the disk space in use or <code>0</code> if there is no disk tier
+     */
+    public long getDiskUsed() {
+        return (null == disk) ? 0 : disk.getUsed();
+    }
+
+    /**
+     * Empty the memory tier. The disk tier is left in place for the next cache opened on the same
+     * directory.
+     */
+    @Override
+    public synchronized void close() {
+        for (Slot slot : index.values()) {
+            memory.release(slot.blocks);
+        }
+        index.clear();
+    }
+
+    /**
+     * Copy an entry into the memory tier, evicting the least recently used entries until it fits.
+     */
+    private synchronized void storeInMemory(String key, byte[] entry) {
+        Slot previous = index.remove(key);
+        if (null != previous) {
+            memory.release(previous.blocks);
+        }
+        if (!memory.fits(entry.length)) {
+            return;
+        }
+
+        int[] blocks;
+        Iterator<Map.Entry<String, Slot>> eldest = index.entrySet().iterator();
+        while ((null == (blocks = memory.store(entry))) && eldest.hasNext()) {
+            memory.release(eldest.next().getValue().blocks);
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+        if (null != blocks) {
+            index.put(key, new Slot(blocks, entry.length));
+        }
+    }
+
+    /**
+     * The blocks holding an entry in the memory tier.
+     */
+    private static class Slot {
+
+        private final int[] blocks;
+        private final int length;
+
+        Slot(int[] blocks, int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Builds a {@link ResponseCache}.
+     */
+    public static class Builder {
+
+        private long memory = DEFAULT_MEMORY;
+        private int blockSize = DEFAULT_BLOCK_SIZE;
+        private long maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+        private Path directory = null;
+        private long disk = DEFAULT_DISK;
+
+        /**
+         * Set the size of the memory tier. The memory is allocated up front.
+         *
+         * @param memory
+         *            the size in bytes
+         *
+         * @return <code>this</code>
+         */
+        public Builder memory(long memory) {
+            this.memory = memory;
+            return this;
+        }
+
+        /**
+         * Set the size of the blocks the memory tier is divided into. Each entry wastes less than
+         * one block, so smaller blocks suit smaller responses.
+         *
+         * @param blockSize
+         *            the block size in bytes
+         *
+         * @return <code>this</code>
+         */
+        public Builder blockSize(int blockSize) {
+            if (blockSize <= 0) {
+                throw new IllegalArgumentException("Block size must be positive");
+            }
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * Set the size of the largest response that is cached, including its headers.
+         *
+         * @param maxEntrySize
+         *            the largest entry in bytes
+         *
+         * @return <code>this</code>
+         */
+        public Builder maxEntrySize(long maxEntrySize) {
+            this.maxEntrySize = maxEntrySize;
+            return this;
+        }
+
+        /**
+         * Add a disk tier in the given directory with the default size.
+         *
+         * @param directory
+         *            the directory, which only one cache may use at a time
+         *
+         * @return <code>this</code>
+         */
+        public Builder disk(Path directory) {
+            return disk(directory, DEFAULT_DISK);
+        }
+
+        /**
+         * Add a disk tier in the given directory.
+         *
+         * @param directory
+         *            the directory, which only one cache may use at a time
+         * @param disk
+         *            the size of the disk tier in bytes
+         *
+         * @return <code>this</code>
+         */
+        public Builder disk(Path directory, long disk) {
+            this.directory = directory;
+            this.disk = disk;
+            return this;
+        }
+
+        /**
+         * Build the cache, indexing anything already in the disk tier.
+         *
+         * @return the new cache
+         *
+         * @throws HttpException
+         *             if the disk tier can't be opened
+         */
+        public ResponseCache build() throws HttpException {
+            return new ResponseCache(this);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DnsResolver} that caches the addresses of each host for a fixed time to live and takes
+ * lookups off the request thread wherever it can.
+ * <ul>
+ * <li>Hosts that are used again once most of their time to live has passed are refreshed in the
+ * background, so busy hosts are never resolved on a request thread after the first lookup.</li>
+ * <li>If a host can't be resolved, the last known addresses are served for up to the maximum stale
+ * time rather than failing the request.</li>
+ * <li>Threads that need the same host at once share a single lookup.</li>
+ * <li>Every address of a host is returned, rotated on each call so that new connections are spread
+ * across all of them.</li>
+ * </ul>
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingDnsResolver.class);
+
+    /** The default time to live of a cached lookup: 60 seconds */
+    public static final long DEFAULT_TTL = TimeUnit.SECONDS.toMillis(60);
+
+    /** The default time a lookup may be served past its time to live if it can't be refreshed */
+    public static final long DEFAULT_MAX_STALE = TimeUnit.MINUTES.toMillis(10);
+
+    /** The fraction of the time to live after which a used entry is refreshed in the background */
+    private static final double REFRESH_AHEAD = 0.75;
+
+    private static final CachingDnsResolver DEFAULT = new CachingDnsResolver();
+
+    private static ExecutorService refresher;
+
+    private final DnsResolver delegate;
+    private final long ttl;
+    private final long maxStale;
+    private final ConcurrentMap<String, Entry> cache;
+    private final ConcurrentMap<String, FutureTask<Entry>> resolving = new ConcurrentHashMap<>();
+    private Executor executor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Get the resolver shared by clients that aren't given one explicitly. It uses the system
+     * resolver with the default time to live and maximum stale time.
+     *
+     * @return the shared resolver
+     */
+    public static CachingDnsResolver getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Construct a new {@link CachingDnsResolver} over the system resolver with the default time to
+     * live and maximum stale time.
+     */
+    public CachingDnsResolver() {
+        this(SystemDefaultDnsResolver.INSTANCE);
+    }
+
+    /**
+     * Construct a new {@link CachingDnsResolver} over the given resolver with the default time to
+     * live and maximum stale time.
+     *
+     * @param delegate
+     *            the resolver used to look up hosts
+     */
+    public CachingDnsResolver(DnsResolver delegate) {
+        this(delegate, DEFAULT_TTL, DEFAULT_MAX_STALE);
+    }
+
+    /**
+     * Construct a new {@link CachingDnsResolver}.
+     *
+     * @param delegate
+     *            the resolver used to look up hosts
+     * @param ttl
+     *            how long a lookup is cached in milliseconds
+     * @param maxStale
+     *            how long past its time to live a lookup may be served in milliseconds if the host
+     *            can't be resolved again
+     */
+    public CachingDnsResolver(DnsResolver delegate, long ttl, long maxStale) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("TTL must be positive");
+        }
+        this.delegate = delegate;
+        this.ttl = ttl;
+        this.maxStale = Math.max(0, maxStale);
+        this.cache = new ConcurrentHashMap<>();
+        this.executor = null;
+    }
+
+    /**
+     * Set the {@link Executor} that background refreshes run on. By default a small shared pool of
+     * daemon threads is used.
+     *
+     * @param executor
+     *            the executor for background refreshes
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.conn.DnsResolver#resolve(java.lang.String)
+     */
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = now();
+        Entry entry = cache.get(host);
+
+        if ((null != entry) && (now < entry.expires)) {
+            hits.incrementAndGet();
+            if (now >= entry.refreshAt) {
+                refreshInBackground(host, entry);
+            }
+            return entry.rotate();
+        }
+
+        misses.incrementAndGet();
+        try {
+            return load(host).rotate();
+        } catch (UnknownHostException uhex) {
+            failures.incrementAndGet();
+            if ((null != entry) && (now < entry.expires + maxStale)) {
+                LOGGER.warn("Failed to resolve " + host + ", using stale addresses", uhex);
+                staleHits.incrementAndGet();
+                return entry.rotate();
+            }
+            throw uhex;
+        }
+    }
+
+    /**
+     * Remove a host from the cache, or every host if <code>host</code> is <code>null</code>.
+     *
+     * @param host
+     *            the host to forget
+     */
+    public void invalidate(String host) {
+        if (null == host) {
+            cache.clear();
+        } else {
+            cache.remove(host);
+        }
+    }
+
+    /**
+     * Get the number of lookups answered from a fresh cache entry.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups that had to resolve the host on the calling thread.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of background refreshes that have completed successfully.
+     *
+     * @return the number of background refreshes
+     */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    /**
+     * Get the number of lookups answered with stale addresses because the host couldn't be
+     * resolved.
+     *
+     * @return the number of stale lookups
+     */
+    public long getStaleCount() {
+        return staleHits.get();
+    }
+
+    /**
+     * Get the number of failed lookups, including failed background refreshes.
+     *
+     * @return the number of failed lookups
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * The current time in milliseconds. Overridden by tests to control expiry.
+     *
+     * @return the current time in milliseconds
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Look up the given host, sharing the lookup with any other thread resolving it at the same
+     * time.
+     */
+    private Entry load(final String host) throws UnknownHostException {
+        FutureTask<Entry> task = new FutureTask<>(new Callable<Entry>() {
+            @Override
+            public Entry call() throws UnknownHostException {
+                try {
+                    return lookup(host, now());
+                } finally {
+                    resolving.remove(host);
+                }
+            }
+        });
+
+        FutureTask<Entry> existing = resolving.putIfAbsent(host, task);
+        if (null == existing) {
+            task.run();
+        } else {
+            task = existing;
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            throw unknown(host, iex);
+        } catch (ExecutionException eex) {
+            Throwable cause = eex.getCause();
+            if (cause instanceof UnknownHostException) {
+                throw (UnknownHostException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw unknown(host, cause);
+        }
+    }
+
+    private static UnknownHostException unknown(String host, Throwable cause) {
+        UnknownHostException uhex = new UnknownHostException(host);
+        uhex.initCause(cause);
+        return uhex;
+    }
+
+    private Entry lookup(String host, long now) throws UnknownHostException {
+        InetAddress[] addresses = delegate.resolve(host);
+        if ((null == addresses) || (0 == addresses.length)) {
+            throw new UnknownHostException(host);
+        }
+
+        Entry entry = new Entry(addresses, now + (long) (ttl * REFRESH_AHEAD), now + ttl);
+        cache.put(host, entry);
+        return entry;
+    }
+
+    private void refreshInBackground(final String host, final Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        load(host);
+                        refreshes.incrementAndGet();
+                    } catch (Exception ex) {
+                        failures.incrementAndGet();
+                        LOGGER.warn("Failed to refresh " + host + " in the background", ex);
+
+                        /* Try again on the next use, the entry itself is kept until it goes stale */
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException rex) {
+            entry.refreshing.set(false);
+            LOGGER.warn("Failed to schedule a refresh of " + host, rex);
+        }
+    }
+
+    private Executor getExecutor() {
+        if (null != executor) {
+            return executor;
+        }
+
+        synchronized (CachingDnsResolver.class) {
+            if (null == refresher) {
+                refresher = Executors.newFixedThreadPool(2, new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "drivethru-dns-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return refresher;
+        }
+    }
+
+    /**
+     * A cached lookup.
+     */
+    private static class Entry {
+
+        private final InetAddress[] addresses;
+        private final long refreshAt;
+        private final long expires;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+        private final AtomicInteger next = new AtomicInteger();
+
+        Entry(InetAddress[] addresses, long refreshAt, long expires) {
+            this.addresses = addresses.clone();
+            this.refreshAt = refreshAt;
+            this.expires = expires;
+        }
+
+        /**
+         * Copy the addresses, starting from the next one in turn.
+         */
+        InetAddress[] rotate() {
+            int length = addresses.length;
+            InetAddress[] rotated = new InetAddress[length];
+            int start = (next.getAndIncrement() & Integer.MAX_VALUE) % length;
+            for (int i = 0; i < length; i++) {
+                rotated[i] = addresses[(start + i) % length];
+            }
+            return rotated;
+        }
+    }
+}
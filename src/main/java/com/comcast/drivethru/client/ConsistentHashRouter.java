@@ -0,0 +1,324 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes requests to one of several replicas of a backend by a key, so that requests for the same
+ * entity reach the same replica and find its caches warm.
+ * <p>
+ * Each base URL is placed on a hash ring at a number of virtual nodes, and a key goes to the first
+ * base URL clockwise from the hash of the key. Adding or removing a base URL only moves the keys
+ * between it and its neighbors on the ring; every other key keeps its replica.
+ * </p>
+ * <p>
+ * Load is bounded as described in <i>Consistent Hashing with Bounded Loads</i> (Mirrokni, Thorup
+ * and Zadimoghaddam): no base URL may have more than <code>loadFactor</code> times the average
+ * number of requests in flight. A key whose replica is full moves on clockwise to the next base
+ * URL with room, so a hot key spills over to a neighbor rather than overloading its replica, and
+ * returns as soon as the load drops.
+ * </p>
+ *
+ * <pre>
+ * DefaultRestClient client = new DefaultRestClient("https://profiles.example.com");
+ * client.setRouter(new ConsistentHashRouter("https://profiles-1.example.com", "https://profiles-2.example.com"));
+ *
+ * RestRequest request = new RestRequest("/profiles/" + id, Method.GET);
+ * request.setRoutingKey(id);
+ * client.execute(request);
+ * </pre>
+ */
+public class ConsistentHashRouter {
+
+    /** The default number of points each base URL has on the ring */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    /** The default bound on the load of a base URL, as a multiple of the average load */
+    public static final double DEFAULT_LOAD_FACTOR = 1.25;
+
+    private final int virtualNodes;
+    private final double loadFactor;
+    private volatile Ring ring;
+
+    private final ConcurrentMap<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    /**
+     * Construct a new {@link ConsistentHashRouter} over the given base URLs with the default
+     * number of virtual nodes and load factor.
+     *
+     * @param baseUrls
+     *            the base URLs of the replicas
+     */
+    public ConsistentHashRouter(String... baseUrls) {
+        this(Arrays.asList(baseUrls), DEFAULT_VIRTUAL_NODES, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Construct a new {@link ConsistentHashRouter}.
+     *
+     * @param baseUrls
+     *            the base URLs of the replicas
+     * @param virtualNodes
+     *            the number of points each base URL has on the ring; more points spread keys more
+     *            evenly
+     * @param loadFactor
+     *            the most requests in flight to any base URL as a multiple of the average, at
+     *            least <code>1</code>, or {@link Double#POSITIVE_INFINITY} to not bound load
+     */
+    public ConsistentHashRouter(Collection<String> baseUrls, int virtualNodes, double loadFactor) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Each base URL needs at least one virtual node");
+        }
+        if (loadFactor < 1) {
+            throw new IllegalArgumentException("Load factor must be at least 1");
+        }
+        this.virtualNodes = virtualNodes;
+        this.loadFactor = loadFactor;
+        this.ring = new Ring(new LinkedHashSet<>(baseUrls), virtualNodes);
+    }
+
+    /**
+     * Add a base URL. Only the keys that now hash to it move.
+     *
+     * @param baseUrl
+     *            the base URL to add
+     */
+    public synchronized void add(String baseUrl) {
+        Set<String> members = new LinkedHashSet<>(ring.members);
+        if (members.add(baseUrl)) {
+            ring = new Ring(members, virtualNodes);
+        }
+    }
+
+    /**
+     * Remove a base URL. Only the keys that hashed to it move. Requests already in flight to it
+     * are unaffected.
+     *
+     * @param baseUrl
+     *            the base URL to remove
+     */
+    public synchronized void remove(String baseUrl) {
+        Set<String> members = new LinkedHashSet<>(ring.members);
+        if (members.remove(baseUrl)) {
+            ring = new Ring(members, virtualNodes);
+        }
+    }
+
+    /**
+     * Get the base URLs requests are routed to.
+     *
+     * @return the base URLs
+     */
+    public List<String> getBaseUrls() {
+        return ring.members;
+    }
+
+    /**
+     * Get the base URL a key hashes to, ignoring load.
+     *
+     * @param key
+     *            the routing key
+     *
+     * @return the base URL or <code>null</code> if there are none
+     */
+    public String select(String key) {
+        Ring current = ring;
+        if (current.members.isEmpty()) {
+            return null;
+        }
+        return current.owners[current.indexOf(hash(key))];
+    }
+
+    /**
+     * Choose the base URL for a request with the given key and count the request as in flight to
+     * it until {@link #release(String)} is called. The base URL the key hashes to is chosen unless
+     * it already has its share of the load, in which case the next base URL clockwise with room is.
+     *
+     * @param key
+     *            the routing key
+     *
+     * @return the base URL or <code>null</code> if there are none
+     */
+    public String acquire(String key) {
+        Ring current = ring;
+        int size = current.members.size();
+        if (0 == size) {
+            return null;
+        }
+
+        /* Every base URL may carry its share of the load including this request, rounded up */
+        int total = inFlight.incrementAndGet();
+        long capacity = Double.isInfinite(loadFactor) ? Long.MAX_VALUE
+                : (long) Math.ceil(loadFactor * total / size);
+
+        int start = current.indexOf(hash(key));
+        String first = current.owners[start];
+        String chosen = first;
+        Set<String> tried = new LinkedHashSet<>();
+        for (int i = 0; (tried.size() < size) && (i < current.owners.length); i++) {
+            String candidate = current.owners[(start + i) % current.owners.length];
+            if (tried.add(candidate) && (load(candidate).get() < capacity)) {
+                chosen = candidate;
+                break;
+            }
+        }
+
+        load(chosen).incrementAndGet();
+        routed.incrementAndGet();
+        if (!chosen.equals(first)) {
+            spilled.incrementAndGet();
+        }
+        return chosen;
+    }
+
+    /**
+     * Count a request acquired for the given base URL as no longer in flight.
+     *
+     * @param baseUrl
+     *            the base URL returned by {@link #acquire(String)}
+     */
+    public void release(String baseUrl) {
+        AtomicInteger load = loads.get(baseUrl);
+        if (null != load) {
+            load.decrementAndGet();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get the number of requests in flight to the given base URL.
+     *
+     * @param baseUrl
+     *            the base URL
+     *
+     * @return the number of requests in flight
+     */
+    public int getLoad(String baseUrl) {
+        AtomicInteger load = loads.get(baseUrl);
+        return (null == load) ? 0 : load.get();
+    }
+
+    /**
+     * Get the number of requests routed.
+     *
+     * @return the number of routed requests
+     */
+    public long getRoutedCount() {
+        return routed.get();
+    }
+
+    /**
+     * Get the number of requests sent somewhere other than the base URL their key hashes to
+     * because it was at its load bound.
+     *
+     * @return the number of spilled requests
+     */
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    private AtomicInteger load(String baseUrl) {
+        AtomicInteger load = loads.get(baseUrl);
+        if (null == load) {
+            load = new AtomicInteger();
+            AtomicInteger existing = loads.putIfAbsent(baseUrl, load);
+            if (null != existing) {
+                load = existing;
+            }
+        }
+        return load;
+    }
+
+    /**
+     * A 64-bit hash of the given string: FNV-1a over its characters, finished with the MurmurHash3
+     * mix so that similar keys land far apart on the ring.
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * An immutable hash ring: the sorted points of every virtual node and the base URL owning each.
+     */
+    private static class Ring {
+
+        private final List<String> members;
+        private final long[] points;
+        private final String[] owners;
+
+        Ring(Set<String> members, int virtualNodes) {
+            this.members = Collections.unmodifiableList(new ArrayList<>(members));
+
+            List<long[]> nodes = new ArrayList<>(members.size() * virtualNodes);
+            List<String> names = new ArrayList<>(this.members);
+            for (int m = 0; m < names.size(); m++) {
+                for (int v = 0; v < virtualNodes; v++) {
+                    nodes.add(new long[] { hash(names.get(m) + "#" + v), m });
+                }
+            }
+            Collections.sort(nodes, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] a, long[] b) {
+                    int order = Long.compare(a[0], b[0]);
+                    return (0 != order) ? order : Long.compare(a[1], b[1]);
+                }
+            });
+
+            this.points = new long[nodes.size()];
+            this.owners = new String[nodes.size()];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = nodes.get(i)[0];
+                owners[i] = names.get((int) nodes.get(i)[1]);
+            }
+        }
+
+        /**
+         * Get the index of the first point at or after the given hash, wrapping around the ring.
+         */
+        int indexOf(long hash) {
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return (index == points.length) ? 0 : index;
+        }
+    }
+}
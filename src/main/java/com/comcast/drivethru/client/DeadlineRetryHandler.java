@@ -0,0 +1,65 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import java.io.IOException;
+
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A {@link HttpRequestRetryHandler} that never retries a request once its deadline has passed and
+ * otherwise defers to another handler. The deadline is read from the {@link #DEADLINE} attribute
+ * of the execution context, which {@link DefaultRestClient} sets for requests with a deadline.
+ */
+public class DeadlineRetryHandler implements HttpRequestRetryHandler {
+
+    /** The context attribute holding the deadline as a {@link Long} in milliseconds since the epoch */
+    public static final String DEADLINE = "drivethru.deadline";
+
+    private final HttpRequestRetryHandler delegate;
+
+    /**
+     * Construct a new {@link DeadlineRetryHandler} over the default retry handler.
+     */
+    public DeadlineRetryHandler() {
+        this(DefaultHttpRequestRetryHandler.INSTANCE);
+    }
+
+    /**
+     * Construct a new {@link DeadlineRetryHandler}.
+     *
+     * @param delegate
+     *            the handler deciding retries while there is time left
+     */
+    public DeadlineRetryHandler(HttpRequestRetryHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.client.HttpRequestRetryHandler#retryRequest(java.io.IOException, int,
+     * org.apache.http.protocol.HttpContext)
+     */
+    @Override
+    public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+        Object deadline = context.getAttribute(DEADLINE);
+        if ((deadline instanceof Long) && (System.currentTimeMillis() >= (Long) deadline)) {
+            return false;
+        }
+        return delegate.retryRequest(exception, executionCount, context);
+    }
+}
@@ -15,33 +15,71 @@
  */
 package com.comcast.drivethru.client;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpRequestExecutor;
 
 import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.cache.CachedResponse;
+import com.comcast.drivethru.cache.ResponseCache;
+import com.comcast.drivethru.exception.DeadlineExceededException;
 import com.comcast.drivethru.exception.HttpException;
 import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.exception.SlowResponseException;
 import com.comcast.drivethru.security.SecurityProvider;
+import com.comcast.drivethru.stream.CloseableIterator;
+import com.comcast.drivethru.stream.EventStream;
+import com.comcast.drivethru.stream.JsonArrayIterator;
+import com.comcast.drivethru.stream.ResponseStream;
+import com.comcast.drivethru.transfer.Downloader;
 import com.comcast.drivethru.transform.JsonTransformer;
 import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.BufferPool;
+import com.comcast.drivethru.utils.EntityReader;
+import com.comcast.drivethru.utils.Headers;
 import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RequestCompression;
+import com.comcast.drivethru.utils.RequestTemplate;
 import com.comcast.drivethru.utils.RestRequest;
 import com.comcast.drivethru.utils.RestResponse;
 import com.comcast.drivethru.utils.URL;
@@ -54,11 +92,34 @@ import com.comcast.drivethru.utils.URL;
  */
 public class DefaultRestClient implements RestClient {
 
+    /**
+     * The time clients created here wait for <code>100 Continue</code> before sending a body
+     * anyway, in milliseconds. Servers that don't implement the handshake never answer, so this is
+     * kept short.
+     */
+    public static final int DEFAULT_CONTINUE_TIMEOUT = 1000;
+
     private String defaultBaseUrl;
     private Transformer transformer;
     private HttpClient delegate;
+    private HttpClientConnectionManager connectionManager;
     private SecurityProvider securityProvider;
     private Map<String, String> defaultHeaders;
+    private RequestCompression compression;
+    private Map<String, RequestCompression> compressionRoutes;
+    private EntityReader entityReader;
+    private ReadGuard readGuard;
+    private Downloader downloader;
+    private long expectContinueThreshold;
+    private ResponseCache responseCache;
+    private ConsistentHashRouter router;
+
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong exceeded = new AtomicLong();
+    private final AtomicLong avoided = new AtomicLong();
+
+    /* The most connections reserved for each route, which the pool's total must cover together */
+    private final Map<HttpRoute, Integer> reservations = new HashMap<>();
 
     /**
      * Constructs a new {@link DefaultRestClient} with no <code>defaultBaseUrl</code> that will use
@@ -73,8 +134,33 @@ public class DefaultRestClient implements RestClient {
         this(null);
     }
 
-    private static HttpClient defaultClient() {
-        return HttpClientBuilder.create().setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(DEFAULT_TIMEOUT).build()).build();
+    /**
+     * Create the {@link HttpClient} used by the constructors that don't take one: a pooled client
+     * with a default timeout of 10 seconds ({@link RestClient#DEFAULT_TIMEOUT}) that looks up
+     * hosts with the given {@link DnsResolver} and shares TLS sessions through
+     * {@link TlsContexts#getDefault()}. Those constructors use the shared
+     * {@link CachingDnsResolver#getDefault()}. Requests sent with <code>Expect: 100-continue</code>
+     * wait up to {@link #DEFAULT_CONTINUE_TIMEOUT} before sending their body.
+     *
+     * @param resolver
+     *            the resolver used to look up hosts
+     *
+     * @return a new HTTP client
+     */
+    public static HttpClient createDefaultClient(DnsResolver resolver) {
+        return HttpClientBuilder.create().setConnectionManager(createConnectionManager(resolver))
+                .setRequestExecutor(new HttpRequestExecutor(DEFAULT_CONTINUE_TIMEOUT))
+                .setRetryHandler(new DeadlineRetryHandler()).build();
+    }
+
+    private static PoolingHttpClientConnectionManager createConnectionManager(DnsResolver resolver) {
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory> create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", TlsContexts.getDefault()).build(),
+                resolver);
+        manager.setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(DEFAULT_TIMEOUT).build());
+        return manager;
     }
 
     /**
@@ -100,7 +186,11 @@ public class DefaultRestClient implements RestClient {
      *            the transformer for handling serialization of HTTP body contents
      */
     public DefaultRestClient(String defaultBaseUrl, Transformer transformer) {
-        this(defaultBaseUrl, transformer, defaultClient());
+        this(defaultBaseUrl, transformer, (HttpClient) null);
+        this.connectionManager = createConnectionManager(CachingDnsResolver.getDefault());
+        this.delegate = HttpClientBuilder.create().setConnectionManager(connectionManager)
+                .setRequestExecutor(new HttpRequestExecutor(DEFAULT_CONTINUE_TIMEOUT))
+                .setRetryHandler(new DeadlineRetryHandler()).build();
     }
 
     /**
@@ -132,8 +222,17 @@ public class DefaultRestClient implements RestClient {
         this.defaultBaseUrl = defaultBaseUrl;
         this.transformer = transformer;
         this.delegate = delegate;
+        this.connectionManager = null;
         this.securityProvider = null;
         this.defaultHeaders = new HashMap<>();
+        this.compression = null;
+        this.compressionRoutes = new HashMap<>();
+        this.entityReader = new EntityReader();
+        this.readGuard = null;
+        this.downloader = new Downloader(this);
+        this.expectContinueThreshold = -1;
+        this.responseCache = null;
+        this.router = null;
     }
 
     /*
@@ -177,6 +276,378 @@ public class DefaultRestClient implements RestClient {
         this.transformer = transformer;
     }
 
+    /**
+     * Set the connection manager used by the {@link HttpClient} given to this client so that
+     * {@link #warmUp(WarmUp)} can open connections ahead of time. Clients created with a default
+     * {@link HttpClient} already know their connection manager.
+     *
+     * @param connectionManager
+     *            the connection manager of the delegate {@link HttpClient}
+     */
+    public void setConnectionManager(HttpClientConnectionManager connectionManager) {
+        synchronized (reservations) {
+            this.connectionManager = connectionManager;
+            reservations.clear();
+        }
+    }
+
+    /**
+     * Warm this client up before it takes real traffic. Pooled connections are opened to the
+     * default base URL and every base URL of the warm-up, the health request is sent if there is
+     * one, and each sample is round-tripped through the transformer. Connections are only opened
+     * when the connection manager is known (see {@link #setConnectionManager}).
+     *
+     * @param warmUp
+     *            what to warm up
+     *
+     * @return the number of new connections that were opened
+     *
+     * @throws HttpException
+     *             if a connection can't be opened, the health request fails or a sample can't be
+     *             transformed
+     */
+    public int warmUp(WarmUp warmUp) throws HttpException {
+        int opened = 0;
+        if ((null != connectionManager) && (warmUp.getConnections() > 0)) {
+            List<String> baseUrls = new ArrayList<>();
+            if (null != defaultBaseUrl) {
+                baseUrls.add(defaultBaseUrl);
+            }
+            baseUrls.addAll(warmUp.getBaseUrls());
+
+            for (String baseUrl : baseUrls) {
+                opened += openConnections(baseUrl, warmUp.getConnections(), warmUp.getTimeout());
+            }
+        }
+
+        if (null != warmUp.getHealthPath()) {
+            RestResponse response = execute(new RestRequest(warmUp.getHealthPath(), Method.GET));
+            try {
+                if ((response.getStatusCode() / 100) != 2) {
+                    throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+                }
+            } finally {
+                response.close();
+            }
+        }
+
+        for (Object sample : warmUp.getSamples()) {
+            for (int i = 0; i < warmUp.getIterations(); i++) {
+                transformer.read(transformer.write(sample), sample.getClass());
+            }
+        }
+
+        return opened;
+    }
+
+    /**
+     * Copy the given configuration with every timeout limited to the time left before a deadline.
+     */
+    private static RequestConfig clamp(RequestConfig config, long remaining) {
+        int limit = (int) Math.min(remaining, Integer.MAX_VALUE);
+        return RequestConfig.copy(config)
+                .setConnectionRequestTimeout(clamp(config.getConnectionRequestTimeout(), limit))
+                .setConnectTimeout(clamp(config.getConnectTimeout(), limit))
+                .setSocketTimeout(clamp(config.getSocketTimeout(), limit)).build();
+    }
+
+    private static int clamp(int timeout, int limit) {
+        return ((timeout <= 0) || (timeout > limit)) ? limit : timeout;
+    }
+
+    /**
+     * Get the number of requests that were not sent because their deadline had already passed.
+     *
+     * @return the number of shed requests
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    /**
+     * Get the number of requests that were aborted because their deadline passed while they were
+     * in flight.
+     *
+     * @return the number of requests that exceeded their deadline
+     */
+    public long getDeadlineExceededCount() {
+        return exceeded.get();
+    }
+
+    /**
+     * Send request bodies of at least the given size with <code>Expect: 100-continue</code>, so
+     * that a server which is going to reject the request (for instance with a 401, 413 or 429) can
+     * say so before the body is sent. Bodies of unknown length are always sent this way once a
+     * threshold is set. If the server doesn't answer within the client's wait timeout
+     * ({@link #DEFAULT_CONTINUE_TIMEOUT} for clients created here) the body is sent anyway, and a
+     * server that refuses the expectation with a 417 gets the request again without it.
+     * <p>
+     * This is off by default because every request it applies to waits for an extra round trip.
+     * </p>
+     *
+     * @param threshold
+     *            the smallest body size in bytes to send this way or <code>-1</code> to turn it off
+     */
+    public void setExpectContinueThreshold(long threshold) {
+        this.expectContinueThreshold = threshold;
+    }
+
+    /**
+     * Get the smallest request body that is sent with <code>Expect: 100-continue</code>.
+     *
+     * @return the threshold in bytes or <code>-1</code> if it is turned off
+     */
+    public long getExpectContinueThreshold() {
+        return expectContinueThreshold;
+    }
+
+    /**
+     * Get the number of request bodies that were never sent because the server answered the
+     * <code>Expect: 100-continue</code> handshake with a final response.
+     *
+     * @return the number of avoided uploads
+     */
+    public long getAvoidedUploadCount() {
+        return avoided.get();
+    }
+
+    /**
+     * Returns <code>true</code> if a body of the given length should wait for
+     * <code>100 Continue</code> before it is sent.
+     */
+    private boolean shouldExpectContinue(long length) {
+        return (expectContinueThreshold >= 0) && ((length < 0) || (length >= expectContinueThreshold));
+    }
+
+    /**
+     * Lease <code>count</code> connections for the route to the given base URL at once, opening
+     * any that aren't already open, then return them all to the pool.
+     */
+    private int openConnections(String baseUrl, int count, int timeout) throws HttpException {
+        HttpRoute route = getRoute(baseUrl);
+        reserve(route, count);
+
+        int opened = 0;
+        HttpClientContext context = HttpClientContext.create();
+        List<HttpClientConnection> leased = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                ConnectionRequest request = connectionManager.requestConnection(route, null);
+                HttpClientConnection connection = request.get(timeout, TimeUnit.MILLISECONDS);
+                leased.add(connection);
+
+                if (!connection.isOpen()) {
+                    connectionManager.connect(connection, route, timeout, context);
+                    connectionManager.routeComplete(connection, route, context);
+                    opened++;
+                }
+            }
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            throw new HttpException("Interrupted while opening connections to " + baseUrl, iex);
+        } catch (ExecutionException | IOException ex) {
+            throw new HttpException("Failed to open connections to " + baseUrl, ex);
+        } finally {
+            for (HttpClientConnection connection : leased) {
+                connectionManager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * Build the same route to the host of the given URL that the client's route planner will, so
+     * that connections opened or reserved for it get used.
+     */
+    private static HttpRoute getRoute(String url) throws HttpException {
+        HttpHost host;
+        try {
+            host = URIUtils.extractHost(new URI(url));
+        } catch (URISyntaxException usex) {
+            throw new HttpException("Invalid URL: " + url, usex);
+        }
+        if (null == host) {
+            throw new HttpException("Invalid URL: " + url);
+        }
+
+        boolean secure = "https".equalsIgnoreCase(host.getSchemeName());
+        int port = (host.getPort() > 0) ? host.getPort() : (secure ? 443 : 80);
+        return new HttpRoute(new HttpHost(host.getHostName(), port, host.getSchemeName()), null, secure);
+    }
+
+    /**
+     * Enlarge the connection pool if it can't hold <code>count</code> connections for the given
+     * route alongside the connections reserved for every other route.
+     */
+    private void reserve(HttpRoute route, int count) {
+        synchronized (reservations) {
+            if (connectionManager instanceof PoolingHttpClientConnectionManager) {
+                PoolingHttpClientConnectionManager pool = (PoolingHttpClientConnectionManager) connectionManager;
+                if (pool.getMaxPerRoute(route) < count) {
+                    pool.setMaxPerRoute(route, count);
+                }
+
+                Integer reserved = reservations.get(route);
+                if ((null == reserved) || (reserved < count)) {
+                    reservations.put(route, count);
+                }
+                int total = 0;
+                for (int each : reservations.values()) {
+                    total += each;
+                }
+                if (pool.getMaxTotal() < total) {
+                    pool.setMaxTotal(total);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the {@link EntityReader} used to read response bodies. By default response bodies are
+     * read using the shared heap {@link BufferPool}.
+     *
+     * @param entityReader
+     *            the reader to use for response bodies
+     */
+    public void setEntityReader(EntityReader entityReader) {
+        this.entityReader = entityReader;
+    }
+
+    /**
+     * Get the {@link EntityReader} used to read response bodies, for instance to set the size
+     * above which bodies are spooled to disk or the largest body that will be read.
+     *
+     * @return the reader used for response bodies
+     */
+    public EntityReader getEntityReader() {
+        return entityReader;
+    }
+
+    /**
+     * Set the {@link ReadGuard} that aborts responses which arrive too slowly. A response aborted
+     * by the guard fails with a {@link SlowResponseException}.
+     *
+     * @param readGuard
+     *            the guard to apply to every response or <code>null</code> for none
+     */
+    public void setReadGuard(ReadGuard readGuard) {
+        this.readGuard = readGuard;
+    }
+
+    /**
+     * Get the {@link ReadGuard} applied to every response.
+     *
+     * @return the guard or <code>null</code> if there is none
+     */
+    public ReadGuard getReadGuard() {
+        return readGuard;
+    }
+
+    /**
+     * Set the {@link ResponseCache} that GET requests are served from. Fresh responses are served
+     * without a request, stale ones are revalidated with the server using their
+     * <code>ETag</code> or <code>Last-Modified</code> header, and cacheable responses are stored.
+     * Requests that carry their own conditional or <code>Range</code> headers bypass the cache.
+     * Responses are cached by URL alone, so a cache should not be shared by clients that send
+     * different credentials for the same URL.
+     *
+     * @param responseCache
+     *            the cache or <code>null</code> for none
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Get the {@link ResponseCache} that GET requests are served from.
+     *
+     * @return the cache or <code>null</code> if there is none
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Set the {@link ConsistentHashRouter} that chooses the base URL of requests with a
+     * {@link RestRequest#setRoutingKey(String) routing key}. Routed requests go to the base URL
+     * the router picks wherever they would otherwise use the default base URL; requests without a
+     * key, and URLs that set their own base URL, are unaffected.
+     *
+     * @param router
+     *            the router or <code>null</code> to send every request to the default base URL
+     */
+    public void setRouter(ConsistentHashRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * Get the {@link ConsistentHashRouter} that chooses the base URL of requests with a routing
+     * key.
+     *
+     * @return the router or <code>null</code> if there is none
+     */
+    public ConsistentHashRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Set the compression used for request bodies sent by this client. Individual routes may
+     * override this through {@link #setCompression(String, RequestCompression)} and individual
+     * requests through {@link RestRequest#setCompression(RequestCompression)}.
+     *
+     * @param compression
+     *            the compression to use or <code>null</code> to send bodies uncompressed
+     */
+    public void setCompression(RequestCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Set the compression used for request bodies sent to any URL starting with the given prefix.
+     * When more than one prefix matches, the longest one wins. This allows compression to be
+     * enabled only for the backends that support it.
+     *
+     * @param urlPrefix
+     *            the prefix of the full URL (i.e. <code>http://bulk.example.com/v2/</code>)
+     * @param compression
+     *            the compression to use or <code>null</code> to remove the route
+     */
+    public void setCompression(String urlPrefix, RequestCompression compression) {
+        if (null == compression) {
+            this.compressionRoutes.remove(urlPrefix);
+        } else {
+            this.compressionRoutes.put(urlPrefix, compression);
+        }
+    }
+
+    /**
+     * Determine the compression for the given request, preferring the request itself, then the
+     * longest matching route and finally the client default.
+     *
+     * @param request
+     *            the request being executed
+     * @param url
+     *            the fully built URL of the request
+     *
+     * @return the compression to apply or <code>null</code> for none
+     */
+    private RequestCompression getCompression(RestRequest request, String url) {
+        if (null != request.getCompression()) {
+            return request.getCompression();
+        }
+
+        RequestCompression match = compression;
+        int matchLength = -1;
+        for (Entry<String, RequestCompression> route : compressionRoutes.entrySet()) {
+            String prefix = route.getKey();
+            if ((prefix.length() > matchLength) && url.startsWith(prefix)) {
+                match = route.getValue();
+                matchLength = prefix.length();
+            }
+        }
+        return match;
+    }
+
     /*
      * (non-Javadoc)
      * @see
@@ -185,19 +656,247 @@ public class DefaultRestClient implements RestClient {
      */
     @Override
     public RestResponse execute(RestRequest request) throws HttpException {
+        ResponseCache cache = responseCache;
+        if ((null != cache) && isCacheable(request)) {
+            return execute(request, cache);
+        }
+        return fetch(request);
+    }
+
+    /**
+     * Returns <code>true</code> if the response to the given request may come from the cache.
+     */
+    private static boolean isCacheable(RestRequest request) {
+        if (Method.GET != request.getMethod()) {
+            return false;
+        }
+        if (!request.hasHeaders()) {
+            return true;
+        }
+        Headers headers = request.getAllHeaders();
+        return !headers.contains(Headers.RANGE) && !headers.contains(Headers.IF_NONE_MATCH)
+                && !headers.contains(Headers.IF_MODIFIED_SINCE);
+    }
+
+    /**
+     * Serve the given request from the cache if the cached response is fresh, otherwise send it
+     * (conditionally, if there is a stale response to revalidate) and update the cache.
+     */
+    private RestResponse execute(RestRequest request, ResponseCache cache) throws HttpException {
+        String key = request.getUrl().build(defaultBaseUrl);
+        CachedResponse cached = cache.get(key);
+        if ((null != cached) && cached.isFresh(System.currentTimeMillis())) {
+            return cached.toResponse();
+        }
+
+        if (null == cached) {
+            return cache.update(key, null, fetch(request));
+        }
+
+        /* Ask the server to confirm the stale response rather than send it again */
+        Headers headers = request.getAllHeaders();
+        if (null != cached.getETag()) {
+            headers.set(Headers.IF_NONE_MATCH, cached.getETag());
+        }
+        if (null != cached.getLastModified()) {
+            headers.set(Headers.IF_MODIFIED_SINCE, cached.getLastModified());
+        }
+        try {
+            return cache.update(key, cached, fetch(request));
+        } finally {
+            headers.remove(Headers.IF_NONE_MATCH);
+            headers.remove(Headers.IF_MODIFIED_SINCE);
+        }
+    }
+
+    /**
+     * Send the given request and read the whole response.
+     */
+    private RestResponse fetch(RestRequest request) throws HttpException {
+        Exchange exchange = send(request);
+        try {
+            /* Create our response */
+            RestResponse response = new RestResponse(exchange.response.getStatusLine());
+
+            /* Add all Headers */
+            response.addAll(exchange.response.getAllHeaders());
+
+            /* Add the content */
+            HttpEntity body = exchange.getEntity();
+            if (null != body) {
+                response.setBody(entityReader.read(body));
+            }
+
+            return response;
+        } catch (IOException ioex) {
+            throw exchange.translate(ioex);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.RestClient#open(com.comcast.drivethru.utils.RestRequest)
+     */
+    @Override
+    public ResponseStream open(RestRequest request) throws HttpException {
+        Exchange exchange = send(request);
+        try {
+            HttpEntity body = exchange.getEntity();
+            ResponseStream response = new ResponseStream(exchange.response.getStatusLine(),
+                    (null == body) ? null : body.getContent(), exchange);
+            response.addAll(exchange.response.getAllHeaders());
+            return response;
+        } catch (IOException ioex) {
+            exchange.close();
+            throw exchange.translate(ioex);
+        } catch (RuntimeException ex) {
+            exchange.close();
+            throw ex;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.RestClient#getStream(java.lang.String, java.lang.Class)
+     */
+    @Override
+    public <T> CloseableIterator<T> getStream(String path, Class<T> elementType) throws HttpException {
+        return getStream(new URL().setPath(path), elementType);
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.RestClient#getStream(com.comcast.drivethru.utils.URL, java.lang.Class)
+     */
+    @Override
+    public <T> CloseableIterator<T> getStream(URL url, Class<T> elementType) throws HttpException {
+        ResponseStream response = open(new RestRequest(url, Method.GET));
+        if (response.getStatusCode() != HttpStatus.SC_OK) {
+            response.close();
+            throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+        }
+
+        String contentType = response.getContentType();
+        if ((null == contentType) || !contentType.equals(transformer.getMime())) {
+            response.close();
+            throw new HttpException("Invalid Content Type: " + contentType);
+        }
+        return new JsonArrayIterator<>(response, transformer, elementType);
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.RestClient#subscribe(java.lang.String, java.lang.Class)
+     */
+    @Override
+    public <T> EventStream<T> subscribe(String path, Class<T> type) throws HttpException {
+        return subscribe(new URL().setPath(path), type);
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.RestClient#subscribe(com.comcast.drivethru.utils.URL, java.lang.Class)
+     */
+    @Override
+    public <T> EventStream<T> subscribe(URL url, Class<T> type) throws HttpException {
+        return new EventStream<>(this, url, transformer, type);
+    }
+
+    /**
+     * Get the {@link Downloader} used by {@link #download(URL, Path)}, for instance to change the
+     * number of segments fetched in parallel.
+     *
+     * @return the downloader
+     */
+    public Downloader getDownloader() {
+        return downloader;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.RestClient#download(java.lang.String, java.nio.file.Path)
+     */
+    @Override
+    public long download(String path, Path target) throws HttpException {
+        return download(new URL().setPath(path), target);
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.RestClient#download(com.comcast.drivethru.utils.URL, java.nio.file.Path)
+     */
+    @Override
+    public long download(URL url, Path target) throws HttpException {
+        /* Make room in the pool for every segment, otherwise they just queue for connections */
+        if (downloader.getSegments() > 1) {
+            reserve(getRoute(url.setDefaultBaseUrl(defaultBaseUrl).build()), downloader.getSegments());
+        }
+        return downloader.download(url, target);
+    }
+
+    /**
+     * Build and send the given request, returning as soon as the response headers have arrived.
+     * The returned exchange must be closed once the response has been read.
+     */
+    private Exchange send(RestRequest request) throws HttpException {
+        return send(request, true);
+    }
+
+    /**
+     * Build and send the given request, asking the server to accept the body before it is sent if
+     * <code>expectContinue</code> is allowed and the body is large enough.
+     */
+    private Exchange send(RestRequest request, boolean expectContinue) throws HttpException {
+        /* Routed requests take the router's base URL in place of the default */
+        ConsistentHashRouter routing = router;
+        String routed = null;
+        if ((null != routing) && (null != request.getRoutingKey()) && !request.getUrl().hasBaseUrl()) {
+            routed = routing.acquire(request.getRoutingKey());
+        }
+        if (null == routed) {
+            return send(request, expectContinue, null);
+        }
+
+        /* The request counts against the routed base URL until its exchange is closed */
+        Exchange exchange = null;
+        try {
+            exchange = send(request, expectContinue, routed);
+            exchange.route(routing, routed);
+            return exchange;
+        } finally {
+            if (null == exchange) {
+                routing.release(routed);
+            }
+        }
+    }
+
+    /**
+     * Build and send the given request to the given routed base URL, or the default base URL if
+     * it wasn't routed.
+     */
+    private Exchange send(RestRequest request, boolean expectContinue, String routed) throws HttpException {
         /* Build the URL String */
-        String url = request.getUrl().setDefaultBaseUrl(defaultBaseUrl).build();
+        String url = (null == routed) ? request.getUrl().setDefaultBaseUrl(defaultBaseUrl).build()
+                : request.getUrl().build(routed);
 
         /* Get our Apache RestRequest object */
         Method method = request.getMethod();
         HttpRequestBase req = method.getRequest(url);
-        req.setConfig(request.getConfig());
+
+        /* Shed requests that are already too late, otherwise fit every timeout into the time left */
+        long deadline = request.getDeadline();
+        if (0 != deadline) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                shed.incrementAndGet();
+                throw new DeadlineExceededException("Request to " + url + " was not sent, its deadline passed "
+                        + (-remaining) + "ms ago", false, null);
+            }
+            req.setConfig(clamp(request.getConfig(), remaining));
+        } else {
+            req.setConfig(request.getConfig());
+        }
 
         /* Add the Body */
         byte[] payload = request.getBody();
-        if (null != payload) {
+        HttpEntity entity = (null != payload) ? new ByteArrayEntity(payload) : request.getEntity();
+        if (null != entity) {
             if (req instanceof HttpEntityEnclosingRequest) {
-                HttpEntity entity = new ByteArrayEntity(payload);
                 ((HttpEntityEnclosingRequest) req).setEntity(entity);
             } else {
                 throw new HttpException("Cannot attach a body to a " + method.name() + " request");
@@ -208,53 +907,179 @@ public class DefaultRestClient implements RestClient {
         for (Entry<String, String> pair : defaultHeaders.entrySet()) {
             req.addHeader(pair.getKey(), pair.getValue());
         }
-        for (Entry<String, String> pair : request.getHeaders().entrySet()) {
-            req.addHeader(pair.getKey(), pair.getValue());
+        RequestTemplate<?> template = request.getTemplate();
+        if (null != template) {
+            for (Header header : template.getHeaders()) {
+                req.addHeader(header);
+            }
+        }
+        if (request.hasHeaders()) {
+            Headers headers = request.getAllHeaders();
+            for (int i = 0; i < headers.size(); i++) {
+                req.addHeader(headers.getName(i), headers.getValue(i));
+            }
         }
 
-        /* If there is a security provider, sign */
+        /* If there is a security provider, sign before compressing, since a form body is part of the signature */
         if (null != securityProvider) {
             securityProvider.sign(req);
         }
 
-        /* Closed in the finally block */
-        InputStream in = null;
-        ByteArrayOutputStream baos = null;
+        /* Compress the body and hold it back for the 100-continue handshake */
+        ContinueEntity handshake = null;
+        if (null != entity) {
+            long length = entity.getContentLength();
+            RequestCompression bodyCompression = getCompression(request, url);
+            if ((null != bodyCompression) && bodyCompression.shouldCompress(length)) {
+                entity = bodyCompression.compress(entity);
+            }
+            if (expectContinue && shouldExpectContinue(length)) {
+                entity = handshake = new ContinueEntity(entity);
+                req.setHeader(Headers.EXPECT, "100-continue");
+            }
+            ((HttpEntityEnclosingRequest) req).setEntity(entity);
+        }
 
+        Exchange exchange = new Exchange(req, url, deadline);
         try {
             /* Finally, execute the thing */
-            org.apache.http.HttpResponse resp = delegate.execute(req);
+            if (0 != deadline) {
+                exchange.watchdog = Watchdog.abortAt(req, deadline);
+                HttpClientContext context = HttpClientContext.create();
+                context.setAttribute(DeadlineRetryHandler.DEADLINE, deadline);
+                exchange.response = delegate.execute(req, context);
+            } else {
+                exchange.response = delegate.execute(req);
+            }
+            if (null != handshake) {
+                int status = exchange.response.getStatusLine().getStatusCode();
+                if ((HttpStatus.SC_EXPECTATION_FAILED == status) && entity.isRepeatable()) {
+                    /* The server doesn't do the handshake, send the body straight away instead */
+                    exchange.close();
+                    return send(request, false, routed);
+                }
+                if (!handshake.isWritten()) {
+                    avoided.incrementAndGet();
+                }
+            }
+            if (null != exchange.monitor) {
+                exchange.monitor.responseStarted();
+            }
+            return exchange;
+        } catch (IOException ioex) {
+            exchange.close();
+            throw exchange.translate(ioex);
+        } catch (RuntimeException ex) {
+            // release resources immediately
+            exchange.close();
+            throw ex;
+        }
+    }
 
-            /* Create our response */
-            RestResponse response = new RestResponse(resp.getStatusLine());
+    /**
+     * A request body sent with <code>Expect: 100-continue</code> that records whether it was
+     * written or the server answered before it was needed.
+     */
+    private static class ContinueEntity extends HttpEntityWrapper {
 
-            /* Add all Headers */
-            response.addAll(resp.getAllHeaders());
+        private volatile boolean written = false;
 
-            /* Add the content */
-            HttpEntity body = resp.getEntity();
-            if (null != body) {
-                in = body.getContent();
-                baos = new ByteArrayOutputStream();
-                IOUtils.copy(in, baos);
-                response.setBody(baos.toByteArray());
+        ContinueEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        boolean isWritten() {
+            return written;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            written = true;
+            super.writeTo(out);
+        }
+    }
+
+    /**
+     * A request in flight along with the timers guarding it.
+     */
+    private class Exchange implements Closeable {
+
+        private final HttpRequestBase request;
+        private final String url;
+        private final long deadline;
+        private final ReadGuard.Monitor monitor;
+        private ScheduledFuture<?> watchdog = null;
+        private org.apache.http.HttpResponse response = null;
+        private ConsistentHashRouter routing = null;
+        private String routed = null;
+
+        Exchange(HttpRequestBase request, String url, long deadline) {
+            this.request = request;
+            this.url = url;
+            this.deadline = deadline;
+            this.monitor = (null == readGuard) ? null : readGuard.start(request);
+        }
+
+        /**
+         * Count this exchange against the given routed base URL until it is closed.
+         */
+        void route(ConsistentHashRouter routing, String routed) {
+            this.routing = routing;
+            this.routed = routed;
+        }
+
+        /**
+         * Get the response body, guarded by the read guard if there is one.
+         */
+        HttpEntity getEntity() {
+            HttpEntity body = response.getEntity();
+            return ((null == body) || (null == monitor)) ? body : monitor.wrap(body);
+        }
+
+        /**
+         * Explain why the exchange failed.
+         */
+        HttpException translate(IOException ioex) {
+            if (ioex.getCause() instanceof HttpException) {
+                /* Failures raised while reading the body, such as a body over the maximum size */
+                return (HttpException) ioex.getCause();
+            }
+            if (ioex instanceof HttpResponseException) {
+                return new HttpStatusException(((HttpResponseException) ioex).getStatusCode());
+            }
+            if (ioex instanceof ClientProtocolException) {
+                return new HttpException("HTTP Protocol error occurred.", ioex);
+            }
+            if ((null != monitor) && monitor.isTripped()) {
+                return monitor.getException();
             }
+            if ((0 != deadline) && (System.currentTimeMillis() >= deadline)) {
+                exceeded.incrementAndGet();
+                return new DeadlineExceededException("Request to " + url + " was aborted at its deadline",
+                        true, ioex);
+            }
+            return new HttpException("Error establishing connection.", ioex);
+        }
 
-            return response;
-        } catch (RuntimeException ex) {
-            // release resources immediately
-            req.abort();
-            throw ex;
-        } catch (HttpResponseException hrex) {
-            throw new HttpStatusException(hrex.getStatusCode());
-        } catch (ClientProtocolException cpex) {
-            throw new HttpException("HTTP Protocol error occurred.", cpex);
-        } catch (IOException ioex) {
-            throw new HttpException("Error establishing connection.", ioex);
-        } finally {
-            req.abort();
-            IOUtils.closeQuietly(in);
-            IOUtils.closeQuietly(baos);
+        /**
+         * Stop the timers and release the connection. A response that was read to the end has
+         * already returned its connection to the pool, anything else is dropped.
+         */
+        @Override
+        public void close() {
+            if (null != watchdog) {
+                watchdog.cancel(false);
+            }
+            if (null != monitor) {
+                monitor.close();
+            }
+            request.abort();
+            synchronized (this) {
+                if (null != routed) {
+                    routing.release(routed);
+                    routed = null;
+                }
+            }
         }
     }
 
@@ -278,17 +1103,92 @@ public class DefaultRestClient implements RestClient {
     public <T> T get(URL url, Class<T> type) throws HttpException {
         RestRequest request = new RestRequest(url, Method.GET);
         RestResponse response = execute(request);
-
-        if (response.getStatusCode() != HttpStatus.SC_OK) {
-            throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
-        } else {
-            String contentType = response.getContentType();
-            if ((contentType != null) && contentType.equals(transformer.getMime())) {
-                byte[] body = response.getBody();
-                return transformer.read(body, type);
+        try {
+            if (response.getStatusCode() != HttpStatus.SC_OK) {
+                throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
             } else {
-                throw new HttpException("Invalid Content Type: " + contentType);
+                return read(response, type, transformer);
             }
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Execute the given template with the given values for its path variables and transform the
+     * response as described by the template. This is the fastest way to make repeated calls to the
+     * same endpoint since everything but the path values is prepared once in the template.
+     *
+     * @param template
+     *            the template to execute
+     * @param values
+     *            the values of the template's path variables in order
+     *
+     * @return the Java object that was transformed from the response or <code>null</code> if the
+     *         template ignores the response body
+     *
+     * @throws HttpException
+     *             if an error occurred while making a connection
+     * @throws HttpStatusException
+     *             if the response status code is not accepted by the template
+     */
+    public <T> T execute(RequestTemplate<T> template, Object... values) throws HttpException {
+        return execute(template, template.bind(values));
+    }
+
+    /**
+     * Execute a request that was bound from the given template (and possibly had query
+     * parameters, headers or a body added) and transform the response as described by the
+     * template.
+     *
+     * @param template
+     *            the template the request was bound from
+     * @param request
+     *            the bound request
+     *
+     * @return the Java object that was transformed from the response or <code>null</code> if the
+     *         template ignores the response body
+     *
+     * @throws HttpException
+     *             if an error occurred while making a connection
+     * @throws HttpStatusException
+     *             if the response status code is not accepted by the template
+     */
+    public <T> T execute(RequestTemplate<T> template, RestRequest request) throws HttpException {
+        RestResponse response = execute(request);
+        try {
+            if (!template.accepts(response.getStatusCode())) {
+                throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+            }
+
+            Class<T> type = template.getResponseType();
+            if ((null == type) || type.equals(void.class)
+                    || (response.getStatusCode() == HttpStatus.SC_NO_CONTENT)) {
+                return null;
+            }
+
+            Transformer reader = template.getTransformer();
+            return read(response, type, (null == reader) ? transformer : reader);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Transform the body of the given response if its Content-Type matches the transformer.
+     * Transformers read arrays, so a spooled body is read back onto the heap here.
+     */
+    private static <T> T read(RestResponse response, Class<T> type, Transformer transformer)
+            throws HttpException {
+        String contentType = response.getContentType();
+        if ((contentType != null) && contentType.equals(transformer.getMime())) {
+            if (response.getBodyLength() > Integer.MAX_VALUE) {
+                throw new HttpException("Body of " + response.getBodyLength()
+                        + " bytes is too large to transform, read it with getBodyStream() instead");
+            }
+            return transformer.read(response.getBody(), type);
+        } else {
+            throw new HttpException("Invalid Content Type: " + contentType);
         }
     }
 
@@ -314,14 +1214,18 @@ public class DefaultRestClient implements RestClient {
         request.setBody(transformer.write(t));
 
         RestResponse response = execute(request);
-        switch (response.getStatusCode()) {
-            case HttpStatus.SC_CREATED:
-                return true;
-            case HttpStatus.SC_OK:
-            case HttpStatus.SC_NO_CONTENT:
-                return false;
-            default:
-                throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+        try {
+            switch (response.getStatusCode()) {
+                case HttpStatus.SC_CREATED:
+                    return true;
+                case HttpStatus.SC_OK:
+                case HttpStatus.SC_NO_CONTENT:
+                    return false;
+                default:
+                    throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+            }
+        } finally {
+            response.close();
         }
     }
 
@@ -344,14 +1248,18 @@ public class DefaultRestClient implements RestClient {
         RestRequest request = new RestRequest(url, Method.DELETE);
 
         RestResponse response = execute(request);
-        switch (response.getStatusCode()) {
-            case HttpStatus.SC_OK:
-                return true;
-            case HttpStatus.SC_ACCEPTED:
-            case HttpStatus.SC_NO_CONTENT:
-                return false;
-            default:
-                throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+        try {
+            switch (response.getStatusCode()) {
+                case HttpStatus.SC_OK:
+                    return true;
+                case HttpStatus.SC_ACCEPTED:
+                case HttpStatus.SC_NO_CONTENT:
+                    return false;
+                default:
+                    throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+            }
+        } finally {
+            response.close();
         }
     }
 
@@ -397,28 +1305,25 @@ public class DefaultRestClient implements RestClient {
         }
 
         RestResponse response = execute(request);
-        /* Handle required status codes as per http://www.w3.org/Protocols/rfc2616/rfc2616-sec9.html */
-        switch (response.getStatusCode()) {
-            case HttpStatus.SC_OK:
-            case HttpStatus.SC_CREATED:
-            case HttpStatus.SC_NO_CONTENT:
-                break;
-            default:
-                throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
-        }
-
-        /* Read data if the Content-Type was correct */
-        if (responseType.equals(void.class)) {
-            return null;
-        } else {
-            String contentType = response.getContentType();
-            if ((contentType != null) && contentType.equals(transformer.getMime())) {
+        try {
+            /* Handle required status codes as per http://www.w3.org/Protocols/rfc2616/rfc2616-sec9.html */
+            switch (response.getStatusCode()) {
+                case HttpStatus.SC_OK:
+                case HttpStatus.SC_CREATED:
+                case HttpStatus.SC_NO_CONTENT:
+                    break;
+                default:
+                    throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+            }
 
-                byte[] body = response.getBody();
-                return transformer.read(body, responseType);
+            /* Read data if the Content-Type was correct */
+            if (responseType.equals(void.class)) {
+                return null;
             } else {
-                throw new HttpException("Invalid Content Type: " + contentType);
+                return read(response, responseType, transformer);
             }
+        } finally {
+            response.close();
         }
     }
 
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * An {@link SSLConnectionSocketFactory} that records how long each TLS handshake takes and whether it
+ * resumed an earlier session. A handshake is counted as resumed when it negotiated a session created
+ * before the handshake began. Use {@link TlsContexts} to get a factory that is shared by every
+ * client with the same trust and key configuration.
+ */
+public class MeteredSSLSocketFactory extends SSLConnectionSocketFactory {
+
+    private final SSLContext context;
+
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong fullNanos = new AtomicLong();
+    private final AtomicLong resumedNanos = new AtomicLong();
+
+    /**
+     * Construct a new {@link MeteredSSLSocketFactory} using the default hostname verifier.
+     *
+     * @param context
+     *            the SSL context
+     */
+    public MeteredSSLSocketFactory(SSLContext context) {
+        this(context, getDefaultHostnameVerifier());
+    }
+
+    /**
+     * Construct a new {@link MeteredSSLSocketFactory}.
+     *
+     * @param context
+     *            the SSL context
+     * @param hostnameVerifier
+     *            the hostname verifier
+     */
+    public MeteredSSLSocketFactory(SSLContext context, HostnameVerifier hostnameVerifier) {
+        super(context, hostnameVerifier);
+        this.context = context;
+    }
+
+    /**
+     * Get the SSL context that sockets are created from.
+     *
+     * @return the SSL context
+     */
+    public SSLContext getContext() {
+        return context;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.conn.ssl.SSLConnectionSocketFactory#createLayeredSocket(java.net.Socket,
+     * java.lang.String, int, org.apache.http.protocol.HttpContext)
+     */
+    @Override
+    public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+            throws IOException {
+        /* Session creation times only have millisecond precision, so compare against the wall clock */
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+
+        Socket layered;
+        try {
+            layered = super.createLayeredSocket(socket, target, port, context);
+        } catch (IOException | RuntimeException ex) {
+            failures.incrementAndGet();
+            throw ex;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        handshakes.incrementAndGet();
+
+        SSLSession session = (layered instanceof SSLSocket) ? ((SSLSocket) layered).getSession() : null;
+        if (isResumed(session, startMillis)) {
+            resumed.incrementAndGet();
+            resumedNanos.addAndGet(elapsed);
+        } else {
+            fullNanos.addAndGet(elapsed);
+        }
+        return layered;
+    }
+
+    /**
+     * Returns <code>true</code> if the given session was negotiated before the handshake started.
+     */
+    static boolean isResumed(SSLSession session, long handshakeStart) {
+        return (null != session) && session.isValid() && (session.getCreationTime() < handshakeStart);
+    }
+
+    /**
+     * Get the number of completed handshakes.
+     *
+     * @return the number of handshakes
+     */
+    public long getHandshakeCount() {
+        return handshakes.get();
+    }
+
+    /**
+     * Get the number of completed handshakes that resumed an earlier session.
+     *
+     * @return the number of resumed handshakes
+     */
+    public long getResumedCount() {
+        return resumed.get();
+    }
+
+    /**
+     * Get the number of handshakes that failed.
+     *
+     * @return the number of failed handshakes
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Get the fraction of completed handshakes that resumed an earlier session.
+     *
+     * @return the resumption rate between <code>0</code> and <code>1</code>
+     */
+    public double getResumptionRate() {
+        long total = handshakes.get();
+        return (0 == total) ? 0 : (double) resumed.get() / total;
+    }
+
+    /**
+     * Get the total time spent in full (not resumed) handshakes.
+     *
+     * @param unit
+     *            the unit of the result
+     *
+     * @return the time spent in full handshakes
+     */
+    public long getFullHandshakeTime(TimeUnit unit) {
+        return unit.convert(fullNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the total time spent in resumed handshakes.
+     *
+     * @param unit
+     *            the unit of the result
+     *
+     * @return the time spent in resumed handshakes
+     */
+    public long getResumedHandshakeTime(TimeUnit unit) {
+        return unit.convert(resumedNanos.get(), TimeUnit.NANOSECONDS);
+    }
+}
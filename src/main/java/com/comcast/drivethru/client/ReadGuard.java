@@ -0,0 +1,326 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import com.comcast.drivethru.exception.SlowResponseException;
+
+/**
+ * A <i>ReadGuard</i> aborts responses that arrive too slowly to be worth waiting for. Socket
+ * timeouts only fire when a single read blocks for too long, so a server that trickles a byte
+ * every few seconds can hold a connection (and the calling thread) almost indefinitely. A guard
+ * enforces two limits instead:
+ * <ul>
+ * <li><b>Time to first byte</b> - the time from when the request is executed until the response
+ * headers have arrived.</li>
+ * <li><b>Minimum throughput</b> - the number of body bytes that must arrive per second, measured
+ * over consecutive windows so that a stall part way through the body is caught as well.</li>
+ * </ul>
+ * When either limit is broken the request is aborted, which closes the connection, and the caller
+ * gets a {@link SlowResponseException}. Both limits are checked on the shared {@link Watchdog}
+ * scheduler, so they are enforced even while a read is blocked.
+ */
+public class ReadGuard {
+
+    /** The default window over which the minimum throughput is measured: 2 seconds */
+    public static final long DEFAULT_WINDOW = TimeUnit.SECONDS.toMillis(2);
+
+    private final long timeToFirstByte;
+    private final long minBytesPerSecond;
+    private final long window;
+    private final long interval;
+
+    private final AtomicLong slowStarts = new AtomicLong();
+    private final AtomicLong slowBodies = new AtomicLong();
+
+    /**
+     * Construct a new {@link ReadGuard} that measures throughput over the default window.
+     *
+     * @param timeToFirstByte
+     *            the time allowed for the response headers to arrive in milliseconds or
+     *            <code>0</code> for no limit
+     * @param minBytesPerSecond
+     *            the minimum throughput of the response body or <code>0</code> for no limit
+     */
+    public ReadGuard(long timeToFirstByte, long minBytesPerSecond) {
+        this(timeToFirstByte, minBytesPerSecond, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Construct a new {@link ReadGuard}.
+     *
+     * @param timeToFirstByte
+     *            the time allowed for the response headers to arrive in milliseconds or
+     *            <code>0</code> for no limit
+     * @param minBytesPerSecond
+     *            the minimum throughput of the response body or <code>0</code> for no limit
+     * @param window
+     *            the time over which throughput is measured in milliseconds
+     */
+    public ReadGuard(long timeToFirstByte, long minBytesPerSecond, long window) {
+        if ((timeToFirstByte < 0) || (minBytesPerSecond < 0)) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.timeToFirstByte = timeToFirstByte;
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.window = window;
+
+        /* Check often enough to trip within about a quarter of the tightest limit */
+        long tightest = (0 == timeToFirstByte) ? window : Math.min(timeToFirstByte, window);
+        this.interval = Math.max(10, Math.min(1000, tightest / 4));
+    }
+
+    /**
+     * Get the time allowed for the response headers to arrive.
+     *
+     * @return the time to first byte in milliseconds or <code>0</code> for no limit
+     */
+    public long getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * Get the minimum throughput of the response body.
+     *
+     * @return the minimum bytes per second or <code>0</code> for no limit
+     */
+    public long getMinBytesPerSecond() {
+        return minBytesPerSecond;
+    }
+
+    /**
+     * Get the time over which throughput is measured.
+     *
+     * @return the window in milliseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Get the number of responses aborted because their headers took too long to arrive.
+     *
+     * @return the number of slow starts
+     */
+    public long getSlowStartCount() {
+        return slowStarts.get();
+    }
+
+    /**
+     * Get the number of responses aborted because their body arrived below the minimum throughput.
+     *
+     * @return the number of slow bodies
+     */
+    public long getSlowBodyCount() {
+        return slowBodies.get();
+    }
+
+    /**
+     * Get the number of responses aborted for either reason.
+     *
+     * @return the number of aborted responses
+     */
+    public long getTripCount() {
+        return slowStarts.get() + slowBodies.get();
+    }
+
+    /**
+     * Start guarding the given request. Call this just before the request is executed and close
+     * the returned monitor once the response has been read.
+     *
+     * @param request
+     *            the request to abort if the response is too slow
+     *
+     * @return the monitor for the request
+     */
+    public Monitor start(HttpUriRequest request) {
+        return new Monitor(request);
+    }
+
+    /**
+     * Tracks a single request, from execution until its body has been read.
+     */
+    public class Monitor implements Runnable, Closeable {
+
+        private final HttpUriRequest request;
+        private final long started;
+        private final ScheduledFuture<?> timer;
+
+        private volatile long headersAt = 0;
+        private volatile long windowStart;
+        private final AtomicLong bytes = new AtomicLong();
+        private long windowBytes = 0;
+        private volatile SlowResponseException tripped = null;
+
+        Monitor(HttpUriRequest request) {
+            this.request = request;
+            this.started = System.currentTimeMillis();
+            this.timer = Watchdog.getScheduler().scheduleWithFixedDelay(this, interval, interval,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Record that the response headers have arrived, ending the time to first byte and starting
+         * the first throughput window.
+         */
+        public void responseStarted() {
+            windowStart = System.currentTimeMillis();
+            headersAt = windowStart;
+        }
+
+        /**
+         * Wrap the given response entity so that the bytes read from it are counted and a read
+         * interrupted by this guard fails with the reason it was aborted.
+         *
+         * @param entity
+         *            the response entity
+         *
+         * @return the guarded entity
+         */
+        public HttpEntity wrap(HttpEntity entity) {
+            return new HttpEntityWrapper(entity) {
+                @Override
+                public InputStream getContent() throws IOException {
+                    return new GuardedInputStream(super.getContent());
+                }
+            };
+        }
+
+        /**
+         * Returns <code>true</code> if this guard aborted the request.
+         *
+         * @return <code>true</code> if the response was too slow
+         */
+        public boolean isTripped() {
+            return null != tripped;
+        }
+
+        /**
+         * Get the reason this guard aborted the request.
+         *
+         * @return the exception describing the slow response or <code>null</code> if the request
+         *         was not aborted
+         */
+        public SlowResponseException getException() {
+            return tripped;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            if (null != tripped) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            if (0 == headersAt) {
+                if ((0 != timeToFirstByte) && (now - started >= timeToFirstByte)) {
+                    slowStarts.incrementAndGet();
+                    trip(new SlowResponseException("No response after " + (now - started) + "ms, limit is "
+                            + timeToFirstByte + "ms", 0, now - started));
+                }
+                return;
+            }
+
+            long elapsed = now - windowStart;
+            if ((0 == minBytesPerSecond) || (elapsed < window)) {
+                return;
+            }
+
+            long total = bytes.get();
+            long rate = (total - windowBytes) * 1000 / elapsed;
+            if (rate < minBytesPerSecond) {
+                slowBodies.incrementAndGet();
+                trip(new SlowResponseException("Response body arrived at " + rate + " bytes/s, limit is "
+                        + minBytesPerSecond + " bytes/s", total, now - started));
+            } else {
+                windowBytes = total;
+                windowStart = now;
+            }
+        }
+
+        private void trip(SlowResponseException reason) {
+            tripped = reason;
+            timer.cancel(false);
+            request.abort();
+        }
+
+        /**
+         * Stop guarding the request.
+         */
+        @Override
+        public void close() {
+            timer.cancel(false);
+        }
+
+        /**
+         * Counts bytes as they are read and reports the guard as the cause of a failed read.
+         */
+        private class GuardedInputStream extends FilterInputStream {
+
+            GuardedInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                try {
+                    int b = super.read();
+                    if (b >= 0) {
+                        bytes.incrementAndGet();
+                    }
+                    return b;
+                } catch (IOException ioex) {
+                    throw translate(ioex);
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    int count = super.read(b, off, len);
+                    if (count > 0) {
+                        bytes.addAndGet(count);
+                    }
+                    return count;
+                } catch (IOException ioex) {
+                    throw translate(ioex);
+                }
+            }
+
+            private IOException translate(IOException ioex) {
+                SlowResponseException reason = tripped;
+                return (null == reason) ? ioex : new IOException(reason.getMessage(), reason);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLInitializationException;
+
+/**
+ * Shared TLS configuration for all clients in the JVM.
+ * <p>
+ * TLS sessions can only be resumed by connections created from the same {@link SSLContext}, so
+ * building a new context (or a new {@link SSLConnectionSocketFactory}) for every client means every
+ * connection pays for a full handshake. This class builds a single context per trust and key
+ * configuration, sizes its client session cache, and hands out one
+ * {@link MeteredSSLSocketFactory} per context. Because every factory for the same configuration is
+ * the same instance, its handshake metrics cover every client that uses it.
+ * </p>
+ * <p>
+ * Resumption uses the JVM's session-ID cache. Session tickets are used as well where the JVM supports
+ * and enables them.
+ * </p>
+ * <p>
+ * Factories for the most recently used {@value #MAX_FACTORIES} configurations are kept; an older one
+ * is rebuilt, with an empty session cache, the next time it is asked for. Key passwords are never
+ * kept, only a salted digest of them.
+ * </p>
+ */
+public final class TlsContexts {
+
+    /** The default number of client sessions cached per context */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 2048;
+
+    /** The default lifetime of a cached client session in seconds: 12 hours */
+    public static final int DEFAULT_SESSION_TIMEOUT = (int) TimeUnit.HOURS.toSeconds(12);
+
+    /** The number of configurations whose factories are kept */
+    public static final int MAX_FACTORIES = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Salts the password digests so that they can't be looked up in a precomputed table */
+    private static final byte[] SALT = new byte[16];
+
+    static {
+        new SecureRandom().nextBytes(SALT);
+    }
+
+    private static final Map<Key, MeteredSSLSocketFactory> FACTORIES = Collections
+            .synchronizedMap(new LinkedHashMap<Key, MeteredSSLSocketFactory>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Entry<Key, MeteredSSLSocketFactory> eldest) {
+                    return size() > MAX_FACTORIES;
+                }
+            });
+
+    private static MeteredSSLSocketFactory defaultFactory;
+
+    private TlsContexts() {}
+
+    /**
+     * Get the shared socket factory that trusts the JVM's default trust store and presents no
+     * client certificate.
+     *
+     * @return the shared default socket factory
+     *
+     * @throws SSLInitializationException
+     *             if the default context can't be created
+     */
+    public static synchronized MeteredSSLSocketFactory getDefault() {
+        if (null == defaultFactory) {
+            try {
+                defaultFactory = new MeteredSSLSocketFactory(createContext(null, null, null));
+            } catch (GeneralSecurityException gsex) {
+                throw new SSLInitializationException("Failed to create the default SSL context", gsex);
+            }
+        }
+        return defaultFactory;
+    }
+
+    /**
+     * Get the shared socket factory for the given trust and key material. Key stores are compared by
+     * identity, so the same {@link KeyStore} instances must be passed to share a factory.
+     *
+     * @param trustStore
+     *            the certificates to trust or <code>null</code> for the JVM default
+     * @param keyStore
+     *            the client certificate and key or <code>null</code> for none
+     * @param keyPassword
+     *            the password of the key or <code>null</code>
+     *
+     * @return the shared socket factory for the configuration
+     *
+     * @throws GeneralSecurityException
+     *             if the context can't be created from the given material
+     */
+    public static MeteredSSLSocketFactory getSocketFactory(KeyStore trustStore, KeyStore keyStore,
+            char[] keyPassword) throws GeneralSecurityException {
+        if ((null == trustStore) && (null == keyStore)) {
+            return getDefault();
+        }
+
+        Key key = new Key(trustStore, keyStore, digest(keyPassword));
+        synchronized (FACTORIES) {
+            MeteredSSLSocketFactory factory = FACTORIES.get(key);
+            if (null == factory) {
+                factory = new MeteredSSLSocketFactory(createContext(trustStore, keyStore, keyPassword));
+                FACTORIES.put(key, factory);
+            }
+            return factory;
+        }
+    }
+
+    /**
+     * Get the shared context for the given trust and key material.
+     *
+     * @param trustStore
+     *            the certificates to trust or <code>null</code> for the JVM default
+     * @param keyStore
+     *            the client certificate and key or <code>null</code> for none
+     * @param keyPassword
+     *            the password of the key or <code>null</code>
+     *
+     * @return the shared context for the configuration
+     *
+     * @throws GeneralSecurityException
+     *             if the context can't be created from the given material
+     */
+    public static SSLContext getContext(KeyStore trustStore, KeyStore keyStore, char[] keyPassword)
+            throws GeneralSecurityException {
+        return getSocketFactory(trustStore, keyStore, keyPassword).getContext();
+    }
+
+    /**
+     * Create a new context with a sized client session cache.
+     */
+    private static SSLContext createContext(KeyStore trustStore, KeyStore keyStore, char[] keyPassword)
+            throws GeneralSecurityException {
+        TrustManager[] trustManagers = null;
+        if (null != trustStore) {
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(trustStore);
+            trustManagers = tmf.getTrustManagers();
+        }
+
+        KeyManager[] keyManagers = null;
+        if (null != keyStore) {
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, keyPassword);
+            keyManagers = kmf.getKeyManagers();
+        }
+
+        SSLContext context = SSLContext.getInstance(SSLConnectionSocketFactory.TLS);
+        context.init(keyManagers, trustManagers, null);
+
+        SSLSessionContext sessions = context.getClientSessionContext();
+        if (null != sessions) {
+            sessions.setSessionCacheSize(DEFAULT_SESSION_CACHE_SIZE);
+            sessions.setSessionTimeout(DEFAULT_SESSION_TIMEOUT);
+        }
+        return context;
+    }
+
+    /**
+     * Get a salted digest of a password, so that the password itself is not kept.
+     */
+    private static byte[] digest(char[] password) throws GeneralSecurityException {
+        if (null == password) {
+            return null;
+        }
+
+        ByteBuffer encoded = UTF_8.encode(CharBuffer.wrap(password));
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(SALT);
+        byte[] result = digest.digest(bytes);
+        Arrays.fill(bytes, (byte) 0);
+        return result;
+    }
+
+    /**
+     * Cache key comparing key stores by identity and passwords by digest.
+     */
+    private static class Key {
+
+        private final KeyStore trustStore;
+        private final KeyStore keyStore;
+        private final byte[] keyPassword;
+
+        Key(KeyStore trustStore, KeyStore keyStore, byte[] keyPassword) {
+            this.trustStore = trustStore;
+            this.keyStore = keyStore;
+            this.keyPassword = keyPassword;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(trustStore) + System.identityHashCode(keyStore);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return (trustStore == other.trustStore) && (keyStore == other.keyStore)
+                    && Arrays.equals(keyPassword, other.keyPassword);
+        }
+    }
+}
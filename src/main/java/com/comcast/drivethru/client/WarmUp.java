@@ -0,0 +1,190 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A <i>WarmUp</i> describes the work a {@link DefaultRestClient} does before a service reports that
+ * it is ready, so that the first real requests don't pay for connection setup or cold code:
+ * <ol>
+ * <li>Open a number of pooled connections (including the TLS handshake) to the client's default
+ * base URL and any additional base URLs.</li>
+ * <li>Optionally send a health request, failing the warm-up if it is not successful.</li>
+ * <li>Round-trip sample objects through the client's transformer so that serialization code is
+ * loaded and compiled.</li>
+ * </ol>
+ *
+ * <pre>
+ * WarmUp warmUp = new WarmUp().setConnections(8).setHealthPath("/health").addSample(new User());
+ * RestClient client = factory.getWarmClient("https://users.example.com", warmUp);
+ * </pre>
+ */
+public class WarmUp {
+
+    /** The default number of connections opened per base URL */
+    public static final int DEFAULT_CONNECTIONS = 4;
+
+    /** The default number of times each sample is round-tripped through the transformer */
+    public static final int DEFAULT_ITERATIONS = 200;
+
+    /** The default time allowed for each connection to be opened in milliseconds */
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    private int connections = DEFAULT_CONNECTIONS;
+    private int iterations = DEFAULT_ITERATIONS;
+    private int timeout = DEFAULT_TIMEOUT;
+    private String healthPath = null;
+    private List<String> baseUrls = new ArrayList<>();
+    private List<Object> samples = new ArrayList<>();
+
+    /**
+     * Set the number of connections opened to each base URL. The connection pool is enlarged if it
+     * can't hold this many connections for a single route.
+     *
+     * @param connections
+     *            the number of connections
+     *
+     * @return <code>this</code>
+     */
+    public WarmUp setConnections(int connections) {
+        this.connections = connections;
+        return this;
+    }
+
+    /**
+     * Get the number of connections opened to each base URL.
+     *
+     * @return the number of connections
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Set the number of times each sample is round-tripped through the transformer.
+     *
+     * @param iterations
+     *            the number of iterations
+     *
+     * @return <code>this</code>
+     */
+    public WarmUp setIterations(int iterations) {
+        this.iterations = iterations;
+        return this;
+    }
+
+    /**
+     * Get the number of times each sample is round-tripped through the transformer.
+     *
+     * @return the number of iterations
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Set the time allowed to lease and open each connection.
+     *
+     * @param timeout
+     *            the timeout in milliseconds
+     *
+     * @return <code>this</code>
+     */
+    public WarmUp setTimeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Get the time allowed to lease and open each connection.
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Set the path of a health request sent with a GET once the connections are open. Any status
+     * other than 2xx fails the warm-up.
+     *
+     * @param healthPath
+     *            the path relative to the client's default base URL or <code>null</code> for none
+     *
+     * @return <code>this</code>
+     */
+    public WarmUp setHealthPath(String healthPath) {
+        this.healthPath = healthPath;
+        return this;
+    }
+
+    /**
+     * Get the path of the health request.
+     *
+     * @return the health path or <code>null</code> if there is none
+     */
+    public String getHealthPath() {
+        return healthPath;
+    }
+
+    /**
+     * Add a base URL to open connections to besides the client's default base URL.
+     *
+     * @param baseUrl
+     *            the base URL
+     *
+     * @return <code>this</code>
+     */
+    public WarmUp addBaseUrl(String baseUrl) {
+        this.baseUrls.add(baseUrl);
+        return this;
+    }
+
+    /**
+     * Get the additional base URLs.
+     *
+     * @return the additional base URLs
+     */
+    public List<String> getBaseUrls() {
+        return Collections.unmodifiableList(baseUrls);
+    }
+
+    /**
+     * Add a sample object that is written and read back by the transformer. Samples should be
+     * typical of the types the client reads and writes.
+     *
+     * @param sample
+     *            the sample object
+     *
+     * @return <code>this</code>
+     */
+    public WarmUp addSample(Object sample) {
+        this.samples.add(sample);
+        return this;
+    }
+
+    /**
+     * Get the sample objects.
+     *
+     * @return the sample objects
+     */
+    public List<Object> getSamples() {
+        return Collections.unmodifiableList(samples);
+    }
+}
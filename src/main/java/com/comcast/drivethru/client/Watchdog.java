@@ -0,0 +1,77 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * A single shared daemon scheduler for the timers that guard requests in flight, such as aborting a
+ * request once its deadline passes. Guard tasks must be short and must never block. Cancelled
+ * tasks are removed from the queue right away, so cancelling the timer of every request that
+ * finishes in time is cheap.
+ */
+public final class Watchdog {
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER;
+
+    static {
+        SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "drivethru-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    private Watchdog() {}
+
+    /**
+     * Get the shared scheduler.
+     *
+     * @return the shared scheduler
+     */
+    public static ScheduledExecutorService getScheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * Abort the given request at the given time unless the returned timer is cancelled first.
+     *
+     * @param request
+     *            the request to abort
+     * @param deadline
+     *            when to abort the request in milliseconds since the epoch
+     *
+     * @return the timer, to be cancelled once the request completes
+     */
+    public static ScheduledFuture<?> abortAt(final HttpUriRequest request, long deadline) {
+        return SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                request.abort();
+            }
+        }, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.exception;
+
+/**
+ * An Exception to indicate that a request was shed or aborted because its deadline passed.
+ */
+public class DeadlineExceededException extends HttpException {
+
+    /** Generated Serial Version UID */
+    private static final long serialVersionUID = 4913470286195534471L;
+
+    private final boolean sent;
+
+    /**
+     * Construct a new {@link DeadlineExceededException}.
+     *
+     * @param message
+     *            the message
+     * @param sent
+     *            <code>true</code> if the request was sent before the deadline passed
+     * @param cause
+     *            the underlying cause or <code>null</code>
+     */
+    public DeadlineExceededException(String message, boolean sent, Throwable cause) {
+        super(message, cause);
+        this.sent = sent;
+    }
+
+    /**
+     * Returns <code>true</code> if the request was (at least partially) sent before the deadline
+     * passed, or <code>false</code> if it was shed without being sent.
+     *
+     * @return <code>true</code> if the request was sent
+     */
+    public boolean wasSent() {
+        return sent;
+    }
+}
@@ -25,6 +25,8 @@ public class HttpStatusException extends HttpException {
     /** Generated Serial Version UID */
     private static final long serialVersionUID = -5366132858240731981L;
 
+    private final int statusCode;
+
     /**
      * Construct a new {@link HttpStatusException} for the given status code.
      *
@@ -33,6 +35,7 @@ public class HttpStatusException extends HttpException {
      */
     public HttpStatusException(int statusCode) {
         super("Response returned with unacceptable statusCode: " + statusCode);
+        this.statusCode = statusCode;
     }
 
     /**
@@ -45,5 +48,15 @@ public class HttpStatusException extends HttpException {
      */
     public HttpStatusException(int statusCode, String statusMessage) {
         super("Response returned with unacceptable status: " + statusCode + " " + statusMessage);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Get the status code that was unacceptable.
+     *
+     * @return the integer status code
+     */
+    public int getStatusCode() {
+        return statusCode;
     }
 }
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.exception;
+
+/**
+ * An Exception to indicate that a response body was abandoned because it was larger than the
+ * configured maximum size.
+ */
+public class ResponseTooLargeException extends HttpException {
+
+    /** Generated Serial Version UID */
+    private static final long serialVersionUID = 6051827353604158201L;
+
+    private final long maxSize;
+
+    /**
+     * Construct a new {@link ResponseTooLargeException}.
+     *
+     * @param message
+     *            the message
+     * @param maxSize
+     *            the maximum size that was exceeded in bytes
+     */
+    public ResponseTooLargeException(String message, long maxSize) {
+        super(message);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the maximum size that was exceeded.
+     *
+     * @return the maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.exception;
+
+/**
+ * An Exception to indicate that a response was aborted because it arrived too slowly, either
+ * because the first byte took too long or because the body was delivered below the minimum
+ * throughput.
+ */
+public class SlowResponseException extends HttpException {
+
+    /** Generated Serial Version UID */
+    private static final long serialVersionUID = -2978541180394602387L;
+
+    private final long bytesRead;
+    private final long elapsed;
+
+    /**
+     * Construct a new {@link SlowResponseException}.
+     *
+     * @param message
+     *            the message
+     * @param bytesRead
+     *            the number of body bytes read before the response was aborted
+     * @param elapsed
+     *            the time spent on the response before it was aborted in milliseconds
+     */
+    public SlowResponseException(String message, long bytesRead, long elapsed) {
+        super(message);
+        this.bytesRead = bytesRead;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Get the number of body bytes read before the response was aborted.
+     *
+     * @return the number of bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Get the time spent on the response before it was aborted.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.exception;
+
+/**
+ * An unchecked wrapper for an {@link HttpException} raised while iterating a streamed response,
+ * where {@link java.util.Iterator} does not allow checked exceptions to be thrown.
+ */
+public class StreamException extends RuntimeException {
+
+    /** Generated Serial Version UID */
+    private static final long serialVersionUID = 4390918201541136721L;
+
+    /**
+     * Construct a new {@link StreamException} wrapping the given cause.
+     *
+     * @param cause
+     *            the underlying problem
+     */
+    public StreamException(HttpException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Throwable#getCause()
+     */
+    @Override
+    public synchronized HttpException getCause() {
+        return (HttpException) super.getCause();
+    }
+}
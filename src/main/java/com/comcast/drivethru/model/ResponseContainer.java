@@ -23,6 +23,8 @@ import java.util.List;
 
 import org.apache.http.Header;
 
+import com.comcast.drivethru.utils.Headers;
+
 
 /**
  * Class that contains HTTP Response code and message.
@@ -35,6 +37,7 @@ public class ResponseContainer
     private int mStatusCode;
     private String mResponse;
     private Header[] mHeaders;
+    private Headers mHeaderIndex;
 
     // CONSTRUCTORS --------------------------------------------------------------------------------------------------------
 
@@ -133,24 +136,39 @@ public class ResponseContainer
     protected void setResponseHeaders(Header[] responseHeaders)
     {
         mHeaders = responseHeaders;
+        mHeaderIndex = null;
     }
 
     /**
-     * Gets all Cookies from response headers.
-     * @return cookies
+     * Get the response headers indexed by case-insensitive name.
+     * @return headers
      */
-    public List<String> getCookies()
+    public Headers getHeaders()
     {
-        List<String> cookies = new ArrayList<String>();
-
-        for (Header h : mHeaders)
+        if (mHeaderIndex == null)
         {
-            if (h.getName().equalsIgnoreCase("set-cookie"))
-            {
-                cookies.add(h.getValue());
-            }
+            mHeaderIndex = new Headers(mHeaders);
         }
 
-        return cookies;
+        return mHeaderIndex;
+    }
+
+    /**
+     * Get the first value of a response header.
+     * @param name Name of the header (case-insensitive)
+     * @return header value or <code>null</code> if not present
+     */
+    public String getHeaderValue(String name)
+    {
+        return getHeaders().getFirst(name);
+    }
+
+    /**
+     * Gets all Cookies from response headers.
+     * @return cookies
+     */
+    public List<String> getCookies()
+    {
+        return new ArrayList<String>(getHeaders().getAll(Headers.SET_COOKIE));
     }
 }
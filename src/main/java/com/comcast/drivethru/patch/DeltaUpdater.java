@@ -0,0 +1,321 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.patch;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.transform.JsonTransformer;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Writes changes to JSON resources as patches rather than whole documents. Each update is the
+ * difference between the state the server last confirmed and the object as it is now, sent as a
+ * <code>PATCH</code> in the configured {@link PatchFormat} with <code>If-Match</code> set to the
+ * last known entity tag.
+ * <p>
+ * If a server answers a patch with 405, 415 or 501 the whole object is sent with a
+ * <code>PUT</code> instead, and every later update to the same base URL goes straight to
+ * <code>PUT</code>. The whole object is also sent when the patch would be no smaller, and an
+ * update that changes nothing sends nothing. A 412 from a concurrent change
+ * fails the update with an {@link HttpStatusException}, leaving the tracked state as it was.
+ * </p>
+ *
+ * <pre>
+ * DeltaUpdater updater = new DeltaUpdater(client);
+ * Tracked&lt;Device&gt; device = updater.get(new URL().setPath("/devices/42"), Device.class);
+ * device.get().setName("Living Room");
+ * updater.update(device);
+ * </pre>
+ */
+public class DeltaUpdater {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RestClient client;
+    private final Transformer transformer;
+    private PatchFormat format = PatchFormat.JSON_PATCH;
+
+    /* Base URLs that have refused a patch */
+    private final Set<String> unsupported = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong patches = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+
+    /**
+     * Construct a new {@link DeltaUpdater} that writes objects with a {@link JsonTransformer}.
+     *
+     * @param client
+     *            the client to send requests through
+     */
+    public DeltaUpdater(RestClient client) {
+        this(client, new JsonTransformer());
+    }
+
+    /**
+     * Construct a new {@link DeltaUpdater}.
+     *
+     * @param client
+     *            the client to send requests through
+     * @param transformer
+     *            the transformer that reads and writes objects, which must produce JSON
+     */
+    public DeltaUpdater(RestClient client, Transformer transformer) {
+        this.client = client;
+        this.transformer = transformer;
+    }
+
+    /**
+     * Set the format patches are sent in. The default is {@link PatchFormat#JSON_PATCH}.
+     *
+     * @param format
+     *            the patch format
+     *
+     * @return <code>this</code>
+     */
+    public DeltaUpdater setFormat(PatchFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Get the format patches are sent in.
+     *
+     * @return the patch format
+     */
+    public PatchFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Read an object and start tracking it.
+     *
+     * @param url
+     *            the URL of the object
+     * @param type
+     *            the type of the object
+     *
+     * @return the tracked object
+     *
+     * @throws HttpException
+     *             if the object can't be read
+     */
+    public <T> Tracked<T> get(URL url, Class<T> type) throws HttpException {
+        RestResponse response = client.execute(new RestRequest(url, Method.GET));
+        try {
+            if (HttpStatus.SC_OK != response.getStatusCode()) {
+                throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+            }
+
+            String contentType = response.getContentType();
+            if ((null == contentType) || !contentType.equalsIgnoreCase(transformer.getMime())) {
+                throw new HttpException("Invalid Content Type: " + contentType);
+            }
+
+            byte[] body = response.getBody();
+            T value = transformer.read(body, type);
+            return new Tracked<>(url, value, parse(body), response.getHeaderValue(Headers.ETAG));
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Start tracking an object that was read some other way.
+     *
+     * @param url
+     *            the URL of the object
+     * @param value
+     *            the object as the server last confirmed it. Later changes must be made to a copy
+     *            or after this returns.
+     * @param etag
+     *            the entity tag of the object or <code>null</code> if it is not known
+     *
+     * @return the tracked object
+     *
+     * @throws HttpException
+     *             if the object can't be written as JSON
+     */
+    public <T> Tracked<T> track(URL url, T value, String etag) throws HttpException {
+        return new Tracked<>(url, value, parse(transformer.write(value)), etag);
+    }
+
+    /**
+     * Send the changes made to a tracked object since the server last confirmed it. Once the
+     * server accepts them they become the new confirmed state, along with any new entity tag.
+     *
+     * @param tracked
+     *            the tracked object
+     *
+     * @return <code>true</code> if anything was sent or <code>false</code> if nothing had changed
+     *
+     * @throws HttpException
+     *             if the server refused the update, leaving the confirmed state unchanged
+     */
+    public <T> boolean update(Tracked<T> tracked) throws HttpException {
+        byte[] full = transformer.write(tracked.get());
+        JsonElement current = parse(full);
+        JsonElement patch = format.diff(tracked.getSnapshot(), current);
+        if (null == patch) {
+            unchanged.incrementAndGet();
+            return false;
+        }
+
+        String etag = send(tracked.getUrl(), full, patch, tracked.getETag());
+        tracked.confirm(current, etag);
+        return true;
+    }
+
+    /**
+     * Send the changes between two versions of an object.
+     *
+     * @param url
+     *            the URL of the object
+     * @param previous
+     *            the object as the server last confirmed it
+     * @param current
+     *            the object as it should be
+     * @param etag
+     *            the entity tag of <code>previous</code> or <code>null</code> if it is not known
+     *
+     * @return the tracked object, confirmed as <code>current</code>
+     *
+     * @throws HttpException
+     *             if the server refused the update
+     */
+    public <T> Tracked<T> update(URL url, T previous, T current, String etag) throws HttpException {
+        Tracked<T> tracked = track(url, previous, etag);
+        tracked.set(current);
+        update(tracked);
+        return tracked;
+    }
+
+    /**
+     * Get the number of updates sent as patches.
+     *
+     * @return the number of patches
+     */
+    public long getPatchCount() {
+        return patches.get();
+    }
+
+    /**
+     * Get the number of updates sent whole, because the server doesn't accept patches or the patch
+     * was no smaller than the object.
+     *
+     * @return the number of full updates
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    /**
+     * Get the number of updates that weren't sent because nothing had changed.
+     *
+     * @return the number of unchanged updates
+     */
+    public long getUnchangedCount() {
+        return unchanged.get();
+    }
+
+    /**
+     * Get the number of body bytes saved by sending patches rather than whole objects.
+     *
+     * @return the number of bytes saved
+     */
+    public long getSavedBytes() {
+        return saved.get();
+    }
+
+    /**
+     * Send the patch, or the whole object if that is smaller or the server doesn't take patches,
+     * returning the entity tag the server answered with.
+     */
+    private String send(URL url, byte[] full, JsonElement patch, String etag) throws HttpException {
+        String baseUrl = String.valueOf(url.setDefaultBaseUrl(client.getDefaultBaseUrl()).getBaseUrl());
+
+        byte[] body = patch.toString().getBytes(UTF_8);
+        if ((body.length < full.length) && !unsupported.contains(baseUrl)) {
+            RestResponse response = client.execute(request(url, Method.PATCH, format.getMime(), body, etag));
+            try {
+                int status = response.getStatusCode();
+                if (isSuccess(status)) {
+                    patches.incrementAndGet();
+                    saved.addAndGet(full.length - body.length);
+                    return response.getHeaderValue(Headers.ETAG);
+                }
+                if ((HttpStatus.SC_METHOD_NOT_ALLOWED != status) && (HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE != status)
+                        && (HttpStatus.SC_NOT_IMPLEMENTED != status)) {
+                    throw new HttpStatusException(status, response.getStatusMessage());
+                }
+                unsupported.add(baseUrl);
+            } finally {
+                response.close();
+            }
+        }
+
+        fallbacks.incrementAndGet();
+        RestResponse response = client.execute(request(url, Method.PUT, transformer.getMime(), full, etag));
+        try {
+            if (!isSuccess(response.getStatusCode())) {
+                throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+            }
+            return response.getHeaderValue(Headers.ETAG);
+        } finally {
+            response.close();
+        }
+    }
+
+    private static RestRequest request(URL url, Method method, String contentType, byte[] body, String etag) {
+        RestRequest request = new RestRequest(url, method);
+        request.setContentType(contentType);
+        request.setBody(body);
+        if (null != etag) {
+            request.setHeader(Headers.IF_MATCH, etag);
+        }
+        return request;
+    }
+
+    private static boolean isSuccess(int status) {
+        return (status >= 200) && (status < 300);
+    }
+
+    private static JsonElement parse(byte[] json) throws HttpException {
+        try {
+            return new JsonParser().parse(new String(json, UTF_8));
+        } catch (JsonParseException jpex) {
+            throw new HttpException("Patches can only be computed for JSON documents", jpex);
+        }
+    }
+}
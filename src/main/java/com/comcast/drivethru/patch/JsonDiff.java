@@ -0,0 +1,149 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.patch;
+
+import java.util.Map.Entry;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+/**
+ * Computes the difference between two JSON documents as a patch.
+ */
+public final class JsonDiff {
+
+    private JsonDiff() {}
+
+    /**
+     * Compute the <a href="https://tools.ietf.org/html/rfc6902">RFC 6902</a> JSON Patch that turns
+     * <code>source</code> into <code>target</code>. Objects are compared member by member and
+     * arrays element by element, with elements added or removed at the end. Anything else that
+     * differs is replaced.
+     *
+     * @param source
+     *            the original document
+     * @param target
+     *            the changed document
+     *
+     * @return the list of operations or <code>null</code> if the documents are the same
+     */
+    public static JsonArray diff(JsonElement source, JsonElement target) {
+        JsonArray operations = new JsonArray();
+        diff("", nullToJson(source), nullToJson(target), operations);
+        return (0 == operations.size()) ? null : operations;
+    }
+
+    /**
+     * Compute the <a href="https://tools.ietf.org/html/rfc7396">RFC 7396</a> merge patch that turns
+     * <code>source</code> into <code>target</code>.
+     *
+     * @param source
+     *            the original document
+     * @param target
+     *            the changed document
+     *
+     * @return the merge patch or <code>null</code> if the documents are the same
+     */
+    public static JsonElement mergeDiff(JsonElement source, JsonElement target) {
+        source = nullToJson(source);
+        target = nullToJson(target);
+        if (source.equals(target)) {
+            return null;
+        }
+        if (!source.isJsonObject() || !target.isJsonObject()) {
+            return target;
+        }
+
+        JsonObject from = source.getAsJsonObject();
+        JsonObject to = target.getAsJsonObject();
+        JsonObject patch = new JsonObject();
+        for (Entry<String, JsonElement> member : from.entrySet()) {
+            if (!to.has(member.getKey())) {
+                patch.add(member.getKey(), JsonNull.INSTANCE);
+            }
+        }
+        for (Entry<String, JsonElement> member : to.entrySet()) {
+            JsonElement change = mergeDiff(from.get(member.getKey()), member.getValue());
+            if (null != change) {
+                patch.add(member.getKey(), change);
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * Escape a member name for use in a JSON Pointer.
+     */
+    static String escape(String name) {
+        return name.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static void diff(String path, JsonElement source, JsonElement target, JsonArray operations) {
+        if (source.equals(target)) {
+            return;
+        }
+
+        if (source.isJsonObject() && target.isJsonObject()) {
+            JsonObject from = source.getAsJsonObject();
+            JsonObject to = target.getAsJsonObject();
+            for (Entry<String, JsonElement> member : from.entrySet()) {
+                if (!to.has(member.getKey())) {
+                    operations.add(operation("remove", path + "/" + escape(member.getKey()), null));
+                }
+            }
+            for (Entry<String, JsonElement> member : to.entrySet()) {
+                String child = path + "/" + escape(member.getKey());
+                if (from.has(member.getKey())) {
+                    diff(child, from.get(member.getKey()), member.getValue(), operations);
+                } else {
+                    operations.add(operation("add", child, member.getValue()));
+                }
+            }
+        } else if (source.isJsonArray() && target.isJsonArray()) {
+            JsonArray from = source.getAsJsonArray();
+            JsonArray to = target.getAsJsonArray();
+            int common = Math.min(from.size(), to.size());
+            for (int i = 0; i < common; i++) {
+                diff(path + "/" + i, from.get(i), to.get(i), operations);
+            }
+            /* Remove from the end so that the remaining indexes don't shift */
+            for (int i = from.size() - 1; i >= common; i--) {
+                operations.add(operation("remove", path + "/" + i, null));
+            }
+            for (int i = common; i < to.size(); i++) {
+                operations.add(operation("add", path + "/-", to.get(i)));
+            }
+        } else {
+            operations.add(operation("replace", path, target));
+        }
+    }
+
+    private static JsonObject operation(String op, String path, JsonElement value) {
+        JsonObject operation = new JsonObject();
+        operation.addProperty("op", op);
+        operation.addProperty("path", path);
+        if (null != value) {
+            operation.add("value", value);
+        }
+        return operation;
+    }
+
+    private static JsonElement nullToJson(JsonElement element) {
+        return (null == element) ? JsonNull.INSTANCE : element;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.patch;
+
+import com.google.gson.JsonElement;
+
+/**
+ * The formats a change to a JSON document can be sent in.
+ */
+public enum PatchFormat {
+
+    /** An <a href="https://tools.ietf.org/html/rfc6902">RFC 6902</a> JSON Patch: a list of operations */
+    JSON_PATCH("application/json-patch+json") {
+        @Override
+        public JsonElement diff(JsonElement source, JsonElement target) {
+            return JsonDiff.diff(source, target);
+        }
+    },
+
+    /**
+     * An <a href="https://tools.ietf.org/html/rfc7396">RFC 7396</a> merge patch: the changed members
+     * of the document, with removed members set to <code>null</code>. Merge patches are usually
+     * smaller but can't set a member to <code>null</code> and replace arrays as a whole.
+     */
+    MERGE_PATCH("application/merge-patch+json") {
+        @Override
+        public JsonElement diff(JsonElement source, JsonElement target) {
+            return JsonDiff.mergeDiff(source, target);
+        }
+    };
+
+    private final String mime;
+
+    private PatchFormat(String mime) {
+        this.mime = mime;
+    }
+
+    /**
+     * Get the content type of a patch in this format.
+     *
+     * @return the MIME type
+     */
+    public String getMime() {
+        return mime;
+    }
+
+    /**
+     * Compute the patch that turns <code>source</code> into <code>target</code>.
+     *
+     * @param source
+     *            the document as the server last saw it
+     * @param target
+     *            the document as it should be
+     *
+     * @return the patch or <code>null</code> if the documents are the same
+     */
+    public abstract JsonElement diff(JsonElement source, JsonElement target);
+}
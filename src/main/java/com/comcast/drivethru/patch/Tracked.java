@@ -0,0 +1,89 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.patch;
+
+import com.comcast.drivethru.utils.URL;
+import com.google.gson.JsonElement;
+
+/**
+ * An object read through a {@link DeltaUpdater} along with the state the server last confirmed: its
+ * JSON form and entity tag. Change the object returned by {@link #get()} and pass this back to
+ * {@link DeltaUpdater#update(Tracked)} to send only what changed.
+ *
+ * @param <T>
+ *            the type of the object
+ */
+public class Tracked<T> {
+
+    private final URL url;
+    private T value;
+    private JsonElement snapshot;
+    private String etag;
+
+    Tracked(URL url, T value, JsonElement snapshot, String etag) {
+        this.url = url;
+        this.value = value;
+        this.snapshot = snapshot;
+        this.etag = etag;
+    }
+
+    /**
+     * Get the URL the object was read from and is written back to.
+     *
+     * @return the URL
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Get the tracked object.
+     *
+     * @return the object
+     */
+    public T get() {
+        return value;
+    }
+
+    /**
+     * Replace the tracked object, for instance with a new immutable instance. The next update is
+     * still computed against the last confirmed state.
+     *
+     * @param value
+     *            the new object
+     */
+    public void set(T value) {
+        this.value = value;
+    }
+
+    /**
+     * Get the entity tag of the last confirmed state.
+     *
+     * @return the entity tag or <code>null</code> if the server didn't send one
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    JsonElement getSnapshot() {
+        return snapshot;
+    }
+
+    void confirm(JsonElement snapshot, String etag) {
+        this.snapshot = snapshot;
+        this.etag = etag;
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+import com.comcast.drivethru.exception.StreamException;
+
+/**
+ * An {@link Iterator} over elements that are decoded as they are read from a response. The
+ * iterator holds a connection open until it is exhausted or closed, so it should always be used in
+ * a <code>try</code>-with-resources block. Failures while reading are thrown as a
+ * {@link StreamException}.
+ *
+ * @param <T>
+ *            the type of the elements
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+    /**
+     * Release the connection behind this iterator. Any elements that have not been read are
+     * discarded without being downloaded.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import com.comcast.drivethru.utils.RestResponse;
+import com.google.gson.JsonElement;
+
+/**
+ * A {@link PageStrategy} for APIs that return an opaque cursor in the body of each page, which is
+ * passed back as a query parameter to get the next page:
+ *
+ * <pre>
+ * GET /events?limit=100               -&gt; { "data": [...], "meta": { "next_cursor": "eyJpZCI6MTAwfQ" } }
+ * GET /events?limit=100&amp;cursor=eyJpZCI6MTAwfQ
+ * </pre>
+ *
+ * The listing ends at the first page whose cursor is missing, <code>null</code> or empty.
+ */
+public class CursorStrategy implements PageStrategy {
+
+    private final String param;
+    private final String field;
+
+    /**
+     * Construct a new {@link CursorStrategy}.
+     *
+     * @param param
+     *            the query parameter the cursor is passed in
+     * @param field
+     *            the dotted path of the cursor in the body of each page (i.e.
+     *            <code>meta.next_cursor</code>)
+     */
+    public CursorStrategy(String param, String field) {
+        this.param = param;
+        this.field = field;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.PageStrategy#first(java.lang.String)
+     */
+    @Override
+    public String first(String url) {
+        return url;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.PageStrategy#next(java.lang.String,
+     * com.comcast.drivethru.utils.RestResponse, com.google.gson.JsonElement, int)
+     */
+    @Override
+    public String next(String url, RestResponse response, JsonElement body, int count) {
+        JsonElement cursor = Elements.select(body, field);
+        if ((null == cursor) || !cursor.isJsonPrimitive()) {
+            return null;
+        }
+
+        String value = cursor.getAsString();
+        return value.isEmpty() ? null : Elements.setQuery(url, param, value);
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.PageStrategy#guess(java.lang.String)
+     */
+    @Override
+    public String guess(String url) {
+        return null;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.transform.StringTransformer;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.PercentEncoder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Helpers shared by the streaming readers.
+ */
+final class Elements {
+
+    private Elements() {}
+
+    /**
+     * Decode a single record with the given transformer, skipping the byte conversion for string
+     * based transformers.
+     */
+    static <T> T decode(Transformer transformer, String record, Class<T> type) throws HttpException {
+        if (transformer instanceof StringTransformer) {
+            return ((StringTransformer) transformer).readString(record, type);
+        }
+        return transformer.read(record.getBytes(), type);
+    }
+
+    /**
+     * Follow a dotted path of member names (i.e. <code>meta.next</code>) from the given element.
+     *
+     * @return the element at the path, or <code>null</code> if any part of it is missing
+     */
+    static JsonElement select(JsonElement element, String path) {
+        if (null == path) {
+            return element;
+        }
+        for (String name : path.split("\\.")) {
+            if ((null == element) || !element.isJsonObject()) {
+                return null;
+            }
+            element = ((JsonObject) element).get(name);
+        }
+        return element;
+    }
+
+    /**
+     * Get the first value of a query parameter of a full URL.
+     *
+     * @return the decoded value or <code>null</code> if the parameter is not present
+     */
+    static String getQuery(String url, String key) {
+        int start = url.indexOf('?');
+        if (-1 == start) {
+            return null;
+        }
+        int end = url.indexOf('#');
+        for (String pair : url.substring(start + 1, (-1 == end) ? url.length() : end).split("&")) {
+            int equals = pair.indexOf('=');
+            String name = (-1 == equals) ? pair : pair.substring(0, equals);
+            if (decode(name).equals(key)) {
+                return (-1 == equals) ? "" : decode(pair.substring(equals + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replace every value of a query parameter of a full URL with the given value.
+     *
+     * @return the new URL
+     */
+    static String setQuery(String url, String key, String value) {
+        int fragment = url.indexOf('#');
+        String base = (-1 == fragment) ? url : url.substring(0, fragment);
+
+        StringBuilder sb = new StringBuilder(url.length() + key.length() + value.length() + 2);
+        int start = base.indexOf('?');
+        sb.append(base, 0, (-1 == start) ? base.length() : start);
+
+        char separator = '?';
+        if (-1 != start) {
+            for (String pair : base.substring(start + 1).split("&")) {
+                int equals = pair.indexOf('=');
+                String name = (-1 == equals) ? pair : pair.substring(0, equals);
+                if (!pair.isEmpty() && !decode(name).equals(key)) {
+                    sb.append(separator).append(pair);
+                    separator = '&';
+                }
+            }
+        }
+        sb.append(separator);
+        PercentEncoder.FORM.encode(key, sb).append('=');
+        PercentEncoder.FORM.encode(value, sb);
+        return sb.toString();
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+/**
+ * A single record received on an {@link EventStream}.
+ *
+ * @param <T>
+ *            the type of the decoded data
+ */
+public class Event<T> {
+
+    private final String id;
+    private final String type;
+    private final T data;
+
+    /**
+     * Construct a new {@link Event}.
+     *
+     * @param id
+     *            the event ID or <code>null</code> if the event has none
+     * @param type
+     *            the event type or <code>null</code> if the event has none
+     * @param data
+     *            the decoded data
+     */
+    public Event(String id, String type, T data) {
+        this.id = id;
+        this.type = type;
+        this.data = data;
+    }
+
+    /**
+     * Get the ID of this event. For server-sent events this is the last ID the server sent, which
+     * is what a reconnect resumes from. Newline-delimited records have no ID.
+     *
+     * @return the event ID or <code>null</code> if there is none
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the type of this event. Server-sent events without an <code>event</code> field have the
+     * type <code>message</code>. Newline-delimited records have no type.
+     *
+     * @return the event type or <code>null</code> if there is none
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Get the data of this event, decoded by the client's transformer.
+     *
+     * @return the decoded data
+     */
+    public T getData() {
+        return data;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "Event [id=" + id + ", type=" + type + ", data=" + data + "]";
+    }
+}
@@ -0,0 +1,424 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.DeadlineExceededException;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.exception.StreamException;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.URL;
+
+/**
+ * An <i>EventStream</i> subscribes to a feed of records and decodes each one through a
+ * {@link Transformer} as it arrives. Two formats are understood, chosen by the Content-Type of the
+ * response:
+ * <ul>
+ * <li><b>Server-sent events</b> (<code>text/event-stream</code>) - the data of each event is
+ * decoded, and its ID and type are kept on the {@link Event}. When the server ends the stream or
+ * the connection drops, the stream reconnects after the server's requested retry delay and sends
+ * the last event ID it saw in a <code>Last-Event-ID</code> header so the server can resume where it
+ * left off. A reconnect that fails to connect or is answered with a 5xx, 408 or 429 is tried
+ * again after the same delay, and any other error, or a <code>204 No Content</code> response, ends
+ * the subscription.</li>
+ * <li><b>Newline-delimited records</b> (anything else, such as <code>application/x-ndjson</code>)
+ * - each non-blank line is decoded on its own. The stream ends when the body does.</li>
+ * </ul>
+ * <p>
+ * The stream holds a single connection and is pull based: nothing is read from the connection
+ * until {@link #hasNext()} or {@link #next()} asks for the next event. A slow consumer therefore
+ * slows the server down through TCP flow control rather than buffering events in memory. The
+ * stream can be closed from another thread to stop a consumer blocked waiting for an event.
+ * </p>
+ *
+ * <pre>
+ * try (EventStream&lt;Price&gt; prices = client.subscribe(new URL().setPath("/prices"), Price.class)) {
+ *     while (prices.hasNext()) {
+ *         update(prices.next().getData());
+ *     }
+ * }
+ * </pre>
+ *
+ * @param <T>
+ *            the type of the decoded data
+ */
+public class EventStream<T> implements CloseableIterator<Event<T>> {
+
+    /** The Content-Type of server-sent events */
+    public static final String SERVER_SENT_EVENTS = "text/event-stream";
+
+    /** The header that tells the server which event to resume after */
+    public static final String LAST_EVENT_ID = "Last-Event-ID";
+
+    /** The default time to wait before reconnecting unless the server asks for another */
+    public static final long DEFAULT_RETRY = TimeUnit.SECONDS.toMillis(3);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RestClient client;
+    private final URL url;
+    private final Transformer transformer;
+    private final Class<T> type;
+
+    private long retry = DEFAULT_RETRY;
+    private int maxReconnects = -1;
+    private int reconnects = 0;
+    private final AtomicLong received = new AtomicLong();
+
+    private volatile boolean closed = false;
+    private ResponseStream response = null;
+    private BufferedReader reader = null;
+    private boolean serverSent = false;
+    private String lastEventId = null;
+    private Event<T> pending = null;
+
+    /**
+     * Construct a new {@link EventStream} and open the first connection.
+     *
+     * @param client
+     *            the client that opens connections
+     * @param url
+     *            the URL of the feed
+     * @param transformer
+     *            the transformer that decodes each record
+     * @param type
+     *            the type of the decoded data
+     *
+     * @throws HttpException
+     *             if the first connection can't be opened
+     * @throws HttpStatusException
+     *             if the feed responds with anything but <code>200 OK</code> or
+     *             <code>204 No Content</code>
+     */
+    public EventStream(RestClient client, URL url, Transformer transformer, Class<T> type) throws HttpException {
+        this.client = client;
+        this.url = url;
+        this.transformer = transformer;
+        this.type = type;
+        connect();
+    }
+
+    /**
+     * Set the time to wait before reconnecting. A server-sent <code>retry</code> field replaces
+     * this.
+     *
+     * @param retry
+     *            the delay in milliseconds
+     *
+     * @return <code>this</code>
+     */
+    public EventStream<T> setRetry(long retry) {
+        this.retry = retry;
+        return this;
+    }
+
+    /**
+     * Get the time to wait before reconnecting.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getRetry() {
+        return retry;
+    }
+
+    /**
+     * Set the maximum number of times a server-sent event stream reconnects over its lifetime.
+     *
+     * @param maxReconnects
+     *            the maximum number of reconnects, <code>0</code> to never reconnect or
+     *            <code>-1</code> for no limit (the default)
+     *
+     * @return <code>this</code>
+     */
+    public EventStream<T> setMaxReconnects(int maxReconnects) {
+        this.maxReconnects = maxReconnects;
+        return this;
+    }
+
+    /**
+     * Get the number of times this stream has reconnected.
+     *
+     * @return the number of reconnects
+     */
+    public int getReconnectCount() {
+        return reconnects;
+    }
+
+    /**
+     * Get the number of events received.
+     *
+     * @return the number of events
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * Get the ID of the last server-sent event, which is sent when reconnecting.
+     *
+     * @return the last event ID or <code>null</code> if none has been received
+     */
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+        while ((null == pending) && !closed) {
+            try {
+                pending = (null == reader) ? null : (serverSent ? readEvent() : readRecord());
+            } catch (IOException ioex) {
+                if (closed) {
+                    break;
+                }
+                if (!serverSent) {
+                    throw failed(new HttpException("Failed to read the event stream", ioex));
+                }
+                pending = null;
+            } catch (HttpException hex) {
+                throw failed(hex);
+            }
+
+            if ((null == pending) && !closed && !reconnect()) {
+                close();
+            }
+        }
+        return null != pending;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public Event<T> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Event<T> event = pending;
+        pending = null;
+        received.incrementAndGet();
+        return event;
+    }
+
+    /**
+     * Not supported.
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop the subscription and release its connection. This may be called from any thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ResponseStream current = response;
+        if (null != current) {
+            current.close();
+        }
+    }
+
+    /**
+     * Open a connection, resuming after the last event ID if there is one.
+     */
+    private void connect() throws HttpException {
+        RestRequest request = new RestRequest(url, Method.GET);
+        request.setHeader("Accept", SERVER_SENT_EVENTS + ", application/x-ndjson;q=0.9, */*;q=0.1");
+        if (null != lastEventId) {
+            request.setHeader(LAST_EVENT_ID, lastEventId);
+        }
+
+        ResponseStream opened = client.open(request);
+        if (HttpStatus.SC_NO_CONTENT == opened.getStatusCode()) {
+            opened.close();
+            closed = true;
+            return;
+        }
+        if ((HttpStatus.SC_OK != opened.getStatusCode()) || (null == opened.getBodyStream())) {
+            opened.close();
+            throw new HttpStatusException(opened.getStatusCode(), opened.getStatusMessage());
+        }
+
+        String charset = opened.getHeaders().getCharset();
+        response = opened;
+        serverSent = SERVER_SENT_EVENTS.equalsIgnoreCase(opened.getContentType());
+        reader = new BufferedReader(new InputStreamReader(opened.getBodyStream(),
+                (null == charset) ? UTF_8 : Charset.forName(charset)));
+
+        if (closed) {
+            /* Closed by another thread while connecting */
+            opened.close();
+        }
+    }
+
+    /**
+     * Wait for the retry delay and reconnect a server-sent event stream that has ended. Attempts
+     * that fail to connect or are answered with a 5xx, 408 or 429 are tried again after the same
+     * delay, each counting as a reconnect.
+     *
+     * @return <code>true</code> if a new connection was opened
+     */
+    private boolean reconnect() {
+        if (null != response) {
+            response.close();
+            response = null;
+            reader = null;
+        }
+        if (!serverSent) {
+            return false;
+        }
+
+        HttpException last = null;
+        while ((maxReconnects < 0) || (reconnects < maxReconnects)) {
+            reconnects++;
+            try {
+                Thread.sleep(retry);
+                if (closed) {
+                    return false;
+                }
+                connect();
+                return true;
+            } catch (InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                throw failed(new HttpException("Interrupted while reconnecting to the event stream", iex));
+            } catch (HttpException hex) {
+                if (!isRetryable(hex)) {
+                    throw failed(hex);
+                }
+                last = hex;
+            }
+        }
+
+        if (null != last) {
+            throw failed(last);
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> for failures to connect and for responses that say the server may
+     * be able to take the subscription later.
+     */
+    static boolean isRetryable(HttpException hex) {
+        if (hex instanceof HttpStatusException) {
+            int status = ((HttpStatusException) hex).getStatusCode();
+            return (status >= 500) || (HttpStatus.SC_REQUEST_TIMEOUT == status) || (429 == status);
+        }
+        return !(hex instanceof DeadlineExceededException) && (hex.getCause() instanceof IOException);
+    }
+
+    /**
+     * Read the next non-blank line as a record.
+     */
+    private Event<T> readRecord() throws IOException, HttpException {
+        String line;
+        while (null != (line = reader.readLine())) {
+            if (!line.trim().isEmpty()) {
+                return new Event<>(null, null, Elements.decode(transformer, line, type));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the next server-sent event, returning <code>null</code> if the stream ends first.
+     */
+    private Event<T> readEvent() throws IOException, HttpException {
+        StringBuilder data = null;
+        String eventType = null;
+
+        String line;
+        while (null != (line = reader.readLine())) {
+            if (line.isEmpty()) {
+                /* Dispatch, unless there was no data in which case the event is discarded */
+                if (null != data) {
+                    data.setLength(data.length() - 1);
+                    return new Event<>(lastEventId, (null == eventType) ? "message" : eventType,
+                            Elements.decode(transformer, data.toString(), type));
+                }
+                eventType = null;
+                continue;
+            }
+
+            if (':' == line.charAt(0)) {
+                /* Comment, usually sent to keep the connection alive */
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            String field = (-1 == colon) ? line : line.substring(0, colon);
+            String value = "";
+            if (-1 != colon) {
+                int start = colon + 1;
+                if ((start < line.length()) && (' ' == line.charAt(start))) {
+                    start++;
+                }
+                value = line.substring(start);
+            }
+
+            switch (field) {
+                case "data":
+                    data = (null == data) ? new StringBuilder() : data;
+                    data.append(value).append('\n');
+                    break;
+                case "event":
+                    eventType = value;
+                    break;
+                case "id":
+                    if (-1 == value.indexOf('\0')) {
+                        lastEventId = value;
+                    }
+                    break;
+                case "retry":
+                    try {
+                        retry = Long.parseLong(value);
+                    } catch (NumberFormatException nfex) {
+                        /* Ignored as required by the specification */
+                    }
+                    break;
+                default:
+                    /* Unknown fields are ignored */
+                    break;
+            }
+        }
+
+        /* An event that was not terminated by a blank line is discarded */
+        return null;
+    }
+
+    private StreamException failed(HttpException cause) {
+        close();
+        return new StreamException(cause);
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.StreamException;
+import com.comcast.drivethru.transform.Transformer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * A {@link CloseableIterator} over the elements of a JSON array body, decoded one at a time as
+ * they arrive. Only the element being decoded is ever held in memory, so arrays of any size can be
+ * processed, and the first elements are processed while the rest are still being transferred.
+ * <p>
+ * The array is split into elements with a streaming JSON reader and each element is handed to the
+ * client's {@link Transformer} on its own, so elements are decoded exactly as
+ * {@link com.comcast.drivethru.RestClient#get(com.comcast.drivethru.utils.URL, Class)} would
+ * decode them.
+ * </p>
+ *
+ * @param <T>
+ *            the type of the elements
+ */
+public class JsonArrayIterator<T> implements CloseableIterator<T> {
+
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    private final ResponseStream response;
+    private final JsonReader reader;
+    private final JsonParser parser;
+    private final Transformer transformer;
+    private final Class<T> type;
+    private Boolean more = null;
+
+    /**
+     * Construct a new {@link JsonArrayIterator} and read up to the start of the array. The
+     * response is closed if the body is not a JSON array.
+     *
+     * @param response
+     *            the response whose body is a JSON array
+     * @param transformer
+     *            the transformer that decodes each element
+     * @param type
+     *            the type of the elements
+     *
+     * @throws HttpException
+     *             if the body can't be read or is not a JSON array
+     */
+    public JsonArrayIterator(ResponseStream response, Transformer transformer, Class<T> type)
+            throws HttpException {
+        this.response = response;
+        this.transformer = transformer;
+        this.type = type;
+        this.parser = new JsonParser();
+
+        if (null == response.getBodyStream()) {
+            response.close();
+            throw new HttpException("Response has no body");
+        }
+
+        String charset = response.getHeaders().getCharset();
+        this.reader = new JsonReader(new InputStreamReader(response.getBodyStream(),
+                (null == charset) ? DEFAULT_CHARSET : Charset.forName(charset)));
+        try {
+            if (JsonToken.BEGIN_ARRAY != reader.peek()) {
+                throw new HttpException("Expected a JSON array but found " + reader.peek());
+            }
+            reader.beginArray();
+        } catch (IOException | RuntimeException ex) {
+            response.close();
+            throw new HttpException("Failed to read the start of the JSON array", ex);
+        } catch (HttpException hex) {
+            response.close();
+            throw hex;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+        if (null == more) {
+            try {
+                more = !response.isClosed() && reader.hasNext();
+            } catch (IOException ioex) {
+                throw failed(new HttpException("Failed to read the JSON array", ioex));
+            }
+            if (!more) {
+                close();
+            }
+        }
+        return more;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        more = null;
+
+        JsonElement element;
+        try {
+            element = parser.parse(reader);
+        } catch (JsonParseException jpex) {
+            throw failed(new HttpException("Failed to read an element of the JSON array", jpex));
+        }
+
+        try {
+            return Elements.decode(transformer, element.toString(), type);
+        } catch (HttpException hex) {
+            throw failed(hex);
+        }
+    }
+
+    /**
+     * Not supported.
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.CloseableIterator#close()
+     */
+    @Override
+    public void close() {
+        more = false;
+        response.close();
+    }
+
+    private StreamException failed(HttpException cause) {
+        close();
+        return new StreamException(cause);
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.RestResponse;
+import com.google.gson.JsonElement;
+
+/**
+ * A {@link PageStrategy} that follows the <code>rel="next"</code> link of the RFC 5988
+ * <code>Link</code> header, as used by GitHub and many other APIs:
+ *
+ * <pre>
+ * Link: &lt;https://api.example.com/users?page=3&gt;; rel="next", &lt;https://api.example.com/users?page=9&gt;; rel="last"
+ * </pre>
+ *
+ * Relative links are resolved against the URL of the page. The listing ends at the first page
+ * without a next link.
+ */
+public class LinkHeaderStrategy implements PageStrategy {
+
+    private final String rel;
+
+    /**
+     * Construct a new {@link LinkHeaderStrategy} that follows <code>rel="next"</code>.
+     */
+    public LinkHeaderStrategy() {
+        this("next");
+    }
+
+    /**
+     * Construct a new {@link LinkHeaderStrategy} that follows the given relation.
+     *
+     * @param rel
+     *            the relation type of the link to the next page
+     */
+    public LinkHeaderStrategy(String rel) {
+        this.rel = rel;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.PageStrategy#first(java.lang.String)
+     */
+    @Override
+    public String first(String url) {
+        return url;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.PageStrategy#next(java.lang.String,
+     * com.comcast.drivethru.utils.RestResponse, com.google.gson.JsonElement, int)
+     */
+    @Override
+    public String next(String url, RestResponse response, JsonElement body, int count) throws HttpException {
+        String link = getLink(response.getHeaderValues(Headers.LINK), rel);
+        if (null == link) {
+            return null;
+        }
+
+        try {
+            return new URI(url).resolve(link).toString();
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            throw new HttpException("Invalid " + rel + " link: " + link, ex);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.PageStrategy#guess(java.lang.String)
+     */
+    @Override
+    public String guess(String url) {
+        return null;
+    }
+
+    /**
+     * Find the target of the first link with the given relation type in a set of
+     * <code>Link</code> header values.
+     *
+     * @param values
+     *            the values of every <code>Link</code> header
+     * @param rel
+     *            the relation type to find
+     *
+     * @return the link target as written or <code>null</code> if there is no such link
+     */
+    public static String getLink(List<String> values, String rel) {
+        for (String value : values) {
+            int index = 0;
+            while (index < value.length()) {
+                int open = value.indexOf('<', index);
+                int close = (-1 == open) ? -1 : value.indexOf('>', open);
+                if (-1 == close) {
+                    break;
+                }
+                String target = value.substring(open + 1, close);
+
+                /* The parameters run until the next link, which can't start inside a quoted string */
+                int end = close + 1;
+                boolean quoted = false;
+                for (; end < value.length(); end++) {
+                    char c = value.charAt(end);
+                    if ('"' == c) {
+                        quoted = !quoted;
+                    } else if ((',' == c) && !quoted) {
+                        break;
+                    }
+                }
+
+                if (hasRel(value.substring(close + 1, end), rel)) {
+                    return target;
+                }
+                index = end + 1;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasRel(String params, String rel) {
+        for (String param : params.split(";")) {
+            int equals = param.indexOf('=');
+            if ((-1 == equals) || !param.substring(0, equals).trim().equalsIgnoreCase("rel")) {
+                continue;
+            }
+
+            String value = param.substring(equals + 1).trim();
+            if (value.startsWith("\"") && value.endsWith("\"") && (value.length() > 1)) {
+                value = value.substring(1, value.length() - 1);
+            }
+
+            /* A link may carry several space separated relation types */
+            for (String type : value.split("\\s+")) {
+                if (type.equalsIgnoreCase(rel)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import com.comcast.drivethru.utils.RestResponse;
+import com.google.gson.JsonElement;
+
+/**
+ * A {@link PageStrategy} for APIs that page with an offset and a limit:
+ *
+ * <pre>
+ * GET /users?offset=0&amp;limit=100
+ * GET /users?offset=100&amp;limit=100
+ * </pre>
+ *
+ * The listing ends at the first page with fewer items than the limit. Because the URL of every
+ * page is known in advance, a {@link Paginator} fetches as many pages at once as its prefetch
+ * depth allows.
+ */
+public class OffsetStrategy implements PageStrategy {
+
+    private final String offsetParam;
+    private final String limitParam;
+    private final int limit;
+
+    /**
+     * Construct a new {@link OffsetStrategy} using the <code>offset</code> and <code>limit</code>
+     * query parameters.
+     *
+     * @param limit
+     *            the number of items requested per page
+     */
+    public OffsetStrategy(int limit) {
+        this("offset", "limit", limit);
+    }
+
+    /**
+     * Construct a new {@link OffsetStrategy}.
+     *
+     * @param offsetParam
+     *            the query parameter holding the index of the first item of a page
+     * @param limitParam
+     *            the query parameter holding the number of items per page
+     * @param limit
+     *            the number of items requested per page
+     */
+    public OffsetStrategy(String offsetParam, String limitParam, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        this.offsetParam = offsetParam;
+        this.limitParam = limitParam;
+        this.limit = limit;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.PageStrategy#first(java.lang.String)
+     */
+    @Override
+    public String first(String url) {
+        String first = Elements.setQuery(url, limitParam, Integer.toString(limit));
+        return (null == Elements.getQuery(first, offsetParam)) ? Elements.setQuery(first, offsetParam, "0") : first;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.PageStrategy#next(java.lang.String,
+     * com.comcast.drivethru.utils.RestResponse, com.google.gson.JsonElement, int)
+     */
+    @Override
+    public String next(String url, RestResponse response, JsonElement body, int count) {
+        return (count < limit) ? null : guess(url);
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.stream.PageStrategy#guess(java.lang.String)
+     */
+    @Override
+    public String guess(String url) {
+        long offset;
+        try {
+            String current = Elements.getQuery(url, offsetParam);
+            offset = (null == current) ? 0 : Long.parseLong(current);
+        } catch (NumberFormatException nfex) {
+            return null;
+        }
+        return Elements.setQuery(url, offsetParam, Long.toString(offset + limit));
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.utils.RestResponse;
+import com.google.gson.JsonElement;
+
+/**
+ * A <i>PageStrategy</i> tells a {@link Paginator} how to get from one page of a listing to the
+ * next. Strategies are stateless so a single instance can be shared by every paginator for the
+ * same API.
+ *
+ * @see LinkHeaderStrategy
+ * @see CursorStrategy
+ * @see OffsetStrategy
+ */
+public interface PageStrategy {
+
+    /**
+     * Get the full URL of the first page.
+     *
+     * @param url
+     *            the full URL the paginator was created with
+     *
+     * @return the URL of the first page
+     */
+    String first(String url);
+
+    /**
+     * Get the full URL of the page after the given one.
+     *
+     * @param url
+     *            the full URL of the page
+     * @param response
+     *            the response for the page
+     * @param body
+     *            the parsed body of the page
+     * @param count
+     *            the number of items on the page
+     *
+     * @return the URL of the next page or <code>null</code> if this was the last page
+     *
+     * @throws HttpException
+     *             if the next page can't be determined
+     */
+    String next(String url, RestResponse response, JsonElement body, int count) throws HttpException;
+
+    /**
+     * Guess the full URL of the page after the given one before the page has arrived. Strategies
+     * that can guess let the paginator fetch several pages at once. A wrong guess only costs a
+     * wasted request, since every guess is checked against {@link #next} before its page is used.
+     *
+     * @param url
+     *            the full URL of the page
+     *
+     * @return the likely URL of the next page or <code>null</code> if it can't be known in advance
+     */
+    String guess(String url);
+}
@@ -0,0 +1,494 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.exception.StreamException;
+import com.comcast.drivethru.transform.JsonTransformer;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * A <i>Paginator</i> iterates every item of a paged listing, fetching pages in the background so
+ * that the next pages are (usually) already there by the time the current one has been consumed.
+ * <ul>
+ * <li>The {@link PageStrategy} decides how to get from one page to the next: by following
+ * <code>Link</code> headers ({@link LinkHeaderStrategy}), by passing back a cursor from the body
+ * ({@link CursorStrategy}) or by counting offsets ({@link OffsetStrategy}).</li>
+ * <li>The prefetch depth is the number of pages fetched ahead of the one being consumed. When the
+ * strategy can guess the URL of the next pages in advance (offsets) they are all fetched at once,
+ * so the total time approaches that of the slowest single page rather than the sum of every page.
+ * Otherwise each page is requested as soon as the one before it arrives, overlapping the requests
+ * with the consumer.</li>
+ * <li>Each page body must be JSON. The items are either the body itself, when it is an array, or
+ * the array at the configured dotted path (i.e. <code>data.items</code>). Each item is decoded by
+ * the {@link Transformer} on its own.</li>
+ * </ul>
+ *
+ * <pre>
+ * Paginator&lt;User&gt; users = new Paginator.Builder&lt;&gt;(client, new URL().setPath("/users"), User.class)
+ *         .strategy(new CursorStrategy("cursor", "meta.next")).items("data").prefetch(2).build();
+ * try {
+ *     while (users.hasNext()) {
+ *         process(users.next());
+ *     }
+ * } finally {
+ *     users.close();
+ * }
+ * </pre>
+ *
+ * @param <T>
+ *            the type of the items
+ */
+public class Paginator<T> implements CloseableIterator<T> {
+
+    /** The default number of pages fetched ahead of the one being consumed */
+    public static final int DEFAULT_PREFETCH = 1;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static ExecutorService fetcher;
+
+    private final RestClient client;
+    private final Class<T> type;
+    private final PageStrategy strategy;
+    private final String itemsPath;
+    private final Transformer transformer;
+    private final int prefetch;
+    private final Executor executor;
+
+    private final Deque<Fetch> ahead = new ArrayDeque<>();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+    private String pending;
+    private Iterator<T> current = Collections.<T> emptyIterator();
+    private boolean closed = false;
+
+    /**
+     * Internal constructor used by the {@link Builder}.
+     */
+    private Paginator(Builder<T> builder) throws HttpException {
+        this.client = builder.client;
+        this.type = builder.type;
+        this.strategy = builder.strategy;
+        this.itemsPath = builder.itemsPath;
+        this.transformer = builder.transformer;
+        this.prefetch = Math.max(1, builder.prefetch);
+        this.executor = (0 == builder.prefetch) ? DIRECT
+                : ((null == builder.executor) ? getFetcher() : builder.executor);
+        this.pending = strategy.first(builder.url.setDefaultBaseUrl(client.getDefaultBaseUrl()).build());
+
+        /* Without prefetching, nothing is fetched until the consumer asks for it */
+        if (DIRECT != executor) {
+            synchronized (this) {
+                fill();
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            Fetch fetch;
+            synchronized (this) {
+                if (ahead.isEmpty()) {
+                    fill();
+                }
+                fetch = closed ? null : ahead.peekFirst();
+            }
+            if (null == fetch) {
+                return false;
+            }
+
+            Page page;
+            try {
+                page = fetch.task.get();
+            } catch (InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                throw failed(new HttpException("Interrupted while waiting for " + fetch.url, iex));
+            } catch (ExecutionException eex) {
+                Throwable cause = eex.getCause();
+                throw failed((cause instanceof HttpException) ? (HttpException) cause
+                        : new HttpException("Failed to fetch " + fetch.url, cause));
+            }
+
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                ahead.removeFirst();
+
+                /* Drop any guessed pages that turned out to be wrong */
+                Fetch following = ahead.peekFirst();
+                if ((null != following) && !following.url.equals(page.next)) {
+                    wasted.addAndGet(ahead.size());
+                    discard();
+                }
+                if (ahead.isEmpty()) {
+                    pending = page.next;
+                }
+                if (DIRECT != executor) {
+                    fill();
+                }
+            }
+            current = page.items.iterator();
+        }
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Not supported.
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Get the number of pages fetched.
+     *
+     * @return the number of pages
+     */
+    public long getPageCount() {
+        return pages.get();
+    }
+
+    /**
+     * Get the number of pages that were fetched on a guess that turned out to be wrong, such as
+     * the pages past the end of an offset listing.
+     *
+     * @return the number of wasted fetches
+     */
+    public long getWastedCount() {
+        return wasted.get();
+    }
+
+    /**
+     * Stop fetching pages. Pages that are already being fetched are discarded.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        current = Collections.<T> emptyIterator();
+        discard();
+    }
+
+    /**
+     * Start fetching pages until there are as many ahead of the current one as the prefetch depth
+     * allows or the URL of the next one isn't known yet. Callers must hold the lock.
+     */
+    private void fill() {
+        while (!closed && (ahead.size() < prefetch)) {
+            String url;
+            Fetch last = ahead.peekLast();
+            if (null == last) {
+                url = pending;
+                pending = null;
+            } else if (last.done) {
+                url = (null == last.page) ? null : last.page.next;
+            } else {
+                url = strategy.guess(last.url);
+            }
+            if (null == url) {
+                return;
+            }
+
+            final Fetch fetch = new Fetch(url);
+            ahead.addLast(fetch);
+            executor.execute(fetch.task);
+        }
+    }
+
+    private void discard() {
+        for (Fetch fetch : ahead) {
+            fetch.task.cancel(false);
+        }
+        ahead.clear();
+        pending = null;
+    }
+
+    /**
+     * Fetch and decode a single page.
+     */
+    private Page fetch(String url) throws HttpException {
+        RestResponse response = client.execute(new RestRequest(new URL(url), Method.GET));
+        try {
+            if (HttpStatus.SC_OK != response.getStatusCode()) {
+                throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+            }
+
+            JsonElement body;
+            try {
+                body = new JsonParser().parse(response.getBodyString());
+            } catch (JsonParseException jpex) {
+                throw new HttpException("Page is not valid JSON: " + url, jpex);
+            }
+
+            JsonElement items = Elements.select(body, itemsPath);
+            List<T> decoded;
+            if ((null == items) || items.isJsonNull()) {
+                decoded = Collections.emptyList();
+            } else if (items.isJsonArray()) {
+                JsonArray array = items.getAsJsonArray();
+                decoded = new ArrayList<>(array.size());
+                for (JsonElement item : array) {
+                    decoded.add(Elements.decode(transformer, item.toString(), type));
+                }
+            } else {
+                throw new HttpException("Expected an array of items" + ((null == itemsPath) ? "" : " at " + itemsPath)
+                        + " in " + url);
+            }
+
+            pages.incrementAndGet();
+            return new Page(decoded, strategy.next(url, response, body, decoded.size()));
+        } finally {
+            response.close();
+        }
+    }
+
+    private StreamException failed(HttpException cause) {
+        close();
+        return new StreamException(cause);
+    }
+
+    private static synchronized Executor getFetcher() {
+        if (null == fetcher) {
+            fetcher = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "drivethru-prefetch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return fetcher;
+    }
+
+    /**
+     * The items of a page and the URL of the page after it.
+     */
+    private class Page {
+
+        private final List<T> items;
+        private final String next;
+
+        Page(List<T> items, String next) {
+            this.items = items;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A page being fetched.
+     */
+    private class Fetch implements Callable<Page> {
+
+        private final String url;
+        private final FutureTask<Page> task;
+        private volatile boolean done = false;
+        private volatile Page page = null;
+
+        Fetch(String url) {
+            this.url = url;
+            this.task = new FutureTask<>(this);
+        }
+
+        @Override
+        public Page call() throws HttpException {
+            try {
+                page = fetch(url);
+                return page;
+            } finally {
+                /* As soon as this page arrives, the one after it can be requested */
+                synchronized (Paginator.this) {
+                    done = true;
+                    if (ahead.contains(this)) {
+                        fill();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Builder for creating {@link Paginator}s.
+     *
+     * @param <T>
+     *            the type of the items
+     */
+    public static class Builder<T> {
+
+        private final RestClient client;
+        private final URL url;
+        private final Class<T> type;
+        private PageStrategy strategy = new LinkHeaderStrategy();
+        private String itemsPath = null;
+        private Transformer transformer = new JsonTransformer();
+        private int prefetch = DEFAULT_PREFETCH;
+        private Executor executor = null;
+
+        /**
+         * Construct a new {@link Builder} for a listing.
+         *
+         * @param client
+         *            the client that fetches the pages
+         * @param url
+         *            the URL of the listing, which uses the client's default base URL if it has
+         *            none
+         * @param type
+         *            the type of the items
+         */
+        public Builder(RestClient client, URL url, Class<T> type) {
+            this.client = client;
+            this.url = url;
+            this.type = type;
+        }
+
+        /**
+         * Set how to get from one page to the next. By default <code>Link</code> headers are
+         * followed.
+         *
+         * @param strategy
+         *            the page strategy
+         *
+         * @return this builder
+         */
+        public Builder<T> strategy(PageStrategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        /**
+         * Set the dotted path of the array of items in the body of each page. By default the body
+         * itself must be the array.
+         *
+         * @param path
+         *            the path to the items (i.e. <code>data.items</code>)
+         *
+         * @return this builder
+         */
+        public Builder<T> items(String path) {
+            this.itemsPath = path;
+            return this;
+        }
+
+        /**
+         * Set the transformer that decodes each item. By default items are read as JSON.
+         *
+         * @param transformer
+         *            the transformer
+         *
+         * @return this builder
+         */
+        public Builder<T> transformer(Transformer transformer) {
+            this.transformer = transformer;
+            return this;
+        }
+
+        /**
+         * Set the number of pages fetched ahead of the one being consumed. With <code>0</code>
+         * each page is fetched on the consuming thread when it is needed.
+         *
+         * @param depth
+         *            the prefetch depth
+         *
+         * @return this builder
+         */
+        public Builder<T> prefetch(int depth) {
+            if (depth < 0) {
+                throw new IllegalArgumentException("Prefetch depth must not be negative");
+            }
+            this.prefetch = depth;
+            return this;
+        }
+
+        /**
+         * Set the {@link Executor} that pages are fetched on. By default a shared pool of daemon
+         * threads is used.
+         *
+         * @param executor
+         *            the executor for page fetches
+         *
+         * @return this builder
+         */
+        public Builder<T> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Build the paginator and start fetching the first page.
+         *
+         * @return a new paginator
+         *
+         * @throws HttpException
+         *             if the URL of the listing can't be built
+         */
+        public Paginator<T> build() throws HttpException {
+            return new Paginator<>(this);
+        }
+    }
+}
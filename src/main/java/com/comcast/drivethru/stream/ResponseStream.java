@@ -0,0 +1,168 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.StatusLine;
+
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.RestResponse;
+
+/**
+ * A <i>ResponseStream</i> is a {@link RestResponse} whose body has not been read yet. The body is
+ * read straight off the connection through {@link #getBodyStream()}, so it can be processed while
+ * it is still arriving and never has to fit in memory. The connection is held until the response
+ * is closed; closing it before the body has been read to the end drops the connection rather than
+ * downloading the rest of the body.
+ */
+public class ResponseStream extends RestResponse {
+
+    private final InputStream content;
+    private final Closeable connection;
+    private boolean closed = false;
+
+    /**
+     * Construct a new {@link ResponseStream}.
+     *
+     * @param status
+     *            the status
+     * @param content
+     *            the body as it arrives or <code>null</code> if there is no body
+     * @param connection
+     *            releases the connection when the response is closed or <code>null</code> if
+     *            there is nothing to release
+     */
+    public ResponseStream(StatusLine status, InputStream content, Closeable connection) {
+        super(status);
+        this.content = content;
+        this.connection = connection;
+    }
+
+    /**
+     * Construct a new {@link ResponseStream}.
+     *
+     * @param statusCode
+     *            the integer status code
+     * @param statusMessage
+     *            the status message
+     * @param content
+     *            the body as it arrives or <code>null</code> if there is no body
+     * @param connection
+     *            releases the connection when the response is closed or <code>null</code> if
+     *            there is nothing to release
+     */
+    public ResponseStream(int statusCode, String statusMessage, InputStream content, Closeable connection) {
+        super(statusCode, statusMessage);
+        this.content = content;
+        this.connection = connection;
+    }
+
+    /**
+     * Wrap a response whose body has already been read, so that it can be returned where a stream
+     * is expected. Closing the stream closes the given response.
+     *
+     * @param response
+     *            the response to wrap
+     *
+     * @return a stream over the response
+     */
+    public static ResponseStream of(RestResponse response) {
+        ResponseStream stream = new ResponseStream(response.getStatusCode(), response.getStatusMessage(),
+                response.getBodyStream(), response);
+        Headers headers = response.getHeaders();
+        for (int i = 0; i < headers.size(); i++) {
+            stream.appendHeader(headers.getName(i), headers.getValue(i));
+        }
+        return stream;
+    }
+
+    /**
+     * Get the body as it arrives. The stream may only be read once.
+     *
+     * @return the body or <code>null</code> if there is no body
+     */
+    @Override
+    public synchronized InputStream getBodyStream() {
+        return content;
+    }
+
+    /**
+     * Read whatever remains of the body into memory and close the response.
+     *
+     * @return the rest of the body or <code>null</code> if there is no body
+     */
+    @Override
+    public synchronized byte[] getBody() {
+        if (closed || (null == content)) {
+            return super.getBody();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            for (int count; -1 != (count = content.read(buffer)); ) {
+                out.write(buffer, 0, count);
+            }
+            setBody(out.toByteArray());
+        } catch (IOException ioex) {
+            throw new IllegalStateException("Failed to read the response body", ioex);
+        } finally {
+            close();
+        }
+        return super.getBody();
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.utils.RestResponse#getBodyLength()
+     */
+    @Override
+    public synchronized long getBodyLength() {
+        return closed ? super.getBodyLength() : getHeaders().getContentLength();
+    }
+
+    /**
+     * Returns <code>true</code> if this response has been closed.
+     *
+     * @return <code>true</code> if this response has been closed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Release the connection behind this response.
+     */
+    @Override
+    public synchronized void close() {
+        super.close();
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (null != connection) {
+            try {
+                connection.close();
+            } catch (IOException ioex) {
+                /* Nothing left to release */
+            }
+        }
+    }
+}
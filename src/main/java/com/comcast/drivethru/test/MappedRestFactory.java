@@ -23,6 +23,7 @@ import java.util.Map;
 import com.comcast.drivethru.EasyRestClient;
 import com.comcast.drivethru.RestClient;
 import com.comcast.drivethru.RestFactory;
+import com.comcast.drivethru.client.WarmUp;
 
 /**
  * A <i>MappedRestFactory</i> allows for a test to map HttpClients to be returned when the
@@ -85,6 +86,15 @@ public class MappedRestFactory extends RestFactory {
         return (RestClient) mapping.get(defaultBaseUrl);
     }
 
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.RestFactory#getWarmClient(java.lang.String,
+     * com.comcast.drivethru.client.WarmUp)
+     */
+    public RestClient getWarmClient(String defaultBaseUrl, WarmUp warmUp) {
+        return getClient(defaultBaseUrl);
+    }
+
     /*
      * (non-Javadoc)
      * @see com.comcast.drivethru.RestFactory#getEasyClient(java.lang.Class, java.lang.String)
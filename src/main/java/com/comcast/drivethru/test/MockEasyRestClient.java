@@ -22,6 +22,7 @@ import org.apache.http.client.HttpClient;
 import com.comcast.drivethru.client.DefaultEasyRestClient;
 import com.comcast.drivethru.client.DefaultRestClient;
 import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.stream.ResponseStream;
 import com.comcast.drivethru.transform.Transformer;
 import com.comcast.drivethru.utils.Method;
 import com.comcast.drivethru.utils.RestRequest;
@@ -127,6 +128,15 @@ public class MockEasyRestClient<R> extends DefaultEasyRestClient<R> implements R
         return recorder.replay(request.getUrl(), getDefaultBaseUrl(), request.getMethod());
     }
 
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.client.DefaultRestClient#open(com.comcast.drivethru.utils.RestRequest)
+     */
+    @Override
+    public ResponseStream open(RestRequest request) throws HttpException {
+        return ResponseStream.of(execute(request));
+    }
+
     /*
      * (non-Javadoc)
      * @see com.comcast.drivethru.client.DefaultBasicHttpClient#close()
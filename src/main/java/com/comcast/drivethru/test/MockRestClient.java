@@ -21,6 +21,7 @@ import org.apache.http.client.HttpClient;
 
 import com.comcast.drivethru.client.DefaultRestClient;
 import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.stream.ResponseStream;
 import com.comcast.drivethru.transform.Transformer;
 import com.comcast.drivethru.utils.Method;
 import com.comcast.drivethru.utils.RestRequest;
@@ -121,6 +122,15 @@ public class MockRestClient extends DefaultRestClient implements RecordingRestCl
         return recorder.replay(request.getUrl(), getDefaultBaseUrl(), request.getMethod());
     }
 
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.client.DefaultRestClient#open(com.comcast.drivethru.utils.RestRequest)
+     */
+    @Override
+    public ResponseStream open(RestRequest request) throws HttpException {
+        return ResponseStream.of(execute(request));
+    }
+
     /*
      * (non-Javadoc)
      * @see com.comcast.drivethru.client.DefaultBasicHttpClient#close()
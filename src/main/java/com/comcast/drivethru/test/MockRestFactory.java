@@ -18,6 +18,7 @@ package com.comcast.drivethru.test;
 import com.comcast.drivethru.EasyRestClient;
 import com.comcast.drivethru.RestClient;
 import com.comcast.drivethru.RestFactory;
+import com.comcast.drivethru.client.WarmUp;
 
 /**
  * Factory for returning Mock HttpClients.
@@ -34,6 +35,15 @@ public class MockRestFactory extends RestFactory {
         return getMockClient(defaultBaseUrl);
     }
 
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.RestFactory#getWarmClient(java.lang.String,
+     * com.comcast.drivethru.client.WarmUp)
+     */
+    public RestClient getWarmClient(String defaultBaseUrl, WarmUp warmUp) {
+        return getMockClient(defaultBaseUrl);
+    }
+
     /*
      * (non-Javadoc)
      * @see com.comcast.drivethru.RestFactory#getEasyClient(java.lang.Class, java.lang.String)
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.transfer;
+
+import java.util.List;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+
+/**
+ * An {@link UploadProtocol} that sends every part to the upload URL itself with a
+ * <code>Content-Range</code> header saying where it belongs, for servers that assemble the parts in
+ * place. Parts are acknowledged with any <code>2xx</code> status or <code>308 Resume
+ * Incomplete</code>. No request is needed to start the upload, and by default none is needed to finish
+ * it either; see {@link #setCompletion(Method, String)}.
+ */
+public class ContentRangeProtocol implements UploadProtocol {
+
+    /** The status some servers use to acknowledge a part of an unfinished upload */
+    public static final int RESUME_INCOMPLETE = 308;
+
+    private final Method method;
+    private Method completionMethod = null;
+    private String completionSuffix = null;
+
+    /**
+     * Construct a new {@link ContentRangeProtocol} that sends parts with a <code>PUT</code>.
+     */
+    public ContentRangeProtocol() {
+        this(Method.PUT);
+    }
+
+    /**
+     * Construct a new {@link ContentRangeProtocol}.
+     *
+     * @param method
+     *            the method to send parts with
+     */
+    public ContentRangeProtocol(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * Send a request without a body once every part is stored, to tell the server the upload is
+     * complete.
+     *
+     * @param method
+     *            the method of the completion request or <code>null</code> to send none
+     * @param suffix
+     *            added to the path of the upload URL for the completion request, such as
+     *            <code>/commit</code>, or <code>null</code> to send it to the upload URL
+     *
+     * @return <code>this</code>
+     */
+    public ContentRangeProtocol setCompletion(Method method, String suffix) {
+        this.completionMethod = method;
+        this.completionSuffix = suffix;
+        return this;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#begin(com.comcast.drivethru.RestClient,
+     * java.lang.String, long)
+     */
+    @Override
+    public String begin(RestClient client, String url, long length) {
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#createPart(java.lang.String, java.lang.String,
+     * com.comcast.drivethru.transfer.UploadPart)
+     */
+    @Override
+    public RestRequest createPart(String url, String uploadId, UploadPart part) {
+        RestRequest request = new RestRequest(new URL(url), method);
+        long last = part.getOffset() + part.getLength() - 1;
+        request.setHeader(Headers.CONTENT_RANGE, "bytes " + part.getOffset() + "-" + last + "/" + part.getTotal());
+        request.setBody(part.getEntity());
+        return request;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#readPart(com.comcast.drivethru.transfer.UploadPart,
+     * com.comcast.drivethru.utils.RestResponse)
+     */
+    @Override
+    public String readPart(UploadPart part, RestResponse response) throws HttpException {
+        int status = response.getStatusCode();
+        if (((status / 100) != 2) && (RESUME_INCOMPLETE != status)) {
+            throw new HttpStatusException(status, response.getStatusMessage());
+        }
+        String etag = response.getHeaderValue(Headers.ETAG);
+        return (null == etag) ? "" : etag;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#complete(com.comcast.drivethru.RestClient,
+     * java.lang.String, java.lang.String, java.util.List)
+     */
+    @Override
+    public RestResponse complete(RestClient client, String url, String uploadId, List<UploadPart> parts)
+            throws HttpException {
+        if (null == completionMethod) {
+            return null;
+        }
+
+        String target = url;
+        if (null != completionSuffix) {
+            int query = url.indexOf('?');
+            target = (query < 0) ? url + completionSuffix
+                    : url.substring(0, query) + completionSuffix + url.substring(query);
+        }
+
+        RestResponse response = client.execute(new RestRequest(new URL(target), completionMethod));
+        if ((response.getStatusCode() / 100) != 2) {
+            response.close();
+            throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+        }
+        return response;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#abort(com.comcast.drivethru.RestClient,
+     * java.lang.String, java.lang.String)
+     */
+    @Override
+    public void abort(RestClient client, String url, String uploadId) {
+        /* Parts are written in place, so there is nothing separate to discard */
+    }
+}
@@ -0,0 +1,597 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.DeadlineExceededException;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.stream.ResponseStream;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+
+/**
+ * A <i>Downloader</i> streams large objects straight into a file, so they are never held in memory.
+ * <p>
+ * Each object is first probed with a <code>HEAD</code> request. If the server accepts byte ranges and
+ * the object is large enough, it is split into segments that are fetched in parallel, each over its own
+ * pooled connection, and written at their offsets in the file. Otherwise the object is fetched with a
+ * single <code>GET</code>. Either way, a transfer that fails part way through is resumed with a range
+ * request from the last byte written rather than started again, as long as the server accepts ranges.
+ * </p>
+ * <p>
+ * Range requests carry the ETag from the probe in an <code>If-Range</code> header, so an object that
+ * changes during the download fails it rather than mixing two versions in one file, and the finished file
+ * must have the length the server declared. Bytes are written to a temporary file next to the target,
+ * which replaces the target only once it is complete.
+ * </p>
+ *
+ * <pre>
+ * Downloader downloader = new Downloader(client).setSegments(8);
+ * downloader.download(new URL().setPath("/artifacts/image.tar"), Paths.get("/tmp/image.tar"));
+ * </pre>
+ */
+public class Downloader {
+
+    /** The default number of segments fetched in parallel */
+    public static final int DEFAULT_SEGMENTS = 4;
+
+    /** The default smallest segment worth a connection of its own: 4MB */
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /** The default number of times each segment is tried */
+    public static final int DEFAULT_ATTEMPTS = 3;
+
+    /** The most bytes moved into the file in one transfer, so cancellation is noticed promptly */
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    private final RestClient client;
+    private int segments = DEFAULT_SEGMENTS;
+    private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    private int attempts = DEFAULT_ATTEMPTS;
+    private Executor executor = null;
+
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong segmented = new AtomicLong();
+    private final AtomicLong resumes = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Construct a new {@link Downloader} that sends its requests through the given client.
+     *
+     * @param client
+     *            the client used for every request
+     */
+    public Downloader(RestClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Set the most segments a single object is split into. Segments beyond the connection pool's
+     * limit for the host wait for a connection.
+     *
+     * @param segments
+     *            the number of segments, <code>1</code> to always use a single request
+     *
+     * @return <code>this</code>
+     */
+    public Downloader setSegments(int segments) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("At least one segment is required");
+        }
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * Get the most segments a single object is split into.
+     *
+     * @return the number of segments
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Set the smallest segment worth a connection of its own. Objects smaller than two segments are
+     * fetched with a single request.
+     *
+     * @param minSegmentSize
+     *            the smallest segment size in bytes
+     *
+     * @return <code>this</code>
+     */
+    public Downloader setMinSegmentSize(long minSegmentSize) {
+        this.minSegmentSize = Math.max(1, minSegmentSize);
+        return this;
+    }
+
+    /**
+     * Get the smallest segment worth a connection of its own.
+     *
+     * @return the smallest segment size in bytes
+     */
+    public long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    /**
+     * Set the number of times each segment is tried before the download fails. Only failures to
+     * connect or read are retried, and only when the server accepts ranges.
+     *
+     * @param attempts
+     *            the number of attempts
+     *
+     * @return <code>this</code>
+     */
+    public Downloader setAttempts(int attempts) {
+        this.attempts = Math.max(1, attempts);
+        return this;
+    }
+
+    /**
+     * Get the number of times each segment is tried.
+     *
+     * @return the number of attempts
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Set the {@link Executor} that segments run on. By default a shared pool of daemon threads is
+     * used. The first segment of each download always runs on the calling thread.
+     *
+     * @param executor
+     *            the executor for segments
+     *
+     * @return <code>this</code>
+     */
+    public Downloader setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Get the number of downloads that completed.
+     *
+     * @return the number of downloads
+     */
+    public long getDownloadCount() {
+        return downloads.get();
+    }
+
+    /**
+     * Get the number of downloads that were split into parallel segments.
+     *
+     * @return the number of segmented downloads
+     */
+    public long getSegmentedCount() {
+        return segmented.get();
+    }
+
+    /**
+     * Get the number of times a segment was resumed after a failure.
+     *
+     * @return the number of resumes
+     */
+    public long getResumeCount() {
+        return resumes.get();
+    }
+
+    /**
+     * Get the number of bytes written to files, including bytes of downloads that later failed.
+     *
+     * @return the number of bytes written
+     */
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    /**
+     * Download the object at the given URL into a file. If the baseUrl has not been set on the given
+     * <code>url</code> object, the client's default base URL is used. An existing file at the target
+     * is only replaced once the download is complete.
+     *
+     * @param url
+     *            the URL of the object
+     * @param target
+     *            the file to write the object to
+     *
+     * @return the length of the object in bytes
+     *
+     * @throws HttpException
+     *             if the object can't be fetched, changes during the download or doesn't match its
+     *             declared length
+     * @throws HttpStatusException
+     *             if the server answers with an unexpected status code
+     */
+    public long download(URL url, Path target) throws HttpException {
+        String location = url.setDefaultBaseUrl(client.getDefaultBaseUrl()).build();
+        Probe probe = probe(location);
+
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        long length;
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long count = (probe.ranges && (probe.length > 0)) ? Math.min(segments, probe.length / minSegmentSize)
+                    : 1;
+            if (count > 1) {
+                segmented.incrementAndGet();
+                length = fetchSegments(location, probe, channel, (int) count);
+            } else {
+                Segment whole = new Segment(location, probe, channel, 0, -1, null);
+                whole.call();
+                length = whole.position;
+            }
+
+            if ((probe.length >= 0) && (channel.size() != probe.length)) {
+                throw new HttpException("Downloaded " + channel.size() + " bytes of " + location + " but expected "
+                        + probe.length);
+            }
+        } catch (IOException ioex) {
+            delete(part);
+            throw new HttpException("Failed to write " + location + " to " + target, ioex);
+        } catch (HttpException | RuntimeException ex) {
+            delete(part);
+            throw ex;
+        }
+
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioex) {
+            delete(part);
+            throw new HttpException("Failed to move the download of " + location + " to " + target, ioex);
+        }
+        downloads.incrementAndGet();
+        return length;
+    }
+
+    /**
+     * Find out how large the object is and whether the server accepts ranges for it. Servers that
+     * don't allow <code>HEAD</code> are treated as if they declared nothing.
+     */
+    private Probe probe(String location) throws HttpException {
+        Probe probe = new Probe();
+        RestResponse response = client.execute(new RestRequest(new URL(location), Method.HEAD));
+        try {
+            int status = response.getStatusCode();
+            if ((HttpStatus.SC_METHOD_NOT_ALLOWED == status) || (HttpStatus.SC_NOT_IMPLEMENTED == status)) {
+                return probe;
+            }
+            if (HttpStatus.SC_OK != status) {
+                throw new HttpStatusException(status, response.getStatusMessage());
+            }
+            probe.learn(response);
+            return probe;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Split the object into segments, fetching the first on the calling thread and the rest on the
+     * executor. If any segment fails the rest are cancelled, and nothing is returned until every
+     * segment has stopped writing to the file.
+     */
+    private long fetchSegments(String location, Probe probe, FileChannel channel, int count)
+            throws HttpException, IOException {
+        /* Bytes can only be transferred into the file below its current size, so size it up front */
+        channel.write(ByteBuffer.allocate(1), probe.length - 1);
+
+        long size = (probe.length + count - 1) / count;
+        List<Segment> parts = new ArrayList<>(count);
+        for (long start = 0; start < probe.length; start += size) {
+            parts.add(new Segment(location, probe, channel, start, Math.min(start + size, probe.length), parts));
+        }
+
+        Executor workers = (null == executor) ? Transfers.getExecutor() : executor;
+        List<FutureTask<Void>> tasks = new ArrayList<>(parts.size() - 1);
+        Exception failure = null;
+        try {
+            for (Segment segment : parts.subList(1, parts.size())) {
+                FutureTask<Void> task = new FutureTask<>(segment);
+                workers.execute(task);
+                tasks.add(task);
+            }
+            parts.get(0).call();
+        } catch (HttpException | RuntimeException ex) {
+            failure = ex;
+            cancel(parts);
+        }
+
+        boolean interrupted = false;
+        for (FutureTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException iex) {
+                interrupted = true;
+                failure = (null == failure) ? iex : failure;
+                cancel(parts);
+            } catch (ExecutionException eex) {
+                failure = (null == failure) ? (Exception) eex.getCause() : failure;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (null == failure) {
+            return probe.length;
+        }
+
+        /* Report the segment that failed first rather than the ones it cancelled */
+        for (Segment segment : parts) {
+            if (null != segment.error) {
+                failure = segment.error;
+                break;
+            }
+        }
+        if (failure instanceof HttpException) {
+            throw (HttpException) failure;
+        }
+        throw new HttpException("Failed to download " + location, failure);
+    }
+
+    private static void cancel(List<Segment> parts) {
+        for (Segment segment : parts) {
+            segment.cancel();
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ioex) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Get the first byte position from a <code>Content-Range</code> header such as
+     * <code>bytes 200-299/1000</code>.
+     *
+     * @return the first byte position or <code>-1</code> if the header can't be parsed
+     */
+    static long getRangeStart(String contentRange) {
+        if ((null == contentRange) || !contentRange.regionMatches(true, 0, "bytes ", 0, 6)) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-', 6);
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException nfex) {
+            return -1;
+        }
+    }
+
+    /**
+     * What the server declared about the object.
+     */
+    private static class Probe {
+
+        private volatile long length = -1;
+        private volatile boolean ranges = false;
+        private volatile String etag = null;
+
+        void learn(RestResponse response) {
+            Headers headers = response.getHeaders();
+            String declared = headers.getFirst(Headers.CONTENT_LENGTH);
+            if (null != declared) {
+                try {
+                    length = Long.parseLong(declared.trim());
+                } catch (NumberFormatException nfex) {
+                    length = -1;
+                }
+            }
+            ranges = "bytes".equalsIgnoreCase(headers.getFirst(Headers.ACCEPT_RANGES));
+            etag = headers.getFirst(Headers.ETAG);
+        }
+
+        /**
+         * Weak validators can't be used with <code>If-Range</code>.
+         */
+        String getStrongEtag() {
+            return ((null == etag) || etag.startsWith("W/")) ? null : etag;
+        }
+    }
+
+    /**
+     * The bytes from <code>start</code> up to <code>end</code> (exclusive, or <code>-1</code> for the
+     * rest of the object) and how far they have been written.
+     */
+    private class Segment implements Callable<Void> {
+
+        private final String location;
+        private final Probe probe;
+        private final FileChannel channel;
+        private final long end;
+        private final List<Segment> group;
+        private volatile long position;
+        private volatile ResponseStream response = null;
+        private volatile boolean cancelled = false;
+        private volatile Exception error = null;
+
+        Segment(String location, Probe probe, FileChannel channel, long start, long end, List<Segment> group) {
+            this.location = location;
+            this.probe = probe;
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+            this.group = group;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public Void call() throws HttpException {
+            try {
+                fetch();
+                return null;
+            } catch (HttpException | RuntimeException ex) {
+                /* The download has failed, so there is no point in finishing the other segments */
+                if ((null != group) && !cancelled) {
+                    error = ex;
+                    Downloader.cancel(group);
+                }
+                throw ex;
+            }
+        }
+
+        private void fetch() throws HttpException {
+            for (int attempt = 1;; attempt++) {
+                HttpException failure;
+                try {
+                    transfer();
+                    return;
+                } catch (IOException ioex) {
+                    failure = new HttpException("Failed to download " + location + " at byte " + position, ioex);
+                } catch (HttpException hex) {
+                    /* Only connection failures are worth another try, not answers from the server */
+                    if ((hex instanceof HttpStatusException) || (hex instanceof DeadlineExceededException)
+                            || !(hex.getCause() instanceof IOException)) {
+                        throw hex;
+                    }
+                    failure = hex;
+                }
+
+                if (cancelled || !probe.ranges || (attempt >= attempts)) {
+                    throw failure;
+                }
+                resumes.incrementAndGet();
+            }
+        }
+
+        /**
+         * Stop this segment, dropping its connection if it is reading.
+         */
+        void cancel() {
+            cancelled = true;
+            ResponseStream open = response;
+            if (null != open) {
+                open.close();
+            }
+        }
+
+        private void transfer() throws HttpException, IOException {
+            if (cancelled) {
+                throw new HttpException("Download of " + location + " was cancelled");
+            }
+
+            RestRequest request = new RestRequest(new URL(location), Method.GET);
+            boolean ranged = (position > 0) || (end >= 0);
+            if (ranged) {
+                String last = (end >= 0) ? String.valueOf(end - 1) : "";
+                request.setHeader(Headers.RANGE, "bytes=" + position + "-" + last);
+                String etag = probe.getStrongEtag();
+                if (null != etag) {
+                    request.setHeader(Headers.IF_RANGE, etag);
+                }
+            }
+
+            response = client.open(request);
+            try {
+                check(response, ranged);
+                if (cancelled) {
+                    throw new HttpException("Download of " + location + " was cancelled");
+                }
+
+                InputStream in = response.getBodyStream();
+                if (null == in) {
+                    throw new HttpException("No body in the response from " + location);
+                }
+                ReadableByteChannel source = Channels.newChannel(in);
+                long limit = (end >= 0) ? end : Long.MAX_VALUE;
+                while (position < limit) {
+                    long moved = channel.transferFrom(source, position, Math.min(TRANSFER_SIZE, limit - position));
+                    if (moved <= 0) {
+                        break;
+                    }
+                    position += moved;
+                    bytes.addAndGet(moved);
+                }
+
+                long expected = (end >= 0) ? end : probe.length;
+                if ((expected >= 0) && (position < expected)) {
+                    throw new IOException("Connection closed after byte " + position + " of " + expected);
+                }
+
+                /* Reach the end of the stream so the connection goes back to the pool */
+                in.read();
+            } finally {
+                response.close();
+                response = null;
+            }
+        }
+
+        private void check(ResponseStream response, boolean ranged) throws HttpException {
+            int status = response.getStatusCode();
+            if (ranged) {
+                if (HttpStatus.SC_OK == status) {
+                    throw new HttpException(location + " changed during the download or ignored the range");
+                }
+                if (HttpStatus.SC_PARTIAL_CONTENT != status) {
+                    throw new HttpStatusException(status, response.getStatusMessage());
+                }
+                long start = getRangeStart(response.getHeaderValue(Headers.CONTENT_RANGE));
+                if (start != position) {
+                    throw new HttpException(location + " sent the wrong range: "
+                            + response.getHeaderValue(Headers.CONTENT_RANGE));
+                }
+            } else {
+                if (HttpStatus.SC_OK != status) {
+                    throw new HttpStatusException(status, response.getStatusMessage());
+                }
+                if ((probe.length < 0) && (null == probe.etag)) {
+                    /* Nothing was learned from the probe, so use what the response declares */
+                    probe.learn(response);
+                    return;
+                }
+            }
+
+            String etag = response.getHeaderValue(Headers.ETAG);
+            if ((null != probe.etag) && (null != etag) && !etag.equals(probe.etag)) {
+                throw new HttpException(location + " changed during the download");
+            }
+        }
+    }
+}
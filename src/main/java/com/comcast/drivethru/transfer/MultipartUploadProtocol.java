@@ -0,0 +1,165 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.transfer;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpStatus;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+
+/**
+ * An {@link UploadProtocol} following the multipart upload convention of S3 and the object stores
+ * compatible with it:
+ * <ol>
+ * <li><code>POST {url}?uploads</code> starts the upload and answers with an <code>UploadId</code>.</li>
+ * <li><code>PUT {url}?partNumber={n}&amp;uploadId={id}</code> stores each part and answers with its
+ * <code>ETag</code>.</li>
+ * <li><code>POST {url}?uploadId={id}</code> with the list of part numbers and ETags finishes it.</li>
+ * <li><code>DELETE {url}?uploadId={id}</code> abandons it.</li>
+ * </ol>
+ * Requests are not signed here; use a {@link com.comcast.drivethru.security.SecurityProvider} on the
+ * client if the store needs it.
+ */
+public class MultipartUploadProtocol implements UploadProtocol {
+
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#begin(com.comcast.drivethru.RestClient,
+     * java.lang.String, long)
+     */
+    @Override
+    public String begin(RestClient client, String url, long length) throws HttpException {
+        RestResponse response = client.execute(new RestRequest(new URL(query(url, "uploads")), Method.POST));
+        try {
+            check(response);
+            String body = response.getBodyString();
+            Matcher matcher = UPLOAD_ID.matcher((null == body) ? "" : body);
+            if (!matcher.find()) {
+                throw new HttpException("No UploadId in the response from " + url);
+            }
+            return unescape(matcher.group(1).trim());
+        } finally {
+            response.close();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#createPart(java.lang.String, java.lang.String,
+     * com.comcast.drivethru.transfer.UploadPart)
+     */
+    @Override
+    public RestRequest createPart(String url, String uploadId, UploadPart part) {
+        String target = query(url, "partNumber=" + part.getNumber() + "&uploadId=" + URL.encode(uploadId));
+        RestRequest request = new RestRequest(new URL(target), Method.PUT);
+        request.setBody(part.getEntity());
+        return request;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#readPart(com.comcast.drivethru.transfer.UploadPart,
+     * com.comcast.drivethru.utils.RestResponse)
+     */
+    @Override
+    public String readPart(UploadPart part, RestResponse response) throws HttpException {
+        check(response);
+        String etag = response.getHeaderValue(Headers.ETAG);
+        if (null == etag) {
+            throw new HttpException("No ETag for part " + part.getNumber());
+        }
+        return etag;
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#complete(com.comcast.drivethru.RestClient,
+     * java.lang.String, java.lang.String, java.util.List)
+     */
+    @Override
+    public RestResponse complete(RestClient client, String url, String uploadId, List<UploadPart> parts)
+            throws HttpException {
+        StringBuilder body = new StringBuilder(64 + 96 * parts.size());
+        body.append("<CompleteMultipartUpload>");
+        for (UploadPart part : parts) {
+            body.append("<Part><PartNumber>").append(part.getNumber()).append("</PartNumber><ETag>")
+                    .append(escape(part.getReceipt())).append("</ETag></Part>");
+        }
+        body.append("</CompleteMultipartUpload>");
+
+        RestRequest request = new RestRequest(new URL(query(url, "uploadId=" + URL.encode(uploadId))), Method.POST);
+        request.setContentType("application/xml");
+        request.setBody(body.toString());
+
+        RestResponse response = client.execute(request);
+        try {
+            check(response);
+
+            /* Completion can fail after the status line has been sent, so the error is in the body */
+            String result = response.getBodyString();
+            if ((null != result) && result.contains("<Error>")) {
+                throw new HttpException("Failed to complete the upload to " + url + ": " + result);
+            }
+            return response;
+        } catch (HttpException | RuntimeException ex) {
+            response.close();
+            throw ex;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.comcast.drivethru.transfer.UploadProtocol#abort(com.comcast.drivethru.RestClient,
+     * java.lang.String, java.lang.String)
+     */
+    @Override
+    public void abort(RestClient client, String url, String uploadId) throws HttpException {
+        RestResponse response = client.execute(new RestRequest(
+                new URL(query(url, "uploadId=" + URL.encode(uploadId))), Method.DELETE));
+        try {
+            if (HttpStatus.SC_NOT_FOUND != response.getStatusCode()) {
+                check(response);
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private static void check(RestResponse response) throws HttpStatusException {
+        if ((response.getStatusCode() / 100) != 2) {
+            throw new HttpStatusException(response.getStatusCode(), response.getStatusMessage());
+        }
+    }
+
+    private static String query(String url, String query) {
+        return url + ((url.indexOf('?') < 0) ? '?' : '&') + query;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescape(String text) {
+        return text.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.transfer;
+
+import java.nio.file.Path;
+
+import org.apache.http.HttpEntity;
+
+import com.comcast.drivethru.utils.FileRegionEntity;
+
+/**
+ * One part of an upload: a region of the file being uploaded and, once the server has stored it, the
+ * receipt the server gave for it.
+ */
+public final class UploadPart {
+
+    private final Path file;
+    private final int number;
+    private final long offset;
+    private final long length;
+    private final long total;
+    private volatile String receipt = null;
+
+    UploadPart(Path file, int number, long offset, long length, long total) {
+        this.file = file;
+        this.number = number;
+        this.offset = offset;
+        this.length = length;
+        this.total = total;
+    }
+
+    /**
+     * Get the number of this part, counting from <code>1</code>.
+     *
+     * @return the part number
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Get the position of the first byte of this part in the file.
+     *
+     * @return the offset of the part
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the length of this part in bytes.
+     *
+     * @return the length of the part
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Get the length of the whole file in bytes.
+     *
+     * @return the length of the file
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the bytes of this part as an entity that streams them from the file. Each call returns a
+     * new entity.
+     *
+     * @return the body of the part
+     */
+    public HttpEntity getEntity() {
+        return new FileRegionEntity(file, offset, length, null);
+    }
+
+    /**
+     * Get the receipt the server gave for this part, such as its ETag.
+     *
+     * @return the receipt or <code>null</code> if the part hasn't been stored yet
+     */
+    public String getReceipt() {
+        return receipt;
+    }
+
+    /**
+     * Returns <code>true</code> if the server has stored this part.
+     *
+     * @return <code>true</code> if the part is complete
+     */
+    public boolean isComplete() {
+        return null != receipt;
+    }
+
+    void setReceipt(String receipt) {
+        this.receipt = receipt;
+    }
+}
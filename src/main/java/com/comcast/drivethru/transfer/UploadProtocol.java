@@ -0,0 +1,124 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.transfer;
+
+import java.util.List;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+
+/**
+ * An <i>UploadProtocol</i> is the convention a server uses for uploads sent in parts: how an upload is
+ * started, how each part is sent and acknowledged, and how the upload is finished. Parts may be sent in
+ * any order and at the same time, and a part may be sent again if it failed.
+ *
+ * @see ContentRangeProtocol
+ * @see MultipartUploadProtocol
+ */
+public interface UploadProtocol {
+
+    /**
+     * Start a new upload.
+     *
+     * @param client
+     *            the client to send any requests with
+     * @param url
+     *            the URL being uploaded to
+     * @param length
+     *            the length of the whole upload in bytes
+     *
+     * @return the ID the server gave the upload or <code>null</code> if the protocol doesn't use one
+     *
+     * @throws HttpException
+     *             if the upload can't be started
+     */
+    String begin(RestClient client, String url, long length) throws HttpException;
+
+    /**
+     * Create the request that sends a part, including its body (see {@link UploadPart#getEntity()}).
+     *
+     * @param url
+     *            the URL being uploaded to
+     * @param uploadId
+     *            the ID returned from {@link #begin}
+     * @param part
+     *            the part to send
+     *
+     * @return the request for the part
+     *
+     * @throws HttpException
+     *             if the request can't be created
+     */
+    RestRequest createPart(String url, String uploadId, UploadPart part) throws HttpException;
+
+    /**
+     * Check the response to a part.
+     *
+     * @param part
+     *            the part that was sent
+     * @param response
+     *            the response to it
+     *
+     * @return the receipt for the part, which is passed back to {@link #complete} and must not be
+     *         <code>null</code>
+     *
+     * @throws HttpStatusException
+     *             if the part was not stored, which is worth trying again for <code>5xx</code>
+     *             status codes
+     * @throws HttpException
+     *             if the response is not a valid answer
+     */
+    String readPart(UploadPart part, RestResponse response) throws HttpException;
+
+    /**
+     * Finish the upload once every part has been stored.
+     *
+     * @param client
+     *            the client to send any requests with
+     * @param url
+     *            the URL being uploaded to
+     * @param uploadId
+     *            the ID returned from {@link #begin}
+     * @param parts
+     *            every part in order, each with its receipt
+     *
+     * @return the final response from the server or <code>null</code> if the protocol needs no
+     *         completion request
+     *
+     * @throws HttpException
+     *             if the upload can't be completed
+     */
+    RestResponse complete(RestClient client, String url, String uploadId, List<UploadPart> parts)
+            throws HttpException;
+
+    /**
+     * Abandon an upload so the server can discard the parts it has stored.
+     *
+     * @param client
+     *            the client to send any requests with
+     * @param url
+     *            the URL being uploaded to
+     * @param uploadId
+     *            the ID returned from {@link #begin}
+     *
+     * @throws HttpException
+     *             if the upload can't be abandoned
+     */
+    void abort(RestClient client, String url, String uploadId) throws HttpException;
+}
@@ -0,0 +1,524 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.transfer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.client.utils.DateUtils;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.DeadlineExceededException;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.RequestCompression;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+
+/**
+ * An <i>Uploader</i> sends a file in parts, several at a time, so that large uploads are neither held
+ * in memory nor restarted from the beginning when something goes wrong.
+ * <ul>
+ * <li>The file is split into parts of a fixed size. Each part is streamed from the file as it is
+ * sent, and up to the configured number of parts are in flight at once, each over its own pooled
+ * connection.</li>
+ * <li>A part that fails to connect, or that the server rejects with a <code>5xx</code>,
+ * <code>408</code> or <code>429</code> status, is sent again up to the configured number of attempts,
+ * after a wait that doubles with each failure and is never shorter than the server's
+ * <code>Retry-After</code>.
+ * If it still fails the upload stops, but every part that was stored is remembered: calling
+ * {@link #upload()} again sends only the parts that are missing.</li>
+ * <li>How the upload is started, how parts are addressed and acknowledged, and how the upload is
+ * finished all come from the {@link UploadProtocol}, so different servers' conventions fit.</li>
+ * </ul>
+ *
+ * <pre>
+ * Uploader uploader = new Uploader.Builder(client, new URL().setPath("/bucket/image.tar"), file)
+ *         .protocol(new MultipartUploadProtocol()).partSize(16 * 1024 * 1024).parallelism(8).build();
+ * RestResponse result = uploader.upload();
+ * </pre>
+ * <p>
+ * Parts beyond the connection pool's limit for the host wait for a connection, so the pool should
+ * allow at least as many connections to the host as the parallelism (see
+ * {@link com.comcast.drivethru.client.WarmUp}).
+ * </p>
+ */
+public class Uploader {
+
+    /** The default size of each part: 8MB */
+    public static final long DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    /** The default number of parts sent at once */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /** The default number of times each part is tried in one call to {@link #upload()} */
+    public static final int DEFAULT_ATTEMPTS = 3;
+
+    /** The default wait after the first failure of a part: 200 milliseconds */
+    public static final long DEFAULT_MIN_BACKOFF = 200;
+
+    /** The default longest wait between attempts at a part: 30 seconds */
+    public static final long DEFAULT_MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+
+    private final RestClient client;
+    private final String url;
+    private final UploadProtocol protocol;
+    private final int parallelism;
+    private final int attempts;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private final Executor executor;
+    private final List<UploadPart> parts;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private boolean begun = false;
+    private String uploadId = null;
+    private RestResponse result = null;
+    private boolean complete = false;
+
+    /**
+     * Internal constructor used by the {@link Builder}.
+     */
+    private Uploader(Builder builder) throws HttpException {
+        this.client = builder.client;
+        this.url = builder.url.setDefaultBaseUrl(client.getDefaultBaseUrl()).build();
+        this.protocol = builder.protocol;
+        this.parallelism = builder.parallelism;
+        this.attempts = builder.attempts;
+        this.minBackoff = builder.minBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.executor = builder.executor;
+
+        long length;
+        try {
+            length = Files.size(builder.file);
+        } catch (IOException ioex) {
+            throw new HttpException("Failed to read the size of " + builder.file, ioex);
+        }
+
+        /* An empty file is still sent as a single empty part */
+        List<UploadPart> split = new ArrayList<>();
+        long offset = 0;
+        do {
+            long size = Math.min(builder.partSize, length - offset);
+            split.add(new UploadPart(builder.file, split.size() + 1, offset, size, length));
+            offset += size;
+        } while (offset < length);
+        this.parts = Collections.unmodifiableList(split);
+    }
+
+    /**
+     * Send every part that hasn't been stored yet and then finish the upload. If this fails, calling
+     * it again carries on with the same upload, sending only the parts that are still missing. Once
+     * the upload is complete, calling it again just returns the same result.
+     *
+     * @return the final response from the server or <code>null</code> if the protocol needs no
+     *         completion request
+     *
+     * @throws HttpException
+     *             if a part can't be sent or the upload can't be started or finished
+     */
+    public synchronized RestResponse upload() throws HttpException {
+        if (complete) {
+            return result;
+        }
+        if (!begun) {
+            uploadId = protocol.begin(client, url, parts.get(0).getTotal());
+            begun = true;
+        }
+
+        sendParts();
+
+        result = protocol.complete(client, url, uploadId, parts);
+        complete = true;
+        return result;
+    }
+
+    /**
+     * Abandon this upload, so the server can discard any parts it has stored. A later call to
+     * {@link #upload()} starts again from the beginning.
+     *
+     * @throws HttpException
+     *             if the server can't be told
+     */
+    public synchronized void abort() throws HttpException {
+        if (!begun || complete) {
+            return;
+        }
+        begun = false;
+        for (UploadPart part : parts) {
+            part.setReceipt(null);
+        }
+        protocol.abort(client, url, uploadId);
+    }
+
+    /**
+     * Get every part of the upload, in order.
+     *
+     * @return the parts
+     */
+    public List<UploadPart> getParts() {
+        return parts;
+    }
+
+    /**
+     * Get the number of parts the server has stored.
+     *
+     * @return the number of complete parts
+     */
+    public int getCompletedCount() {
+        int count = 0;
+        for (UploadPart part : parts) {
+            if (part.isComplete()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the ID the server gave this upload.
+     *
+     * @return the upload ID or <code>null</code> if the upload hasn't started or the protocol
+     *         doesn't use one
+     */
+    public synchronized String getUploadId() {
+        return uploadId;
+    }
+
+    /**
+     * Returns <code>true</code> once the upload has been finished.
+     *
+     * @return <code>true</code> if the upload is complete
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Get the number of times a part was sent again after failing.
+     *
+     * @return the number of retries
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Get the number of bytes in parts the server has stored.
+     *
+     * @return the number of bytes stored
+     */
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    /**
+     * Send the missing parts with the calling thread as one of the workers. Workers stop taking
+     * parts as soon as any part has failed for good, and nothing is returned until all have stopped.
+     */
+    private void sendParts() throws HttpException {
+        final Queue<UploadPart> missing = new ConcurrentLinkedQueue<>();
+        for (UploadPart part : parts) {
+            if (!part.isComplete()) {
+                missing.add(part);
+            }
+        }
+
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                UploadPart part;
+                while ((null == failure.get()) && (null != (part = missing.poll()))) {
+                    try {
+                        send(part);
+                    } catch (HttpException | RuntimeException ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            }
+        };
+
+        Executor workers = (null == executor) ? Transfers.getExecutor() : executor;
+        List<FutureTask<Void>> tasks = new ArrayList<>();
+        try {
+            for (int i = 1; i < Math.min(parallelism, missing.size()); i++) {
+                FutureTask<Void> task = new FutureTask<>(worker, null);
+                workers.execute(task);
+                tasks.add(task);
+            }
+        } catch (RuntimeException rex) {
+            /* Carry on with the workers that did start */
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        for (FutureTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException iex) {
+                interrupted = true;
+                failure.compareAndSet(null, iex);
+                missing.clear();
+            } catch (ExecutionException eex) {
+                failure.compareAndSet(null, (Exception) eex.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Exception ex = failure.get();
+        if (ex instanceof HttpException) {
+            throw (HttpException) ex;
+        }
+        if (null != ex) {
+            throw new HttpException("Failed to upload to " + url, ex);
+        }
+    }
+
+    /**
+     * Send one part, trying again after failures that are worth another try.
+     */
+    private void send(UploadPart part) throws HttpException {
+        long backoff = 0;
+        for (int attempt = 1;; attempt++) {
+            String retryAfter = null;
+            try {
+                RestRequest request = protocol.createPart(url, uploadId, part);
+
+                /* The server must see exactly the bytes of the part */
+                request.setCompression(RequestCompression.NONE);
+
+                RestResponse response = client.execute(request);
+                try {
+                    retryAfter = response.getHeaderValue(Headers.RETRY_AFTER);
+                    String receipt = protocol.readPart(part, response);
+                    if (null == receipt) {
+                        throw new HttpException("No receipt for part " + part.getNumber() + " of " + url);
+                    }
+                    part.setReceipt(receipt);
+                    bytes.addAndGet(part.getLength());
+                    return;
+                } finally {
+                    response.close();
+                }
+            } catch (HttpException hex) {
+                if ((attempt >= attempts) || !isRetryable(hex)) {
+                    throw hex;
+                }
+                retries.incrementAndGet();
+                backoff = (0 == backoff) ? minBackoff : Math.min(backoff * 2, maxBackoff);
+                pause(Math.max(backoff, parseRetryAfter(retryAfter, System.currentTimeMillis())), hex);
+            }
+        }
+    }
+
+    /**
+     * Wait before the next attempt, giving up on the part if the thread is interrupted.
+     */
+    private void pause(long millis, HttpException cause) throws HttpException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            throw new HttpException("Interrupted while waiting to retry a part of " + url, cause);
+        }
+    }
+
+    /**
+     * Parse a <code>Retry-After</code> value, either a number of seconds or an HTTP date, into the
+     * number of milliseconds to wait. Anything missing or unreadable means no wait.
+     */
+    static long parseRetryAfter(String value, long now) {
+        if (null == value) {
+            return 0;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException nfex) {
+            Date date = DateUtils.parseDate(value);
+            return (null == date) ? 0 : Math.max(0, date.getTime() - now);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> for failures to connect and for server errors, which may well
+     * succeed if the part is sent again.
+     */
+    static boolean isRetryable(HttpException hex) {
+        if (hex instanceof HttpStatusException) {
+            int status = ((HttpStatusException) hex).getStatusCode();
+            return (status >= 500) || (408 == status) || (429 == status);
+        }
+        return !(hex instanceof DeadlineExceededException) && (hex.getCause() instanceof IOException);
+    }
+
+    /**
+     * A <i>Builder</i> configures an {@link Uploader}.
+     */
+    public static class Builder {
+
+        private final RestClient client;
+        private final URL url;
+        private final Path file;
+        private UploadProtocol protocol = new ContentRangeProtocol();
+        private long partSize = DEFAULT_PART_SIZE;
+        private int parallelism = DEFAULT_PARALLELISM;
+        private int attempts = DEFAULT_ATTEMPTS;
+        private long minBackoff = DEFAULT_MIN_BACKOFF;
+        private long maxBackoff = DEFAULT_MAX_BACKOFF;
+        private Executor executor = null;
+
+        /**
+         * Construct a new {@link Builder} for an upload.
+         *
+         * @param client
+         *            the client that sends the parts
+         * @param url
+         *            the URL to upload to, which uses the client's default base URL if it has none
+         * @param file
+         *            the file to upload
+         */
+        public Builder(RestClient client, URL url, Path file) {
+            this.client = client;
+            this.url = url;
+            this.file = file;
+        }
+
+        /**
+         * Set the convention the server uses for uploads in parts. By default each part is sent to
+         * the URL with a <code>Content-Range</code> header.
+         *
+         * @param protocol
+         *            the upload protocol
+         *
+         * @return this builder
+         */
+        public Builder protocol(UploadProtocol protocol) {
+            this.protocol = protocol;
+            return this;
+        }
+
+        /**
+         * Set the size of each part. The last part holds whatever is left.
+         *
+         * @param partSize
+         *            the size of each part in bytes
+         *
+         * @return this builder
+         */
+        public Builder partSize(long partSize) {
+            if (partSize < 1) {
+                throw new IllegalArgumentException("Part size must be positive");
+            }
+            this.partSize = partSize;
+            return this;
+        }
+
+        /**
+         * Set the number of parts sent at once.
+         *
+         * @param parallelism
+         *            the number of parts in flight
+         *
+         * @return this builder
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be positive");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Set the number of times each part is tried in one call to {@link Uploader#upload()}.
+         *
+         * @param attempts
+         *            the number of attempts
+         *
+         * @return this builder
+         */
+        public Builder attempts(int attempts) {
+            this.attempts = Math.max(1, attempts);
+            return this;
+        }
+
+        /**
+         * Set the range of the wait between attempts at a part. A longer <code>Retry-After</code>
+         * from the server is always honoured.
+         *
+         * @param minBackoff
+         *            the wait after the first failure
+         * @param maxBackoff
+         *            the longest wait
+         * @param unit
+         *            the unit of both waits
+         *
+         * @return this builder
+         */
+        public Builder backoff(long minBackoff, long maxBackoff, TimeUnit unit) {
+            this.minBackoff = Math.max(1, unit.toMillis(minBackoff));
+            this.maxBackoff = Math.max(this.minBackoff, unit.toMillis(maxBackoff));
+            return this;
+        }
+
+        /**
+         * Set the executor that parts are sent on. By default a shared pool of daemon threads is
+         * used. The calling thread always sends parts too.
+         *
+         * @param executor
+         *            the executor
+         *
+         * @return this builder
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Build the {@link Uploader}. Nothing is sent until {@link Uploader#upload()} is called.
+         *
+         * @return a new uploader
+         *
+         * @throws HttpException
+         *             if the URL is invalid or the file can't be read
+         */
+        public Uploader build() throws HttpException {
+            return new Uploader(this);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of fixed size {@link ByteBuffer} chunks used to read response bodies without
+ * repeatedly allocating (and growing) large arrays. When the pool is empty a new chunk is
+ * allocated, and when the pool is full released chunks are simply left for the garbage collector,
+ * so the pool never holds more than <code>maxPooled * chunkSize</code> bytes.
+ */
+public class BufferPool {
+
+    /** The default chunk size (64 KB) */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /** The default maximum number of idle chunks held by a pool */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED, false);
+
+    private final int chunkSize;
+    private final boolean direct;
+    private final BlockingQueue<ByteBuffer> idle;
+
+    /**
+     * Construct a new {@link BufferPool}.
+     *
+     * @param chunkSize
+     *            the size in bytes of every chunk handed out by this pool
+     * @param maxPooled
+     *            the maximum number of idle chunks retained for reuse
+     * @param direct
+     *            if <code>true</code>, chunks are allocated off-heap as direct buffers
+     */
+    public BufferPool(int chunkSize, int maxPooled, boolean direct) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.direct = direct;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    /**
+     * Get the shared, heap-backed pool used by default.
+     *
+     * @return the default pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the size in bytes of the chunks handed out by this pool.
+     *
+     * @return the chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Returns <code>true</code> if this pool hands out direct buffers.
+     *
+     * @return <code>true</code> if this pool hands out direct buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Get the number of idle chunks currently held for reuse.
+     *
+     * @return the number of idle chunks
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Take a cleared chunk from the pool, allocating a new one if none are idle.
+     *
+     * @return a chunk ready to be written to
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer chunk = idle.poll();
+        if (null == chunk) {
+            chunk = direct ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize);
+        }
+        return chunk;
+    }
+
+    /**
+     * Return a chunk to the pool. Buffers that were not handed out by a pool of this shape are
+     * ignored, as are any chunks released while the pool is already full.
+     *
+     * @param chunk
+     *            the chunk to return
+     */
+    public void release(ByteBuffer chunk) {
+        if ((null != chunk) && (chunk.capacity() == chunkSize) && (chunk.isDirect() == direct)) {
+            chunk.clear();
+            idle.offer(chunk);
+        }
+    }
+}
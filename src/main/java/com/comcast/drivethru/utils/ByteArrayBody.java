@@ -0,0 +1,71 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * A {@link ResponseBody} backed by a single, exactly sized array of bytes.
+ */
+public class ByteArrayBody implements ResponseBody {
+
+    private final byte[] bytes;
+
+    /**
+     * Construct a new {@link ByteArrayBody} over the given bytes. The array is not copied.
+     *
+     * @param bytes
+     *            the body
+     */
+    public ByteArrayBody(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#length()
+     */
+    @Override
+    public long length() {
+        return bytes.length;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#toByteArray()
+     */
+    @Override
+    public byte[] toByteArray() {
+        return bytes;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#getInputStream()
+     */
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#close()
+     */
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+import com.comcast.drivethru.utils.RequestCompression.Encoding;
+
+/**
+ * An {@link HttpEntity} that compresses the wrapped entity on the fly while it is written to the
+ * connection. Since the compressed length is not known up front, the content is always sent
+ * chunked.
+ */
+public class CompressingEntity extends HttpEntityWrapper {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Encoding encoding;
+
+    /**
+     * Construct a new {@link CompressingEntity} that compresses the given entity.
+     *
+     * @param wrapped
+     *            the entity to compress
+     * @param encoding
+     *            the encoding to compress with
+     */
+    public CompressingEntity(HttpEntity wrapped, Encoding encoding) {
+        super(wrapped);
+        this.encoding = encoding;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.entity.HttpEntityWrapper#getContentEncoding()
+     */
+    @Override
+    public Header getContentEncoding() {
+        return new BasicHeader("Content-Encoding", encoding.getToken());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.entity.HttpEntityWrapper#getContentLength()
+     */
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.entity.HttpEntityWrapper#isChunked()
+     */
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.entity.HttpEntityWrapper#getContent()
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException("Compressed content is only available through writeTo");
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.entity.HttpEntityWrapper#writeTo(java.io.OutputStream)
+     */
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        DeflaterOutputStream out;
+        Deflater deflater = null;
+        switch (encoding) {
+            case GZIP:
+                out = new GZIPOutputStream(outstream, BUFFER_SIZE);
+                break;
+            case DEFLATE:
+                deflater = new Deflater();
+                out = new DeflaterOutputStream(outstream, deflater, BUFFER_SIZE);
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown encoding: " + encoding);
+        }
+
+        /* Closing finishes the compressed stream, the engine closes the chunked stream anyway */
+        try {
+            wrappedEntity.writeTo(out);
+        } finally {
+            out.close();
+            if (null != deflater) {
+                deflater.end();
+            }
+        }
+    }
+}
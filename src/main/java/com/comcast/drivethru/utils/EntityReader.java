@@ -0,0 +1,377 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+
+/**
+ * The <i>EntityReader</i> reads the body of an HTTP response into memory with as few allocations
+ * and copies as possible:
+ * <ul>
+ * <li>When the response declares a <code>Content-Length</code>, the body is read straight into a
+ * single array of exactly that size.</li>
+ * <li>Otherwise the body is read into chunks drawn from a {@link BufferPool} that are handed back
+ * to the pool once the resulting {@link ResponseBody} is closed.</li>
+ * <li>Bodies larger than the spill threshold are written to a temporary file instead and read
+ * back through a memory-mapped {@link SpooledBody}, so they stay off the heap as long as they are
+ * read as a stream or a buffer.</li>
+ * <li>Bodies larger than the maximum size are abandoned with an {@link IOException} caused by a
+ * {@link com.comcast.drivethru.exception.ResponseTooLargeException}.</li>
+ * </ul>
+ * Spilling and the maximum size are both off by default.
+ */
+public class EntityReader {
+
+    /** The default largest declared Content-Length (16 MB) that will be allocated up front */
+    public static final int DEFAULT_MAX_PRESIZE = 16 * 1024 * 1024;
+
+    private static final int SCRATCH_SIZE = 8192;
+
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+    private final BufferPool pool;
+    private final int maxPresize;
+    private long spillThreshold = Long.MAX_VALUE;
+    private long maxSize = Long.MAX_VALUE;
+    private Path spillDirectory = null;
+
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Construct a new {@link EntityReader} using the default {@link BufferPool}.
+     */
+    public EntityReader() {
+        this(BufferPool.getDefault());
+    }
+
+    /**
+     * Construct a new {@link EntityReader} that draws chunks from the given pool.
+     *
+     * @param pool
+     *            the pool to draw chunks from
+     */
+    public EntityReader(BufferPool pool) {
+        this(pool, DEFAULT_MAX_PRESIZE);
+    }
+
+    /**
+     * Construct a new {@link EntityReader} that draws chunks from the given pool and trusts a
+     * declared Content-Length up to <code>maxPresize</code> bytes.
+     *
+     * @param pool
+     *            the pool to draw chunks from
+     * @param maxPresize
+     *            the largest declared length that will be allocated as a single array
+     */
+    public EntityReader(BufferPool pool, int maxPresize) {
+        this.pool = pool;
+        this.maxPresize = maxPresize;
+    }
+
+    /**
+     * Get the pool that chunks are drawn from.
+     *
+     * @return the pool
+     */
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Set the size above which a body is spooled to a temporary file rather than kept in memory.
+     * <p>
+     * A spooled body only stays off the heap when it is read through
+     * {@link RestResponse#getBodyStream()}, {@link RestResponse#getBodyBuffer()} or a download.
+     * Reading it with {@link RestResponse#getBody()}, which the typed reads such as
+     * {@link com.comcast.drivethru.RestClient#get(URL, Class)} do to hand it to their
+     * {@link com.comcast.drivethru.transform.Transformer}, copies it onto the heap, and a body over
+     * 2GB can't be read that way at all.
+     * </p>
+     *
+     * @param spillThreshold
+     *            the threshold in bytes or {@link Long#MAX_VALUE} to never spill
+     *
+     * @return <code>this</code>
+     */
+    public EntityReader setSpillThreshold(long spillThreshold) {
+        this.spillThreshold = spillThreshold;
+        return this;
+    }
+
+    /**
+     * Get the size above which a body is spooled to a temporary file.
+     *
+     * @return the threshold in bytes
+     */
+    public long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Set the largest body that will be read. Reading stops as soon as a body goes past this size,
+     * or before it starts if the body declares a larger <code>Content-Length</code>.
+     *
+     * @param maxSize
+     *            the maximum size in bytes or {@link Long#MAX_VALUE} for no limit
+     *
+     * @return <code>this</code>
+     */
+    public EntityReader setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Get the largest body that will be read.
+     *
+     * @return the maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the directory that spooled bodies are written to.
+     *
+     * @param spillDirectory
+     *            the directory or <code>null</code> for the system temporary directory
+     *
+     * @return <code>this</code>
+     */
+    public EntityReader setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    /**
+     * Get the number of bodies that were spooled to a temporary file.
+     *
+     * @return the number of spooled bodies
+     */
+    public long getSpillCount() {
+        return spilled.get();
+    }
+
+    /**
+     * Get the number of bodies that were abandoned for being over the maximum size.
+     *
+     * @return the number of rejected bodies
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Read the full content of the given entity and close its stream.
+     *
+     * @param entity
+     *            the entity to read
+     *
+     * @return the body which must be closed once it is no longer needed
+     *
+     * @throws IOException
+     *             if reading the entity fails
+     */
+    public ResponseBody read(HttpEntity entity) throws IOException {
+        InputStream in = entity.getContent();
+        if (null == in) {
+            return new ByteArrayBody(new byte[0]);
+        }
+
+        try {
+            long declared = entity.getContentLength();
+            if (declared > maxSize) {
+                rejected.incrementAndGet();
+                throw SizeLimitedEntity.tooLarge(maxSize, declared);
+            } else if (declared > spillThreshold) {
+                return spill(in, new ArrayList<ByteBuffer>(0), 0);
+            } else if ((declared >= 0) && (declared <= maxPresize)) {
+                return readPresized(in, (int) declared);
+            } else {
+                return readChunked(in, null);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a body whose length was declared up front into a single array.
+     */
+    private ResponseBody readPresized(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int count = fill(in, bytes, 0, length);
+        if (count < length) {
+            /* The server sent less than it promised, keep what did arrive */
+            return new ByteArrayBody(Arrays.copyOf(bytes, count));
+        }
+
+        int next = in.read();
+        if (-1 == next) {
+            return new ByteArrayBody(bytes);
+        }
+
+        /* The server sent more than it promised, carry on with pooled chunks */
+        ByteBuffer prefix = ByteBuffer.allocate(length + 1);
+        prefix.put(bytes).put((byte) next).flip();
+        return readChunked(in, prefix);
+    }
+
+    /**
+     * Read a body of unknown length into pooled chunks.
+     */
+    private ResponseBody readChunked(InputStream in, ByteBuffer prefix) throws IOException {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        if (null != prefix) {
+            chunks.add(prefix);
+        }
+
+        byte[] scratch = pool.isDirect() ? new byte[Math.min(SCRATCH_SIZE, pool.getChunkSize())] : null;
+        boolean complete = false;
+        long total = (null == prefix) ? 0 : prefix.remaining();
+
+        try {
+            while (!complete) {
+                if (total > maxSize) {
+                    rejected.incrementAndGet();
+                    throw SizeLimitedEntity.tooLarge(maxSize, -1);
+                }
+                if (total > spillThreshold) {
+                    return spill(in, chunks, total);
+                }
+
+                ByteBuffer chunk = pool.acquire();
+                chunks.add(chunk);
+
+                while (chunk.hasRemaining()) {
+                    int count;
+                    if (null == scratch) {
+                        count = in.read(chunk.array(), chunk.arrayOffset() + chunk.position(),
+                                chunk.remaining());
+                        if (count > 0) {
+                            chunk.position(chunk.position() + count);
+                        }
+                    } else {
+                        count = in.read(scratch, 0, Math.min(scratch.length, chunk.remaining()));
+                        if (count > 0) {
+                            chunk.put(scratch, 0, count);
+                        }
+                    }
+
+                    if (-1 == count) {
+                        complete = true;
+                        break;
+                    }
+                    total += count;
+                }
+                chunk.flip();
+            }
+            if (total > maxSize) {
+                rejected.incrementAndGet();
+                throw SizeLimitedEntity.tooLarge(maxSize, -1);
+            }
+
+            /* Don't hold on to a trailing chunk that received nothing */
+            ByteBuffer last = chunks.get(chunks.size() - 1);
+            if ((chunks.size() > 1) && !last.hasRemaining()) {
+                chunks.remove(chunks.size() - 1);
+                pool.release(last);
+            }
+        } catch (IOException | RuntimeException ex) {
+            for (ByteBuffer chunk : chunks) {
+                pool.release(chunk);
+            }
+            throw ex;
+        }
+
+        return new PooledBody(pool, chunks);
+    }
+
+    /**
+     * Write the chunks read so far to a temporary file, returning them to the pool, and stream
+     * the rest of the body after them.
+     */
+    private ResponseBody spill(InputStream in, List<ByteBuffer> chunks, long total) throws IOException {
+        Path file = (null == spillDirectory) ? Files.createTempFile("drivethru-", ".body")
+                : Files.createTempFile(spillDirectory, "drivethru-", ".body");
+
+        boolean complete = false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for (ByteBuffer chunk : chunks) {
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+            for (ByteBuffer chunk : chunks) {
+                pool.release(chunk);
+            }
+            chunks.clear();
+
+            byte[] buffer = new byte[SPILL_BUFFER_SIZE];
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            for (int count; -1 != (count = in.read(buffer)); ) {
+                total += count;
+                if (total > maxSize) {
+                    rejected.incrementAndGet();
+                    throw SizeLimitedEntity.tooLarge(maxSize, -1);
+                }
+
+                wrapped.clear().limit(count);
+                while (wrapped.hasRemaining()) {
+                    channel.write(wrapped);
+                }
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        spilled.incrementAndGet();
+        return new SpooledBody(file, total);
+    }
+
+    /**
+     * Read from the stream until the given range of the array is full or the stream ends.
+     *
+     * @return the number of bytes read
+     */
+    private static int fill(InputStream in, byte[] bytes, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int count = in.read(bytes, offset + total, length - total);
+            if (-1 == count) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+}
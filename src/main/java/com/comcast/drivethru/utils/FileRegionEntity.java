@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * A repeatable {@link HttpEntity} for a region of a file. The region is copied from the file to the
+ * connection with {@link FileChannel#transferTo} as it is written, so it is never held in memory,
+ * and several entities can cover different regions of the same file at once.
+ */
+public class FileRegionEntity extends AbstractHttpEntity {
+
+    private final Path file;
+    private final long offset;
+    private final long length;
+
+    /**
+     * Construct a new {@link FileRegionEntity}.
+     *
+     * @param file
+     *            the file
+     * @param offset
+     *            the position of the first byte of the region
+     * @param length
+     *            the length of the region in bytes
+     * @param contentType
+     *            the content type or <code>null</code> for none
+     */
+    public FileRegionEntity(Path file, long offset, long length, ContentType contentType) {
+        if ((offset < 0) || (length < 0)) {
+            throw new IllegalArgumentException("Invalid region of " + file + ": " + offset + "+" + length);
+        }
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        if (null != contentType) {
+            setContentType(contentType.toString());
+        }
+    }
+
+    /**
+     * Get the position of the first byte of the region.
+     *
+     * @return the offset of the region
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#isRepeatable()
+     */
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContentLength()
+     */
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#isStreaming()
+     */
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContent()
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        return new InputStream() {
+            private long position = offset;
+            private final long end = offset + length;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return (read(single, 0, 1) < 0) ? -1 : (single[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                int count = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+                if (count < 0) {
+                    throw new EOFException(file + " ended before the end of the region");
+                }
+                position += count;
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(end - position, Integer.MAX_VALUE);
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#writeTo(java.io.OutputStream)
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                long count = channel.transferTo(position, end - position, target);
+                if (count <= 0) {
+                    throw new EOFException(file + " ended before the end of the region");
+                }
+                position += count;
+            }
+        }
+        out.flush();
+    }
+}
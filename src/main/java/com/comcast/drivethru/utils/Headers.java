@@ -0,0 +1,843 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * A compact, ordered, multi-valued collection of HTTP headers with case-insensitive names.
+ * <p>
+ * Headers are kept in two parallel arrays in the order they were added, with an open-addressing
+ * index on the case-insensitive name so that lookups are O(1) without lower-casing (and so
+ * allocating) the name. Well known header names are interned to a single canonical instance.
+ * Indexed access through {@link #size()}, {@link #getName(int)} and {@link #getValue(int)} walks
+ * the headers without allocating.
+ * </p>
+ * <p>
+ * The parsed forms of Content-Type, Content-Length and Cache-Control are computed on first use and
+ * cached until the headers are next modified. Instances are not thread safe.
+ * </p>
+ */
+public class Headers {
+
+    public static final String ACCEPT = "Accept";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String ACCEPT_RANGES = "Accept-Ranges";
+    public static final String AUTHORIZATION = "Authorization";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String CONTENT_DISPOSITION = "Content-Disposition";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String CONTENT_RANGE = "Content-Range";
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String COOKIE = "Cookie";
+    public static final String DATE = "Date";
+    public static final String ETAG = "ETag";
+    public static final String EXPECT = "Expect";
+    public static final String EXPIRES = "Expires";
+    public static final String IF_MATCH = "If-Match";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String IF_RANGE = "If-Range";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String LINK = "Link";
+    public static final String LOCATION = "Location";
+    public static final String PREFER = "Prefer";
+    public static final String RANGE = "Range";
+    public static final String RETRY_AFTER = "Retry-After";
+    public static final String SET_COOKIE = "Set-Cookie";
+    public static final String USER_AGENT = "User-Agent";
+    public static final String VARY = "Vary";
+
+    private static final Map<String, String> WELL_KNOWN = new HashMap<>();
+
+    static {
+        for (String name : new String[] { ACCEPT, ACCEPT_ENCODING, ACCEPT_RANGES, AUTHORIZATION,
+            CACHE_CONTROL, CONTENT_DISPOSITION, CONTENT_ENCODING, CONTENT_LENGTH, CONTENT_RANGE,
+            CONTENT_TYPE, COOKIE, DATE, ETAG, EXPECT, EXPIRES, IF_MATCH, IF_MODIFIED_SINCE,
+            IF_NONE_MATCH, IF_RANGE, LAST_MODIFIED, LINK, LOCATION, RANGE, RETRY_AFTER, SET_COOKIE,
+            USER_AGENT, VARY, "Age", "Connection", "Host", "Keep-Alive", "Pragma", "Server",
+            "Transfer-Encoding" }) {
+            WELL_KNOWN.put(name, name);
+            WELL_KNOWN.put(name.toLowerCase(), name);
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] names;
+    private String[] values;
+    private int[] hashes;
+    private int size;
+
+    /* Open-addressing index: slot -> (entry index + 1), 0 marks an empty slot */
+    private int[] slots;
+
+    /* Lazily parsed values, reset on every modification */
+    private String mediaType;
+    private String charset;
+    private boolean contentTypeParsed;
+    private long contentLength = -2;
+    private CacheControl cacheControl;
+
+    /**
+     * Construct an empty set of headers.
+     */
+    public Headers() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct an empty set of headers sized for the given number of entries.
+     *
+     * @param capacity
+     *            the expected number of headers
+     */
+    public Headers(int capacity) {
+        int length = Math.max(capacity, 1);
+        this.names = new String[length];
+        this.values = new String[length];
+        this.hashes = new int[length];
+        this.slots = new int[tableSize(length)];
+        this.size = 0;
+    }
+
+    /**
+     * Construct a set of headers holding all of the given headers.
+     *
+     * @param headers
+     *            the headers to include
+     */
+    public Headers(Header... headers) {
+        this((null == headers) ? INITIAL_CAPACITY : headers.length);
+        addAll(headers);
+    }
+
+    /**
+     * Get the canonical instance of a well known header name, or the given name if it is not well
+     * known.
+     *
+     * @param name
+     *            the header name
+     *
+     * @return the canonical header name
+     */
+    public static String intern(String name) {
+        if (name.length() > 32) {
+            return name;
+        }
+        String canonical = WELL_KNOWN.get(name);
+        if (null == canonical) {
+            canonical = WELL_KNOWN.get(name.toLowerCase());
+        }
+        return (null == canonical) ? name : canonical;
+    }
+
+    /**
+     * Add a header, keeping any existing values with the same name.
+     *
+     * @param name
+     *            the name of the header
+     * @param value
+     *            the value of the header
+     *
+     * @return <code>this</code>
+     */
+    public Headers add(String name, String value) {
+        if (null == name) {
+            throw new NullPointerException("Header name must not be null");
+        }
+
+        if (size == names.length) {
+            grow();
+        }
+
+        int hash = hash(name);
+        names[size] = intern(name);
+        values[size] = value;
+        hashes[size] = hash;
+        size++;
+        index(size - 1);
+        modified();
+        return this;
+    }
+
+    /**
+     * Add all of the given headers, keeping any existing values.
+     *
+     * @param headers
+     *            the headers to add
+     *
+     * @return <code>this</code>
+     */
+    public Headers addAll(Header... headers) {
+        if (null != headers) {
+            for (Header header : headers) {
+                add(header.getName(), header.getValue());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Set a header, replacing all existing values with the same name.
+     *
+     * @param name
+     *            the name of the header
+     * @param value
+     *            the value of the header
+     *
+     * @return <code>this</code>
+     */
+    public Headers set(String name, String value) {
+        remove(name);
+        return add(name, value);
+    }
+
+    /**
+     * Remove all values of the named header.
+     *
+     * @param name
+     *            the name of the header
+     *
+     * @return <code>true</code> if any header was removed
+     */
+    public boolean remove(String name) {
+        int hash = hash(name);
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if ((hashes[i] == hash) && names[i].equalsIgnoreCase(name)) {
+                continue;
+            }
+            names[kept] = names[i];
+            values[kept] = values[i];
+            hashes[kept] = hashes[i];
+            kept++;
+        }
+
+        if (kept == size) {
+            return false;
+        }
+
+        Arrays.fill(names, kept, size, null);
+        Arrays.fill(values, kept, size, null);
+        size = kept;
+        reindex();
+        modified();
+        return true;
+    }
+
+    /**
+     * Remove all headers.
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(slots, 0);
+        size = 0;
+        modified();
+    }
+
+    /**
+     * Returns <code>true</code> if there is at least one header with the given name.
+     *
+     * @param name
+     *            the name of the header
+     *
+     * @return <code>true</code> if the header is present
+     */
+    public boolean contains(String name) {
+        return -1 != find(name);
+    }
+
+    /**
+     * Get the first value of the named header.
+     *
+     * @param name
+     *            the name of the header
+     *
+     * @return the first value or <code>null</code> if the header is not present
+     */
+    public String getFirst(String name) {
+        int index = find(name);
+        return (-1 == index) ? null : values[index];
+    }
+
+    /**
+     * Get the last value of the named header.
+     *
+     * @param name
+     *            the name of the header
+     *
+     * @return the last value or <code>null</code> if the header is not present
+     */
+    public String getLast(String name) {
+        int first = find(name);
+        if (-1 == first) {
+            return null;
+        }
+
+        int hash = hashes[first];
+        for (int i = size - 1; i > first; i--) {
+            if ((hashes[i] == hash) && names[i].equalsIgnoreCase(name)) {
+                return values[i];
+            }
+        }
+        return values[first];
+    }
+
+    /**
+     * Get every value of the named header in the order they were added.
+     *
+     * @param name
+     *            the name of the header
+     *
+     * @return the values, which is empty if the header is not present
+     */
+    public List<String> getAll(String name) {
+        int first = find(name);
+        if (-1 == first) {
+            return Collections.emptyList();
+        }
+
+        int hash = hashes[first];
+        List<String> all = new ArrayList<>(2);
+        for (int i = first; i < size; i++) {
+            if ((hashes[i] == hash) && names[i].equalsIgnoreCase(name)) {
+                all.add(values[i]);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Get the number of header values.
+     *
+     * @return the number of header values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if there are no headers.
+     *
+     * @return <code>true</code> if there are no headers
+     */
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    /**
+     * Get the name of the header at the given position.
+     *
+     * @param index
+     *            the position, from <code>0</code> to <code>size() - 1</code>
+     *
+     * @return the header name
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * Get the value of the header at the given position.
+     *
+     * @param index
+     *            the position, from <code>0</code> to <code>size() - 1</code>
+     *
+     * @return the header value
+     */
+    public String getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * Get the media type from the Content-Type header without any parameters (i.e.
+     * <code>application/json</code> for <code>application/json; charset=UTF-8</code>).
+     *
+     * @return the media type or <code>null</code> if there is no Content-Type header
+     */
+    public String getMediaType() {
+        parseContentType();
+        return mediaType;
+    }
+
+    /**
+     * Get the charset parameter of the Content-Type header.
+     *
+     * @return the charset or <code>null</code> if there is none
+     */
+    public String getCharset() {
+        parseContentType();
+        return charset;
+    }
+
+    /**
+     * Get the value of the Content-Length header.
+     *
+     * @return the content length or <code>-1</code> if it is absent or invalid
+     */
+    public long getContentLength() {
+        if (-2 == contentLength) {
+            String value = getFirst(CONTENT_LENGTH);
+            long length = -1;
+            if (null != value) {
+                try {
+                    length = Long.parseLong(value.trim());
+                } catch (NumberFormatException nfex) {
+                    length = -1;
+                }
+            }
+            contentLength = (length < 0) ? -1 : length;
+        }
+        return contentLength;
+    }
+
+    /**
+     * Get the parsed Cache-Control directives. Multiple Cache-Control headers are combined.
+     *
+     * @return the cache directives, never <code>null</code>
+     */
+    public CacheControl getCacheControl() {
+        if (null == cacheControl) {
+            cacheControl = CacheControl.parse(getAll(CACHE_CONTROL));
+        }
+        return cacheControl;
+    }
+
+    /**
+     * Get a live {@link Map} view of these headers keyed by name. Lookups are case-insensitive
+     * and return the first value, <code>put</code> replaces every value with the same name, and
+     * iteration visits each name once.
+     *
+     * @return a map view of these headers
+     */
+    public Map<String, String> asMap() {
+        return new MapView();
+    }
+
+    /**
+     * Copy these headers into a new array of {@link Header}s.
+     *
+     * @return the headers
+     */
+    public Header[] toArray() {
+        Header[] array = new Header[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = new BasicHeader(names[i], values[i]);
+        }
+        return array;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            sb.append((i == 0) ? "" : ", ").append(names[i]).append(": ").append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Find the position of the first header with the given name.
+     */
+    private int find(String name) {
+        if ((0 == size) || (null == name)) {
+            return -1;
+        }
+
+        int hash = hash(name);
+        int mask = slots.length - 1;
+        for (int slot = spread(hash) & mask; 0 != slots[slot]; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if ((hashes[index] == hash) && names[index].equalsIgnoreCase(name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Record the entry at the given position in the index, unless an earlier entry with the same
+     * name is already there. Only the first entry of each name is indexed.
+     */
+    private void index(int index) {
+        int hash = hashes[index];
+        String name = names[index];
+        int mask = slots.length - 1;
+        int slot = spread(hash) & mask;
+        while (0 != slots[slot]) {
+            int existing = slots[slot] - 1;
+            if ((hashes[existing] == hash) && names[existing].equalsIgnoreCase(name)) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private void reindex() {
+        Arrays.fill(slots, 0);
+        for (int i = 0; i < size; i++) {
+            index(i);
+        }
+    }
+
+    private void grow() {
+        int length = names.length * 2;
+        names = Arrays.copyOf(names, length);
+        values = Arrays.copyOf(values, length);
+        hashes = Arrays.copyOf(hashes, length);
+        if (tableSize(length) > slots.length) {
+            slots = new int[tableSize(length)];
+            reindex();
+        }
+    }
+
+    private void modified() {
+        contentTypeParsed = false;
+        mediaType = null;
+        charset = null;
+        contentLength = -2;
+        cacheControl = null;
+    }
+
+    private void parseContentType() {
+        if (contentTypeParsed) {
+            return;
+        }
+        contentTypeParsed = true;
+
+        String value = getFirst(CONTENT_TYPE);
+        if (null == value) {
+            return;
+        }
+
+        int semi = value.indexOf(';');
+        mediaType = (-1 == semi) ? value.trim() : value.substring(0, semi).trim();
+
+        while (-1 != semi) {
+            int next = value.indexOf(';', semi + 1);
+            int end = (-1 == next) ? value.length() : next;
+            int equals = value.indexOf('=', semi + 1);
+            if ((-1 != equals) && (equals < end)
+                    && value.substring(semi + 1, equals).trim().equalsIgnoreCase("charset")) {
+                String cs = value.substring(equals + 1, end).trim();
+                if ((cs.length() >= 2) && cs.startsWith("\"") && cs.endsWith("\"")) {
+                    cs = cs.substring(1, cs.length() - 1);
+                }
+                charset = cs;
+                return;
+            }
+            semi = next;
+        }
+    }
+
+    /**
+     * Table size for the given number of entries, a power of two at most half full.
+     */
+    private static int tableSize(int entries) {
+        int size = 4;
+        while (size < entries * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Case-insensitive hash of a header name, computed without allocating.
+     */
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c >= 'A') && (c <= 'Z')) {
+                c += ('a' - 'A');
+            }
+            h = 31 * h + c;
+        }
+        return h;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * The parsed directives of one or more Cache-Control headers.
+     */
+    public static class CacheControl {
+
+        private static final CacheControl EMPTY = new CacheControl();
+
+        private boolean noCache;
+        private boolean noStore;
+        private boolean mustRevalidate;
+        private boolean isPrivate;
+        private boolean isPublic;
+        private long maxAge = -1;
+        private long sharedMaxAge = -1;
+        private long staleWhileRevalidate = -1;
+        private long staleIfError = -1;
+
+        static CacheControl parse(List<String> headers) {
+            if (headers.isEmpty()) {
+                return EMPTY;
+            }
+
+            CacheControl cc = new CacheControl();
+            for (String header : headers) {
+                for (String directive : header.split(",")) {
+                    int equals = directive.indexOf('=');
+                    String name = ((-1 == equals) ? directive : directive.substring(0, equals)).trim()
+                            .toLowerCase();
+                    long seconds = (-1 == equals) ? -1 : seconds(directive.substring(equals + 1));
+
+                    switch (name) {
+                        case "no-cache":
+                            cc.noCache = true;
+                            break;
+                        case "no-store":
+                            cc.noStore = true;
+                            break;
+                        case "must-revalidate":
+                            cc.mustRevalidate = true;
+                            break;
+                        case "private":
+                            cc.isPrivate = true;
+                            break;
+                        case "public":
+                            cc.isPublic = true;
+                            break;
+                        case "max-age":
+                            cc.maxAge = seconds;
+                            break;
+                        case "s-maxage":
+                            cc.sharedMaxAge = seconds;
+                            break;
+                        case "stale-while-revalidate":
+                            cc.staleWhileRevalidate = seconds;
+                            break;
+                        case "stale-if-error":
+                            cc.staleIfError = seconds;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            return cc;
+        }
+
+        private static long seconds(String value) {
+            String trimmed = value.trim();
+            if (trimmed.startsWith("\"") && trimmed.endsWith("\"") && (trimmed.length() >= 2)) {
+                trimmed = trimmed.substring(1, trimmed.length() - 1);
+            }
+            try {
+                return Math.max(-1, Long.parseLong(trimmed));
+            } catch (NumberFormatException nfex) {
+                return -1;
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the no-cache directive is present
+         */
+        public boolean isNoCache() {
+            return noCache;
+        }
+
+        /**
+         * @return <code>true</code> if the no-store directive is present
+         */
+        public boolean isNoStore() {
+            return noStore;
+        }
+
+        /**
+         * @return <code>true</code> if the must-revalidate directive is present
+         */
+        public boolean isMustRevalidate() {
+            return mustRevalidate;
+        }
+
+        /**
+         * @return <code>true</code> if the private directive is present
+         */
+        public boolean isPrivate() {
+            return isPrivate;
+        }
+
+        /**
+         * @return <code>true</code> if the public directive is present
+         */
+        public boolean isPublic() {
+            return isPublic;
+        }
+
+        /**
+         * @return the max-age in seconds or <code>-1</code> if not present
+         */
+        public long getMaxAge() {
+            return maxAge;
+        }
+
+        /**
+         * @return the s-maxage in seconds or <code>-1</code> if not present
+         */
+        public long getSharedMaxAge() {
+            return sharedMaxAge;
+        }
+
+        /**
+         * @return the stale-while-revalidate window in seconds or <code>-1</code> if not present
+         */
+        public long getStaleWhileRevalidate() {
+            return staleWhileRevalidate;
+        }
+
+        /**
+         * @return the stale-if-error window in seconds or <code>-1</code> if not present
+         */
+        public long getStaleIfError() {
+            return staleIfError;
+        }
+    }
+
+    /**
+     * Live, first-value-per-name {@link Map} view of the headers.
+     */
+    private class MapView extends AbstractMap<String, String> {
+
+        @Override
+        public String get(Object key) {
+            return (key instanceof String) ? getFirst((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return (key instanceof String) && contains((String) key);
+        }
+
+        @Override
+        public String put(String key, String value) {
+            String previous = getFirst(key);
+            set(key, value);
+            return previous;
+        }
+
+        @Override
+        public String remove(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            String previous = getFirst((String) key);
+            Headers.this.remove((String) key);
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            Headers.this.clear();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int next = advance(0);
+                        private int last = -1;
+
+                        /* Skip to the next entry that is the first with its name */
+                        private int advance(int from) {
+                            for (int i = from; i < size; i++) {
+                                if (find(names[i]) == i) {
+                                    return i;
+                                }
+                            }
+                            return size;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (next >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            last = next;
+                            next = advance(next + 1);
+                            return new SimpleImmutableEntry<>(names[last], values[last]);
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (-1 == last) {
+                                throw new IllegalStateException();
+                            }
+                            String name = names[last];
+                            Headers.this.remove(name);
+                            next = advance(last);
+                            last = -1;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int count = 0;
+                    for (int i = 0; i < Headers.this.size; i++) {
+                        if (find(names[i]) == i) {
+                            count++;
+                        }
+                    }
+                    return count;
+                }
+            };
+        }
+    }
+}
@@ -15,10 +15,10 @@
  */
 package com.comcast.drivethru.utils;
 
-import java.lang.reflect.Constructor;
-
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
@@ -33,29 +33,63 @@ import com.comcast.drivethru.exception.HttpException;
 public enum Method {
 
     /** HTTP GET Method */
-    GET(HttpGet.class),
+    GET {
+        @Override
+        HttpRequestBase create(String url) {
+            return new HttpGet(url);
+        }
+    },
 
     /** HTTP POST Method */
-    POST(HttpPost.class),
+    POST {
+        @Override
+        HttpRequestBase create(String url) {
+            return new HttpPost(url);
+        }
+    },
 
     /** HTTP PUT Method */
-    PUT(HttpPut.class),
+    PUT {
+        @Override
+        HttpRequestBase create(String url) {
+            return new HttpPut(url);
+        }
+    },
+
+    /** HTTP PATCH Method */
+    PATCH {
+        @Override
+        HttpRequestBase create(String url) {
+            return new HttpPatch(url);
+        }
+    },
 
     /** HTTP DELETE Method */
-    DELETE(HttpDelete.class);
+    DELETE {
+        @Override
+        HttpRequestBase create(String url) {
+            return new HttpDelete(url);
+        }
+    },
 
-    private Class<? extends HttpRequestBase> type;
+    /** HTTP HEAD Method */
+    HEAD {
+        @Override
+        HttpRequestBase create(String url) {
+            return new HttpHead(url);
+        }
+    };
 
     /**
-     * Internal constructor that maps this Method to the Apache HTTP class that represents the given
-     * request type.
+     * Create the Apache HTTP request object for this method. Each method constructs its request
+     * type directly so that no reflection is needed on the request path.
+     *
+     * @param url
+     *            the URL to pass into the constructor of the request object
      *
-     * @param type
-     *            the Apache HTTP request class for this method
+     * @return a new instance of the appropriate Apache HTTP request object
      */
-    private Method(Class<? extends HttpRequestBase> type) {
-        this.type = type;
-    }
+    abstract HttpRequestBase create(String url);
 
     /**
      * Get a new instance of the appropriate Apache HTTP request object for this HTTP method and
@@ -71,9 +105,8 @@ public enum Method {
      */
     public HttpRequestBase getRequest(String url) throws HttpException {
         try {
-            Constructor<? extends HttpRequestBase> constructor = type.getConstructor(String.class);
-            return constructor.newInstance(url);
-        } catch (Exception ex) {
+            return create(url);
+        } catch (RuntimeException ex) {
             throw new HttpException("Failed to create an RestRequest", ex);
         }
     }
@@ -0,0 +1,351 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+
+/**
+ * A <code>multipart/form-data</code> {@link HttpEntity} that is written part by part as it is sent.
+ * File parts are copied from disk to the connection with {@link FileRegionEntity}, and stream parts
+ * are copied through a small buffer, so a form with large attachments is never held in memory. The
+ * boundary is generated when the entity is built and is part of its content type.
+ *
+ * <pre>
+ * MultipartEntity form = new MultipartEntity.Builder()
+ *         .addPart("deviceId", "0123456789")
+ *         .addPart("log", Paths.get("/var/log/device.log"), ContentType.TEXT_PLAIN)
+ *         .build();
+ * </pre>
+ */
+public class MultipartEntity extends AbstractHttpEntity {
+
+    /** The media type of every multipart form */
+    public static final String MULTIPART_FORM_DATA = "multipart/form-data";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] CRLF = "\r\n".getBytes(UTF_8);
+    private static final char[] BOUNDARY_CHARS =
+            "-_0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private static final Random RANDOM = new SecureRandom();
+
+    private final String boundary;
+    private final List<Part> parts;
+    private final byte[] closing;
+    private final long length;
+    private final boolean repeatable;
+
+    private MultipartEntity(String boundary, List<Part> parts) {
+        this.boundary = boundary;
+        this.parts = Collections.unmodifiableList(new ArrayList<>(parts));
+        this.closing = ("--" + boundary + "--\r\n").getBytes(UTF_8);
+
+        long total = closing.length;
+        boolean repeats = true;
+        for (Part part : this.parts) {
+            long size = part.body.getContentLength();
+            total = ((total < 0) || (size < 0)) ? -1 : total + part.header.length + size + CRLF.length;
+            repeats &= part.body.isRepeatable();
+        }
+        this.length = total;
+        this.repeatable = repeats;
+
+        setContentType(MULTIPART_FORM_DATA + "; boundary=" + boundary);
+        setChunked(total < 0);
+    }
+
+    /**
+     * Get the boundary that separates the parts.
+     *
+     * @return the boundary
+     */
+    public String getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Get the number of parts in this form.
+     *
+     * @return the number of parts
+     */
+    public int getPartCount() {
+        return parts.size();
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#isRepeatable()
+     */
+    @Override
+    public boolean isRepeatable() {
+        return repeatable;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContentLength()
+     */
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#isStreaming()
+     */
+    @Override
+    public boolean isStreaming() {
+        return !repeatable;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContent()
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        Vector<InputStream> streams = new Vector<>();
+        for (Part part : parts) {
+            streams.add(new ByteArrayInputStream(part.header));
+            streams.add(part.body.getContent());
+            streams.add(new ByteArrayInputStream(CRLF));
+        }
+        streams.add(new ByteArrayInputStream(closing));
+        return new SequenceInputStream(streams.elements());
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.HttpEntity#writeTo(java.io.OutputStream)
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        for (Part part : parts) {
+            out.write(part.header);
+            part.body.writeTo(out);
+            out.write(CRLF);
+        }
+        out.write(closing);
+        out.flush();
+    }
+
+    /**
+     * Quote a parameter of the <code>Content-Disposition</code> header the way browsers do, so that
+     * a name can't end the header or the quoted string early.
+     */
+    static String quote(String value) {
+        return "\"" + value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A") + "\"";
+    }
+
+    /**
+     * Generate a random boundary that is very unlikely to appear in any part.
+     */
+    static String generateBoundary() {
+        char[] boundary = new char[32];
+        for (int i = 0; i < boundary.length; i++) {
+            boundary[i] = BOUNDARY_CHARS[RANDOM.nextInt(BOUNDARY_CHARS.length)];
+        }
+        return new String(boundary);
+    }
+
+    /**
+     * A single part: its encoded headers and its body.
+     */
+    private static class Part {
+
+        private final byte[] header;
+        private final HttpEntity body;
+
+        Part(byte[] header, HttpEntity body) {
+            this.header = header;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Builds a {@link MultipartEntity}. Parts are sent in the order they are added.
+     */
+    public static class Builder {
+
+        private final String boundary;
+        private final List<Part> parts = new ArrayList<>();
+
+        /**
+         * Construct a new {@link Builder} with a random boundary.
+         */
+        public Builder() {
+            this(generateBoundary());
+        }
+
+        /**
+         * Construct a new {@link Builder} with the given boundary.
+         *
+         * @param boundary
+         *            the boundary that separates the parts
+         */
+        public Builder(String boundary) {
+            if ((null == boundary) || boundary.isEmpty() || (boundary.length() > 70)) {
+                throw new IllegalArgumentException("Invalid boundary: " + boundary);
+            }
+            this.boundary = boundary;
+        }
+
+        /**
+         * Add a text field encoded as UTF-8.
+         *
+         * @param name
+         *            the name of the field
+         * @param value
+         *            the value of the field
+         *
+         * @return <code>this</code>
+         */
+        public Builder addPart(String name, String value) {
+            return addPart(name, null, new ByteArrayEntity(value.getBytes(UTF_8)),
+                    ContentType.TEXT_PLAIN.withCharset(UTF_8));
+        }
+
+        /**
+         * Add a part from an array of bytes.
+         *
+         * @param name
+         *            the name of the field
+         * @param data
+         *            the content of the part
+         * @param contentType
+         *            the content type of the part or <code>null</code> for
+         *            <code>application/octet-stream</code>
+         *
+         * @return <code>this</code>
+         */
+        public Builder addPart(String name, byte[] data, ContentType contentType) {
+            return addPart(name, null, new ByteArrayEntity(data), contentType);
+        }
+
+        /**
+         * Add a file that is streamed from disk when the entity is written. The file name is sent as
+         * the part's file name and the file must not change size until the request is sent.
+         *
+         * @param name
+         *            the name of the field
+         * @param file
+         *            the file to send
+         * @param contentType
+         *            the content type of the part or <code>null</code> for
+         *            <code>application/octet-stream</code>
+         *
+         * @return <code>this</code>
+         *
+         * @throws IOException
+         *             if the size of the file can't be read
+         */
+        public Builder addPart(String name, Path file, ContentType contentType) throws IOException {
+            return addPart(name, String.valueOf(file.getFileName()),
+                    new FileRegionEntity(file, 0, Files.size(file), null), contentType);
+        }
+
+        /**
+         * Add a part that is copied from a stream when the entity is written. The stream can only be
+         * read once, so an entity with a stream part is not repeatable.
+         *
+         * @param name
+         *            the name of the field
+         * @param stream
+         *            the content of the part
+         * @param length
+         *            the number of bytes in the stream or <code>-1</code> if it is unknown, in which
+         *            case the entity is sent chunked
+         * @param filename
+         *            the file name of the part or <code>null</code> for none
+         * @param contentType
+         *            the content type of the part or <code>null</code> for
+         *            <code>application/octet-stream</code>
+         *
+         * @return <code>this</code>
+         */
+        public Builder addPart(String name, InputStream stream, long length, String filename,
+                ContentType contentType) {
+            return addPart(name, filename, new InputStreamEntity(stream, length), contentType);
+        }
+
+        /**
+         * Add a part with any entity as its body.
+         *
+         * @param name
+         *            the name of the field
+         * @param filename
+         *            the file name of the part or <code>null</code> for none
+         * @param body
+         *            the content of the part
+         * @param contentType
+         *            the content type of the part or <code>null</code> for
+         *            <code>application/octet-stream</code>
+         *
+         * @return <code>this</code>
+         */
+        public Builder addPart(String name, String filename, HttpEntity body, ContentType contentType) {
+            if (null == name) {
+                throw new IllegalArgumentException("Every part must have a name");
+            }
+
+            StringBuilder header = new StringBuilder();
+            header.append("--").append(boundary).append("\r\n");
+            header.append(Headers.CONTENT_DISPOSITION).append(": form-data; name=").append(quote(name));
+            if (null != filename) {
+                header.append("; filename=").append(quote(filename));
+            }
+            header.append("\r\n");
+            header.append(Headers.CONTENT_TYPE).append(": ")
+                    .append((null == contentType) ? ContentType.APPLICATION_OCTET_STREAM : contentType);
+            header.append("\r\n\r\n");
+
+            parts.add(new Part(header.toString().getBytes(UTF_8), body));
+            return this;
+        }
+
+        /**
+         * Returns <code>true</code> if no parts have been added.
+         *
+         * @return <code>true</code> if there are no parts
+         */
+        public boolean isEmpty() {
+            return parts.isEmpty();
+        }
+
+        /**
+         * Build the entity from the parts added so far.
+         *
+         * @return the new entity
+         */
+        public MultipartEntity build() {
+            return new MultipartEntity(boundary, parts);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+/**
+ * A table driven, UTF-8 percent-encoder. Each encoder has a fixed table of ASCII characters that
+ * are written as-is; every other character is written as one <code>%XX</code> triplet per UTF-8
+ * byte. Encoding writes straight into a caller supplied {@link StringBuilder}, and
+ * {@link #encode(String)} returns the input unchanged (without allocating) when nothing needs to be
+ * escaped.
+ */
+public class PercentEncoder {
+
+    private static final String ALPHANUMERIC =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Encodes the same way as <code>URLEncoder.encode(value, "UTF-8")</code> except that spaces
+     * become <code>%20</code> instead of <code>+</code>. This is what {@link URL} uses for query
+     * keys and values.
+     */
+    public static final PercentEncoder FORM = new PercentEncoder(ALPHANUMERIC + ".-*_", false);
+
+    /** Encodes everything except the RFC 3986 unreserved characters */
+    public static final PercentEncoder UNRESERVED = new PercentEncoder(ALPHANUMERIC + "-._~", false);
+
+    /**
+     * Encodes everything except the RFC 3986 unreserved and reserved characters. Existing
+     * <code>%XX</code> triplets are passed through untouched.
+     */
+    public static final PercentEncoder RESERVED = new PercentEncoder(ALPHANUMERIC + "-._~"
+            + ":/?#[]@!$&'()*+,;=", true);
+
+    private final boolean[] safe;
+    private final boolean keepTriplets;
+
+    /**
+     * Construct a new {@link PercentEncoder}.
+     *
+     * @param safeChars
+     *            the ASCII characters that are never escaped
+     * @param keepTriplets
+     *            if <code>true</code>, valid <code>%XX</code> triplets in the input are kept as-is
+     */
+    public PercentEncoder(String safeChars, boolean keepTriplets) {
+        this.safe = new boolean[128];
+        for (int i = 0; i < safeChars.length(); i++) {
+            char c = safeChars.charAt(i);
+            if (c >= 128) {
+                throw new IllegalArgumentException("Only ASCII characters can be left unescaped");
+            }
+            safe[c] = true;
+        }
+        this.keepTriplets = keepTriplets;
+    }
+
+    /**
+     * Encode the given value. If no character needs escaping the value itself is returned.
+     *
+     * @param value
+     *            the value to encode
+     *
+     * @return the encoded value
+     */
+    public String encode(String value) {
+        int first = firstUnsafe(value, 0, value.length());
+        if (first == value.length()) {
+            return value;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        sb.append(value, 0, first);
+        encodeFrom(value, first, value.length(), sb);
+        return sb.toString();
+    }
+
+    /**
+     * Encode the given value, appending the result to the given builder.
+     *
+     * @param value
+     *            the value to encode
+     * @param out
+     *            the builder to append to
+     *
+     * @return the given builder
+     */
+    public StringBuilder encode(CharSequence value, StringBuilder out) {
+        return encode(value, 0, value.length(), out);
+    }
+
+    /**
+     * Encode a range of the given value, appending the result to the given builder.
+     *
+     * @param value
+     *            the value to encode
+     * @param start
+     *            the index of the first character to encode
+     * @param end
+     *            the index after the last character to encode
+     * @param out
+     *            the builder to append to
+     *
+     * @return the given builder
+     */
+    public StringBuilder encode(CharSequence value, int start, int end, StringBuilder out) {
+        int first = firstUnsafe(value, start, end);
+        out.append(value, start, first);
+        if (first < end) {
+            encodeFrom(value, first, end, out);
+        }
+        return out;
+    }
+
+    /**
+     * Find the index of the first character in the range that must be escaped.
+     */
+    private int firstUnsafe(CharSequence value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if ((c >= 128) || !safe[c]) {
+                if (!(keepTriplets && isTriplet(value, i, end))) {
+                    return i;
+                }
+                i += 2;
+            }
+        }
+        return end;
+    }
+
+    private void encodeFrom(CharSequence value, int start, int end, StringBuilder out) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                if (safe[c]) {
+                    out.append(c);
+                } else if (keepTriplets && isTriplet(value, i, end)) {
+                    out.append(value, i, i + 3);
+                    i += 2;
+                } else {
+                    escape(c, out);
+                }
+            } else if (c < 0x800) {
+                escape(0xC0 | (c >> 6), out);
+                escape(0x80 | (c & 0x3F), out);
+            } else if (Character.isHighSurrogate(c) && (i + 1 < end)
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                escape(0xF0 | (cp >> 18), out);
+                escape(0x80 | ((cp >> 12) & 0x3F), out);
+                escape(0x80 | ((cp >> 6) & 0x3F), out);
+                escape(0x80 | (cp & 0x3F), out);
+            } else if (Character.isSurrogate(c)) {
+                /* Unpaired surrogates can't be encoded, replace them just like String.getBytes */
+                escape('?', out);
+            } else {
+                escape(0xE0 | (c >> 12), out);
+                escape(0x80 | ((c >> 6) & 0x3F), out);
+                escape(0x80 | (c & 0x3F), out);
+            }
+        }
+    }
+
+    private static void escape(int b, StringBuilder out) {
+        out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    private static boolean isTriplet(CharSequence value, int index, int end) {
+        return (value.charAt(index) == '%') && (index + 2 < end) && isHex(value.charAt(index + 1))
+                && isHex(value.charAt(index + 2));
+    }
+
+    private static boolean isHex(char c) {
+        return ((c >= '0') && (c <= '9')) || ((c >= 'A') && (c <= 'F')) || ((c >= 'a') && (c <= 'f'));
+    }
+}
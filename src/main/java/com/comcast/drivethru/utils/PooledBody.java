@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A {@link ResponseBody} made up of a sequence of chunks drawn from a {@link BufferPool}. The
+ * chunks are returned to the pool when the body is closed.
+ */
+public class PooledBody implements ResponseBody {
+
+    private final BufferPool pool;
+    private final List<ByteBuffer> chunks;
+    private final long length;
+    private boolean closed;
+
+    /**
+     * Construct a new {@link PooledBody} from the given chunks. Each chunk must already be
+     * flipped so that its content lies between position <code>0</code> and its limit.
+     *
+     * @param pool
+     *            the pool the chunks are returned to when this is closed
+     * @param chunks
+     *            the filled chunks, in order
+     */
+    public PooledBody(BufferPool pool, List<ByteBuffer> chunks) {
+        this.pool = pool;
+        this.chunks = chunks;
+        this.closed = false;
+
+        long total = 0;
+        for (ByteBuffer chunk : chunks) {
+            total += chunk.remaining();
+        }
+        this.length = total;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#length()
+     */
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#toByteArray()
+     */
+    @Override
+    public synchronized byte[] toByteArray() {
+        checkOpen();
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Body is too large for a byte array: " + length);
+        }
+
+        byte[] bytes = new byte[(int) length];
+        int offset = 0;
+        for (ByteBuffer chunk : chunks) {
+            ByteBuffer view = chunk.duplicate();
+            int count = view.remaining();
+            view.get(bytes, offset, count);
+            offset += count;
+        }
+        return bytes;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#getInputStream()
+     */
+    @Override
+    public synchronized InputStream getInputStream() {
+        checkOpen();
+        return new ChunkInputStream();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#close()
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            for (ByteBuffer chunk : chunks) {
+                pool.release(chunk);
+            }
+            chunks.clear();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Body has already been released");
+        }
+    }
+
+    /**
+     * An {@link InputStream} that walks the chunks through independent views so that multiple
+     * streams may be open at once.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private int index = 0;
+        private ByteBuffer current = null;
+
+        private boolean advance() {
+            while ((null == current) || !current.hasRemaining()) {
+                synchronized (PooledBody.this) {
+                    checkOpen();
+                    if (index >= chunks.size()) {
+                        return false;
+                    }
+                    current = chunks.get(index++).duplicate();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            return advance() ? (current.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (null == current) ? 0 : current.remaining();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import org.apache.http.HttpEntity;
+
+/**
+ * A <i>RequestCompression</i> describes if and how the body of an outgoing request should be
+ * compressed. Bodies smaller than the configured threshold are sent as-is since compressing them
+ * usually costs more than it saves. Compression is performed while the body is being written to
+ * the connection so no second, compressed copy of the body is ever held in memory.
+ * <p>
+ * Only enable compression for backends that are known to accept a compressed request body (a
+ * <code>Content-Encoding</code> header on a request is not universally supported).
+ * </p>
+ */
+public class RequestCompression {
+
+    /** The default minimum body size (1 KB) before compression is applied */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    /** A {@link RequestCompression} that never compresses, used to opt a request out */
+    public static final RequestCompression NONE = new RequestCompression(null, Integer.MAX_VALUE);
+
+    /**
+     * The supported content encodings for request bodies.
+     */
+    public enum Encoding {
+
+        /** The <code>gzip</code> encoding */
+        GZIP("gzip"),
+
+        /** The <code>deflate</code> (zlib) encoding */
+        DEFLATE("deflate");
+
+        private String token;
+
+        private Encoding(String token) {
+            this.token = token;
+        }
+
+        /**
+         * Get the value used for this encoding in the <code>Content-Encoding</code> header.
+         *
+         * @return the content coding token
+         */
+        public String getToken() {
+            return token;
+        }
+    }
+
+    private final Encoding encoding;
+    private final int threshold;
+
+    /**
+     * Construct a new {@link RequestCompression} using the given encoding and the
+     * {@link #DEFAULT_THRESHOLD}.
+     *
+     * @param encoding
+     *            the encoding to compress with
+     */
+    public RequestCompression(Encoding encoding) {
+        this(encoding, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Construct a new {@link RequestCompression} using the given encoding for all bodies at least
+     * <code>threshold</code> bytes long.
+     *
+     * @param encoding
+     *            the encoding to compress with
+     * @param threshold
+     *            the minimum body size in bytes that will be compressed
+     */
+    public RequestCompression(Encoding encoding, int threshold) {
+        this.encoding = encoding;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Get the encoding used for compression.
+     *
+     * @return the encoding or <code>null</code> if this never compresses
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Get the minimum body size in bytes that will be compressed.
+     *
+     * @return the threshold
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns <code>true</code> if a body of the given length should be compressed.
+     *
+     * @param length
+     *            the length of the body in bytes
+     *
+     * @return <code>true</code> if a body of the given length should be compressed
+     */
+    public boolean shouldCompress(long length) {
+        return (null != encoding) && (length >= threshold);
+    }
+
+    /**
+     * Wrap the given entity so that it is compressed as it is written. The returned entity
+     * advertises the encoding through {@link HttpEntity#getContentEncoding()} which the HTTP
+     * engine turns into the <code>Content-Encoding</code> request header.
+     *
+     * @param entity
+     *            the entity to compress
+     *
+     * @return the compressing entity
+     */
+    public HttpEntity compress(HttpEntity entity) {
+        return new CompressingEntity(entity, encoding);
+    }
+}
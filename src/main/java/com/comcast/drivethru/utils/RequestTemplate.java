@@ -0,0 +1,391 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.message.BasicHeader;
+
+import com.comcast.drivethru.transform.Transformer;
+
+/**
+ * A <i>RequestTemplate</i> captures everything about a request that is the same on every call, so
+ * that it is computed once rather than on every execution. This is intended for the highest
+ * traffic endpoints of a service. A template is immutable and may be shared between threads.
+ * <p>
+ * The path may contain variables in curly braces (i.e. <code>/users/{id}/photos</code>). Each call
+ * then only binds the variable parts:
+ * </p>
+ *
+ * <pre>
+ * static final RequestTemplate&lt;User&gt; GET_USER = new RequestTemplate.Builder&lt;&gt;(Method.GET,
+ *         "/users/{id}", User.class).timeout(2000).build();
+ *
+ * User user = client.execute(GET_USER, userId);
+ * </pre>
+ *
+ * @param <T>
+ *            the Java type of the response body
+ */
+public class RequestTemplate<T> {
+
+    private static final int[] GET_STATUS = { HttpStatus.SC_OK };
+    private static final int[] WRITE_STATUS = { HttpStatus.SC_OK, HttpStatus.SC_CREATED,
+        HttpStatus.SC_NO_CONTENT };
+    private static final int[] DELETE_STATUS = { HttpStatus.SC_OK, HttpStatus.SC_ACCEPTED,
+        HttpStatus.SC_NO_CONTENT };
+
+    private final Method method;
+    private final String baseUrl;
+    private final UrlTemplate path;
+    private final Header[] headers;
+    private final RequestConfig config;
+    private final Class<T> responseType;
+    private final Transformer transformer;
+    private final int[] acceptedStatus;
+
+    /**
+     * Internal constructor used by the {@link Builder}.
+     *
+     * @param builder
+     *            the builder holding the template settings
+     */
+    private RequestTemplate(Builder<T> builder) {
+        this.method = builder.method;
+        this.baseUrl = builder.baseUrl;
+        this.headers = builder.headers.toArray(new Header[builder.headers.size()]);
+        this.config = builder.config.build();
+        this.responseType = builder.responseType;
+        this.transformer = builder.transformer;
+        this.acceptedStatus = (null != builder.acceptedStatus) ? builder.acceptedStatus
+                : defaultStatus(method);
+
+        String normalized = (builder.path.startsWith("/") ? "" : "/") + builder.path;
+        this.path = new UrlTemplate(normalized, builder.cacheSize);
+    }
+
+    private static int[] defaultStatus(Method method) {
+        switch (method) {
+            case GET:
+            case HEAD:
+                return GET_STATUS;
+            case DELETE:
+                return DELETE_STATUS;
+            default:
+                return WRITE_STATUS;
+        }
+    }
+
+    /**
+     * Get the HTTP method.
+     *
+     * @return the HTTP method
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Get the base URL.
+     *
+     * @return the base URL or <code>null</code> if the client default should be used
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Get the names of the path variables in the order they must be bound.
+     *
+     * @return the path variable names
+     */
+    public String[] getVariables() {
+        return path.getVariables();
+    }
+
+    /**
+     * Get the parsed path template.
+     *
+     * @return the path template
+     */
+    public UrlTemplate getPath() {
+        return path;
+    }
+
+    /**
+     * Get the headers included with every request bound from this template. The returned array
+     * is shared and must not be modified.
+     *
+     * @return the headers
+     */
+    public Header[] getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Get the request configuration shared by every request bound from this template.
+     *
+     * @return the request configuration
+     */
+    public RequestConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Get the Java type of the response body.
+     *
+     * @return the response type or <code>void.class</code> if the body is ignored
+     */
+    public Class<T> getResponseType() {
+        return responseType;
+    }
+
+    /**
+     * Get the transformer for the response body.
+     *
+     * @return the transformer or <code>null</code> if the client transformer should be used
+     */
+    public Transformer getTransformer() {
+        return transformer;
+    }
+
+    /**
+     * Returns <code>true</code> if the given status code is an acceptable response for this
+     * template.
+     *
+     * @param statusCode
+     *            the status code
+     *
+     * @return <code>true</code> if the status code is acceptable
+     */
+    public boolean accepts(int statusCode) {
+        for (int status : acceptedStatus) {
+            if (status == statusCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build the encoded path with the given values substituted for the path variables. The path
+     * is an RFC 6570 template, see {@link UrlTemplate} for the supported expressions.
+     *
+     * @param values
+     *            the values of the path variables in order
+     *
+     * @return the encoded path
+     */
+    public String expand(Object... values) {
+        return path.expand(values);
+    }
+
+    /**
+     * Create a new request from this template with the given values for the path variables. Query
+     * parameters, additional headers and a body may still be added to the returned request.
+     *
+     * @param values
+     *            the values of the path variables in order
+     *
+     * @return a new request bound from this template
+     */
+    public RestRequest bind(Object... values) {
+        return new RestRequest(new URL(baseUrl, expand(values)), this);
+    }
+
+    /**
+     * Builder for creating {@link RequestTemplate}s.
+     *
+     * @param <T>
+     *            the Java type of the response body
+     */
+    public static class Builder<T> {
+
+        private Method method;
+        private String path;
+        private Class<T> responseType;
+        private String baseUrl = null;
+        private List<Header> headers = new ArrayList<>();
+        private RequestConfig.Builder config = RequestConfig.custom();
+        private Transformer transformer = null;
+        private int[] acceptedStatus = null;
+        private int cacheSize = 0;
+
+        /**
+         * Start building a template for the given method and path.
+         *
+         * @param method
+         *            the HTTP method
+         * @param path
+         *            the relative path, optionally containing <code>{variables}</code>
+         * @param responseType
+         *            the Java type of the response body or <code>void.class</code> to ignore it
+         */
+        public Builder(Method method, String path, Class<T> responseType) {
+            this.method = method;
+            this.path = path;
+            this.responseType = responseType;
+        }
+
+        /**
+         * Set the base URL. If not set, the executing client's default base URL is used.
+         *
+         * @param baseUrl
+         *            the base URL
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> baseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+            return this;
+        }
+
+        /**
+         * Add a header that is sent with every request.
+         *
+         * @param name
+         *            the name of the header
+         * @param value
+         *            the value of the header
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> header(String name, String value) {
+            this.headers.add(new BasicHeader(name, value));
+            return this;
+        }
+
+        /**
+         * Set the Content-Type header sent with every request.
+         *
+         * @param contentType
+         *            the content type
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> contentType(String contentType) {
+            return header("Content-Type", contentType);
+        }
+
+        /**
+         * Set the socket timeout.
+         *
+         * @param timeout
+         *            the timeout in milliseconds
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> timeout(int timeout) {
+            this.config.setSocketTimeout(timeout);
+            return this;
+        }
+
+        /**
+         * Set the connect timeout.
+         *
+         * @param timeout
+         *            the timeout in milliseconds
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> connectTimeout(int timeout) {
+            this.config.setConnectTimeout(timeout);
+            return this;
+        }
+
+        /**
+         * Enable or disable following redirects.
+         *
+         * @param redirectsEnabled
+         *            <code>true</code> to follow redirects
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> redirectsEnabled(boolean redirectsEnabled) {
+            this.config.setRedirectsEnabled(redirectsEnabled);
+            return this;
+        }
+
+        /**
+         * Replace the request configuration entirely.
+         *
+         * @param config
+         *            the request configuration
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> config(RequestConfig config) {
+            this.config = RequestConfig.copy(config);
+            return this;
+        }
+
+        /**
+         * Set the transformer used for the response body. If not set, the executing client's
+         * transformer is used.
+         *
+         * @param transformer
+         *            the transformer
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> transformer(Transformer transformer) {
+            this.transformer = transformer;
+            return this;
+        }
+
+        /**
+         * Set the acceptable response status codes. By default these follow the same rules as
+         * the corresponding {@link com.comcast.drivethru.RestClient} methods.
+         *
+         * @param statusCodes
+         *            the acceptable status codes
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> accept(int... statusCodes) {
+            this.acceptedStatus = statusCodes.clone();
+            return this;
+        }
+
+        /**
+         * Cache up to the given number of expanded paths, keyed by the values they were expanded
+         * from. This pays off for endpoints that are called over and over with the same handful
+         * of values.
+         *
+         * @param cacheSize
+         *            the number of expanded paths to cache
+         *
+         * @return <code>this</code>
+         */
+        public Builder<T> cacheExpansions(int cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * Create the {@link RequestTemplate}.
+         *
+         * @return the new template
+         */
+        public RequestTemplate<T> build() {
+            return new RequestTemplate<>(this);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.io.Closeable;
+import java.io.InputStream;
+
+/**
+ * A <i>ResponseBody</i> is a view over the bytes of a response body that may be backed by
+ * resources (such as pooled buffers) that must be released through {@link #close()} once the body
+ * is no longer needed.
+ */
+public interface ResponseBody extends Closeable {
+
+    /**
+     * Get the length of the body in bytes.
+     *
+     * @return the length of the body
+     */
+    long length();
+
+    /**
+     * Get the full body as an array of bytes. Implementations may copy the body so callers that
+     * only need to read it once should prefer {@link #getInputStream()}.
+     *
+     * @return the body as an array of bytes
+     */
+    byte[] toByteArray();
+
+    /**
+     * Get a new stream over the body. Each call returns an independent stream starting at the
+     * beginning of the body.
+     *
+     * @return a stream over the body
+     */
+    InputStream getInputStream();
+
+    /**
+     * Release any resources held by this body. The body may not be read after it is closed.
+     */
+    @Override
+    void close();
+}
@@ -15,9 +15,10 @@
  */
 package com.comcast.drivethru.utils;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.client.config.RequestConfig;
 
 /**
@@ -29,10 +30,15 @@ public class RestRequest {
 
     private URL url;
     private Method method;
-    private Map<String, String> headers;
+    private Headers headers;
     private byte[] body;
+    private HttpEntity entity;
     private RequestConfig config = null;
-    private RequestConfig.Builder configBuilder = RequestConfig.custom();
+    private RequestConfig.Builder configBuilder = null;
+    private RequestCompression compression = null;
+    private RequestTemplate<?> template = null;
+    private long deadline = 0;
+    private String routingKey = null;
 
     /**
      * Construct a new {@link RestRequest} with the given relative path and method.
@@ -57,8 +63,33 @@ public class RestRequest {
     public RestRequest(URL url, Method method) {
         this.url = url;
         this.method = method;
-        this.headers = new HashMap<>();
+        this.headers = null;
         this.body = null;
+        this.entity = null;
+    }
+
+    /**
+     * Construct a new {@link RestRequest} bound from the given template. The template's headers
+     * and configuration are shared rather than copied.
+     *
+     * @param url
+     *            the URL for the request
+     * @param template
+     *            the template this request was bound from
+     */
+    RestRequest(URL url, RequestTemplate<?> template) {
+        this(url, template.getMethod());
+        this.template = template;
+        this.config = template.getConfig();
+    }
+
+    /**
+     * Get the template this request was bound from.
+     *
+     * @return the template or <code>null</code> if this request was not created from a template
+     */
+    public RequestTemplate<?> getTemplate() {
+        return template;
     }
 
     /**
@@ -80,16 +111,41 @@ public class RestRequest {
     }
 
     /**
-     * Get all headers as a map.
+     * Get all headers as a map. The map is a live, case-insensitive view of
+     * {@link #getAllHeaders()} holding the first value of each header.
      *
      * @return all headers
      */
     public Map<String, String> getHeaders() {
+        return getAllHeaders().asMap();
+    }
+
+    /**
+     * Get all headers added directly to this request.
+     *
+     * @return all headers
+     */
+    public Headers getAllHeaders() {
+        if (null == headers) {
+            headers = new Headers();
+        }
         return headers;
     }
 
     /**
-     * Add a header to this request.
+     * Returns <code>true</code> if any headers have been added directly to this request. Headers
+     * shared from a {@link RequestTemplate} are not included.
+     *
+     * @return <code>true</code> if any headers have been added to this request
+     */
+    public boolean hasHeaders() {
+        return (null != headers) && !headers.isEmpty();
+    }
+
+    /**
+     * Add a header to this request, replacing any value already added with the same name. This is
+     * the same as {@link #setHeader(String, String)}; use {@link #appendHeader(String, String)} to
+     * send more than one value.
      *
      * @param name
      *            the name of the header
@@ -97,7 +153,32 @@ public class RestRequest {
      *            the value of the header
      */
     public void addHeader(String name, String value) {
-        this.headers.put(name, value);
+        setHeader(name, value);
+    }
+
+    /**
+     * Append a value to a header of this request. Any values already added with the same name are
+     * kept, so the header is sent once for each value.
+     *
+     * @param name
+     *            the name of the header
+     * @param value
+     *            the value of the header
+     */
+    public void appendHeader(String name, String value) {
+        getAllHeaders().add(name, value);
+    }
+
+    /**
+     * Set a header on this request, replacing any values already added with the same name.
+     *
+     * @param name
+     *            the name of the header
+     * @param value
+     *            the value of the header
+     */
+    public void setHeader(String name, String value) {
+        getAllHeaders().set(name, value);
     }
 
     /**
@@ -119,7 +200,7 @@ public class RestRequest {
      *            the content type
      */
     public void setContentType(String type) {
-        this.headers.put("Content-Type", type);
+        getAllHeaders().set(Headers.CONTENT_TYPE, type);
     }
 
     /**
@@ -130,6 +211,7 @@ public class RestRequest {
      */
     public void setBody(String body) {
         this.body = body.getBytes();
+        this.entity = null;
     }
 
     /**
@@ -140,31 +222,169 @@ public class RestRequest {
      */
     public void setBody(byte[] body) {
         this.body = body;
+        this.entity = null;
+    }
+
+    /**
+     * Set the body as an {@link HttpEntity} that is written straight to the connection, for bodies
+     * that are too large to hold in memory. The entity should be repeatable if the request may be
+     * retried.
+     *
+     * @param entity
+     *            the body as an entity
+     */
+    public void setBody(HttpEntity entity) {
+        this.entity = entity;
+        this.body = null;
     }
 
     /**
      * Get the body as an array of bytes.
      *
-     * @return the body as an array of bytes
+     * @return the body as an array of bytes or <code>null</code> if there is none or it was set as
+     *         an entity
      */
     public byte[] getBody() {
         return body;
     }
 
+    /**
+     * Get the body set as an {@link HttpEntity}.
+     *
+     * @return the body as an entity or <code>null</code> if there is none or it was set as bytes
+     */
+    public HttpEntity getEntity() {
+        return entity;
+    }
+
+    /**
+     * Set the compression to apply to the body of this request. This overrides any compression
+     * configured on the client that executes the request. Use {@link RequestCompression#NONE} to
+     * send this body uncompressed regardless of the client configuration.
+     *
+     * @param compression
+     *            the compression to apply or <code>null</code> to use the client configuration
+     */
+    public void setCompression(RequestCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Get the compression to apply to the body of this request.
+     *
+     * @return the compression or <code>null</code> if the client configuration should be used
+     */
+    public RequestCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Set an absolute deadline for this request. The deadline covers everything from waiting for a
+     * pooled connection through reading the last byte of the response, including any retries.
+     * Work still in progress when the deadline passes is aborted, and a request that is already
+     * past its deadline is not sent at all.
+     *
+     * @param deadline
+     *            the deadline in milliseconds since the epoch or <code>0</code> for none
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Set the deadline of this request relative to now.
+     *
+     * @param timeout
+     *            the time allowed for this request
+     * @param unit
+     *            the unit of the timeout
+     *
+     * @see #setDeadline(long)
+     */
+    public void setDeadline(long timeout, TimeUnit unit) {
+        this.deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+    }
+
+    /**
+     * Get the absolute deadline of this request.
+     *
+     * @return the deadline in milliseconds since the epoch or <code>0</code> if there is none
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns <code>true</code> if this request has a deadline.
+     *
+     * @return <code>true</code> if this request has a deadline
+     */
+    public boolean hasDeadline() {
+        return 0 != deadline;
+    }
+
+    /**
+     * Get the time left until the deadline of this request.
+     *
+     * @return the time left in milliseconds, which is negative once the deadline has passed, or
+     *         {@link Long#MAX_VALUE} if there is no deadline
+     */
+    public long getRemaining() {
+        return (0 == deadline) ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+
+    /**
+     * Set the key that routes this request to a particular backend. A client with a
+     * {@link com.comcast.drivethru.client.ConsistentHashRouter} sends every request with the same
+     * key to the same base URL, in place of its default base URL, so that backends keeping
+     * per-entity state see all the requests for their entities. The key has no effect on a URL
+     * that sets its own base URL.
+     *
+     * @param routingKey
+     *            the routing key, typically the ID of the entity the request is about, or
+     *            <code>null</code> to use the default base URL
+     */
+    public void setRoutingKey(String routingKey) {
+        this.routingKey = routingKey;
+    }
+
+    /**
+     * Get the key that routes this request to a particular backend.
+     *
+     * @return the routing key or <code>null</code> if there is none
+     */
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
     public void setTimeout(int timeout) {
-        this.configBuilder.setSocketTimeout(timeout);
+        getConfigBuilder().setSocketTimeout(timeout);
     }
 
     public void setRedirectsEnabled(boolean redirectsEnabled) {
-        this.configBuilder.setRedirectsEnabled(redirectsEnabled);
+        getConfigBuilder().setRedirectsEnabled(redirectsEnabled);
     }
 
     public void setConfig(RequestConfig config) {
         this.config = config;
+        this.configBuilder = null;
     }
 
     public RequestConfig getConfig() {
         if (config != null) return config;
+        if (configBuilder == null) return RequestConfig.DEFAULT;
         return configBuilder.build();
     }
+
+    /**
+     * Get the builder for this request's configuration, seeding it from any configuration that
+     * was already set so that individual settings can still be adjusted.
+     */
+    private RequestConfig.Builder getConfigBuilder() {
+        if (configBuilder == null) {
+            configBuilder = (config == null) ? RequestConfig.custom() : RequestConfig.copy(config);
+            config = null;
+        }
+        return configBuilder;
+    }
 }
@@ -15,23 +15,29 @@
  */
 package com.comcast.drivethru.utils;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.apache.http.Header;
 import org.apache.http.StatusLine;
 
 /**
- * A <i>RestResponse</i> represents the result of executing a HTTP request.
+ * A <i>RestResponse</i> represents the result of executing a HTTP request. A response may hold on
+ * to pooled resources for its body, so it should be closed once the body is no longer needed. The
+ * body remains available through {@link #getBody()} if it was read before closing.
  *
  * @author <a href="mailto:cmalmgren@gmail.com">Clark Malmgren</a>
  */
-public class RestResponse {
+public class RestResponse implements Closeable {
 
     private int statusCode;
     private String statusMessage;
-    private Map<String, String> headers;
+    private Headers headers;
     private byte[] body;
+    private ResponseBody content;
 
     /**
      * Construct a new {@link RestResponse} with the given status.
@@ -54,8 +60,9 @@ public class RestResponse {
     public RestResponse(int statusCode, String statusMessage) {
         this.statusCode = statusCode;
         this.statusMessage = statusMessage;
-        this.headers = new HashMap<>();
+        this.headers = new Headers();
         this.body = null;
+        this.content = null;
     }
 
     /**
@@ -65,13 +72,11 @@ public class RestResponse {
      *            the headers to include
      */
     public void addAll(Header... headers) {
-        for (Header header : headers) {
-            this.headers.put(header.getName(), header.getValue());
-        }
+        this.headers.addAll(headers);
     }
 
     /**
-     * Add a single header to this response.
+     * Add a single header to this response, replacing any existing values of the same header.
      *
      * @param name
      *            the name of the header
@@ -79,7 +84,20 @@ public class RestResponse {
      *            the value of the header
      */
     public void addHeader(String name, String value) {
-        this.headers.put(name, value);
+        this.headers.set(name, value);
+    }
+
+    /**
+     * Append a value to a header of this response. Any existing values of the same header, such as
+     * earlier <code>Set-Cookie</code> values, are kept.
+     *
+     * @param name
+     *            the name of the header
+     * @param value
+     *            the value of the header
+     */
+    public void appendHeader(String name, String value) {
+        this.headers.add(name, value);
     }
 
     /**
@@ -89,9 +107,23 @@ public class RestResponse {
      *            the body of the response
      */
     public void setBody(byte[] body) {
+        close();
         this.body = body;
     }
 
+    /**
+     * Set the body of the response as a {@link ResponseBody} view. The view is released when this
+     * response is closed, or as soon as the body is materialized through {@link #getBody()}.
+     *
+     * @param content
+     *            the body of the response
+     */
+    public void setBody(ResponseBody content) {
+        close();
+        this.body = null;
+        this.content = content;
+    }
+
     /**
      * Get the integer status code.
      *
@@ -117,22 +149,37 @@ public class RestResponse {
      * @return the content type or <code>null</code> if the "Content-Type" header was not present
      */
     public String getContentType() {
-        String value = headers.get("Content-Type");
-        if (value == null) {
-            return null;
-        }
-        int index = value.indexOf(';');
-        return (-1 == index) ? value : value.substring(0, index);
+        return headers.getMediaType();
     }
 
     /**
-     * Get the value of a header by name.
+     * Get the first value of a header by name. Header names are case-insensitive.
      *
      * @param name header key
      * @return the header value or <code>null</code> if the header was not present
      */
     public String getHeaderValue(String name) {
-        return headers.get(name);
+        return headers.getFirst(name);
+    }
+
+    /**
+     * Get every value of a header by name, such as each <code>Set-Cookie</code>. Header names are
+     * case-insensitive.
+     *
+     * @param name header key
+     * @return the header values, which is empty if the header was not present
+     */
+    public List<String> getHeaderValues(String name) {
+        return headers.getAll(name);
+    }
+
+    /**
+     * Get all headers of this response.
+     *
+     * @return the headers
+     */
+    public Headers getHeaders() {
+        return headers;
     }
 
     /**
@@ -140,16 +187,80 @@ public class RestResponse {
      *
      * @return the body of the response
      */
-    public byte[] getBody() {
+    public synchronized byte[] getBody() {
+        if ((null == body) && (null != content)) {
+            body = content.toByteArray();
+            close();
+        }
         return body;
     }
 
+    /**
+     * Get the length of the body in bytes without materializing it.
+     *
+     * @return the length of the body or <code>-1</code> if there is no body
+     */
+    public synchronized long getBodyLength() {
+        if (null != body) {
+            return body.length;
+        }
+        return (null == content) ? -1 : content.length();
+    }
+
+    /**
+     * Get a stream over the body of the response. When the body is still held in pooled buffers
+     * this reads them in place instead of copying them into a single array.
+     *
+     * @return a stream over the body or <code>null</code> if there is no body
+     */
+    public synchronized InputStream getBodyStream() {
+        if (null != content) {
+            return content.getInputStream();
+        }
+        return (null == body) ? null : new ByteArrayInputStream(body);
+    }
+
+    /**
+     * Get the body of the response as a read-only buffer. A body that was spooled to disk is
+     * memory-mapped rather than read onto the heap.
+     *
+     * @return the body as a buffer or <code>null</code> if there is no body
+     */
+    public synchronized ByteBuffer getBodyBuffer() {
+        if (content instanceof SpooledBody) {
+            return ((SpooledBody) content).getBuffer();
+        }
+        byte[] bytes = getBody();
+        return (null == bytes) ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns <code>true</code> if the body of this response was too large to keep in memory and
+     * was spooled to a temporary file, which is deleted when this response is closed.
+     *
+     * @return <code>true</code> if the body is spooled
+     */
+    public synchronized boolean isSpooled() {
+        return content instanceof SpooledBody;
+    }
+
     /**
      * Get the body of the response as a string.
      *
      * @return the body of the response as a string
      */
     public String getBodyString() {
-        return new String(body);
+        return new String(getBody());
+    }
+
+    /**
+     * Release any pooled resources held by the body of this response.
+     */
+    @Override
+    public synchronized void close() {
+        if (null != content) {
+            content.close();
+            content = null;
+        }
     }
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import com.comcast.drivethru.exception.ResponseTooLargeException;
+
+/**
+ * An {@link HttpEntity} that refuses to deliver more than a maximum number of bytes. A body that
+ * declares a larger <code>Content-Length</code> fails before anything is read, and any other body
+ * fails as soon as it goes past the limit. The failure is an {@link IOException} caused by a
+ * {@link ResponseTooLargeException}.
+ */
+public class SizeLimitedEntity extends HttpEntityWrapper {
+
+    private final long maxSize;
+
+    /**
+     * Construct a new {@link SizeLimitedEntity}.
+     *
+     * @param entity
+     *            the entity to limit
+     * @param maxSize
+     *            the maximum size of the body in bytes
+     */
+    public SizeLimitedEntity(HttpEntity entity, long maxSize) {
+        super(entity);
+        this.maxSize = maxSize;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.http.entity.HttpEntityWrapper#getContent()
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        if (getContentLength() > maxSize) {
+            throw tooLarge(maxSize, getContentLength());
+        }
+
+        InputStream content = super.getContent();
+        return (null == content) ? null : new FilterInputStream(content) {
+            private long total = 0;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if ((b >= 0) && (++total > maxSize)) {
+                    throw tooLarge(maxSize, -1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                if ((count > 0) && ((total += count) > maxSize)) {
+                    throw tooLarge(maxSize, -1);
+                }
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Create the failure for a body over the given maximum size.
+     *
+     * @param maxSize
+     *            the maximum size in bytes
+     * @param declared
+     *            the declared length of the body or <code>-1</code> if it is not known
+     *
+     * @return an {@link IOException} caused by a {@link ResponseTooLargeException}
+     */
+    public static IOException tooLarge(long maxSize, long declared) {
+        String message = (declared >= 0) ? "Response body of " + declared + " bytes is over the limit of "
+                + maxSize + " bytes" : "Response body is over the limit of " + maxSize + " bytes";
+        return new IOException(message, new ResponseTooLargeException(message, maxSize));
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link ResponseBody} that was too large to keep on the heap and was spooled to a temporary
+ * file instead. The file is memory-mapped when it is read, so the body is paged in by the
+ * operating system rather than copied onto the heap, and it is deleted when the body is closed.
+ */
+public class SpooledBody implements ResponseBody {
+
+    private final Path file;
+    private final long length;
+    private MappedByteBuffer mapped;
+    private boolean closed;
+
+    /**
+     * Construct a new {@link SpooledBody} over the given file, which is deleted when the body is
+     * closed.
+     *
+     * @param file
+     *            the file holding the body
+     * @param length
+     *            the length of the body in bytes
+     */
+    public SpooledBody(Path file, long length) {
+        this.file = file;
+        this.length = length;
+        this.mapped = null;
+        this.closed = false;
+    }
+
+    /**
+     * Get the file holding the body.
+     *
+     * @return the file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#length()
+     */
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Get a read-only, memory-mapped view of the body. Each call returns an independent view.
+     *
+     * @return the body as a buffer
+     *
+     * @throws IllegalStateException
+     *             if the body is larger than the 2GB that can be mapped at once, or the file can't
+     *             be mapped
+     */
+    public synchronized ByteBuffer getBuffer() {
+        checkOpen();
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Body is too large to map: " + length);
+        }
+
+        if (null == mapped) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } catch (IOException ioex) {
+                throw new IllegalStateException("Failed to map " + file, ioex);
+            }
+        }
+        return mapped.asReadOnlyBuffer();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#toByteArray()
+     */
+    @Override
+    public byte[] toByteArray() {
+        ByteBuffer buffer = getBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#getInputStream()
+     */
+    @Override
+    public synchronized InputStream getInputStream() {
+        checkOpen();
+        if (length <= Integer.MAX_VALUE) {
+            return new BufferInputStream(getBuffer());
+        }
+
+        try {
+            return Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ));
+        } catch (IOException ioex) {
+            throw new IllegalStateException("Failed to open " + file, ioex);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.comcast.drivethru.utils.ResponseBody#close()
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            mapped = null;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ioex) {
+                /* Still mapped on a platform that won't delete open files, try again at exit */
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Body has already been released");
+        }
+    }
+
+    /**
+     * An {@link InputStream} over a buffer.
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -15,8 +15,6 @@
  */
 package com.comcast.drivethru.utils;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,6 +30,7 @@ public class URL {
     private String baseUrl;
     private String path;
     private List<String[]> query;
+    private String built;
 
     /**
      * Default constructor with no fields filled out yet.
@@ -61,7 +60,7 @@ public class URL {
     public URL(String baseUrl, String path) {
         this.baseUrl = baseUrl;
         this.path = path;
-        this.query = new ArrayList<>();
+        this.query = null;
     }
 
     /**
@@ -74,6 +73,7 @@ public class URL {
      */
     public URL setBaseUrl(String baseUrl) {
         this.baseUrl = baseUrl;
+        this.built = null;
         return this;
     }
 
@@ -89,6 +89,7 @@ public class URL {
     public URL setDefaultBaseUrl(String defaultBaseUrl) {
         if (null == baseUrl) {
             this.baseUrl = defaultBaseUrl;
+            this.built = null;
         }
         return this;
     }
@@ -123,6 +124,7 @@ public class URL {
      */
     public URL setPath(String path) {
         this.path = path != null ? (path.startsWith("/") ? "" : "/") + path : null;
+        this.built = null;
         return this;
     }
 
@@ -141,6 +143,7 @@ public class URL {
         } else {
             this.path += "/" + path;
         }
+        this.built = null;
         return this;
     }
 
@@ -174,48 +177,86 @@ public class URL {
      * @return <code>this</code>
      */
     public URL addQuery(String key, String value) {
-        String[] pair = new String[] { encode(key), encode(value) };
-        query.add(pair);
+        if ((null == key) || (null == value)) {
+            throw new NullPointerException("Query parameters must have a key and a value");
+        }
+
+        /* Pairs are kept raw and encoded straight into the builder by build() */
+        if (null == query) {
+            query = new ArrayList<>(4);
+        }
+        query.add(new String[] { key, value });
+        this.built = null;
         return this;
     }
 
     /**
-     * Build the full URL.
+     * Build the full URL. The result is cached until this URL is next modified.
      *
      * @return the full URL
      * @throws HttpException if URL object fails to build
      */
     public String build() throws HttpException {
+        if (null != built) {
+            return built;
+        }
+
         if (null == baseUrl) {
             throw new HttpException("URL must set a baseUrl");
         }
 
-        StringBuilder sb = new StringBuilder(baseUrl);
+        built = assemble(baseUrl, path, query);
+        return built;
+    }
+
+    /**
+     * Build the full URL, using the given base URL if this URL doesn't have one. Unlike
+     * {@link #setDefaultBaseUrl(String)} this leaves this URL unchanged, so the same URL can be
+     * built against different base URLs.
+     *
+     * @param defaultBaseUrl
+     *            the base URL to use if there is no base URL already set
+     *
+     * @return the full URL
+     * @throws HttpException if URL object fails to build
+     */
+    public String build(String defaultBaseUrl) throws HttpException {
+        if ((null != baseUrl) || (null == defaultBaseUrl)) {
+            return build();
+        }
+        return assemble(defaultBaseUrl, path, query);
+    }
+
+    /**
+     * Join a base URL, path and encoded query into a full URL.
+     */
+    private static String assemble(String baseUrl, String path, List<String[]> query) {
+        int capacity = baseUrl.length() + ((null == path) ? 0 : path.length());
+        if (null != query) {
+            capacity += 16 * query.size();
+        }
+
+        StringBuilder sb = new StringBuilder(capacity + 16);
+        sb.append(baseUrl);
         if (null != path) {
             /* If the baseUrl ends with a '/', don't use any beginning '/' from the path */
             if (baseUrl.endsWith("/")) {
                 int index = 0;
                 for (; index < path.length() && path.charAt(index) == '/'; index++);
-                sb.append(path.substring(index));
+                sb.append(path, index, path.length());
             } else {
                 sb.append(path);
             }
         }
 
-        if (query.size() > 0) {
-            String[] pair = query.get(0);
-            sb.append('?');
-            sb.append(pair[0]);
-            sb.append('=');
-            sb.append(pair[1]);
-        }
-
-        for (int i = 1; i < query.size(); i++) {
-            String[] pair = query.get(i);
-            sb.append('&');
-            sb.append(pair[0]);
-            sb.append('=');
-            sb.append(pair[1]);
+        if (null != query) {
+            for (int i = 0; i < query.size(); i++) {
+                String[] pair = query.get(i);
+                sb.append((i == 0) ? '?' : '&');
+                PercentEncoder.FORM.encode(pair[0], sb);
+                sb.append('=');
+                PercentEncoder.FORM.encode(pair[1], sb);
+            }
         }
 
         return sb.toString();
@@ -230,10 +271,6 @@ public class URL {
      * @return the encoded string
      */
     public static String encode(String val) {
-        try {
-            return URLEncoder.encode(val, "UTF-8").replace("+", "%20");
-        } catch (UnsupportedEncodingException ueex) {
-            throw new RuntimeException("UTF-8 not supported on this machine", ueex);
-        }
+        return PercentEncoder.FORM.encode(val);
     }
 }
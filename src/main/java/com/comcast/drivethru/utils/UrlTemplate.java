@@ -0,0 +1,499 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A <i>UrlTemplate</i> is a pre-parsed <a href="https://tools.ietf.org/html/rfc6570">RFC 6570</a>
+ * URI template (up to and including level 4). The template is split into literal segments and
+ * expressions once, so expanding it only appends the literals and percent-encodes the variable
+ * values straight into a reused, per-thread builder.
+ * <p>
+ * Supported expressions include <code>{var}</code>, <code>{+var}</code>, <code>{#var}</code>,
+ * <code>{.var}</code>, <code>{/var}</code>, <code>{;var}</code>, <code>{?var}</code> and
+ * <code>{&amp;var}</code> with any number of comma separated variables, the prefix modifier (
+ * <code>{var:3}</code>) and the explode modifier (<code>{list*}</code>). Values may be any object
+ * (expanded with <code>toString()</code>), arrays, {@link Iterable}s or {@link Map}s.
+ * <code>null</code> values are undefined and are skipped.
+ * </p>
+ *
+ * <pre>
+ * UrlTemplate search = new UrlTemplate("http://search.example.com/v1/{index}/items{?q,page,size}");
+ * String url = search.expand("books", "the old man", 2, 50);
+ * </pre>
+ */
+public class UrlTemplate {
+
+    private static final int MAX_REUSED_CAPACITY = 8192;
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final String template;
+    private final Object[] parts;
+    private final String[] variables;
+    private final Map<List<Object>, String> cache;
+
+    /**
+     * Parse the given template.
+     *
+     * @param template
+     *            the template
+     *
+     * @throws IllegalArgumentException
+     *             if the template is malformed
+     */
+    public UrlTemplate(String template) {
+        this(template, 0);
+    }
+
+    /**
+     * Parse the given template, caching up to <code>cacheSize</code> of the most recently expanded
+     * URLs keyed by the values they were expanded from. Caching only applies to positional
+     * expansion through {@link #expand(Object...)}.
+     *
+     * @param template
+     *            the template
+     * @param cacheSize
+     *            the number of expanded URLs to cache, or <code>0</code> to disable caching
+     *
+     * @throws IllegalArgumentException
+     *             if the template is malformed
+     */
+    public UrlTemplate(String template, final int cacheSize) {
+        this.template = template;
+
+        List<Object> partList = new ArrayList<>();
+        List<String> variableList = new ArrayList<>();
+        parse(template, partList, variableList);
+        this.parts = partList.toArray();
+        this.variables = variableList.toArray(new String[variableList.size()]);
+
+        if (cacheSize > 0) {
+            this.cache = Collections.synchronizedMap(new LinkedHashMap<List<Object>, String>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Entry<List<Object>, String> eldest) {
+                    return size() > cacheSize;
+                }
+            });
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Get the original template string.
+     *
+     * @return the template
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Get the names of all variables in the order they first appear in the template. This is the
+     * order values are expected in by {@link #expand(Object...)}.
+     *
+     * @return the variable names
+     */
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * Expand the template using the given values for the variables in the order returned by
+     * {@link #getVariables()}.
+     *
+     * @param values
+     *            the values of the variables
+     *
+     * @return the expanded URL
+     */
+    public String expand(Object... values) {
+        if (values.length != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " values but got "
+                    + values.length);
+        }
+
+        List<Object> key = null;
+        if (null != cache) {
+            key = Arrays.asList(values.clone());
+            String cached = cache.get(key);
+            if (null != cached) {
+                return cached;
+            }
+        }
+
+        StringBuilder sb = builder();
+        for (Object part : parts) {
+            if (part instanceof String) {
+                sb.append((String) part);
+            } else {
+                Expression expression = (Expression) part;
+                expression.expand(sb, values);
+            }
+        }
+        String url = sb.toString();
+
+        if (null != cache) {
+            cache.put(key, url);
+        }
+        return url;
+    }
+
+    /**
+     * Expand the template using the given named values.
+     *
+     * @param values
+     *            the values of the variables by name
+     *
+     * @return the expanded URL
+     */
+    public String expand(Map<String, ?> values) {
+        Object[] positional = new Object[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            positional[i] = values.get(variables[i]);
+        }
+
+        StringBuilder sb = builder();
+        for (Object part : parts) {
+            if (part instanceof String) {
+                sb.append((String) part);
+            } else {
+                ((Expression) part).expand(sb, positional);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the original template string.
+     */
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    /**
+     * Get this thread's reusable builder, emptied. Builders that grew unusually large are replaced
+     * so that one huge URL doesn't pin memory for the life of the thread.
+     */
+    private static StringBuilder builder() {
+        StringBuilder sb = BUILDER.get();
+        if (sb.capacity() > MAX_REUSED_CAPACITY) {
+            sb = new StringBuilder(256);
+            BUILDER.set(sb);
+        }
+        sb.setLength(0);
+        return sb;
+    }
+
+    /**
+     * Split the template into literal strings and {@link Expression}s.
+     */
+    private static void parse(String template, List<Object> parts, List<String> variables) {
+        StringBuilder literal = new StringBuilder();
+        int index = 0;
+        while (index < template.length()) {
+            int open = template.indexOf('{', index);
+            if (-1 == open) {
+                PercentEncoder.RESERVED.encode(template, index, template.length(), literal);
+                break;
+            }
+
+            int close = template.indexOf('}', open);
+            if (-1 == close) {
+                throw new IllegalArgumentException("Unterminated expression in template: " + template);
+            }
+
+            PercentEncoder.RESERVED.encode(template, index, open, literal);
+            if (literal.length() > 0) {
+                parts.add(literal.toString());
+                literal.setLength(0);
+            }
+            parts.add(new Expression(template.substring(open + 1, close), variables));
+            index = close + 1;
+        }
+
+        if (literal.length() > 0) {
+            parts.add(literal.toString());
+        }
+    }
+
+    /**
+     * A single <code>{...}</code> expression within a template.
+     */
+    private static class Expression {
+
+        private final String first;
+        private final char separator;
+        private final boolean named;
+        private final String ifEmpty;
+        private final PercentEncoder encoder;
+
+        private final String[] names;
+        private final int[] indexes;
+        private final int[] prefixes;
+        private final boolean[] explode;
+
+        Expression(String body, List<String> variables) {
+            char operator = body.isEmpty() ? 0 : body.charAt(0);
+            switch (operator) {
+                case '+':
+                    this.first = "";
+                    this.separator = ',';
+                    this.named = false;
+                    this.ifEmpty = "";
+                    this.encoder = PercentEncoder.RESERVED;
+                    break;
+                case '#':
+                    this.first = "#";
+                    this.separator = ',';
+                    this.named = false;
+                    this.ifEmpty = "";
+                    this.encoder = PercentEncoder.RESERVED;
+                    break;
+                case '.':
+                    this.first = ".";
+                    this.separator = '.';
+                    this.named = false;
+                    this.ifEmpty = "";
+                    this.encoder = PercentEncoder.UNRESERVED;
+                    break;
+                case '/':
+                    this.first = "/";
+                    this.separator = '/';
+                    this.named = false;
+                    this.ifEmpty = "";
+                    this.encoder = PercentEncoder.UNRESERVED;
+                    break;
+                case ';':
+                    this.first = ";";
+                    this.separator = ';';
+                    this.named = true;
+                    this.ifEmpty = "";
+                    this.encoder = PercentEncoder.UNRESERVED;
+                    break;
+                case '?':
+                    this.first = "?";
+                    this.separator = '&';
+                    this.named = true;
+                    this.ifEmpty = "=";
+                    this.encoder = PercentEncoder.UNRESERVED;
+                    break;
+                case '&':
+                    this.first = "&";
+                    this.separator = '&';
+                    this.named = true;
+                    this.ifEmpty = "=";
+                    this.encoder = PercentEncoder.UNRESERVED;
+                    break;
+                default:
+                    operator = 0;
+                    this.first = "";
+                    this.separator = ',';
+                    this.named = false;
+                    this.ifEmpty = "";
+                    this.encoder = PercentEncoder.UNRESERVED;
+                    break;
+            }
+
+            String[] specs = body.substring((operator == 0) ? 0 : 1).split(",");
+            this.names = new String[specs.length];
+            this.indexes = new int[specs.length];
+            this.prefixes = new int[specs.length];
+            this.explode = new boolean[specs.length];
+
+            for (int i = 0; i < specs.length; i++) {
+                String spec = specs[i].trim();
+                int prefix = -1;
+                if (spec.endsWith("*")) {
+                    explode[i] = true;
+                    spec = spec.substring(0, spec.length() - 1);
+                } else {
+                    int colon = spec.indexOf(':');
+                    if (-1 != colon) {
+                        try {
+                            prefix = Integer.parseInt(spec.substring(colon + 1));
+                        } catch (NumberFormatException nfex) {
+                            prefix = 0;
+                        }
+                        /* RFC 6570 allows a max-length of 1 to 9999 */
+                        if ((prefix < 1) || (prefix > 9999)) {
+                            throw new IllegalArgumentException("Invalid prefix in expression: {" + body + "}");
+                        }
+                        spec = spec.substring(0, colon);
+                    }
+                }
+                if (spec.isEmpty()) {
+                    throw new IllegalArgumentException("Empty variable name in expression: {" + body + "}");
+                }
+
+                int index = variables.indexOf(spec);
+                if (-1 == index) {
+                    index = variables.size();
+                    variables.add(spec);
+                }
+
+                names[i] = spec;
+                indexes[i] = index;
+                prefixes[i] = prefix;
+            }
+        }
+
+        void expand(StringBuilder sb, Object[] values) {
+            boolean any = false;
+            for (int i = 0; i < names.length; i++) {
+                Object value = values[indexes[i]];
+                if (null == value || isEmptyComposite(value)) {
+                    continue;
+                }
+
+                if (any) {
+                    sb.append(separator);
+                } else {
+                    sb.append(first);
+                    any = true;
+                }
+
+                if (value instanceof Map) {
+                    expandMap(sb, names[i], (Map<?, ?>) value, explode[i]);
+                } else if ((value instanceof Iterable) || value.getClass().isArray()) {
+                    expandList(sb, names[i], iterate(value), explode[i]);
+                } else {
+                    String s = value.toString();
+                    if (named) {
+                        sb.append(names[i]);
+                        if (s.isEmpty()) {
+                            sb.append(ifEmpty);
+                            continue;
+                        }
+                        sb.append('=');
+                    }
+                    if ((prefixes[i] >= 0) && (prefixes[i] < s.length())) {
+                        int end = prefixes[i];
+                        if (Character.isHighSurrogate(s.charAt(end - 1))) {
+                            end++;
+                        }
+                        s = s.substring(0, end);
+                    }
+                    encoder.encode(s, sb);
+                }
+            }
+        }
+
+        private void expandList(StringBuilder sb, String name, Iterator<?> items, boolean exploded) {
+            if (named && !exploded) {
+                sb.append(name).append('=');
+            }
+
+            boolean firstItem = true;
+            while (items.hasNext()) {
+                Object item = items.next();
+                if (null == item) {
+                    continue;
+                }
+                if (!firstItem) {
+                    sb.append(exploded ? separator : ',');
+                }
+                firstItem = false;
+
+                String s = item.toString();
+                if (named && exploded) {
+                    sb.append(name);
+                    if (s.isEmpty()) {
+                        sb.append(ifEmpty);
+                        continue;
+                    }
+                    sb.append('=');
+                }
+                encoder.encode(s, sb);
+            }
+        }
+
+        private void expandMap(StringBuilder sb, String name, Map<?, ?> map, boolean exploded) {
+            if (named && !exploded) {
+                sb.append(name).append('=');
+            }
+
+            boolean firstItem = true;
+            for (Entry<?, ?> entry : map.entrySet()) {
+                if (null == entry.getValue()) {
+                    continue;
+                }
+                if (!firstItem) {
+                    sb.append(exploded ? separator : ',');
+                }
+                firstItem = false;
+
+                encoder.encode(String.valueOf(entry.getKey()), sb);
+                sb.append(exploded ? '=' : ',');
+                encoder.encode(entry.getValue().toString(), sb);
+            }
+        }
+
+        private static boolean isEmptyComposite(Object value) {
+            if (value instanceof Map) {
+                return ((Map<?, ?>) value).isEmpty();
+            } else if (value instanceof Iterable) {
+                return !((Iterable<?>) value).iterator().hasNext();
+            } else if (value.getClass().isArray()) {
+                return Array.getLength(value) == 0;
+            }
+            return false;
+        }
+
+        private static Iterator<?> iterate(final Object value) {
+            if (value instanceof Iterable) {
+                return ((Iterable<?>) value).iterator();
+            }
+
+            return new Iterator<Object>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < Array.getLength(value);
+                }
+
+                @Override
+                public Object next() {
+                    return Array.get(value, index++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.watch;
+
+import com.comcast.drivethru.exception.HttpException;
+
+/**
+ * A <i>ChangeListener</i> is told when a watched resource changes. Both methods are called on the
+ * thread that polled the resource, and never concurrently for the same watch.
+ *
+ * @param <T>
+ *            the type the resource is read into
+ */
+public interface ChangeListener<T> {
+
+    /**
+     * Called with the first version of the resource and then each time its body changes.
+     *
+     * @param url
+     *            the URL of the resource
+     * @param value
+     *            the new version of the resource
+     */
+    void onChange(String url, T value);
+
+    /**
+     * Called when a poll fails. The resource keeps being polled.
+     *
+     * @param url
+     *            the URL of the resource
+     * @param exception
+     *            the failure
+     */
+    void onError(String url, HttpException exception);
+}
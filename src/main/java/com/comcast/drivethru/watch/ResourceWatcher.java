@@ -0,0 +1,318 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.watch;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.client.Watchdog;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.transform.JsonTransformer;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.URL;
+
+/**
+ * Watches resources for changes with conditional requests instead of downloading and reading
+ * them on every poll.
+ * <p>
+ * Each {@link Watch} keeps the <code>ETag</code> and <code>Last-Modified</code> of the last
+ * response and sends them with the next poll, so an unchanged resource costs a
+ * <code>304 Not Modified</code>. A 200 whose body is identical to the last one (from a server
+ * without validators) is recognized by its digest and not read either. The listener, and the
+ * {@link Transformer}, only see bodies that changed.
+ * </p>
+ * <p>
+ * Polls are timed on the shared {@link Watchdog#getScheduler() watchdog scheduler} rather than a
+ * thread per watch, and each is sent from a shared pool of daemon threads that only grows to the
+ * number of polls in flight at once; set an {@link #setExecutor(Executor) executor} to bound it.
+ * The delay between polls is the interval less the time the last poll took, spread by a random
+ * jitter so that many watches don't poll in step. With {@link #setLongPoll(long, TimeUnit) long
+ * polling} each request asks the server to hold it (<code>Prefer: wait</code>) until the resource
+ * changes, and the next poll follows straight away; a server that ignores the preference is simply
+ * polled at the interval.
+ * </p>
+ *
+ * <pre>
+ * ResourceWatcher watcher = new ResourceWatcher(client);
+ * watcher.setInterval(5, TimeUnit.SECONDS);
+ * watcher.watch(new URL().setPath("/config/flags"), Flags.class, new ChangeListener&lt;Flags&gt;() {
+ *     ...
+ * });
+ * </pre>
+ */
+public class ResourceWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceWatcher.class);
+
+    /** The default time between polls: 5 seconds */
+    public static final long DEFAULT_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+    /** The default jitter, as a fraction of the delay between polls */
+    public static final double DEFAULT_JITTER = 0.2;
+
+    private static ExecutorService poller;
+
+    private final RestClient client;
+    private final Transformer transformer;
+    private final Set<Watch<?>> watches = Collections.newSetFromMap(new ConcurrentHashMap<Watch<?>, Boolean>());
+
+    private long interval = DEFAULT_INTERVAL;
+    private double jitter = DEFAULT_JITTER;
+    private long longPoll = 0;
+    private Executor executor = null;
+
+    /**
+     * Construct a new {@link ResourceWatcher} that reads resources with a {@link JsonTransformer}.
+     *
+     * @param client
+     *            the client resources are polled through
+     */
+    public ResourceWatcher(RestClient client) {
+        this(client, new JsonTransformer());
+    }
+
+    /**
+     * Construct a new {@link ResourceWatcher}.
+     *
+     * @param client
+     *            the client resources are polled through
+     * @param transformer
+     *            the transformer changed resources are read with
+     */
+    public ResourceWatcher(RestClient client, Transformer transformer) {
+        this.client = client;
+        this.transformer = transformer;
+    }
+
+    /**
+     * Set the time between polls of watches created after this call.
+     *
+     * @param interval
+     *            the interval
+     * @param unit
+     *            the unit of the interval
+     */
+    public void setInterval(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.interval = unit.toMillis(interval);
+    }
+
+    /**
+     * Set the jitter applied to the delay between polls. A jitter of <code>0.2</code> makes each
+     * delay anything from 80% to 120% of the nominal delay.
+     *
+     * @param jitter
+     *            the jitter as a fraction between <code>0</code> and <code>1</code>
+     */
+    public void setJitter(double jitter) {
+        if ((jitter < 0) || (jitter > 1)) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * Ask the server to hold each poll open until the resource changes, for at most the given
+     * time. The client's socket timeout for the poll is extended to match.
+     *
+     * @param wait
+     *            the longest time the server should hold a poll, rounded down to whole seconds,
+     *            or <code>0</code> to send plain polls
+     * @param unit
+     *            the unit of the wait
+     */
+    public void setLongPoll(long wait, TimeUnit unit) {
+        this.longPoll = unit.toMillis(wait);
+    }
+
+    /**
+     * Set the {@link Executor} that polls are sent from. By default a shared, unbounded pool of
+     * daemon threads is used. Long polls hold a thread each while they wait, so a bounded executor
+     * must have a thread for every long-polling watch or the rest wait behind them.
+     *
+     * @param executor
+     *            the executor for polls
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Start watching the resource at the given path relative to the client's default base URL.
+     *
+     * @param path
+     *            the path of the resource
+     * @param type
+     *            the type the resource is read into
+     * @param listener
+     *            the listener told of each new version
+     *
+     * @return the watch, which polls until it is cancelled
+     *
+     * @throws HttpException
+     *             if the URL is invalid
+     */
+    public <T> Watch<T> watch(String path, Class<T> type, ChangeListener<T> listener) throws HttpException {
+        return watch(new URL().setPath(path), type, listener);
+    }
+
+    /**
+     * Start watching the resource at the given URL. The first poll is sent within one jittered
+     * interval, and its result is passed to the listener as the first change.
+     *
+     * @param url
+     *            the URL of the resource
+     * @param type
+     *            the type the resource is read into
+     * @param listener
+     *            the listener told of each new version
+     *
+     * @return the watch, which polls until it is cancelled
+     *
+     * @throws HttpException
+     *             if the URL is invalid
+     */
+    public <T> Watch<T> watch(URL url, Class<T> type, ChangeListener<T> listener) throws HttpException {
+        String built = url.setDefaultBaseUrl(client.getDefaultBaseUrl()).build();
+        Watch<T> watch = new Watch<>(this, built, type, listener, interval);
+        watches.add(watch);
+
+        /* Spread the first polls of watches created together across the jitter */
+        schedule(watch, (long) (ThreadLocalRandom.current().nextDouble() * jitter * interval));
+        return watch;
+    }
+
+    /**
+     * Get the number of active watches.
+     *
+     * @return the number of watches
+     */
+    public int getWatchCount() {
+        return watches.size();
+    }
+
+    /**
+     * Cancel every watch.
+     */
+    @Override
+    public void close() {
+        for (Watch<?> watch : new ArrayList<>(watches)) {
+            watch.cancel();
+        }
+    }
+
+    RestClient getClient() {
+        return client;
+    }
+
+    Transformer getTransformer() {
+        return transformer;
+    }
+
+    long getLongPoll() {
+        return longPoll;
+    }
+
+    void remove(Watch<?> watch) {
+        watches.remove(watch);
+    }
+
+    /**
+     * Schedule the next poll of the given watch after the given delay.
+     */
+    private void schedule(final Watch<?> watch, long delay) {
+        if (watch.isCancelled()) {
+            return;
+        }
+
+        watch.setNext(Watchdog.getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            poll(watch);
+                        }
+                    });
+                } catch (RejectedExecutionException reex) {
+                    LOGGER.warn("Failed to send a poll of " + watch.getUrl() + ", trying again later", reex);
+                    schedule(watch, next(watch.getInterval(), 0));
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS));
+    }
+
+    private void poll(Watch<?> watch) {
+        long start = System.currentTimeMillis();
+        try {
+            watch.poll();
+        } catch (RuntimeException rex) {
+            LOGGER.warn("Failed to handle a poll of " + watch.getUrl(), rex);
+        } finally {
+            schedule(watch, next(watch.getInterval(), System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * Get the delay before the next poll: what is left of the interval after a poll that took
+     * <code>elapsed</code>, with jitter.
+     */
+    private long next(long interval, long elapsed) {
+        long delay = Math.max(0, interval - elapsed);
+        double spread = (2 * ThreadLocalRandom.current().nextDouble() - 1) * jitter;
+        return (long) (delay * (1 + spread));
+    }
+
+    private Executor getExecutor() {
+        if (null != executor) {
+            return executor;
+        }
+
+        synchronized (ResourceWatcher.class) {
+            if (null == poller) {
+                poller = Executors.newCachedThreadPool(new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "drivethru-watch-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return poller;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.watch;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+
+import com.comcast.drivethru.RestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+
+/**
+ * A resource being watched by a {@link ResourceWatcher}. It keeps the validators and a digest of
+ * the last body that was read, so unchanged bodies are recognized without being read again.
+ *
+ * @param <T>
+ *            the type the resource is read into
+ */
+public class Watch<T> {
+
+    private final ResourceWatcher watcher;
+    private final String url;
+    private final Class<T> type;
+    private final ChangeListener<T> listener;
+    private final long interval;
+
+    private volatile T value = null;
+    private volatile boolean cancelled = false;
+
+    /* Only touched by the poll in progress, and polls of a watch never overlap */
+    private String etag = null;
+    private String lastModified = null;
+    private byte[] digest = null;
+    private Future<?> next = null;
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    Watch(ResourceWatcher watcher, String url, Class<T> type, ChangeListener<T> listener, long interval) {
+        this.watcher = watcher;
+        this.url = url;
+        this.type = type;
+        this.listener = listener;
+        this.interval = interval;
+    }
+
+    /**
+     * Get the URL of the resource.
+     *
+     * @return the URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Get the latest version of the resource.
+     *
+     * @return the latest version or <code>null</code> if it hasn't been read yet
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * Stop watching the resource. A poll already in progress completes, but its result is not
+     * passed to the listener.
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            if (null != next) {
+                next.cancel(false);
+            }
+        }
+        watcher.remove(this);
+    }
+
+    /**
+     * Returns <code>true</code> if this watch was cancelled.
+     *
+     * @return <code>true</code> if this watch was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Get the number of polls sent.
+     *
+     * @return the number of polls
+     */
+    public long getPollCount() {
+        return polls.get();
+    }
+
+    /**
+     * Get the number of times the listener was told of a new version.
+     *
+     * @return the number of changes
+     */
+    public long getChangeCount() {
+        return changes.get();
+    }
+
+    /**
+     * Get the number of polls answered with <code>304 Not Modified</code>.
+     *
+     * @return the number of not modified responses
+     */
+    public long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    /**
+     * Get the number of polls answered with a body identical to the last one, which was not read.
+     *
+     * @return the number of unchanged bodies
+     */
+    public long getUnchangedCount() {
+        return unchanged.get();
+    }
+
+    /**
+     * Get the number of polls that failed.
+     *
+     * @return the number of errors
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Poll the resource once, telling the listener if it changed.
+     */
+    void poll() {
+        if (cancelled) {
+            return;
+        }
+        polls.incrementAndGet();
+
+        RestRequest request = new RestRequest(new URL(url), Method.GET);
+        if (null != etag) {
+            request.addHeader(Headers.IF_NONE_MATCH, etag);
+        }
+        if (null != lastModified) {
+            request.addHeader(Headers.IF_MODIFIED_SINCE, lastModified);
+        }
+        long longPoll = watcher.getLongPoll();
+        if (longPoll > 0) {
+            request.addHeader(Headers.PREFER, "wait=" + TimeUnit.MILLISECONDS.toSeconds(longPoll));
+            request.setTimeout((int) Math.min(Integer.MAX_VALUE, longPoll + RestClient.DEFAULT_TIMEOUT));
+        }
+
+        try (RestResponse response = watcher.getClient().execute(request)) {
+            int status = response.getStatusCode();
+            if (HttpStatus.SC_NOT_MODIFIED == status) {
+                notModified.incrementAndGet();
+                return;
+            } else if (HttpStatus.SC_OK != status) {
+                throw new HttpStatusException(status, response.getStatusMessage());
+            }
+
+            /* The validators are only kept once the body they describe has been read */
+            Headers headers = response.getHeaders();
+            String latestETag = headers.getFirst(Headers.ETAG);
+            String latestModified = headers.getFirst(Headers.LAST_MODIFIED);
+
+            /* Only read bodies that differ from the last one */
+            byte[] body = response.getBody();
+            byte[] latest = digest(body);
+            if (Arrays.equals(latest, digest)) {
+                etag = latestETag;
+                lastModified = latestModified;
+                unchanged.incrementAndGet();
+                return;
+            }
+
+            Transformer transformer = watcher.getTransformer();
+            String mediaType = headers.getMediaType();
+            if ((null == mediaType) || !mediaType.equalsIgnoreCase(transformer.getMime())) {
+                throw new HttpException("Invalid Content Type: " + response.getContentType());
+            }
+            T read = transformer.read(body, type);
+            etag = latestETag;
+            lastModified = latestModified;
+            digest = latest;
+            value = read;
+            changes.incrementAndGet();
+            if (!cancelled) {
+                listener.onChange(url, read);
+            }
+        } catch (HttpException hex) {
+            errors.incrementAndGet();
+            if (!cancelled) {
+                listener.onError(url, hex);
+            }
+        }
+    }
+
+    /**
+     * Remember the next scheduled poll so that it can be cancelled.
+     */
+    synchronized void setNext(Future<?> next) {
+        if (cancelled) {
+            next.cancel(false);
+        }
+        this.next = next;
+    }
+
+    private static byte[] digest(byte[] body) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest((null == body) ? new byte[0] : body);
+        } catch (NoSuchAlgorithmException nsaex) {
+            throw new IllegalStateException("SHA-1 is not available", nsaex);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.comcast.drivethru.api;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
 import java.io.IOException;
@@ -63,6 +64,48 @@ public class HTTPRequestManagerTest
         manager.sendRequest();
     }
     
+    @Test
+    public void testMultipartParts() throws IOException
+    {
+        HTTPRequestManagerMock manager = (HTTPRequestManagerMock) new HTTPRequestManagerMock.
+                MockBuilder().
+                url(BASE_URL).
+                method("POST").
+                part("deviceId", "0123456789").
+                part("metaData", "{}".getBytes(), ContentType.APPLICATION_JSON).
+                build();
+
+        ResponseContainer container = manager.sendRequest();
+
+        assertTrue(container.getResponseBody().equals(K_MULTIPART_CALL), "The wrong function was called for multipart parts");
+
+        // the generated boundary must reach the server without setting the content type by hand
+        String contentType = manager.mRequest.getFirstHeader("Content-Type").getValue();
+        assertTrue(contentType.startsWith("multipart/form-data; boundary="), "Unexpected content type: " + contentType);
+    }
+
+    @Test
+    public void testMultipartEntityBoundary() throws IOException
+    {
+        HttpEntity multipart = MultipartEntityBuilder.
+                create().
+                setBoundary("imaboundary").
+                addTextBody("deviceId", "0123456789", ContentType.TEXT_PLAIN).
+                build();
+
+        HTTPRequestManagerMock manager = new HTTPRequestManagerMock.
+                MockBuilder().
+                url(BASE_URL).
+                method("POST").
+                contentType("multipart/form-data").
+                multipart(multipart).
+                build();
+
+        manager.sendRequest();
+
+        assertEquals(manager.mRequest.getFirstHeader("Content-Type").getValue(), "multipart/form-data; boundary=imaboundary");
+    }
+
     @Test
     public void testMultipartFormDataRequestWithNoData() throws IOException
     {
@@ -80,6 +123,8 @@ public class HTTPRequestManagerTest
     
     static class HTTPRequestManagerMock extends HTTPRequestManager
     {
+        HttpUriRequest mRequest;
+
         HTTPRequestManagerMock(Builder builder)
         {
             super(builder);
@@ -88,6 +133,7 @@ public class HTTPRequestManagerTest
         @Override
         ResponseContainer sendRequestWithMultipartData(CloseableHttpClient client, HttpUriRequest request) throws IOException
         {
+            mRequest = request;
             return new ResponseContainer(K_MULTIPART_CALL);
         }
         
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.batch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class JournalTest {
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        for (Path file : files()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static List<String> read(Journal journal) {
+        List<String> payloads = new ArrayList<>();
+        for (Journal.Record record : journal.peek(Integer.MAX_VALUE)) {
+            payloads.add(new String(journal.read(record)));
+        }
+        return payloads;
+    }
+
+    @Test
+    public void testAppendAndComplete() throws IOException {
+        try (Journal journal = new Journal(directory, 1024)) {
+            journal.append("one".getBytes());
+            journal.append("two".getBytes());
+            journal.append("three".getBytes());
+            assertEquals(journal.size(), 3);
+            assertEquals(read(journal).toString(), "[one, two, three]");
+
+            List<Journal.Record> first = journal.peek(2);
+            journal.complete(first.get(0));
+            journal.complete(first.get(0));
+            assertEquals(read(journal).toString(), "[two, three]");
+        }
+    }
+
+    @Test
+    public void testRecoversPending() throws IOException {
+        try (Journal journal = new Journal(directory, 1024)) {
+            journal.append("one".getBytes());
+            journal.append("two".getBytes());
+            journal.complete(journal.peek(1).get(0));
+        }
+
+        try (Journal journal = new Journal(directory, 1024)) {
+            assertEquals(read(journal).toString(), "[two]");
+
+            /* New records go after the recovered ones */
+            journal.append("three".getBytes());
+        }
+
+        try (Journal journal = new Journal(directory, 1024)) {
+            assertEquals(read(journal).toString(), "[two, three]");
+        }
+    }
+
+    @Test
+    public void testPrependSurvivesRecovery() throws IOException {
+        try (Journal journal = new Journal(directory, 64)) {
+            journal.append("three".getBytes());
+            journal.append("four".getBytes());
+            journal.prepend(Arrays.asList("one".getBytes(), "two".getBytes()));
+            assertEquals(read(journal).toString(), "[one, two, three, four]");
+        }
+
+        try (Journal journal = new Journal(directory, 64)) {
+            assertEquals(read(journal).toString(), "[one, two, three, four]");
+        }
+    }
+
+    @Test
+    public void testDeletesDeliveredSegments() throws IOException {
+        try (Journal journal = new Journal(directory, 64)) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(("record " + i).getBytes());
+            }
+            assertTrue(files().size() > 1);
+
+            for (Journal.Record record : journal.peek(10)) {
+                journal.complete(record);
+            }
+            assertEquals(journal.size(), 0);
+
+            /* Only the segment being appended to is left */
+            assertEquals(files().size(), 1);
+        }
+        assertTrue(files().isEmpty());
+    }
+
+    @Test
+    public void testLargeRecord() throws IOException {
+        byte[] large = new byte[1000];
+        try (Journal journal = new Journal(directory, 64)) {
+            journal.append("small".getBytes());
+            journal.append(large);
+        }
+        try (Journal journal = new Journal(directory, 64)) {
+            List<Journal.Record> records = journal.peek(2);
+            assertEquals(journal.read(records.get(1)), large);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        try (Journal journal = new Journal(directory, 1024)) {
+            assertEquals(journal.size(), 0);
+            assertFalse(journal.peek(1).iterator().hasNext());
+        }
+        assertTrue(files().isEmpty());
+    }
+}
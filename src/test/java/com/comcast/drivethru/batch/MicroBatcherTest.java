@@ -0,0 +1,228 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.batch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class MicroBatcherTest {
+
+    public static class Device {
+        private String id;
+        private String name;
+    }
+
+    private HttpServer server;
+    private DefaultRestClient client;
+    private IdQuerySplitter<Device> splitter;
+
+    /* The ids query of every batch the server saw */
+    private final List<String> batches = new CopyOnWriteArrayList<>();
+    private volatile boolean failing;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        batches.clear();
+        failing = false;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/devices", new DevicesHandler());
+        server.start();
+        client = new DefaultRestClient("http://localhost:" + server.getAddress().getPort());
+        splitter = new IdQuerySplitter<>("/devices", "ids", "id", Device.class);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testBatchesBySize() throws Exception {
+        MicroBatcher<String, Device> batcher = new MicroBatcher.Builder<>(client, splitter)
+                .window(200, TimeUnit.MILLISECONDS).maxBatchSize(10).build();
+
+        List<Future<Device>> results = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            results.add(batcher.submit(String.valueOf(i)));
+        }
+        for (int i = 0; i < 25; i++) {
+            assertEquals(results.get(i).get(5, TimeUnit.SECONDS).name, "device " + i);
+        }
+
+        /* Two full batches went straight away and the rest at the end of the window */
+        assertEquals(batcher.getBatchCount(), 3);
+        assertEquals(batcher.getLookupCount(), 25);
+        assertTrue(batches.contains("0,1,2,3,4,5,6,7,8,9"));
+        assertTrue(batches.contains("20,21,22,23,24"));
+    }
+
+    @Test
+    public void testBatchesByWindow() throws Exception {
+        final MicroBatcher<String, Device> batcher = new MicroBatcher.Builder<>(client, splitter)
+                .window(50, TimeUnit.MILLISECONDS).build();
+
+        final List<Device> found = new CopyOnWriteArrayList<>();
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final String id = String.valueOf(i);
+            Thread caller = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        found.add(batcher.get(id));
+                    } catch (Exception ex) {
+                        /* Counted as missing below */
+                    }
+                }
+            };
+            callers.add(caller);
+            caller.start();
+        }
+        for (Thread caller : callers) {
+            caller.join(5000);
+        }
+
+        assertEquals(found.size(), 20);
+        assertTrue(batcher.getBatchCount() < 20, "Sent " + batcher.getBatchCount() + " batches");
+    }
+
+    @Test
+    public void testCoalescesDuplicates() throws Exception {
+        MicroBatcher<String, Device> batcher = new MicroBatcher.Builder<>(client, splitter).build();
+
+        Future<Device> first = batcher.submit("7");
+        Future<Device> second = batcher.submit("7");
+        assertSame(first, second);
+        batcher.flush();
+
+        assertEquals(first.get(5, TimeUnit.SECONDS).name, "device 7");
+        assertEquals(batches, list("7"));
+        assertEquals(batcher.getCoalescedCount(), 1);
+    }
+
+    @Test
+    public void testMissingKey() throws Exception {
+        MicroBatcher<String, Device> batcher = new MicroBatcher.Builder<>(client, splitter).build();
+
+        Future<Device> found = batcher.submit("1");
+        Future<Device> missing = batcher.submit("missing");
+        batcher.close();
+
+        assertEquals(found.get(5, TimeUnit.SECONDS).id, "1");
+        assertNull(missing.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailedBatch() throws Exception {
+        failing = true;
+        MicroBatcher<String, Device> batcher = new MicroBatcher.Builder<>(client, splitter)
+                .window(100, TimeUnit.MILLISECONDS).build();
+
+        Future<Device> other = batcher.submit("2");
+        try {
+            batcher.get("1");
+            fail("Expected the batch to fail");
+        } catch (HttpStatusException hsex) {
+            assertEquals(hsex.getStatusCode(), 503);
+        }
+        try {
+            other.get(5, TimeUnit.SECONDS);
+            fail("Expected the batch to fail");
+        } catch (ExecutionException eex) {
+            assertTrue(eex.getCause() instanceof HttpStatusException);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testClosed() {
+        MicroBatcher<String, Device> batcher = new MicroBatcher.Builder<>(client, splitter).build();
+        batcher.close();
+        batcher.submit("1");
+    }
+
+    @Test
+    public void testRepeatedParameter() throws Exception {
+        splitter.setSeparator(null);
+        List<String> keys = list("1", "2");
+        assertEquals(splitter.createRequest(keys).getUrl().setDefaultBaseUrl("http://x").build(),
+                "http://x/devices?ids=1&ids=2");
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * Answers <code>/devices?ids=...</code> with every id except <code>missing</code>.
+     */
+    private class DevicesHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String ids = URLDecoder.decode(exchange.getRequestURI().getRawQuery().substring(4), "UTF-8");
+            batches.add(ids);
+
+            if (failing) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+
+            StringBuilder json = new StringBuilder("[");
+            for (String id : ids.split(",")) {
+                if (!id.equals("missing")) {
+                    json.append((json.length() > 1) ? "," : "");
+                    json.append("{\"id\":\"").append(id).append("\",\"name\":\"device ").append(id).append("\"}");
+                }
+            }
+            byte[] body = json.append("]").toString().getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.batch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class WriteBehindSenderTest {
+
+    private HttpServer server;
+    private DefaultRestClient client;
+    private Path directory;
+
+    /* The bodies the server accepted, and the status to answer with while failures remain */
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failureStatus;
+    private volatile String failOnce;
+    private volatile CountDownLatch gate;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        received.clear();
+        failures.set(0);
+        failureStatus = 503;
+        failOnce = null;
+        gate = null;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/events", new EventsHandler());
+        server.start();
+        client = new DefaultRestClient("http://localhost:" + server.getAddress().getPort());
+        directory = Files.createTempDirectory("write-behind");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static RestRequest event(int number) {
+        RestRequest request = new RestRequest("/events", Method.POST);
+        request.setContentType("text/plain");
+        request.setBody("event " + number);
+        return request;
+    }
+
+    private static List<String> events(int from, int to) {
+        List<String> events = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            events.add("event " + i);
+        }
+        return events;
+    }
+
+    @Test
+    public void testSendsInBackground() throws Exception {
+        WriteBehindSender sender = new WriteBehindSender.Builder(client).batchSize(4).build();
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(sender.submit(event(i)));
+            }
+            assertTrue(sender.awaitEmpty(5, TimeUnit.SECONDS));
+        } finally {
+            sender.close();
+        }
+
+        assertEquals(received, events(0, 20));
+        assertEquals(sender.getSentCount(), 20);
+        assertEquals(sender.getSpilledCount(), 0);
+    }
+
+    @Test
+    public void testRetriesThroughJournal() throws Exception {
+        failures.set(3);
+        WriteBehindSender sender = new WriteBehindSender.Builder(client).journal(directory)
+                .backoff(10, 50, TimeUnit.MILLISECONDS).build();
+        try {
+            for (int i = 0; i < 10; i++) {
+                sender.submit(event(i));
+            }
+            assertTrue(sender.awaitEmpty(5, TimeUnit.SECONDS));
+        } finally {
+            sender.close();
+        }
+
+        assertEquals(received.size(), 10);
+        assertTrue(received.containsAll(events(0, 10)));
+        assertEquals(sender.getRetryCount(), 3);
+        assertTrue(sender.getSpilledCount() > 0);
+    }
+
+    @Test
+    public void testKeepsOrderWhenBatchFails() throws Exception {
+        gate = new CountDownLatch(1);
+        WriteBehindSender sender = new WriteBehindSender.Builder(client).journal(directory).capacity(3).batchSize(4)
+                .backoff(10, 50, TimeUnit.MILLISECONDS).build();
+        try {
+            sender.submit(event(0));
+
+            /* Hold the sender up on the first request so the rest fill memory and then the journal */
+            long end = System.currentTimeMillis() + 5000;
+            while (received.isEmpty() && (System.currentTimeMillis() < end)) {
+                Thread.sleep(10);
+            }
+            for (int i = 1; i < 8; i++) {
+                sender.submit(event(i));
+            }
+            assertEquals(sender.getSpilledCount(), 4);
+
+            /* The next batch is 1, 2, 3 from memory and 4 from the journal, and fails at 2 */
+            failOnce = "event 2";
+            gate.countDown();
+            assertTrue(sender.awaitEmpty(5, TimeUnit.SECONDS));
+        } finally {
+            sender.close();
+        }
+
+        assertEquals(received, events(0, 8));
+        assertEquals(sender.getRetryCount(), 1);
+        assertEquals(sender.getSpilledCount(), 6);
+    }
+
+    @Test
+    public void testSurvivesRestart() throws Exception {
+        failures.set(Integer.MAX_VALUE);
+        WriteBehindSender sender = new WriteBehindSender.Builder(client).journal(directory)
+                .backoff(1, 1, TimeUnit.MINUTES).build();
+        for (int i = 0; i < 5; i++) {
+            sender.submit(event(i));
+        }
+        sender.close();
+        assertTrue(received.isEmpty());
+        assertEquals(sender.getPendingCount(), 5);
+
+        /* The target is back and a new sender picks up where the last one left off */
+        failures.set(0);
+        WriteBehindSender restarted = new WriteBehindSender.Builder(client).journal(directory).build();
+        try {
+            assertTrue(restarted.awaitEmpty(5, TimeUnit.SECONDS));
+        } finally {
+            restarted.close();
+        }
+        assertEquals(received, events(0, 5));
+    }
+
+    @Test
+    public void testRejectedNotRetried() throws Exception {
+        failures.set(1);
+        failureStatus = 400;
+        WriteBehindSender sender = new WriteBehindSender.Builder(client).build();
+        try {
+            sender.submit(event(0));
+            sender.submit(event(1));
+            assertTrue(sender.awaitEmpty(5, TimeUnit.SECONDS));
+        } finally {
+            sender.close();
+        }
+
+        assertEquals(received, events(1, 2));
+        assertEquals(sender.getRejectedCount(), 1);
+        assertEquals(sender.getRetryCount(), 0);
+    }
+
+    @Test
+    public void testDropsWhenFullWithoutJournal() throws Exception {
+        gate = new CountDownLatch(1);
+        WriteBehindSender sender = new WriteBehindSender.Builder(client).capacity(3).batchSize(1).build();
+        try {
+            sender.submit(event(0));
+
+            /* Wait for the first request to hold the sender up, then fill the queue */
+            long end = System.currentTimeMillis() + 5000;
+            while (received.isEmpty() && (System.currentTimeMillis() < end)) {
+                Thread.sleep(10);
+            }
+            for (int i = 1; i < 6; i++) {
+                assertEquals(sender.submit(event(i)), i < 4);
+            }
+            assertEquals(sender.getDroppedCount(), 2);
+
+            gate.countDown();
+            assertTrue(sender.awaitEmpty(5, TimeUnit.SECONDS));
+        } finally {
+            sender.close();
+        }
+        assertEquals(received, events(0, 4));
+    }
+
+    @Test
+    public void testEncoding() throws Exception {
+        RestRequest request = event(7);
+        request.addHeader("X-Trace", "abc");
+        RestRequest decoded = WriteBehindSender.decode(WriteBehindSender.encode(request, "http://localhost"));
+
+        assertEquals(decoded.getMethod(), Method.POST);
+        assertEquals(decoded.getUrl().build(), "http://localhost/events");
+        assertEquals(decoded.getHeaders().get("X-Trace"), "abc");
+        assertEquals(decoded.getHeaders().get("Content-Type"), "text/plain");
+        assertEquals(new String(decoded.getBody()), "event 7");
+        assertFalse(decoded.hasDeadline());
+    }
+
+    /**
+     * Records each body, failing while failures remain and holding each request at the gate.
+     */
+    private class EventsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String body = read(exchange.getRequestBody());
+            if (body.equals(failOnce) || (failures.getAndDecrement() > 0)) {
+                failOnce = null;
+                exchange.sendResponseHeaders(failureStatus, -1);
+                exchange.close();
+                return;
+            }
+            failures.set(0);
+            received.add(body);
+
+            CountDownLatch latch = gate;
+            if (null != latch) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        }
+
+        private String read(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+}
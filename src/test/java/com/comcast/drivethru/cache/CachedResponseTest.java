@@ -0,0 +1,106 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.apache.http.client.utils.DateUtils;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.RestResponse;
+
+public class CachedResponseTest {
+
+    private static RestResponse response(int status, String... headers) {
+        RestResponse response = new RestResponse(status, "Status " + status);
+        for (int i = 0; i < headers.length; i += 2) {
+            response.addHeader(headers[i], headers[i + 1]);
+        }
+        response.setBody("body".getBytes());
+        return response;
+    }
+
+    @Test
+    public void testCacheable() {
+        assertTrue(CachedResponse.isCacheable(response(200, Headers.CACHE_CONTROL, "max-age=60")));
+        assertTrue(CachedResponse.isCacheable(response(200, Headers.ETAG, "\"v1\"")));
+        assertTrue(CachedResponse.isCacheable(response(200, Headers.ETAG, "\"v1\"", Headers.VARY, "Accept-Encoding")));
+
+        assertFalse(CachedResponse.isCacheable(response(200)));
+        assertFalse(CachedResponse.isCacheable(response(404, Headers.CACHE_CONTROL, "max-age=60")));
+        assertFalse(CachedResponse.isCacheable(response(200, Headers.CACHE_CONTROL, "no-store, max-age=60")));
+        assertFalse(CachedResponse.isCacheable(response(200, Headers.ETAG, "\"v1\"", Headers.VARY, "Accept")));
+    }
+
+    @Test
+    public void testFreshness() {
+        long now = System.currentTimeMillis();
+
+        CachedResponse maxAge = CachedResponse.of("a", response(200, Headers.CACHE_CONTROL, "max-age=60"));
+        assertTrue(maxAge.isFresh(now));
+        assertFalse(maxAge.isFresh(now + 61000));
+
+        CachedResponse aged = CachedResponse.of("a", response(200, Headers.CACHE_CONTROL, "max-age=60", "Age", "50"));
+        assertTrue(aged.isFresh(now));
+        assertFalse(aged.isFresh(now + 11000));
+
+        CachedResponse expires = CachedResponse.of("a", response(200, Headers.DATE,
+                DateUtils.formatDate(new Date(now)), Headers.EXPIRES, DateUtils.formatDate(new Date(now + 30000))));
+        assertTrue(expires.isFresh(now));
+        assertFalse(expires.isFresh(now + 31000));
+
+        CachedResponse noCache = CachedResponse.of("a", response(200, Headers.CACHE_CONTROL, "no-cache, max-age=60"));
+        assertFalse(noCache.isFresh(now));
+    }
+
+    @Test
+    public void testRevalidate() {
+        CachedResponse cached = new CachedResponse("a", 0, 200, "OK", new Headers().add(Headers.ETAG, "\"v1\"")
+                .add(Headers.CACHE_CONTROL, "max-age=60").add("X-Other", "kept"), "body".getBytes());
+        assertFalse(cached.isFresh(System.currentTimeMillis()));
+
+        CachedResponse revalidated = cached.revalidate(response(304, Headers.CACHE_CONTROL, "max-age=120"));
+        assertTrue(revalidated.isFresh(System.currentTimeMillis()));
+        assertEquals(revalidated.getHeaders().getFirst(Headers.CACHE_CONTROL), "max-age=120");
+        assertEquals(revalidated.getHeaders().getFirst("X-Other"), "kept");
+        assertEquals(revalidated.getETag(), "\"v1\"");
+        assertEquals(new String(revalidated.toResponse().getBody()), "body");
+    }
+
+    @Test
+    public void testEncoding() throws Exception {
+        CachedResponse original = new CachedResponse("http://localhost/a", 1234, 200, "OK",
+                new Headers().add(Headers.ETAG, "\"v1\"").add(Headers.LAST_MODIFIED, "yesterday"), "body".getBytes());
+        CachedResponse decoded = CachedResponse.decode(original.encode());
+
+        assertEquals(decoded.getKey(), "http://localhost/a");
+        assertEquals(decoded.getStoredAt(), 1234);
+        assertEquals(decoded.getStatusCode(), 200);
+        assertEquals(decoded.getETag(), "\"v1\"");
+        assertEquals(decoded.getLastModified(), "yesterday");
+        assertEquals(decoded.getBody(), "body".getBytes());
+
+        CachedResponse empty = CachedResponse.decode(new CachedResponse("b", 0, 200, null, new Headers(), null)
+                .encode());
+        assertNull(empty.getBody());
+    }
+}
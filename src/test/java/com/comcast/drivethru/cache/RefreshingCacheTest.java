@@ -0,0 +1,268 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.utils.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RefreshingCacheTest {
+
+    /* Runs background refreshes on the calling thread so that tests are deterministic */
+    private static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private HttpServer server;
+    private DefaultRestClient client;
+    private TestCache cache;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile int version;
+    private volatile int status;
+    private volatile String cacheControl;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        requests.set(0);
+        notModified.set(0);
+        version = 1;
+        status = 200;
+        cacheControl = null;
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/settings", new SettingsHandler());
+        server.start();
+        client = new DefaultRestClient("http://localhost:" + server.getAddress().getPort());
+
+        cache = new TestCache(client);
+        cache.setTtl(60, TimeUnit.SECONDS);
+        cache.setStaleWhileRevalidate(30, TimeUnit.SECONDS);
+        cache.setStaleIfError(5, TimeUnit.MINUTES);
+        cache.setNegativeTtl(10, TimeUnit.SECONDS);
+        cache.setExecutor(INLINE);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testServesFromCache() throws Exception {
+        Settings first = cache.get("/settings/a");
+        assertEquals(first.version, 1);
+
+        cache.advance(10000);
+        assertSame(cache.get("/settings/a"), first);
+        assertEquals(requests.get(), 1);
+        assertEquals(cache.getMissCount(), 1);
+        assertEquals(cache.getHitCount(), 1);
+    }
+
+    @Test
+    public void testRefreshesAhead() throws Exception {
+        Settings first = cache.get("/settings/a");
+
+        /* Past 75% of the time to live the cached value is served and refreshed behind it */
+        version = 2;
+        cache.advance(50000);
+        assertSame(cache.get("/settings/a"), first);
+        assertEquals(cache.getRefreshCount(), 1);
+        assertEquals(cache.get("/settings/a").version, 2);
+        assertEquals(cache.getMissCount(), 1);
+    }
+
+    @Test
+    public void testRevalidatesWithETag() throws Exception {
+        Settings first = cache.get("/settings/a");
+
+        /* Unchanged resources keep the same object */
+        cache.advance(50000);
+        cache.get("/settings/a");
+        assertEquals(notModified.get(), 1);
+        assertSame(cache.get("/settings/a"), first);
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        Settings first = cache.get("/settings/a");
+
+        version = 2;
+        cache.advance(70000);
+        assertSame(cache.get("/settings/a"), first);
+        assertEquals(cache.getStaleCount(), 1);
+        assertEquals(cache.get("/settings/a").version, 2);
+
+        /* Too stale to serve while refreshing, so the read waits */
+        version = 3;
+        cache.advance(100000);
+        assertEquals(cache.get("/settings/a").version, 3);
+        assertEquals(cache.getMissCount(), 2);
+    }
+
+    @Test
+    public void testStaleIfError() throws Exception {
+        Settings first = cache.get("/settings/a");
+
+        status = 503;
+        cache.advance(120000);
+        assertSame(cache.get("/settings/a"), first);
+        assertEquals(cache.getErrorCount(), 1);
+
+        /* Beyond the stale-if-error window the failure is reported */
+        cache.advance(TimeUnit.MINUTES.toMillis(5));
+        try {
+            cache.get("/settings/a");
+            fail("Expected the failure to be reported");
+        } catch (HttpStatusException hsex) {
+            assertEquals(hsex.getStatusCode(), 503);
+        }
+    }
+
+    @Test
+    public void testCacheControlOverridesDefaults() throws Exception {
+        cacheControl = "max-age=5, stale-while-revalidate=0, stale-if-error=0";
+        cache.get("/settings/a");
+
+        status = 500;
+        cache.advance(6000);
+        try {
+            cache.get("/settings/a");
+            fail("Expected the failure to be reported");
+        } catch (HttpStatusException hsex) {
+            assertEquals(hsex.getStatusCode(), 500);
+        }
+    }
+
+    @Test
+    public void testNegativeCaching() throws Exception {
+        status = 404;
+        for (int i = 0; i < 3; i++) {
+            try {
+                cache.get("/settings/missing");
+                fail("Expected a 404");
+            } catch (HttpStatusException hsex) {
+                assertEquals(hsex.getStatusCode(), 404);
+            }
+        }
+        assertEquals(requests.get(), 1);
+        assertEquals(cache.getNegativeHitCount(), 3);
+
+        /* Once the negative entry expires the resource is asked for again */
+        status = 200;
+        cache.advance(11000);
+        assertEquals(cache.get("/settings/missing").version, 1);
+        assertEquals(requests.get(), 2);
+    }
+
+    @Test
+    public void testInvalidate() throws HttpException {
+        cache.get("/settings/a");
+        cache.invalidate(client.getDefaultBaseUrl() + "/settings/a");
+        cache.get("/settings/a");
+        assertEquals(requests.get(), 2);
+    }
+
+    public static class Settings {
+        int version;
+    }
+
+    /**
+     * A cache with a clock the test moves forward.
+     */
+    private static class TestCache extends RefreshingCache<Settings> {
+
+        private long now = System.currentTimeMillis();
+
+        TestCache(DefaultRestClient client) {
+            super(client, Settings.class);
+        }
+
+        void advance(long millis) {
+            now += millis;
+        }
+
+        @Override
+        protected long now() {
+            return now;
+        }
+    }
+
+    /**
+     * Serves the current version with a matching entity tag.
+     */
+    private class SettingsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() >= 0) {
+                    continue;
+                }
+            }
+
+            String etag = "\"v" + version + "\"";
+            if (200 == status) {
+                exchange.getResponseHeaders().set(Headers.ETAG, etag);
+                if (null != cacheControl) {
+                    exchange.getResponseHeaders().set(Headers.CACHE_CONTROL, cacheControl);
+                }
+            }
+
+            if ((200 == status) && etag.equals(exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else if (200 == status) {
+                byte[] body = ("{\"version\":" + version + "}").getBytes();
+                exchange.getResponseHeaders().set(Headers.CONTENT_TYPE, "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } else {
+                exchange.sendResponseHeaders(status, -1);
+            }
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.utils.Headers;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ResponseCacheTest {
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("response-cache");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static CachedResponse entry(String key, int size) {
+        byte[] body = new byte[size];
+        Arrays.fill(body, (byte) key.charAt(0));
+        return new CachedResponse(key, System.currentTimeMillis(), 200, "OK",
+                new Headers().add(Headers.ETAG, "\"" + key + "\""), body);
+    }
+
+    @Test
+    public void testMemoryTier() throws Exception {
+        ResponseCache cache = new ResponseCache.Builder().memory(64 * 1024).blockSize(1024).build();
+        assertEquals(cache.getMemoryCapacity(), 64 * 1024);
+
+        assertTrue(cache.put(entry("a", 3100)));
+        CachedResponse found = cache.get("a");
+        assertNotNull(found);
+        assertEquals(found.getBody(), entry("a", 3100).getBody());
+        assertEquals(found.getETag(), "\"a\"");
+        assertNull(cache.get("b"));
+
+        assertEquals(cache.getHitCount(), 1);
+        assertEquals(cache.getMissCount(), 1);
+        assertEquals(cache.getMemoryEntryCount(), 1);
+        assertEquals(cache.getMemoryUsed(), 4 * 1024);
+
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertEquals(cache.getMemoryUsed(), 0);
+    }
+
+    @Test
+    public void testMemoryEviction() throws Exception {
+        ResponseCache cache = new ResponseCache.Builder().memory(16 * 1024).blockSize(1024).build();
+        cache.put(entry("a", 5000));
+        cache.put(entry("b", 5000));
+        cache.put(entry("c", 5000));
+
+        /* Using a makes b the least recently used */
+        assertNotNull(cache.get("a"));
+        cache.put(entry("d", 5000));
+
+        assertEquals(cache.getEvictionCount(), 1);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertTrue(cache.getMemoryUsed() <= cache.getMemoryCapacity());
+    }
+
+    @Test
+    public void testLargeEntries() throws Exception {
+        ResponseCache cache = new ResponseCache.Builder().memory(4 * 1024).blockSize(1024).disk(directory)
+                .maxEntrySize(64 * 1024).build();
+
+        /* Too large for memory but kept on disk */
+        assertTrue(cache.put(entry("a", 10000)));
+        assertEquals(cache.getMemoryEntryCount(), 0);
+        assertEquals(cache.get("a").getBody().length, 10000);
+        assertEquals(cache.getDiskHitCount(), 1);
+
+        /* Too large to cache at all */
+        assertTrue(!cache.put(entry("b", 100000)));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void testDiskTierSurvivesRestart() throws Exception {
+        ResponseCache cache = new ResponseCache.Builder().memory(8 * 1024).blockSize(1024).disk(directory).build();
+        for (char key = 'a'; key <= 'e'; key++) {
+            cache.put(entry(String.valueOf(key), 3000));
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(cache.getDiskEntryCount(), 5);
+
+        /* Evicted from memory, promoted back from disk */
+        assertNotNull(cache.get("a"));
+        assertEquals(cache.getDiskHitCount(), 1);
+        assertNotNull(cache.get("a"));
+        assertEquals(cache.getHitCount(), 1);
+        cache.close();
+
+        ResponseCache reopened = new ResponseCache.Builder().memory(8 * 1024).blockSize(1024).disk(directory)
+                .build();
+        assertEquals(reopened.getDiskEntryCount(), 5);
+        for (char key = 'a'; key <= 'e'; key++) {
+            assertEquals(reopened.get(String.valueOf(key)).getBody(), entry(String.valueOf(key), 3000).getBody());
+        }
+        assertEquals(reopened.getDiskHitCount(), 5);
+    }
+
+    @Test
+    public void testDiskEviction() throws Exception {
+        ResponseCache cache = new ResponseCache.Builder().memory(0).disk(directory, 10000).build();
+        cache.put(entry("a", 3000));
+        cache.put(entry("b", 3000));
+        cache.put(entry("c", 3000));
+        cache.put(entry("d", 3000));
+
+        assertEquals(cache.getDiskEvictionCount(), 1);
+        assertEquals(cache.getDiskEntryCount(), 3);
+        assertTrue(cache.getDiskUsed() <= 10000);
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    public void testClientRevalidates() throws Exception {
+        final AtomicInteger full = new AtomicInteger();
+        final AtomicInteger notModified = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/catalog", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try (InputStream in = exchange.getRequestBody()) {
+                    while (in.read() >= 0) {
+                        continue;
+                    }
+                }
+                exchange.getResponseHeaders().set(Headers.ETAG, "\"v1\"");
+                exchange.getResponseHeaders().set(Headers.CACHE_CONTROL,
+                        exchange.getRequestURI().getPath().endsWith("fresh") ? "max-age=60" : "max-age=0");
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    full.incrementAndGet();
+                    byte[] body = "{\"items\":[1,2,3]}".getBytes();
+                    exchange.getResponseHeaders().set(Headers.CONTENT_TYPE, "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        String base = "http://localhost:" + server.getAddress().getPort();
+        try (DefaultRestClient client = new DefaultRestClient(base)) {
+            ResponseCache cache = new ResponseCache.Builder().disk(directory).build();
+            client.setResponseCache(cache);
+
+            /* Fresh responses are served without a request */
+            assertEquals(client.execute(new RestRequest("/catalog/fresh", Method.GET)).getBodyString(),
+                    "{\"items\":[1,2,3]}");
+            assertEquals(client.execute(new RestRequest("/catalog/fresh", Method.GET)).getBodyString(),
+                    "{\"items\":[1,2,3]}");
+            assertEquals(full.get(), 1);
+
+            /* Stale responses are revalidated */
+            RestRequest request = new RestRequest("/catalog/stale", Method.GET);
+            client.execute(request);
+            RestResponse revalidated = client.execute(request);
+            assertEquals(revalidated.getStatusCode(), 200);
+            assertEquals(revalidated.getBodyString(), "{\"items\":[1,2,3]}");
+            assertEquals(full.get(), 2);
+            assertEquals(notModified.get(), 1);
+            assertEquals(cache.getRevalidationCount(), 1);
+            assertTrue(!request.getAllHeaders().contains(Headers.IF_NONE_MATCH));
+
+            /* After a restart the disk tier is revalidated rather than fetched again */
+            cache.close();
+            client.setResponseCache(new ResponseCache.Builder().disk(directory).build());
+            assertEquals(client.execute(new RestRequest("/catalog/stale", Method.GET)).getBodyString(),
+                    "{\"items\":[1,2,3]}");
+            client.execute(new RestRequest("/catalog/fresh", Method.GET));
+            assertEquals(full.get(), 2);
+            assertEquals(notModified.get(), 2);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testClientSkipsSpooledBodiesTooLargeToCache() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/catalog", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = new byte[exchange.getRequestURI().getPath().endsWith("large") ? 100000 : 10000];
+                Arrays.fill(body, (byte) 'x');
+                exchange.getResponseHeaders().set(Headers.CACHE_CONTROL, "max-age=60");
+                exchange.getResponseHeaders().set(Headers.CONTENT_TYPE, "text/plain");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        String base = "http://localhost:" + server.getAddress().getPort();
+        try (DefaultRestClient client = new DefaultRestClient(base)) {
+            client.getEntityReader().setSpillThreshold(1000).setSpillDirectory(directory);
+            ResponseCache cache = new ResponseCache.Builder().maxEntrySize(64 * 1024).build();
+            client.setResponseCache(cache);
+
+            /* Larger than an entry: left spooled and not cached */
+            try (RestResponse large = client.execute(new RestRequest("/catalog/large", Method.GET))) {
+                assertTrue(large.isSpooled());
+                assertEquals(large.getBodyLength(), 100000);
+                assertEquals(cache.getStoreCount(), 0);
+                assertEquals(large.getBody().length, 100000);
+            }
+            assertNull(cache.get(base + "/catalog/large"));
+
+            /* Spooled but small enough: cached and still spooled for the caller */
+            try (RestResponse small = client.execute(new RestRequest("/catalog/small", Method.GET))) {
+                assertTrue(small.isSpooled());
+                assertEquals(cache.getStoreCount(), 1);
+                assertEquals(small.getBody().length, 10000);
+            }
+            assertEquals(client.execute(new RestRequest("/catalog/small", Method.GET)).getBody().length, 10000);
+            assertEquals(client.getEntityReader().getSpillCount(), 2);
+            cache.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+}
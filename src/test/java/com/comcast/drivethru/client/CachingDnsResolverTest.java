@@ -0,0 +1,193 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.conn.DnsResolver;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CachingDnsResolverTest {
+
+    /** In-memory stand-in for a real DNS server */
+    private static class MapResolver implements DnsResolver {
+        private final Map<String, InetAddress[]> hosts = new HashMap<>();
+        private int lookups = 0;
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            lookups++;
+            InetAddress[] addresses = hosts.get(host);
+            if (null == addresses) {
+                throw new UnknownHostException(host);
+            }
+            return addresses;
+        }
+
+        void put(String host, String... ips) throws UnknownHostException {
+            InetAddress[] addresses = new InetAddress[ips.length];
+            for (int i = 0; i < ips.length; i++) {
+                addresses[i] = InetAddress.getByName(ips[i]);
+            }
+            hosts.put(host, addresses);
+        }
+    }
+
+    /** Resolver with a hand-driven clock that runs refreshes on the calling thread */
+    private static class ManualResolver extends CachingDnsResolver {
+        private long time = 0;
+
+        ManualResolver(DnsResolver delegate) {
+            super(delegate, 1000, 5000);
+            setExecutor(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+
+    private MapResolver dns;
+    private ManualResolver resolver;
+
+    @BeforeMethod
+    public void setUp() throws UnknownHostException {
+        dns = new MapResolver();
+        dns.put("api.example.com", "10.0.0.1", "10.0.0.2", "10.0.0.3");
+        resolver = new ManualResolver(dns);
+    }
+
+    @Test
+    public void testCachesUntilRefreshPoint() throws UnknownHostException {
+        resolver.resolve("api.example.com");
+        resolver.time = 500;
+        resolver.resolve("api.example.com");
+
+        assertEquals(dns.lookups, 1);
+        assertEquals(resolver.getMissCount(), 1);
+        assertEquals(resolver.getHitCount(), 1);
+    }
+
+    @Test
+    public void testRefreshesAhead() throws UnknownHostException {
+        resolver.resolve("api.example.com");
+        dns.put("api.example.com", "10.0.0.9");
+
+        /* Past 75% of the TTL the cached value is returned and a refresh kicks off */
+        resolver.time = 800;
+        assertEquals(resolver.resolve("api.example.com").length, 3);
+        assertEquals(resolver.getRefreshCount(), 1);
+
+        resolver.time = 1500;
+        assertEquals(resolver.resolve("api.example.com")[0].getHostAddress(), "10.0.0.9");
+        assertEquals(dns.lookups, 2);
+    }
+
+    @Test
+    public void testServesStaleOnFailure() throws UnknownHostException {
+        resolver.resolve("api.example.com");
+        dns.hosts.clear();
+
+        resolver.time = 3000;
+        assertEquals(resolver.resolve("api.example.com").length, 3);
+        assertEquals(resolver.getStaleCount(), 1);
+    }
+
+    @Test(expectedExceptions = UnknownHostException.class)
+    public void testStaleLimit() throws UnknownHostException {
+        resolver.resolve("api.example.com");
+        dns.hosts.clear();
+
+        resolver.time = 6001;
+        resolver.resolve("api.example.com");
+    }
+
+    @Test
+    public void testRotatesAddresses() throws UnknownHostException {
+        InetAddress[] first = resolver.resolve("api.example.com");
+        InetAddress[] second = resolver.resolve("api.example.com");
+
+        assertNotEquals(first[0], second[0]);
+        assertEquals(new HashSet<>(Arrays.asList(first)), new HashSet<>(Arrays.asList(second)));
+    }
+
+    @Test(timeOut = 10000)
+    public void testConcurrentMissesShareLookup() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger lookups = new AtomicInteger();
+        final CachingDnsResolver shared = new CachingDnsResolver(new DnsResolver() {
+            @Override
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                lookups.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException iex) {
+                    throw new UnknownHostException(host);
+                }
+                return dns.resolve(host);
+            }
+        });
+
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<InetAddress[]>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(threads.submit(new Callable<InetAddress[]>() {
+                    @Override
+                    public InetAddress[] call() throws UnknownHostException {
+                        return shared.resolve("api.example.com");
+                    }
+                }));
+            }
+
+            /* Let every thread reach the lookup before it completes */
+            while (shared.getMissCount() < 4) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<InetAddress[]> result : results) {
+                assertEquals(result.get().length, 3);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        assertEquals(lookups.get(), 1);
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ConsistentHashRouterTest {
+
+    private static final int KEYS = 10000;
+
+    private static Map<String, String> assign(ConsistentHashRouter router) {
+        Map<String, String> assignments = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            assignments.put("key-" + i, router.select("key-" + i));
+        }
+        return assignments;
+    }
+
+    private static int moved(Map<String, String> before, Map<String, String> after) {
+        int moved = 0;
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            if (!entry.getValue().equals(after.get(entry.getKey()))) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    @Test
+    public void testSpreadsKeys() {
+        ConsistentHashRouter router = new ConsistentHashRouter("http://a", "http://b", "http://c", "http://d");
+        Map<String, Integer> counts = new HashMap<>();
+        for (String baseUrl : assign(router).values()) {
+            counts.put(baseUrl, (counts.containsKey(baseUrl) ? counts.get(baseUrl) : 0) + 1);
+        }
+
+        assertEquals(counts.size(), 4);
+        for (int count : counts.values()) {
+            assertTrue((count > KEYS / 4 * 0.8) && (count < KEYS / 4 * 1.2), "Uneven spread: " + counts);
+        }
+        assertEquals(router.select("key-1"), router.select("key-1"));
+    }
+
+    @Test
+    public void testMembershipChangesMoveFewKeys() {
+        ConsistentHashRouter router = new ConsistentHashRouter("http://a", "http://b", "http://c", "http://d");
+        Map<String, String> before = assign(router);
+
+        /* Only keys taken by the new base URL move, about a fifth of them */
+        router.add("http://e");
+        Map<String, String> added = assign(router);
+        int moved = moved(before, added);
+        assertTrue((moved > KEYS / 5 * 0.8) && (moved < KEYS / 5 * 1.2), "Moved " + moved);
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                assertEquals(entry.getValue(), "http://e");
+            }
+        }
+
+        /* Only keys on the removed base URL move */
+        router.remove("http://b");
+        Map<String, String> removed = assign(router);
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            if (!entry.getValue().equals("http://b")) {
+                assertEquals(removed.get(entry.getKey()), entry.getValue());
+            }
+        }
+        assertEquals(router.getBaseUrls(), Arrays.asList("http://a", "http://c", "http://d", "http://e"));
+    }
+
+    @Test
+    public void testBoundsLoad() {
+        ConsistentHashRouter router = new ConsistentHashRouter(Arrays.asList("http://a", "http://b", "http://c"),
+                ConsistentHashRouter.DEFAULT_VIRTUAL_NODES, 1.25);
+        String home = router.select("hot");
+
+        /* A single hot key fills its replica, then spills to the others */
+        List<String> acquired = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            acquired.add(router.acquire("hot"));
+        }
+        for (String baseUrl : router.getBaseUrls()) {
+            assertTrue(router.getLoad(baseUrl) <= Math.ceil(1.25 * 30 / 3), baseUrl + " has " + router.getLoad(baseUrl));
+        }
+        assertTrue(router.getSpilledCount() > 0);
+        assertEquals(router.getRoutedCount(), 30);
+
+        /* Once the load drains the key goes home again */
+        for (String baseUrl : acquired) {
+            router.release(baseUrl);
+        }
+        assertEquals(router.getLoad(home), 0);
+        assertEquals(router.acquire("hot"), home);
+    }
+
+    @Test
+    public void testUnboundedLoad() {
+        ConsistentHashRouter router = new ConsistentHashRouter(Arrays.asList("http://a", "http://b"), 10,
+                Double.POSITIVE_INFINITY);
+        String home = router.select("hot");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(router.acquire("hot"), home);
+        }
+        assertEquals(router.getSpilledCount(), 0);
+    }
+
+    @Test
+    public void testEmpty() {
+        ConsistentHashRouter router = new ConsistentHashRouter();
+        assertNull(router.select("key"));
+        assertNull(router.acquire("key"));
+    }
+
+    @Test
+    public void testClientRoutesByKey() throws Exception {
+        HttpServer[] servers = new HttpServer[3];
+        String[] baseUrls = new String[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            final String name = "replica-" + i;
+            servers[i] = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            servers[i].createContext("/", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    try (InputStream in = exchange.getRequestBody()) {
+                        while (in.read() >= 0) {
+                            continue;
+                        }
+                    }
+                    byte[] body = name.getBytes();
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                    exchange.close();
+                }
+            });
+            servers[i].start();
+            baseUrls[i] = "http://localhost:" + servers[i].getAddress().getPort();
+        }
+
+        ConsistentHashRouter router = new ConsistentHashRouter(baseUrls);
+        try (DefaultRestClient client = new DefaultRestClient(baseUrls[0])) {
+            client.setRouter(router);
+
+            for (int i = 0; i < 20; i++) {
+                String key = "profile-" + i;
+                String expected = "replica-" + Arrays.asList(baseUrls).indexOf(router.select(key));
+                for (int j = 0; j < 3; j++) {
+                    RestRequest request = new RestRequest("/profiles/" + key, Method.GET);
+                    request.setRoutingKey(key);
+                    RestResponse response = client.execute(request);
+                    assertEquals(response.getBodyString(), expected);
+                }
+            }
+
+            /* Every exchange released its load */
+            for (String baseUrl : baseUrls) {
+                assertEquals(router.getLoad(baseUrl), 0);
+            }
+
+            /* Unrouted requests and URLs with their own base URL are left alone */
+            assertEquals(client.execute(new RestRequest("/profiles/x", Method.GET)).getBodyString(), "replica-0");
+            RestRequest explicit = new RestRequest(new URL(baseUrls[2], "/profiles/x"), Method.GET);
+            explicit.setRoutingKey("profile-1");
+            assertEquals(client.execute(explicit).getBodyString(), "replica-2");
+        } finally {
+            for (HttpServer server : servers) {
+                server.stop(0);
+            }
+        }
+    }
+}
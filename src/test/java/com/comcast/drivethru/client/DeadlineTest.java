@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.exception.DeadlineExceededException;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+
+public class DeadlineTest {
+
+    @Test
+    public void testShedWhenAlreadyLate() throws Exception {
+        HttpClient delegate = createMock(HttpClient.class);
+        replay(delegate);
+
+        DefaultRestClient client = new DefaultRestClient("http://www.google.com", delegate);
+        RestRequest request = new RestRequest("/", Method.GET);
+        request.setDeadline(System.currentTimeMillis() - 1);
+
+        try {
+            client.execute(request);
+            fail("Late request was sent");
+        } catch (DeadlineExceededException deex) {
+            assertFalse(deex.wasSent());
+        }
+        assertEquals(client.getShedCount(), 1);
+        client.close();
+    }
+
+    @Test
+    public void testTimeoutsClampedToDeadline() throws Exception {
+        BasicHttpResponse resp = new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 1), 204, "No Content");
+
+        HttpClient delegate = createMock(HttpClient.class);
+        Capture<HttpGet> capture = EasyMock.newCapture();
+        Capture<HttpContext> context = EasyMock.newCapture();
+        expect(delegate.execute(capture(capture), capture(context))).andReturn(resp);
+        replay(delegate);
+
+        DefaultRestClient client = new DefaultRestClient("http://www.google.com", delegate);
+        RestRequest request = new RestRequest("/", Method.GET);
+        request.setConfig(RequestConfig.custom().setSocketTimeout(60000).setConnectTimeout(100).build());
+        request.setDeadline(5, TimeUnit.SECONDS);
+
+        RestResponse response = client.execute(request);
+        assertEquals(response.getStatusCode(), 204);
+
+        RequestConfig config = capture.getValue().getConfig();
+        assertTrue(config.getSocketTimeout() <= 5000);
+        assertTrue(config.getConnectionRequestTimeout() <= 5000);
+        assertEquals(config.getConnectTimeout(), 100);
+        assertEquals(context.getValue().getAttribute(DeadlineRetryHandler.DEADLINE), request.getDeadline());
+        client.close();
+    }
+
+    @Test
+    public void testAbortedAtDeadline() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            DefaultRestClient client = new DefaultRestClient("http://localhost:" + server.getLocalPort());
+            RestRequest request = new RestRequest("/slow", Method.GET);
+
+            /* The server accepts the connection but never answers */
+            request.setConfig(RequestConfig.custom().setSocketTimeout(30000).build());
+            request.setDeadline(300, TimeUnit.MILLISECONDS);
+
+            long start = System.currentTimeMillis();
+            try {
+                client.execute(request);
+                fail("Request outlived its deadline");
+            } catch (DeadlineExceededException deex) {
+                assertTrue(deex.wasSent());
+            } finally {
+                client.close();
+            }
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertEquals(client.getDeadlineExceededCount(), 1);
+        }
+    }
+
+    @Test
+    public void testRetryHandlerStopsAtDeadline() {
+        HttpContext context = createMock(HttpContext.class);
+        expect(context.getAttribute(DeadlineRetryHandler.DEADLINE)).andReturn(System.currentTimeMillis() - 1);
+        replay(context);
+
+        assertFalse(new DeadlineRetryHandler().retryRequest(new IOException(), 1, context));
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+
+public class ExpectContinueTest {
+
+    private static final byte[] BODY = new byte[64 * 1024];
+
+    private ServerSocket server;
+    private DefaultRestClient client;
+
+    /* Whether each request the server saw asked for 100 Continue */
+    private final List<Boolean> expects = new CopyOnWriteArrayList<>();
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try (Socket socket = server.accept()) {
+                        respond(socket);
+                    } catch (IOException ioex) {
+                        /* Client went away or the server was closed */
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterClass
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        expects.clear();
+        client = new DefaultRestClient("http://localhost:" + server.getLocalPort());
+        client.setExpectContinueThreshold(1024);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        client.close();
+    }
+
+    @Test
+    public void testRejectedBeforeUpload() throws Exception {
+        RestResponse response = client.execute(upload("/reject", BODY));
+        assertEquals(response.getStatusCode(), 413);
+        assertEquals(expects, list(true));
+        assertEquals(client.getAvoidedUploadCount(), 1);
+    }
+
+    @Test
+    public void testAcceptedUpload() throws Exception {
+        RestResponse response = client.execute(upload("/accept", BODY));
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(response.getBodyString(), String.valueOf(BODY.length));
+        assertEquals(expects, list(true));
+        assertEquals(client.getAvoidedUploadCount(), 0);
+    }
+
+    @Test
+    public void testSmallBodySentDirectly() throws Exception {
+        RestResponse response = client.execute(upload("/accept", new byte[100]));
+        assertEquals(response.getBodyString(), "100");
+        assertEquals(expects, list(false));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        client.setExpectContinueThreshold(-1);
+        client.execute(upload("/accept", BODY));
+        assertEquals(expects, list(false));
+    }
+
+    @Test
+    public void testSilentServer() throws Exception {
+        long start = System.currentTimeMillis();
+        RestResponse response = client.execute(upload("/silent", BODY));
+        long elapsed = System.currentTimeMillis() - start;
+
+        /* The body is sent anyway once the short wait runs out */
+        assertEquals(response.getBodyString(), String.valueOf(BODY.length));
+        assertTrue(elapsed >= DefaultRestClient.DEFAULT_CONTINUE_TIMEOUT - 100, "Sent after " + elapsed + "ms");
+        assertTrue(elapsed < 3000, "Sent after " + elapsed + "ms");
+        assertEquals(client.getAvoidedUploadCount(), 0);
+    }
+
+    @Test
+    public void testExpectationFailed() throws Exception {
+        RestResponse response = client.execute(upload("/refuse", BODY));
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(response.getBodyString(), String.valueOf(BODY.length));
+        assertEquals(expects, list(true, false));
+        assertFalse(client.getAvoidedUploadCount() > 0);
+    }
+
+    private static RestRequest upload(String path, byte[] body) {
+        RestRequest request = new RestRequest(path, Method.PUT);
+        request.setBody(body);
+        return request;
+    }
+
+    private static List<Boolean> list(Boolean... values) {
+        List<Boolean> list = new CopyOnWriteArrayList<>();
+        for (Boolean value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * Answer a single request, behaving according to its path:
+     * <ul>
+     * <li><code>/reject</code> answers 413 without reading the body</li>
+     * <li><code>/accept</code> sends 100 Continue and reads the body</li>
+     * <li><code>/silent</code> ignores the expectation and waits for the body</li>
+     * <li><code>/refuse</code> answers 417 to an expectation and otherwise reads the body</li>
+     * </ul>
+     */
+    private void respond(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        String path = reader.readLine().split(" ")[1];
+        boolean expect = false;
+        int length = 0;
+        String line;
+        while ((null != (line = reader.readLine())) && !line.isEmpty()) {
+            String lower = line.toLowerCase();
+            if (lower.startsWith("expect:")) {
+                expect = lower.contains("100-continue");
+            } else if (lower.startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        expects.add(expect);
+
+        OutputStream out = socket.getOutputStream();
+        if (expect && path.equals("/reject")) {
+            reply(out, "413 Payload Too Large", "");
+            return;
+        }
+        if (expect && path.equals("/refuse")) {
+            reply(out, "417 Expectation Failed", "");
+            return;
+        }
+        if (expect && path.equals("/accept")) {
+            out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("US-ASCII"));
+            out.flush();
+        }
+
+        int read = 0;
+        char[] buffer = new char[8192];
+        while (read < length) {
+            int count = reader.read(buffer, 0, Math.min(buffer.length, length - read));
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        reply(out, "200 OK", String.valueOf(read));
+    }
+
+    private static void reply(OutputStream out, String status, String body) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\nConnection: close\r\nContent-Length: " + body.length() + "\r\n\r\n"
+                + body).getBytes("US-ASCII"));
+        out.flush();
+    }
+}
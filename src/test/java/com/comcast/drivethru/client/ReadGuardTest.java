@@ -0,0 +1,154 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.api.HTTPRequestManager;
+import com.comcast.drivethru.exception.SlowResponseException;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestRequest;
+import com.comcast.drivethru.utils.RestResponse;
+
+public class ReadGuardTest {
+
+    private static final String HEADERS = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: %d\r\n\r\n";
+
+    @Test
+    public void testFastResponse() throws Exception {
+        ReadGuard guard = new ReadGuard(1000, 100, 200);
+        try (ServerSocket server = serve(0, 0, "hello")) {
+            DefaultRestClient client = new DefaultRestClient("http://localhost:" + server.getLocalPort());
+            client.setReadGuard(guard);
+            try {
+                RestResponse response = client.execute(new RestRequest("/", Method.GET));
+                assertEquals(response.getBodyString(), "hello");
+            } finally {
+                client.close();
+            }
+        }
+        assertEquals(guard.getTripCount(), 0);
+    }
+
+    @Test
+    public void testSlowFirstByte() throws Exception {
+        ReadGuard guard = new ReadGuard(200, 0);
+        try (ServerSocket server = serve(5000, 0, "hello")) {
+            DefaultRestClient client = new DefaultRestClient("http://localhost:" + server.getLocalPort());
+            client.setReadGuard(guard);
+            long start = System.currentTimeMillis();
+            try {
+                client.execute(new RestRequest("/", Method.GET));
+                fail("Expected the response to be aborted");
+            } catch (SlowResponseException srex) {
+                assertEquals(srex.getBytesRead(), 0);
+                assertTrue(System.currentTimeMillis() - start < 3000);
+            } finally {
+                client.close();
+            }
+        }
+        assertEquals(guard.getSlowStartCount(), 1);
+        assertEquals(guard.getSlowBodyCount(), 0);
+    }
+
+    @Test
+    public void testSlowBody() throws Exception {
+        ReadGuard guard = new ReadGuard(1000, 100, 300);
+        try (ServerSocket server = serve(0, 100, "the quick brown fox jumps over the lazy dog")) {
+            DefaultRestClient client = new DefaultRestClient("http://localhost:" + server.getLocalPort());
+            client.setReadGuard(guard);
+            try {
+                client.execute(new RestRequest("/", Method.GET));
+                fail("Expected the response to be aborted");
+            } catch (SlowResponseException srex) {
+                assertTrue(srex.getBytesRead() < 43);
+            } finally {
+                client.close();
+            }
+        }
+        assertEquals(guard.getSlowStartCount(), 0);
+        assertEquals(guard.getSlowBodyCount(), 1);
+    }
+
+    @Test
+    public void testRequestManagerSlowBody() throws Exception {
+        ReadGuard guard = new ReadGuard(1000, 100, 300);
+        try (ServerSocket server = serve(0, 100, "the quick brown fox jumps over the lazy dog")) {
+            HTTPRequestManager manager = new HTTPRequestManager.Builder()
+                    .url("http://localhost:" + server.getLocalPort() + "/").readGuard(guard).build();
+            try {
+                manager.sendRequest();
+                fail("Expected the response to be aborted");
+            } catch (IOException ioex) {
+                assertTrue(ioex.getCause() instanceof SlowResponseException);
+            }
+        }
+        assertEquals(guard.getSlowBodyCount(), 1);
+    }
+
+    /**
+     * Serve a single response, waiting before the headers and between each byte of the body.
+     */
+    private static ServerSocket serve(final long headerDelay, final long byteDelay, final String body)
+            throws IOException {
+        final ServerSocket server = new ServerSocket(0);
+        Thread responder = new Thread() {
+            @Override
+            public void run() {
+                try (Socket socket = server.accept()) {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                    String line;
+                    while ((null != (line = reader.readLine())) && !line.isEmpty()) {
+                        /* Skip the request headers */
+                    }
+
+                    Thread.sleep(headerDelay);
+                    OutputStream out = socket.getOutputStream();
+                    out.write(String.format(HEADERS, body.length()).getBytes("US-ASCII"));
+                    out.flush();
+
+                    byte[] bytes = body.getBytes("US-ASCII");
+                    if (0 == byteDelay) {
+                        out.write(bytes);
+                        out.flush();
+                    } else {
+                        for (byte b : bytes) {
+                            Thread.sleep(byteDelay);
+                            out.write(b);
+                            out.flush();
+                        }
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    /* Client went away */
+                }
+            }
+        };
+        responder.setDaemon(true);
+        responder.start();
+        return server;
+    }
+}
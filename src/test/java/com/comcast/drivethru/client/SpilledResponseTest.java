@@ -0,0 +1,136 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.utils.URL;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class SpilledResponseTest {
+
+    private static final int LENGTH = 100 * 1024;
+
+    private HttpServer server;
+    private DefaultRestClient client;
+    private Path directory;
+    private volatile int status;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        status = 500;
+        directory = Files.createTempDirectory("spill");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try (InputStream in = exchange.getRequestBody()) {
+                    while (in.read() >= 0) {
+                        continue;
+                    }
+                }
+                exchange.getResponseHeaders().set("Content-Type", "text/plain");
+                exchange.sendResponseHeaders(status, LENGTH);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(new byte[LENGTH]);
+                }
+            }
+        });
+        server.start();
+
+        client = new DefaultRestClient("http://localhost:" + server.getAddress().getPort());
+        client.getEntityReader().setSpillThreshold(1000).setSpillDirectory(directory);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+        for (Path file : files()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    @Test
+    public void testErrorResponsesAreReleased() throws Exception {
+        URL url = new URL().setPath("/things/1");
+        for (int i = 0; i < 3; i++) {
+            try {
+                client.get(url, String.class);
+                fail("Expected the get to fail");
+            } catch (HttpStatusException hsex) {
+                assertEquals(hsex.getStatusCode(), 500);
+            }
+            try {
+                client.put(url, "thing");
+                fail("Expected the put to fail");
+            } catch (HttpStatusException hsex) {
+                assertEquals(hsex.getStatusCode(), 500);
+            }
+            try {
+                client.delete(url);
+                fail("Expected the delete to fail");
+            } catch (HttpStatusException hsex) {
+                assertEquals(hsex.getStatusCode(), 500);
+            }
+        }
+
+        assertTrue(client.getEntityReader().getSpillCount() >= 9);
+        assertEquals(files().size(), 0);
+    }
+
+    @Test
+    public void testIgnoredBodiesAreReleased() throws Exception {
+        status = 200;
+        URL url = new URL().setPath("/things/1");
+        client.put(url, "thing");
+        client.delete(url);
+        client.post(url, "thing", void.class);
+
+        assertEquals(client.getEntityReader().getSpillCount(), 3);
+        assertEquals(files().size(), 0);
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.security.KeyStore;
+
+import javax.net.ssl.SSLSession;
+
+import org.testng.annotations.Test;
+
+public class TlsContextsTest {
+
+    private static KeyStore emptyStore() throws Exception {
+        KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+        store.load(null, null);
+        return store;
+    }
+
+    @Test
+    public void testDefaultIsShared() {
+        assertSame(TlsContexts.getDefault(), TlsContexts.getDefault());
+        assertEquals(TlsContexts.getDefault().getContext().getClientSessionContext().getSessionCacheSize(),
+                TlsContexts.DEFAULT_SESSION_CACHE_SIZE);
+    }
+
+    @Test
+    public void testKeyedByConfiguration() throws Exception {
+        KeyStore trust = emptyStore();
+
+        MeteredSSLSocketFactory factory = TlsContexts.getSocketFactory(trust, null, null);
+        assertSame(TlsContexts.getSocketFactory(trust, null, null), factory);
+        assertSame(TlsContexts.getContext(trust, null, null), factory.getContext());
+        assertNotSame(TlsContexts.getSocketFactory(emptyStore(), null, null), factory);
+        assertNotSame(TlsContexts.getDefault(), factory);
+    }
+
+    @Test
+    public void testKeyedByPassword() throws Exception {
+        KeyStore keys = emptyStore();
+
+        MeteredSSLSocketFactory factory = TlsContexts.getSocketFactory(null, keys, "secret".toCharArray());
+        assertSame(TlsContexts.getSocketFactory(null, keys, "secret".toCharArray()), factory);
+        assertNotSame(TlsContexts.getSocketFactory(null, keys, "other".toCharArray()), factory);
+        assertNotSame(TlsContexts.getSocketFactory(null, keys, null), factory);
+    }
+
+    @Test
+    public void testOldestFactoriesEvicted() throws Exception {
+        KeyStore first = emptyStore();
+        MeteredSSLSocketFactory factory = TlsContexts.getSocketFactory(first, null, null);
+        for (int i = 0; i < TlsContexts.MAX_FACTORIES; i++) {
+            TlsContexts.getSocketFactory(emptyStore(), null, null);
+        }
+
+        assertNotSame(TlsContexts.getSocketFactory(first, null, null), factory);
+        assertSame(TlsContexts.getDefault(), TlsContexts.getDefault());
+    }
+
+    @Test
+    public void testResumptionDetection() {
+        SSLSession session = createMock(SSLSession.class);
+        expect(session.isValid()).andReturn(true).anyTimes();
+        expect(session.getCreationTime()).andReturn(1000L).anyTimes();
+        replay(session);
+
+        assertTrue(MeteredSSLSocketFactory.isResumed(session, 2000L));
+        assertFalse(MeteredSSLSocketFactory.isResumed(session, 1000L));
+        assertFalse(MeteredSSLSocketFactory.isResumed(null, 2000L));
+    }
+
+    @Test
+    public void testNoHandshakesYet() throws Exception {
+        MeteredSSLSocketFactory factory = TlsContexts.getSocketFactory(emptyStore(), null, null);
+        assertEquals(factory.getHandshakeCount(), 0);
+        assertEquals(factory.getResumptionRate(), 0.0);
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.client;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.test.MockRestClient;
+import com.comcast.drivethru.transform.ByteTransformer;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.Method;
+
+public class WarmUpTest {
+
+    @Test
+    public void testOpensPooledConnections() throws Exception {
+        final List<Socket> accepted = new ArrayList<>();
+        try (final ServerSocket server = new ServerSocket(0)) {
+            Thread acceptor = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            Socket socket = server.accept();
+                            synchronized (accepted) {
+                                accepted.add(socket);
+                            }
+                        }
+                    } catch (IOException ioex) {
+                        /* Server closed */
+                    }
+                }
+            };
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            DefaultRestClient client = new DefaultRestClient("http://localhost:" + server.getLocalPort());
+            try {
+                assertEquals(client.warmUp(new WarmUp().setConnections(3)), 3);
+
+                /* The connections are idle in the pool, so warming again opens nothing new */
+                assertEquals(client.warmUp(new WarmUp().setConnections(3)), 0);
+            } finally {
+                client.close();
+            }
+
+            /* The client side completes as soon as the kernel accepts, so give the acceptor a moment */
+            long giveUp = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < giveUp) {
+                synchronized (accepted) {
+                    if (accepted.size() >= 3) {
+                        break;
+                    }
+                }
+                Thread.sleep(10);
+            }
+
+            synchronized (accepted) {
+                assertEquals(accepted.size(), 3);
+                for (Socket socket : accepted) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPoolCoversEveryRoute() throws Exception {
+        /* Connections complete against the listen backlog, so nothing needs to accept them */
+        try (ServerSocket first = new ServerSocket(0); ServerSocket second = new ServerSocket(0)) {
+            PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+            pool.setMaxTotal(4);
+
+            DefaultRestClient client = new DefaultRestClient("http://localhost:" + first.getLocalPort());
+            client.setConnectionManager(pool);
+            try {
+                WarmUp warmUp = new WarmUp().setConnections(3).setTimeout(1000)
+                        .addBaseUrl("http://localhost:" + second.getLocalPort());
+                assertEquals(client.warmUp(warmUp), 6);
+                assertEquals(pool.getMaxTotal(), 6);
+            } finally {
+                client.close();
+                pool.close();
+            }
+        }
+    }
+
+    @Test
+    public void testHealthAndSamples() throws Exception {
+        final AtomicInteger writes = new AtomicInteger();
+        final Transformer strings = new ByteTransformer();
+        Transformer counting = new Transformer() {
+            @Override
+            public String getMime() {
+                return strings.getMime();
+            }
+
+            @Override
+            public <T> byte[] write(T t) throws HttpException {
+                writes.incrementAndGet();
+                return strings.write(t);
+            }
+
+            @Override
+            public <T> T read(byte[] body, Class<T> type) throws HttpException {
+                return strings.read(body, type);
+            }
+        };
+
+        MockRestClient client = new MockRestClient("http://cheezburger.com", counting);
+        client.expect(Method.GET, ".*/health").andReturn(200);
+
+        WarmUp warmUp = new WarmUp().setHealthPath("/health").addSample("hello".getBytes()).setIterations(10);
+        assertEquals(client.warmUp(warmUp), 0);
+        assertEquals(writes.get(), 10);
+        client.close();
+    }
+
+    @Test(expectedExceptions = HttpStatusException.class)
+    public void testUnhealthy() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/health").andReturn(503);
+        try {
+            client.warmUp(new WarmUp().setHealthPath("/health"));
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.patch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.utils.URL;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class DeltaUpdaterTest {
+
+    public static class Device {
+        private String name;
+        private String room;
+        private int volume;
+        private String description;
+    }
+
+    private static final String DESCRIPTION = "A television in the den, mounted above the fireplace and used "
+            + "mostly for the evening news and the occasional football game on the weekends.";
+    private static final String DEVICE = "{\"name\":\"Den TV\",\"room\":\"den\",\"volume\":3,\"description\":\""
+            + DESCRIPTION + "\"}";
+
+    private HttpServer server;
+    private DefaultRestClient client;
+
+    /* Every request the server saw as "METHOD content-type if-match body" */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile int patchStatus;
+    private volatile int version;
+    private volatile String contentType;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        requests.clear();
+        patchStatus = 204;
+        version = 1;
+        contentType = "application/json; charset=UTF-8";
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/devices", new DeviceHandler());
+        server.start();
+        client = new DefaultRestClient("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testJsonPatch() throws Exception {
+        DeltaUpdater updater = new DeltaUpdater(client);
+        Tracked<Device> device = updater.get(new URL().setPath("/devices/1"), Device.class);
+        assertEquals(device.get().name, "Den TV");
+        assertEquals(device.getETag(), "\"v1\"");
+
+        device.get().room = "living";
+        assertTrue(updater.update(device));
+
+        assertEquals(requests.get(1), "PATCH application/json-patch+json \"v1\" "
+                + "[{\"op\":\"replace\",\"path\":\"/room\",\"value\":\"living\"}]");
+        assertEquals(device.getETag(), "\"v2\"");
+        assertEquals(updater.getPatchCount(), 1);
+        assertTrue(updater.getSavedBytes() > 0);
+
+        /* The next update is computed against the confirmed state */
+        device.get().volume = 7;
+        updater.update(device);
+        assertEquals(requests.get(2), "PATCH application/json-patch+json \"v2\" "
+                + "[{\"op\":\"replace\",\"path\":\"/volume\",\"value\":7}]");
+    }
+
+    @Test
+    public void testMergePatch() throws Exception {
+        DeltaUpdater updater = new DeltaUpdater(client).setFormat(PatchFormat.MERGE_PATCH);
+        Tracked<Device> device = updater.get(new URL().setPath("/devices/1"), Device.class);
+        device.get().room = "living";
+        updater.update(device);
+
+        assertEquals(requests.get(1), "PATCH application/merge-patch+json \"v1\" {\"room\":\"living\"}");
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        DeltaUpdater updater = new DeltaUpdater(client);
+        Tracked<Device> device = updater.get(new URL().setPath("/devices/1"), Device.class);
+
+        assertFalse(updater.update(device));
+        assertEquals(requests.size(), 1);
+        assertEquals(updater.getUnchangedCount(), 1);
+    }
+
+    @Test
+    public void testFallsBackToPut() throws Exception {
+        patchStatus = 405;
+        DeltaUpdater updater = new DeltaUpdater(client);
+
+        Device previous = new Device();
+        previous.name = "Den TV";
+        previous.description = DESCRIPTION;
+        Device current = new Device();
+        current.name = "Den TV";
+        current.description = DESCRIPTION;
+        current.volume = 5;
+
+        Tracked<Device> device = updater.update(new URL().setPath("/devices/1"), previous, current, "\"v1\"");
+        assertEquals(requests.size(), 2);
+        assertTrue(requests.get(0).startsWith("PATCH "));
+        assertTrue(requests.get(1).startsWith("PUT application/json \"v1\" {"));
+        assertEquals(new JsonParser().parse(requests.get(1).substring(requests.get(1).indexOf('{'))),
+                new JsonParser().parse("{\"name\":\"Den TV\",\"volume\":5,\"description\":\"" + DESCRIPTION + "\"}"));
+        assertEquals(device.getETag(), "\"v2\"");
+
+        /* Once refused, patches aren't tried again for the same service */
+        device.get().volume = 6;
+        updater.update(device);
+        assertEquals(requests.size(), 3);
+        assertTrue(requests.get(2).startsWith("PUT application/json \"v2\" "));
+        assertEquals(updater.getFallbackCount(), 2);
+        assertEquals(updater.getPatchCount(), 0);
+    }
+
+    @Test
+    public void testConflict() throws Exception {
+        patchStatus = 412;
+        DeltaUpdater updater = new DeltaUpdater(client);
+        Tracked<Device> device = updater.get(new URL().setPath("/devices/1"), Device.class);
+        device.get().room = "living";
+
+        try {
+            updater.update(device);
+            fail("Expected the update to be refused");
+        } catch (HttpStatusException hsex) {
+            assertEquals(hsex.getStatusCode(), 412);
+        }
+        assertEquals(device.getETag(), "\"v1\"");
+
+        /* The refused change is still pending */
+        patchStatus = 204;
+        assertTrue(updater.update(device));
+        assertTrue(requests.get(2).endsWith("\"value\":\"living\"}]"));
+    }
+
+    @Test
+    public void testSendsSmallerBody() throws Exception {
+        DeltaUpdater updater = new DeltaUpdater(client);
+        Tracked<Device> device = updater.get(new URL().setPath("/devices/1"), Device.class);
+        device.get().name = "TV";
+        device.get().room = "den 2";
+        device.get().volume = 11;
+        device.get().description = "";
+
+        /* Four operations are longer than the small object itself */
+        updater.update(device);
+        assertTrue(requests.get(1).startsWith("PUT application/json \"v1\" {"));
+        assertEquals(updater.getFallbackCount(), 1);
+    }
+
+    @Test(expectedExceptions = HttpException.class)
+    public void testWrongContentType() throws Exception {
+        contentType = "text/plain";
+        new DeltaUpdater(client).get(new URL().setPath("/devices/1"), Device.class);
+    }
+
+    @Test
+    public void testNoETag() throws Exception {
+        DeltaUpdater updater = new DeltaUpdater(client);
+        Device device = new Device();
+        device.name = "Den TV";
+        device.description = DESCRIPTION;
+        Tracked<Device> tracked = updater.track(new URL().setPath("/devices/2"), device, null);
+        assertNull(tracked.getETag());
+
+        device.room = "den";
+        updater.update(tracked);
+        assertEquals(requests.get(0), "PATCH application/json-patch+json null "
+                + "[{\"op\":\"add\",\"path\":\"/room\",\"value\":\"den\"}]");
+    }
+
+    private class DeviceHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String body = read(exchange.getRequestBody());
+            requests.add(method + " " + exchange.getRequestHeaders().getFirst("Content-Type") + " "
+                    + exchange.getRequestHeaders().getFirst("If-Match") + " " + body);
+
+            if (method.equals("GET")) {
+                exchange.getResponseHeaders().set("ETag", "\"v" + version + "\"");
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+                respond(exchange, 200, DEVICE);
+            } else if (method.equals("PATCH") && (patchStatus != 204)) {
+                respond(exchange, patchStatus, "");
+            } else {
+                version++;
+                exchange.getResponseHeaders().set("ETag", "\"v" + version + "\"");
+                respond(exchange, 204, "");
+            }
+        }
+
+        private String read(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        }
+
+        private void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, (bytes.length > 0) ? bytes.length : -1);
+            if (bytes.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+            exchange.close();
+        }
+    }
+}
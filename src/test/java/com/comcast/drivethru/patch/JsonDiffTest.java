@@ -0,0 +1,80 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.patch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+public class JsonDiffTest {
+
+    private static JsonElement json(String json) {
+        return new JsonParser().parse(json.replace('\'', '"'));
+    }
+
+    @Test
+    public void testIdentical() {
+        assertNull(JsonDiff.diff(json("{'a':1,'b':[1,2]}"), json("{'b':[1,2],'a':1}")));
+        assertNull(JsonDiff.mergeDiff(json("{'a':1,'b':[1,2]}"), json("{'b':[1,2],'a':1}")));
+    }
+
+    @Test
+    public void testObjectDiff() {
+        JsonElement source = json("{'name':'Den','volume':3,'meta':{'room':'den','floor':1}}");
+        JsonElement target = json("{'name':'Living Room','meta':{'room':'living','floor':1},'muted':true}");
+
+        assertEquals(JsonDiff.diff(source, target), json("["
+                + "{'op':'remove','path':'/volume'},"
+                + "{'op':'replace','path':'/name','value':'Living Room'},"
+                + "{'op':'replace','path':'/meta/room','value':'living'},"
+                + "{'op':'add','path':'/muted','value':true}]"));
+    }
+
+    @Test
+    public void testArrayDiff() {
+        assertEquals(JsonDiff.diff(json("{'a':[1,2,3,4]}"), json("{'a':[1,5]}")), json("["
+                + "{'op':'replace','path':'/a/1','value':5},"
+                + "{'op':'remove','path':'/a/3'},"
+                + "{'op':'remove','path':'/a/2'}]"));
+
+        assertEquals(JsonDiff.diff(json("{'a':[1]}"), json("{'a':[1,2,3]}")), json("["
+                + "{'op':'add','path':'/a/-','value':2},"
+                + "{'op':'add','path':'/a/-','value':3}]"));
+    }
+
+    @Test
+    public void testReplaceDocument() {
+        assertEquals(JsonDiff.diff(json("{'a':1}"), json("[1]")), json("[{'op':'replace','path':'','value':[1]}]"));
+    }
+
+    @Test
+    public void testEscapesPointer() {
+        assertEquals(JsonDiff.diff(json("{}"), json("{'a/b~c':1}")),
+                json("[{'op':'add','path':'/a~1b~0c','value':1}]"));
+    }
+
+    @Test
+    public void testMergeDiff() {
+        JsonElement source = json("{'name':'Den','volume':3,'meta':{'room':'den','floor':1},'tags':[1,2]}");
+        JsonElement target = json("{'name':'Den','meta':{'room':'living','floor':1},'tags':[1]}");
+
+        assertEquals(JsonDiff.mergeDiff(source, target), json("{'volume':null,'meta':{'room':'living'},'tags':[1]}"));
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.exception.StreamException;
+import com.comcast.drivethru.test.MockRestClient;
+import com.comcast.drivethru.transform.StringTransformer;
+import com.comcast.drivethru.transform.Transformer;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.URL;
+
+public class EventStreamTest {
+
+    public static class Item {
+        private String name;
+    }
+
+    private static final Transformer TEXT = new StringTransformer() {
+        @Override
+        public String getMime() {
+            return "text/plain";
+        }
+
+        @Override
+        public <T> T readString(String body, Class<T> type) throws HttpException {
+            return type.cast(body);
+        }
+
+        @Override
+        public <T> String writeString(T t) throws HttpException {
+            return String.valueOf(t);
+        }
+    };
+
+    @Test
+    public void testNewlineDelimited() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/feed").andReturn(200)
+                .withBody("{\"name\":\"a\"}\n\n{\"name\":\"b\"}\n", "application/x-ndjson");
+
+        try (EventStream<Item> feed = client.subscribe("/feed", Item.class)) {
+            Event<Item> first = feed.next();
+            assertEquals(first.getData().name, "a");
+            assertNull(first.getId());
+            assertNull(first.getType());
+
+            assertEquals(feed.next().getData().name, "b");
+            assertFalse(feed.hasNext());
+            assertEquals(feed.getReceivedCount(), 2);
+        }
+        client.close();
+    }
+
+    @Test
+    public void testServerSentEventFields() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/events").andReturn(200).withBody(": keep-alive\n"
+                + "retry: 1500\n"
+                + "id: 7\n"
+                + "event: greeting\n"
+                + "data: hello\n"
+                + "data:world\n"
+                + "\n"
+                + "id\n"
+                + "\n"
+                + "data: no type\n"
+                + "\n"
+                + "data: never finished", "text/event-stream");
+
+        EventStream<String> events = new EventStream<>(client, new URL().setPath("/events"), TEXT, String.class);
+        events.setMaxReconnects(0);
+        try {
+            Event<String> first = events.next();
+            assertEquals(first.getId(), "7");
+            assertEquals(first.getType(), "greeting");
+            assertEquals(first.getData(), "hello\nworld");
+            assertEquals(events.getRetry(), 1500);
+
+            Event<String> second = events.next();
+            assertEquals(second.getId(), "");
+            assertEquals(second.getType(), "message");
+            assertEquals(second.getData(), "no type");
+
+            assertFalse(events.hasNext());
+        } finally {
+            events.close();
+        }
+        client.close();
+    }
+
+    @Test
+    public void testNoContentEndsSubscription() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/events").andReturn(204);
+
+        EventStream<String> events = new EventStream<>(client, new URL().setPath("/events"), TEXT, String.class);
+        assertFalse(events.hasNext());
+        client.close();
+    }
+
+    @Test(timeOut = 10000)
+    public void testReconnectsWithLastEventId() throws Exception {
+        final List<String> resumedFrom = new ArrayList<>();
+        try (final ServerSocket server = new ServerSocket(0)) {
+            Thread responder = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        serve(server.accept(), "retry: 10\nid: 1\ndata: a\n\nid: 2\ndata: b\n\n");
+                        Socket second = server.accept();
+                        synchronized (resumedFrom) {
+                            resumedFrom.add(serve(second, "id: 3\ndata: c\n\n"));
+                        }
+                    } catch (IOException ioex) {
+                        /* Client went away */
+                    }
+                }
+            };
+            responder.setDaemon(true);
+            responder.start();
+
+            DefaultRestClient client = new DefaultRestClient("http://localhost:" + server.getLocalPort());
+            EventStream<String> events = new EventStream<>(client, new URL().setPath("/events"), TEXT, String.class);
+            events.setMaxReconnects(1);
+
+            List<String> received = new ArrayList<>();
+            try {
+                while (events.hasNext()) {
+                    received.add(events.next().getData());
+                }
+            } finally {
+                events.close();
+                client.close();
+            }
+
+            assertEquals(received.size(), 3);
+            assertEquals(received.get(2), "c");
+            assertEquals(events.getReconnectCount(), 1);
+            assertEquals(events.getLastEventId(), "3");
+            synchronized (resumedFrom) {
+                assertEquals(resumedFrom.size(), 1);
+                assertEquals(resumedFrom.get(0), "2");
+            }
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testRetriesUnavailableServer() throws Exception {
+        try (final ServerSocket server = new ServerSocket(0)) {
+            Thread responder = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        serve(server.accept(), "retry: 10\nid: 1\ndata: a\n\n");
+                        refuse(server.accept(), "503 Service Unavailable");
+                        serve(server.accept(), "id: 2\ndata: b\n\n");
+                        refuse(server.accept(), "404 Not Found");
+                    } catch (IOException ioex) {
+                        /* Client went away */
+                    }
+                }
+            };
+            responder.setDaemon(true);
+            responder.start();
+
+            DefaultRestClient client = new DefaultRestClient("http://localhost:" + server.getLocalPort());
+            EventStream<String> events = new EventStream<>(client, new URL().setPath("/events"), TEXT, String.class);
+
+            List<String> received = new ArrayList<>();
+            try {
+                while (events.hasNext()) {
+                    received.add(events.next().getData());
+                }
+                fail("Expected the stream to end with the 404");
+            } catch (StreamException sex) {
+                assertEquals(((HttpStatusException) sex.getCause()).getStatusCode(), 404);
+            } finally {
+                events.close();
+                client.close();
+            }
+
+            assertEquals(received.toString(), "[a, b]");
+            assertEquals(events.getReconnectCount(), 3);
+        }
+    }
+
+    @Test
+    public void testIsRetryable() {
+        assertTrue(EventStream.isRetryable(new HttpStatusException(503, "Unavailable")));
+        assertTrue(EventStream.isRetryable(new HttpStatusException(429, "Too Many Requests")));
+        assertFalse(EventStream.isRetryable(new HttpStatusException(404, "Not Found")));
+        assertTrue(EventStream.isRetryable(new HttpException("Error establishing connection.", new IOException())));
+    }
+
+    /**
+     * Answer a request with the given status and no body.
+     */
+    private static void refuse(Socket socket, String status) throws IOException {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            String line;
+            while ((null != (line = reader.readLine())) && !line.isEmpty()) {
+                /* Skip the request headers */
+            }
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Send the given events and close the connection, returning the Last-Event-ID of the request.
+     */
+    private static String serve(Socket socket, String events) throws IOException {
+        String lastEventId = null;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            String line;
+            while ((null != (line = reader.readLine())) && !line.isEmpty()) {
+                if (line.toLowerCase().startsWith("last-event-id:")) {
+                    lastEventId = line.substring(14).trim();
+                }
+            }
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nConnection: close\r\n\r\n" + events)
+                    .getBytes("UTF-8"));
+            out.flush();
+        } finally {
+            socket.close();
+        }
+        return lastEventId;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.test.MockRestClient;
+import com.comcast.drivethru.transform.JsonTransformer;
+import com.comcast.drivethru.utils.Method;
+
+public class JsonArrayIteratorTest {
+
+    public static class Item {
+        private String name;
+        private int size;
+    }
+
+    @Test
+    public void testDecodesEachElement() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/items").andReturn(200)
+                .withBody("[{\"name\":\"a\",\"size\":1},{\"name\":\"b\",\"size\":2}]", "application/json");
+
+        try (CloseableIterator<Item> items = client.getStream("/items", Item.class)) {
+            assertTrue(items.hasNext());
+            Item item = items.next();
+            assertEquals(item.name, "a");
+            assertEquals(item.size, 1);
+
+            assertTrue(items.hasNext());
+            assertEquals(items.next().name, "b");
+            assertFalse(items.hasNext());
+        }
+        client.close();
+    }
+
+    @Test
+    public void testEmptyArray() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/items").andReturn(200).withBody("[ ]", "application/json");
+
+        try (CloseableIterator<Item> items = client.getStream("/items", Item.class)) {
+            assertFalse(items.hasNext());
+        }
+        client.close();
+    }
+
+    @Test(expectedExceptions = HttpException.class)
+    public void testNotAnArray() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/items").andReturn(200).withBody("{\"name\":\"a\"}", "application/json");
+        client.getStream("/items", Item.class);
+    }
+
+    @Test(expectedExceptions = HttpStatusException.class)
+    public void testNotFound() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/items").andReturn(404);
+        client.getStream("/items", Item.class);
+    }
+
+    @Test
+    public void testCloseReleasesConnection() throws Exception {
+        final AtomicBoolean released = new AtomicBoolean(false);
+        Closeable connection = new Closeable() {
+            @Override
+            public void close() {
+                released.set(true);
+            }
+        };
+        ByteArrayInputStream body = new ByteArrayInputStream("[1, 2, 3]".getBytes("UTF-8"));
+        ResponseStream response = new ResponseStream(200, "OK", body, connection);
+
+        JsonArrayIterator<Integer> numbers = new JsonArrayIterator<>(response, new JsonTransformer(), Integer.class);
+        assertEquals(numbers.next(), Integer.valueOf(1));
+        assertFalse(released.get());
+
+        numbers.close();
+        assertTrue(released.get());
+        assertFalse(numbers.hasNext());
+    }
+
+    @Test(timeOut = 10000)
+    public void testElementsArriveBeforeTheBodyEnds() throws Exception {
+        final CountDownLatch firstRead = new CountDownLatch(1);
+        try (final ServerSocket server = new ServerSocket(0)) {
+            Thread responder = new Thread() {
+                @Override
+                public void run() {
+                    try (Socket socket = server.accept()) {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                        String line;
+                        while ((null != (line = reader.readLine())) && !line.isEmpty()) {
+                            /* Skip the request headers */
+                        }
+
+                        OutputStream out = socket.getOutputStream();
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n"
+                                + "Transfer-Encoding: chunked\r\n\r\n").getBytes("US-ASCII"));
+                        writeChunk(out, "[{\"name\":\"first\",\"size\":1},");
+
+                        /* Hold back the rest until the client has decoded the first element */
+                        firstRead.await(5, TimeUnit.SECONDS);
+                        writeChunk(out, "{\"name\":\"second\",\"size\":2}]");
+                        writeChunk(out, "");
+                    } catch (IOException | InterruptedException ex) {
+                        /* Client went away */
+                    }
+                }
+            };
+            responder.setDaemon(true);
+            responder.start();
+
+            DefaultRestClient client = new DefaultRestClient("http://localhost:" + server.getLocalPort());
+            try (CloseableIterator<Item> items = client.getStream("/items", Item.class)) {
+                assertEquals(items.next().name, "first");
+                firstRead.countDown();
+                assertEquals(items.next().name, "second");
+                assertFalse(items.hasNext());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private static void writeChunk(OutputStream out, String chunk) throws IOException {
+        byte[] bytes = chunk.getBytes("UTF-8");
+        out.write((Integer.toHexString(bytes.length) + "\r\n").getBytes("US-ASCII"));
+        out.write(bytes);
+        out.write("\r\n".getBytes("US-ASCII"));
+        out.flush();
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.exception.StreamException;
+import com.comcast.drivethru.test.MockRestClient;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.URL;
+
+public class PaginatorTest {
+
+    @Test
+    public void testFollowsLinkHeaders() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/users").andReturn(200).withBody("[1, 2]", "application/json")
+                .withHeader("Link", "</users?page=2>; rel=\"next\", </users?page=2>; rel=\"last\"");
+        client.expect(Method.GET, ".*/users\\?page=2").andReturn(200).withBody("[3]", "application/json");
+
+        Paginator<Integer> users = new Paginator.Builder<>(client, new URL().setPath("/users"), Integer.class)
+                .build();
+        assertEquals(drain(users), Arrays.asList(1, 2, 3));
+        assertEquals(users.getPageCount(), 2);
+        client.close();
+    }
+
+    @Test
+    public void testFollowsCursors() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/events").andReturn(200)
+                .withBody("{\"data\": [1, 2], \"meta\": {\"next\": \"a b\"}}", "application/json");
+        client.expect(Method.GET, ".*/events\\?cursor=a%20b").andReturn(200)
+                .withBody("{\"data\": [3], \"meta\": {\"next\": null}}", "application/json");
+
+        Paginator<Integer> events = new Paginator.Builder<>(client, new URL().setPath("/events"), Integer.class)
+                .strategy(new CursorStrategy("cursor", "meta.next")).items("data").prefetch(0).build();
+        assertEquals(drain(events), Arrays.asList(1, 2, 3));
+        client.close();
+    }
+
+    @Test
+    public void testFetchesOffsetPagesAtOnce() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*offset=0").andReturn(200).withBody("[1]", "application/json").after(200);
+        client.expect(Method.GET, ".*offset=1").andReturn(200).withBody("[2]", "application/json").after(200);
+        client.expect(Method.GET, ".*offset=2").andReturn(200).withBody("[3]", "application/json").after(200);
+        client.expect(Method.GET, ".*offset=3").andReturn(200).withBody("[4]", "application/json").after(200);
+        client.expect(Method.GET, ".*").andReturn(200).withBody("[]", "application/json").after(200);
+
+        long start = System.currentTimeMillis();
+        Paginator<Integer> items = new Paginator.Builder<>(client, new URL().setPath("/items"), Integer.class)
+                .strategy(new OffsetStrategy(1)).prefetch(5).build();
+        assertEquals(drain(items), Arrays.asList(1, 2, 3, 4));
+
+        /* Five pages of 200ms each, fetched together rather than one after another */
+        assertTrue(System.currentTimeMillis() - start < 800);
+        client.close();
+    }
+
+    @Test
+    public void testFailedPage() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/users").andReturn(200).withBody("[1]", "application/json")
+                .withHeader("Link", "<http://cheezburger.com/users?page=2>; rel=next");
+        client.expect(Method.GET, ".*/users\\?page=2").andReturn(500);
+
+        Paginator<Integer> users = new Paginator.Builder<>(client, new URL().setPath("/users"), Integer.class)
+                .build();
+        assertEquals(users.next(), Integer.valueOf(1));
+        try {
+            users.hasNext();
+            fail("Expected the second page to fail");
+        } catch (StreamException sex) {
+            assertTrue(sex.getCause() instanceof HttpStatusException);
+        }
+        client.close();
+    }
+
+    @Test
+    public void testGetLink() {
+        List<String> values = Arrays.asList("<https://x.com/a?b=1,2>; title=\"one, two\"; rel=\"prev first\", "
+                + "<https://x.com/next>; REL=next", "<https://x.com/last>; rel=last");
+
+        assertEquals(LinkHeaderStrategy.getLink(values, "first"), "https://x.com/a?b=1,2");
+        assertEquals(LinkHeaderStrategy.getLink(values, "next"), "https://x.com/next");
+        assertEquals(LinkHeaderStrategy.getLink(values, "last"), "https://x.com/last");
+        assertNull(LinkHeaderStrategy.getLink(values, "up"));
+    }
+
+    @Test
+    public void testOffsetUrls() {
+        OffsetStrategy strategy = new OffsetStrategy(50);
+        String first = strategy.first("http://x.com/items?sort=name&limit=10");
+        assertEquals(first, "http://x.com/items?sort=name&limit=50&offset=0");
+        assertEquals(strategy.guess(first), "http://x.com/items?sort=name&limit=50&offset=50");
+    }
+
+    private static <T> List<T> drain(Paginator<T> paginator) {
+        List<T> items = new ArrayList<>();
+        try {
+            while (paginator.hasNext()) {
+                items.add(paginator.next());
+            }
+        } finally {
+            paginator.close();
+        }
+        return items;
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.transfer;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class DownloaderTest {
+
+    private static final int LENGTH = 1024 * 1024;
+
+    private final byte[] object = new byte[LENGTH];
+    private HttpServer server;
+    private ExecutorService pool;
+    private ObjectHandler handler;
+    private DefaultRestClient client;
+    private Path dir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(object);
+        handler = new ObjectHandler();
+        pool = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/object", handler);
+        server.setExecutor(pool);
+        server.start();
+
+        client = new DefaultRestClient("http://localhost:" + server.getAddress().getPort());
+        client.getDownloader().setMinSegmentSize(64 * 1024);
+        dir = Files.createTempDirectory("downloader");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+        pool.shutdownNow();
+        for (Path file : Files.newDirectoryStream(dir)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testSegmentedDownload() throws Exception {
+        Path target = dir.resolve("object");
+        assertEquals(client.download("/object", target), LENGTH);
+
+        assertEquals(Files.readAllBytes(target), object);
+        assertEquals(handler.gets.get(), 4);
+        assertEquals(client.getDownloader().getSegmentedCount(), 1);
+        assertFalse(Files.exists(dir.resolve("object.part")));
+    }
+
+    @Test
+    public void testSingleRequestWithoutRanges() throws Exception {
+        handler.ranges = false;
+        Path target = dir.resolve("object");
+        assertEquals(client.download("/object", target), LENGTH);
+
+        assertEquals(Files.readAllBytes(target), object);
+        assertEquals(handler.gets.get(), 1);
+        assertEquals(client.getDownloader().getSegmentedCount(), 0);
+    }
+
+    @Test
+    public void testResumesDroppedSegment() throws Exception {
+        handler.dropAt = 300000;
+        Path target = dir.resolve("object");
+        client.download("/object", target);
+
+        assertEquals(Files.readAllBytes(target), object);
+        assertEquals(client.getDownloader().getResumeCount(), 1);
+        assertEquals(handler.gets.get(), 5);
+    }
+
+    @Test
+    public void testResumesSingleRequest() throws Exception {
+        handler.dropAt = 300000;
+        client.getDownloader().setSegments(1);
+        Path target = dir.resolve("object");
+        client.download("/object", target);
+
+        assertEquals(Files.readAllBytes(target), object);
+        assertEquals(client.getDownloader().getResumeCount(), 1);
+        assertEquals(handler.gets.get(), 2);
+    }
+
+    @Test
+    public void testObjectChangedDuringDownload() throws Exception {
+        handler.changeAfterHead = true;
+        Path target = dir.resolve("object");
+        Files.write(target, new byte[] { 1, 2, 3 });
+
+        try {
+            client.download("/object", target);
+            fail("Expected the download to fail");
+        } catch (HttpException hex) {
+            assertTrue(hex.getMessage().contains("changed"), hex.getMessage());
+        }
+
+        /* The existing file is left alone and nothing partial is left behind */
+        assertEquals(Files.readAllBytes(target), new byte[] { 1, 2, 3 });
+        assertFalse(Files.exists(dir.resolve("object.part")));
+    }
+
+    @Test
+    public void testGetRangeStart() {
+        assertEquals(Downloader.getRangeStart("bytes 200-299/1000"), 200);
+        assertEquals(Downloader.getRangeStart("bytes 0-0/*"), 0);
+        assertEquals(Downloader.getRangeStart("bytes */1000"), -1);
+        assertEquals(Downloader.getRangeStart(null), -1);
+    }
+
+    /**
+     * Serves the object, honoring single byte ranges and <code>If-Range</code>.
+     */
+    private class ObjectHandler implements HttpHandler {
+
+        volatile boolean ranges = true;
+        volatile boolean changeAfterHead = false;
+        volatile int dropAt = -1;
+        volatile String etag = "\"v1\"";
+        final AtomicInteger gets = new AtomicInteger();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (ranges) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            }
+
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(LENGTH));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                if (changeAfterHead) {
+                    etag = "\"v2\"";
+                }
+                return;
+            }
+
+            gets.incrementAndGet();
+            exchange.getResponseHeaders().set("ETag", etag);
+            int start = 0;
+            int end = LENGTH;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            boolean partial = ranges && (null != range) && ((null == ifRange) || ifRange.equals(etag));
+            if (partial) {
+                String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                start = Integer.parseInt(bounds[0]);
+                end = bounds[1].isEmpty() ? LENGTH : Integer.parseInt(bounds[1]) + 1;
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + LENGTH);
+                exchange.sendResponseHeaders(206, end - start);
+            } else {
+                exchange.sendResponseHeaders(200, LENGTH);
+            }
+
+            OutputStream out = exchange.getResponseBody();
+            int drop = dropAt;
+            if ((drop > start) && (drop < end)) {
+                /* Send part of the body and hang up, once */
+                dropAt = -1;
+                out.write(object, start, drop - start);
+                out.flush();
+                throw new IOException("Dropping the connection at byte " + drop);
+            }
+            out.write(object, start, end - start);
+            out.close();
+        }
+    }
+}
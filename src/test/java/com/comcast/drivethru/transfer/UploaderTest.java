@@ -0,0 +1,299 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.transfer;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.utils.DateUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.utils.Method;
+import com.comcast.drivethru.utils.RestResponse;
+import com.comcast.drivethru.utils.URL;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class UploaderTest {
+
+    private static final int LENGTH = 1000 * 1000;
+    private static final Pattern RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    private final byte[] contents = new byte[LENGTH];
+    private final byte[] stored = new byte[LENGTH];
+    private HttpServer server;
+    private ExecutorService pool;
+    private DefaultRestClient client;
+    private Path file;
+
+    /* Stores made per offset, and failures still to answer per offset */
+    private final ConcurrentMap<Integer, AtomicInteger> stores = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, AtomicInteger> failures = new ConcurrentHashMap<>();
+    private final AtomicInteger completions = new AtomicInteger();
+    private volatile String completion;
+    private volatile int failureStatus;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        new Random(7).nextBytes(contents);
+        stores.clear();
+        failures.clear();
+        completions.set(0);
+        completion = null;
+        failureStatus = 503;
+        file = Files.createTempFile("uploader", ".bin");
+        Files.write(file, contents);
+
+        pool = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ranged", new RangedHandler());
+        server.createContext("/bucket", new MultipartHandler());
+        server.setExecutor(pool);
+        server.start();
+        client = new DefaultRestClient("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+        pool.shutdownNow();
+        Files.delete(file);
+    }
+
+    @Test
+    public void testContentRangeUpload() throws Exception {
+        Uploader uploader = new Uploader.Builder(client, new URL().setPath("/ranged/object"), file)
+                .protocol(new ContentRangeProtocol().setCompletion(Method.POST, "/commit")).partSize(64 * 1024)
+                .parallelism(4).build();
+        assertEquals(uploader.getParts().size(), 16);
+
+        RestResponse result = uploader.upload();
+        assertEquals(result.getStatusCode(), 200);
+        assertEquals(stored, contents);
+        assertEquals(uploader.getCompletedCount(), 16);
+        assertEquals(uploader.getByteCount(), LENGTH);
+        assertEquals(completion, "/ranged/object/commit");
+        for (AtomicInteger count : stores.values()) {
+            assertEquals(count.get(), 1);
+        }
+    }
+
+    @Test
+    public void testRetriesFailedPart() throws Exception {
+        failures.put(128 * 1024, new AtomicInteger(1));
+        Uploader uploader = new Uploader.Builder(client, new URL().setPath("/ranged/object"), file)
+                .partSize(128 * 1024).build();
+
+        assertNull(uploader.upload());
+        assertEquals(stored, contents);
+        assertEquals(uploader.getRetryCount(), 1);
+    }
+
+    @Test
+    public void testHonoursRetryAfter() throws Exception {
+        failureStatus = 429;
+        failures.put(0, new AtomicInteger(1));
+        Uploader uploader = new Uploader.Builder(client, new URL().setPath("/ranged/object"), file)
+                .partSize(LENGTH).backoff(1, 10, TimeUnit.MILLISECONDS).build();
+
+        long start = System.currentTimeMillis();
+        uploader.upload();
+        assertTrue(System.currentTimeMillis() - start >= 900);
+        assertEquals(stored, contents);
+        assertEquals(uploader.getRetryCount(), 1);
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        long now = 1444000000000L;
+        assertEquals(Uploader.parseRetryAfter(null, now), 0);
+        assertEquals(Uploader.parseRetryAfter(" 3 ", now), 3000);
+        assertEquals(Uploader.parseRetryAfter("soon", now), 0);
+        assertEquals(Uploader.parseRetryAfter(DateUtils.formatDate(new Date(now + 5000)), now), 5000);
+        assertEquals(Uploader.parseRetryAfter(DateUtils.formatDate(new Date(now - 5000)), now), 0);
+    }
+
+    @Test
+    public void testResumesOnlyMissingParts() throws Exception {
+        failures.put(256 * 1024, new AtomicInteger(3));
+        Uploader uploader = new Uploader.Builder(client, new URL().setPath("/ranged/object"), file)
+                .partSize(128 * 1024).attempts(2).build();
+
+        try {
+            uploader.upload();
+            fail("Expected the part to fail");
+        } catch (HttpStatusException hsex) {
+            assertEquals(hsex.getStatusCode(), 503);
+        }
+        assertFalse(uploader.isComplete());
+        assertFalse(uploader.getParts().get(2).isComplete());
+
+        uploader.upload();
+        assertTrue(uploader.isComplete());
+        assertEquals(stored, contents);
+
+        /* Parts stored by the first attempt were not sent again */
+        for (AtomicInteger count : stores.values()) {
+            assertEquals(count.get(), 1);
+        }
+    }
+
+    @Test
+    public void testMultipartUpload() throws Exception {
+        Uploader uploader = new Uploader.Builder(client, new URL().setPath("/bucket/object"), file)
+                .protocol(new MultipartUploadProtocol()).partSize(300 * 1000).parallelism(2).build();
+
+        RestResponse result = uploader.upload();
+        assertEquals(uploader.getUploadId(), "up&1");
+        assertTrue(result.getBodyString().contains("CompleteMultipartUploadResult"));
+        assertEquals(stored, contents);
+        assertEquals(completions.get(), 1);
+        assertEquals(uploader.getParts().get(3).getReceipt(), "\"etag-4\"");
+    }
+
+    @Test
+    public void testIsRetryable() {
+        assertTrue(Uploader.isRetryable(new HttpStatusException(503, "Unavailable")));
+        assertTrue(Uploader.isRetryable(new HttpStatusException(429, "Too Many Requests")));
+        assertFalse(Uploader.isRetryable(new HttpStatusException(400, "Bad Request")));
+        assertTrue(Uploader.isRetryable(new HttpException("Error establishing connection.", new IOException())));
+        assertFalse(Uploader.isRetryable(new HttpException("No ETag")));
+    }
+
+    private static byte[] read(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0;) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        if (0 == bytes.length) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+        exchange.close();
+    }
+
+    private void store(int offset, byte[] body) {
+        System.arraycopy(body, 0, stored, offset, body.length);
+        stores.putIfAbsent(offset, new AtomicInteger());
+        stores.get(offset).incrementAndGet();
+    }
+
+    private boolean shouldFail(int offset) {
+        AtomicInteger left = failures.get(offset);
+        return (null != left) && (left.getAndDecrement() > 0);
+    }
+
+    /**
+     * Stores each part where its <code>Content-Range</code> says.
+     */
+    private class RangedHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] body = read(exchange);
+            if ("POST".equals(exchange.getRequestMethod())) {
+                completion = exchange.getRequestURI().getPath();
+                respond(exchange, 200, "done");
+                return;
+            }
+
+            Matcher range = RANGE.matcher(exchange.getRequestHeaders().getFirst("Content-Range"));
+            if (!range.matches() || (Integer.parseInt(range.group(3)) != LENGTH)
+                    || (Long.parseLong(range.group(2)) - Long.parseLong(range.group(1)) + 1 != body.length)) {
+                respond(exchange, 400, "");
+                return;
+            }
+            int offset = Integer.parseInt(range.group(1));
+            if (shouldFail(offset)) {
+                if (429 == failureStatus) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                }
+                respond(exchange, failureStatus, "");
+                return;
+            }
+            store(offset, body);
+            respond(exchange, ContentRangeProtocol.RESUME_INCOMPLETE, "");
+        }
+    }
+
+    /**
+     * Follows the S3 multipart upload convention with parts of 300,000 bytes.
+     */
+    private class MultipartHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] body = read(exchange);
+            String query = exchange.getRequestURI().getRawQuery();
+            String method = exchange.getRequestMethod();
+
+            if ("POST".equals(method) && "uploads".equals(query)) {
+                respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>up&amp;1</UploadId>"
+                        + "</InitiateMultipartUploadResult>");
+            } else if ("PUT".equals(method) && query.matches("partNumber=\\d+&uploadId=up%261")) {
+                int number = Integer.parseInt(query.substring("partNumber=".length(), query.indexOf('&')));
+                store((number - 1) * 300 * 1000, body);
+                exchange.getResponseHeaders().set("ETag", "\"etag-" + number + "\"");
+                respond(exchange, 200, "");
+            } else if ("POST".equals(method) && "uploadId=up%261".equals(query)) {
+                String xml = new String(body, "UTF-8");
+                boolean valid = xml.contains("<Part><PartNumber>4</PartNumber><ETag>&quot;etag-4&quot;</ETag></Part>")
+                        && !xml.contains("<PartNumber>5</PartNumber>");
+                completions.incrementAndGet();
+                respond(exchange, valid ? 200 : 400, "<CompleteMultipartUploadResult/>");
+            } else {
+                respond(exchange, 400, "");
+            }
+        }
+    }
+}
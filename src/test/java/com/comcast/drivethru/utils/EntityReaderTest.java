@@ -0,0 +1,195 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.exception.ResponseTooLargeException;
+
+public class EntityReaderTest {
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testPresizedFromContentLength() throws IOException {
+        byte[] expected = randomBytes(1000);
+        EntityReader reader = new EntityReader(new BufferPool(64, 4, false));
+
+        ResponseBody body = reader.read(new ByteArrayEntity(expected));
+        assertTrue(body instanceof ByteArrayBody);
+        assertEquals(body.length(), 1000);
+        assertEquals(body.toByteArray(), expected);
+    }
+
+    @DataProvider(name = "pools")
+    public Object[][] getPools() {
+        return new Object[][] { { false }, { true } };
+    }
+
+    @Test(dataProvider = "pools")
+    public void testChunkedUnknownLength(boolean direct) throws IOException {
+        byte[] expected = randomBytes(1000);
+        BufferPool pool = new BufferPool(64, 32, direct);
+        EntityReader reader = new EntityReader(pool);
+
+        InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(expected), -1);
+        RestResponse response = new RestResponse(200, "OK");
+        response.setBody(reader.read(entity));
+
+        assertEquals(response.getBodyLength(), 1000);
+        assertEquals(IOUtils.toByteArray(response.getBodyStream()), expected);
+        assertEquals(pool.getIdleCount(), 0);
+
+        /* Materializing the body copies it out once and hands the chunks back */
+        assertEquals(response.getBody(), expected);
+        assertEquals(pool.getIdleCount(), 16);
+
+        response.close();
+        assertEquals(response.getBody(), expected);
+    }
+
+    @Test
+    public void testCloseReleasesChunks() throws IOException {
+        BufferPool pool = new BufferPool(64, 2, false);
+        EntityReader reader = new EntityReader(pool);
+
+        InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(randomBytes(500)), -1);
+        RestResponse response = new RestResponse(200, "OK");
+        response.setBody(reader.read(entity));
+        response.close();
+
+        /* The pool is bounded, extra chunks are left for the garbage collector */
+        assertEquals(pool.getIdleCount(), 2);
+    }
+
+    @Test
+    public void testContentLengthTooShort() throws IOException {
+        byte[] expected = randomBytes(10);
+        EntityReader reader = new EntityReader(new BufferPool(64, 4, false));
+
+        InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(expected), 20);
+        assertEquals(reader.read(entity).toByteArray(), expected);
+    }
+
+    @Test
+    public void testSpillKnownLength() throws IOException {
+        byte[] expected = randomBytes(1000);
+        EntityReader reader = new EntityReader(new BufferPool(64, 4, false)).setSpillThreshold(500);
+
+        RestResponse response = new RestResponse(200, "OK");
+        response.setBody(reader.read(new ByteArrayEntity(expected)));
+        assertTrue(response.isSpooled());
+        assertEquals(reader.getSpillCount(), 1);
+
+        ByteBuffer buffer = response.getBodyBuffer();
+        assertTrue(buffer.isReadOnly());
+        byte[] mapped = new byte[buffer.remaining()];
+        buffer.get(mapped);
+        assertEquals(mapped, expected);
+        assertEquals(IOUtils.toByteArray(response.getBodyStream()), expected);
+        response.close();
+    }
+
+    @Test
+    public void testSpillUnknownLength() throws IOException {
+        byte[] expected = randomBytes(1000);
+        BufferPool pool = new BufferPool(64, 32, false);
+        EntityReader reader = new EntityReader(pool).setSpillThreshold(300);
+
+        InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(expected), -1);
+        ResponseBody body = reader.read(entity);
+        assertTrue(body instanceof SpooledBody);
+        assertEquals(body.length(), 1000);
+
+        /* The chunks read before spilling are handed back to the pool */
+        assertTrue(pool.getIdleCount() > 0);
+
+        Path file = ((SpooledBody) body).getFile();
+        assertTrue(Files.exists(file));
+        assertEquals(IOUtils.toByteArray(body.getInputStream()), expected);
+
+        body.close();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testMaterializingSpooledBodyDeletesFile() throws IOException {
+        byte[] expected = randomBytes(1000);
+        EntityReader reader = new EntityReader(new BufferPool(64, 4, false)).setSpillThreshold(100);
+
+        ResponseBody body = reader.read(new ByteArrayEntity(expected));
+        Path file = ((SpooledBody) body).getFile();
+
+        RestResponse response = new RestResponse(200, "OK");
+        response.setBody(body);
+        assertEquals(response.getBody(), expected);
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testMaxSizeFromContentLength() throws IOException {
+        EntityReader reader = new EntityReader(new BufferPool(64, 4, false)).setMaxSize(999);
+
+        try {
+            reader.read(new ByteArrayEntity(randomBytes(1000)));
+            fail("Expected the body to be rejected");
+        } catch (IOException ioex) {
+            assertTrue(ioex.getCause() instanceof ResponseTooLargeException);
+            assertEquals(((ResponseTooLargeException) ioex.getCause()).getMaxSize(), 999);
+        }
+        assertEquals(reader.getRejectedCount(), 1);
+    }
+
+    @DataProvider(name = "thresholds")
+    public Object[][] getThresholds() {
+        return new Object[][] { { Long.MAX_VALUE }, { 200L } };
+    }
+
+    @Test(dataProvider = "thresholds")
+    public void testMaxSizeWhileReading(long threshold) throws IOException {
+        EntityReader reader = new EntityReader(new BufferPool(64, 32, false))
+                .setSpillThreshold(threshold).setMaxSize(600);
+
+        InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(randomBytes(1000)), -1);
+        try {
+            reader.read(entity);
+            fail("Expected the body to be rejected");
+        } catch (IOException ioex) {
+            assertTrue(ioex.getCause() instanceof ResponseTooLargeException);
+        }
+        assertEquals(reader.getRejectedCount(), 1);
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.http.message.BasicHeader;
+import org.testng.annotations.Test;
+
+public class HeadersTest {
+
+    @Test
+    public void testCaseInsensitiveMultiValued() {
+        Headers headers = new Headers(new BasicHeader("set-cookie", "a=1"), new BasicHeader("Vary",
+                "Accept"), new BasicHeader("SET-COOKIE", "b=2"));
+
+        assertEquals(headers.size(), 3);
+        assertEquals(headers.getFirst("Set-Cookie"), "a=1");
+        assertEquals(headers.getLast("set-cookie"), "b=2");
+        assertEquals(headers.getAll("Set-Cookie"), Arrays.asList("a=1", "b=2"));
+        assertEquals(headers.getFirst("vary"), "Accept");
+        assertNull(headers.getFirst("Etag"));
+        assertTrue(headers.getAll("Etag").isEmpty());
+
+        /* Well known names are interned to their canonical form */
+        assertSame(headers.getName(0), Headers.SET_COOKIE);
+    }
+
+    @Test
+    public void testSetAndRemove() {
+        Headers headers = new Headers();
+        headers.add("A", "1").add("B", "2").add("a", "3");
+        headers.set("a", "4");
+
+        assertEquals(headers.size(), 2);
+        assertEquals(headers.getName(0), "B");
+        assertEquals(headers.getAll("A"), Arrays.asList("4"));
+
+        assertTrue(headers.remove("b"));
+        assertFalse(headers.remove("b"));
+        assertFalse(headers.contains("B"));
+        assertEquals(headers.getFirst("A"), "4");
+    }
+
+    @Test
+    public void testGrow() {
+        Headers headers = new Headers(1);
+        for (int i = 0; i < 100; i++) {
+            headers.add("X-Header-" + (i % 40), Integer.toString(i));
+        }
+        assertEquals(headers.size(), 100);
+        assertEquals(headers.getAll("x-header-7"), Arrays.asList("7", "47", "87"));
+    }
+
+    @Test
+    public void testParsedContentType() {
+        Headers headers = new Headers();
+        headers.add("content-type", "application/json; charset=\"UTF-8\"");
+        assertEquals(headers.getMediaType(), "application/json");
+        assertEquals(headers.getCharset(), "UTF-8");
+
+        headers.set("Content-Type", "text/plain");
+        assertEquals(headers.getMediaType(), "text/plain");
+        assertNull(headers.getCharset());
+    }
+
+    @Test
+    public void testContentLength() {
+        Headers headers = new Headers();
+        assertEquals(headers.getContentLength(), -1);
+        headers.add("Content-Length", " 1234 ");
+        assertEquals(headers.getContentLength(), 1234);
+        headers.set("Content-Length", "nope");
+        assertEquals(headers.getContentLength(), -1);
+    }
+
+    @Test
+    public void testCacheControl() {
+        Headers headers = new Headers();
+        headers.add("Cache-Control", "public, max-age=60");
+        headers.add("cache-control", "stale-while-revalidate=30, stale-if-error=\"600\"");
+
+        Headers.CacheControl cc = headers.getCacheControl();
+        assertTrue(cc.isPublic());
+        assertFalse(cc.isNoStore());
+        assertEquals(cc.getMaxAge(), 60);
+        assertEquals(cc.getSharedMaxAge(), -1);
+        assertEquals(cc.getStaleWhileRevalidate(), 30);
+        assertEquals(cc.getStaleIfError(), 600);
+    }
+
+    @Test
+    public void testMapView() {
+        Headers headers = new Headers();
+        Map<String, String> map = headers.asMap();
+        map.put("Accept", "text/plain");
+        headers.add("accept", "application/json");
+        headers.add("Host", "example.com");
+
+        assertEquals(map.size(), 2);
+        assertEquals(map.get("ACCEPT"), "text/plain");
+        assertEquals(map.put("Accept", "*/*"), "text/plain");
+        assertEquals(headers.getAll("Accept"), Arrays.asList("*/*"));
+
+        assertEquals(map.remove("host"), "example.com");
+        assertEquals(headers.size(), 1);
+    }
+
+    @Test
+    public void testResponseHeaders() {
+        RestResponse response = new RestResponse(200, "OK");
+        response.addAll(new BasicHeader("content-type", "text/html;charset=utf-8"),
+                new BasicHeader("Set-Cookie", "a=1"), new BasicHeader("Set-Cookie", "b=2"));
+
+        assertEquals(response.getContentType(), "text/html");
+        assertEquals(response.getHeaderValue("SET-COOKIE"), "a=1");
+        assertEquals(response.getHeaderValues("set-cookie"), Arrays.asList("a=1", "b=2"));
+    }
+
+    @Test
+    public void testAddReplacesAndAppendKeeps() {
+        RestResponse response = new RestResponse(200, "OK");
+        response.addHeader("Content-Type", "application/json");
+        response.addHeader("content-type", "text/plain");
+        assertEquals(response.getContentType(), "text/plain");
+        assertEquals(response.getHeaderValues("Content-Type"), Arrays.asList("text/plain"));
+
+        response.appendHeader("Set-Cookie", "a=1");
+        response.appendHeader("Set-Cookie", "b=2");
+        assertEquals(response.getHeaderValues("Set-Cookie"), Arrays.asList("a=1", "b=2"));
+
+        RestRequest request = new RestRequest("/", Method.GET);
+        request.addHeader("Authorization", "Bearer old");
+        request.addHeader("Authorization", "Bearer new");
+        assertEquals(request.getAllHeaders().getAll("Authorization"), Arrays.asList("Bearer new"));
+
+        request.appendHeader("Accept", "text/plain");
+        request.appendHeader("Accept", "application/json");
+        assertEquals(request.getAllHeaders().getAll("Accept"), Arrays.asList("text/plain", "application/json"));
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.ContentType;
+import org.testng.annotations.Test;
+
+public class MultipartEntityTest {
+
+    private static String write(MultipartEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testFormat() throws IOException {
+        MultipartEntity entity = new MultipartEntity.Builder("XyZ")
+                .addPart("deviceId", "0123456789")
+                .addPart("blob", new byte[] { 'a', 'b' }, null)
+                .build();
+
+        String expected = "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"deviceId\"\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n\r\n"
+                + "0123456789\r\n"
+                + "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"blob\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n"
+                + "ab\r\n"
+                + "--XyZ--\r\n";
+
+        assertEquals(write(entity), expected);
+        assertEquals(entity.getContentLength(), expected.length());
+        assertEquals(entity.getContentType().getValue(), "multipart/form-data; boundary=XyZ");
+        assertTrue(entity.isRepeatable());
+        assertFalse(entity.isChunked());
+
+        /* Reading the content gives the same bytes as writing it */
+        assertEquals(IOUtils.toString(entity.getContent(), "UTF-8"), expected);
+    }
+
+    @Test
+    public void testFilePart() throws IOException {
+        Path file = Files.createTempFile("multipart", ".log");
+        try {
+            byte[] data = new byte[100000];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) ('a' + (i % 26));
+            }
+            Files.write(file, data);
+
+            MultipartEntity entity = new MultipartEntity.Builder()
+                    .addPart("log", file, ContentType.TEXT_PLAIN)
+                    .build();
+
+            String body = write(entity);
+            assertEquals(entity.getContentLength(), body.getBytes("UTF-8").length);
+            assertTrue(body.contains("name=\"log\"; filename=\"" + file.getFileName() + "\"\r\n"));
+            assertTrue(body.contains(new String(data, "UTF-8")));
+            assertTrue(body.endsWith("--" + entity.getBoundary() + "--\r\n"));
+
+            /* File parts can be sent again */
+            assertTrue(entity.isRepeatable());
+            assertEquals(write(entity), body);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testStreamPart() throws IOException {
+        MultipartEntity known = new MultipartEntity.Builder("b")
+                .addPart("data", new ByteArrayInputStream(new byte[10]), 10, "data.bin", null)
+                .build();
+        assertFalse(known.isRepeatable());
+        assertFalse(known.isChunked());
+        assertEquals(write(known).length(), known.getContentLength());
+
+        MultipartEntity unknown = new MultipartEntity.Builder("b")
+                .addPart("name", "value")
+                .addPart("data", new ByteArrayInputStream(new byte[10]), -1, null, null)
+                .build();
+        assertEquals(unknown.getContentLength(), -1);
+        assertTrue(unknown.isChunked());
+        assertTrue(write(unknown).contains("\r\n\r\n" + new String(new byte[10], "UTF-8") + "\r\n--b--"));
+    }
+
+    @Test
+    public void testQuoting() throws IOException {
+        MultipartEntity entity = new MultipartEntity.Builder("b")
+                .addPart("a\"b\r\nc", "value")
+                .build();
+        assertTrue(write(entity).contains("name=\"a%22b%0D%0Ac\"\r\n"));
+    }
+
+    @Test
+    public void testRandomBoundary() {
+        String first = new MultipartEntity.Builder().build().getBoundary();
+        String second = new MultipartEntity.Builder().build().getBoundary();
+        assertEquals(first.length(), 32);
+        assertFalse(first.equals(second));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidBoundary() {
+        new MultipartEntity.Builder("");
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import static com.comcast.drivethru.utils.Method.POST;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicNameValuePair;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.security.OAuthSecurityProvider;
+import com.comcast.drivethru.utils.RequestCompression.Encoding;
+
+public class RequestCompressionTest {
+
+    private static final byte[] BODY = repeat("{ \"name\" : \"Clark\" }, ", 200).getBytes();
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] inflate(HttpEntity entity, Encoding encoding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        entity.writeTo(compressed);
+
+        InputStream in = new ByteArrayInputStream(compressed.toByteArray());
+        in = (encoding == Encoding.GZIP) ? new GZIPInputStream(in) : new InflaterInputStream(in);
+        return IOUtils.toByteArray(in);
+    }
+
+    @Test
+    public void testThreshold() {
+        RequestCompression compression = new RequestCompression(Encoding.GZIP, 100);
+        assertFalse(compression.shouldCompress(99));
+        assertTrue(compression.shouldCompress(100));
+        assertFalse(RequestCompression.NONE.shouldCompress(Integer.MAX_VALUE));
+    }
+
+    @DataProvider(name = "encodings")
+    public Object[][] getEncodings() {
+        return new Object[][] { { Encoding.GZIP }, { Encoding.DEFLATE } };
+    }
+
+    @Test(dataProvider = "encodings")
+    public void testCompressRoundTrip(Encoding encoding) throws IOException {
+        HttpEntity entity = new RequestCompression(encoding).compress(new ByteArrayEntity(BODY));
+
+        assertEquals(entity.getContentEncoding().getValue(), encoding.getToken());
+        assertEquals(entity.getContentLength(), -1);
+        assertTrue(entity.isChunked());
+        assertEquals(inflate(entity, encoding), BODY);
+    }
+
+    @Test
+    public void testClientRoutes() throws Exception {
+        String base = "http://bulk.example.com";
+
+        HttpClient delegate = createMock(HttpClient.class);
+        Capture<HttpPost> capture = EasyMock.newCapture();
+        expect(delegate.execute(capture(capture))).andReturn(
+                new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 1), 204, "No Content")).times(3);
+        replay(delegate);
+
+        DefaultRestClient client = new DefaultRestClient(base, delegate);
+        client.setCompression(base + "/v2/", new RequestCompression(Encoding.GZIP));
+
+        /* Not on a compressed route */
+        RestRequest request = new RestRequest("/v1/items", POST);
+        request.setBody(BODY);
+        client.execute(request);
+        assertNull(capture.getValue().getEntity().getContentEncoding());
+
+        /* On a compressed route */
+        request = new RestRequest("/v2/items", POST);
+        request.setBody(BODY);
+        client.execute(request);
+        HttpEntity entity = capture.getValue().getEntity();
+        assertEquals(entity.getContentEncoding().getValue(), "gzip");
+        assertEquals(inflate(entity, Encoding.GZIP), BODY);
+
+        /* Opted out by the request */
+        request = new RestRequest("/v2/items", POST);
+        request.setBody(BODY);
+        request.setCompression(RequestCompression.NONE);
+        client.execute(request);
+        assertNull(capture.getValue().getEntity().getContentEncoding());
+
+        client.close();
+    }
+
+    @Test
+    public void testClientSignsBeforeCompressing() throws Exception {
+        String base = "http://bulk.example.com";
+
+        HttpClient delegate = createMock(HttpClient.class);
+        Capture<HttpPost> capture = EasyMock.newCapture();
+        expect(delegate.execute(capture(capture))).andReturn(
+                new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 1), 204, "No Content")).once();
+        replay(delegate);
+
+        DefaultRestClient client = new DefaultRestClient(base, delegate);
+        client.setCompression(base + "/", new RequestCompression(Encoding.GZIP, 100));
+        client.setSecurityProvider(new OAuthSecurityProvider("key", "secret"));
+
+        /* The signer reads a form body, which can't be done once it is compressed */
+        UrlEncodedFormEntity form = new UrlEncodedFormEntity(Arrays.asList(new BasicNameValuePair("items",
+                new String(BODY))));
+        RestRequest request = new RestRequest("/v2/items", POST);
+        request.setBody(form);
+        client.execute(request);
+
+        HttpPost sent = capture.getValue();
+        assertTrue(sent.getFirstHeader(Headers.AUTHORIZATION).getValue().startsWith("OAuth "));
+        assertEquals(sent.getEntity().getContentEncoding().getValue(), "gzip");
+        assertEquals(inflate(sent.getEntity(), Encoding.GZIP), IOUtils.toByteArray(form.getContent()));
+
+        client.close();
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpStatusException;
+import com.comcast.drivethru.test.MockRestClient;
+import com.comcast.drivethru.transform.ByteTransformer;
+
+public class RequestTemplateTest {
+
+    private static final RequestTemplate<byte[]> PHOTO = new RequestTemplate.Builder<>(Method.GET,
+            "/users/{user}/photos/{photo}", byte[].class).header("Accept", "image/jpeg")
+            .timeout(1500).transformer(new ByteTransformer()).build();
+
+    @Test
+    public void testExpand() {
+        assertEquals(PHOTO.expand("clark", 12), "/users/clark/photos/12");
+        assertEquals(PHOTO.expand("a b/c", "x"), "/users/a%20b%2Fc/photos/x");
+        assertEquals(PHOTO.getVariables(), new String[] { "user", "photo" });
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testExpandWrongCount() {
+        PHOTO.expand("clark");
+    }
+
+    @Test
+    public void testBindSharesConfig() throws Exception {
+        RestRequest request = PHOTO.bind("clark", 12);
+        assertSame(request.getTemplate(), PHOTO);
+        assertSame(request.getConfig(), PHOTO.getConfig());
+        assertEquals(request.getConfig().getSocketTimeout(), 1500);
+        assertFalse(request.hasHeaders());
+        assertEquals(request.getUrl().setDefaultBaseUrl("http://x.com").build(),
+                "http://x.com/users/clark/photos/12");
+
+        /* Adjusting a bound request must not leak back into the template */
+        request.setTimeout(10);
+        assertEquals(request.getConfig().getSocketTimeout(), 10);
+        assertEquals(PHOTO.getConfig().getSocketTimeout(), 1500);
+    }
+
+    @Test
+    public void testDefaultAcceptedStatus() {
+        assertTrue(PHOTO.accepts(200));
+        assertFalse(PHOTO.accepts(204));
+
+        RequestTemplate<Void> delete = new RequestTemplate.Builder<>(Method.DELETE, "/users/{id}",
+                Void.class).build();
+        assertTrue(delete.accepts(202));
+        assertFalse(delete.accepts(201));
+    }
+
+    @Test
+    public void testExecuteAddsTemplateHeaders() throws Exception {
+        BasicHttpResponse resp = new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 1), 200, "OK");
+        resp.setHeader("Content-Type", "application/octet-stream");
+        resp.setEntity(new ByteArrayEntity("jpeg".getBytes()));
+
+        HttpClient delegate = createMock(HttpClient.class);
+        Capture<HttpGet> capture = EasyMock.newCapture();
+        expect(delegate.execute(capture(capture))).andReturn(resp);
+        replay(delegate);
+
+        DefaultRestClient client = new DefaultRestClient("http://www.google.com", delegate);
+        client.addDefaultHeader("Fintan", "The Salmon of Knowledge");
+
+        byte[] body = client.execute(PHOTO, "clark", 12);
+        client.close();
+
+        assertEquals(new String(body), "jpeg");
+        HttpGet req = capture.getValue();
+        assertEquals(req.getURI().toString(), "http://www.google.com/users/clark/photos/12");
+        assertEquals(req.getLastHeader("Accept").getValue(), "image/jpeg");
+        assertEquals(req.getLastHeader("Fintan").getValue(), "The Salmon of Knowledge");
+        assertEquals(req.getConfig().getSocketTimeout(), 1500);
+    }
+
+    @Test
+    public void testExecuteIgnoredBody() throws Exception {
+        RequestTemplate<Void> delete = new RequestTemplate.Builder<>(Method.DELETE, "/users/{id}",
+                void.class).build();
+
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.DELETE, ".*/users/42").andReturn(202);
+        assertNull(client.execute(delete, 42));
+        client.close();
+    }
+
+    @Test(expectedExceptions = HttpStatusException.class)
+    public void testExecuteUnacceptedStatus() throws Exception {
+        MockRestClient client = new MockRestClient("http://cheezburger.com");
+        client.expect(Method.GET, ".*/photos/.*").andReturn(404);
+        try {
+            client.execute(PHOTO, "clark", 12);
+        } finally {
+            client.close();
+        }
+    }
+}
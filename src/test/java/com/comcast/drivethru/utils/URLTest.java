@@ -18,8 +18,11 @@ package com.comcast.drivethru.utils;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
+import java.net.URLEncoder;
+
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -119,4 +122,53 @@ public class URLTest {
 
         assertEquals(url.build(), "http://1.com/path/here");
     }
+
+    @DataProvider(name = "encodeData")
+    public Object[][] getEncodeData() {
+        return new Object[][] {
+            { "plain" },
+            { "a b+c&d=e" },
+            { "~!*'();:@$,/?#[]%" },
+            { "caf\u00e9 \u4e2d\u6587" },
+            { "emoji \ud83d\ude00" }
+        };
+    }
+
+    @Test(dataProvider = "encodeData")
+    public void testEncodeMatchesURLEncoder(String value) throws Exception {
+        assertEquals(URL.encode(value), URLEncoder.encode(value, "UTF-8").replace("+", "%20"));
+    }
+
+    @Test
+    public void testEncodeSafeValueIsNotCopied() {
+        String value = "nothing_to-escape.here";
+        assertSame(URL.encode(value), value);
+    }
+
+    @Test
+    public void testBuildIsCachedUntilModified() throws HttpException {
+        URL url = new URL("http://1.com", "/search");
+        url.addQuery("q", "the old man");
+
+        String built = url.build();
+        assertEquals(built, "http://1.com/search?q=the%20old%20man");
+        assertSame(url.build(), built);
+
+        url.addQuery("page", 2);
+        assertEquals(url.build(), "http://1.com/search?q=the%20old%20man&page=2");
+
+        url.setBaseUrl("http://2.com");
+        assertEquals(url.build(), "http://2.com/search?q=the%20old%20man&page=2");
+    }
+
+    @Test
+    public void testBuildWithDefaultLeavesUrlUnchanged() throws HttpException {
+        URL url = new URL().setPath("/users/1").addQuery("expand", "all");
+        assertEquals(url.build("http://a.com"), "http://a.com/users/1?expand=all");
+        assertEquals(url.build("http://b.com"), "http://b.com/users/1?expand=all");
+        assertFalse(url.hasBaseUrl());
+
+        url.setBaseUrl("http://c.com");
+        assertEquals(url.build("http://a.com"), "http://c.com/users/1?expand=all");
+    }
 }
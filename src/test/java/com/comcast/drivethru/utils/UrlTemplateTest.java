@@ -0,0 +1,130 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class UrlTemplateTest {
+
+    private static final Map<String, Object> VALUES = new HashMap<>();
+
+    static {
+        /* The example variables from RFC 6570, section 3.2 */
+        Map<String, String> keys = new LinkedHashMap<>();
+        keys.put("semi", ";");
+        keys.put("dot", ".");
+        keys.put("comma", ",");
+
+        VALUES.put("var", "value");
+        VALUES.put("hello", "Hello World!");
+        VALUES.put("path", "/foo/bar");
+        VALUES.put("empty", "");
+        VALUES.put("x", "1024");
+        VALUES.put("y", "768");
+        VALUES.put("list", Arrays.asList("red", "green", "blue"));
+        VALUES.put("keys", keys);
+    }
+
+    @DataProvider(name = "rfcExamples")
+    public Object[][] getRfcExamples() {
+        return new Object[][] {
+            { "{var}", "value" },
+            { "{hello}", "Hello%20World%21" },
+            { "{+hello}", "Hello%20World!" },
+            { "{+path}/here", "/foo/bar/here" },
+            { "here?ref={+path}", "here?ref=/foo/bar" },
+            { "{#path,x}/here", "#/foo/bar,1024/here" },
+            { "{var:3}", "val" },
+            { "{x,hello,y}", "1024,Hello%20World%21,768" },
+            { "X{.var}", "X.value" },
+            { "X{.list*}", "X.red.green.blue" },
+            { "{/var,x}/here", "/value/1024/here" },
+            { "{/list*,path:4}", "/red/green/blue/%2Ffoo" },
+            { "{;x,y,empty}", ";x=1024;y=768;empty" },
+            { "{;list*}", ";list=red;list=green;list=blue" },
+            { "{?x,y,empty}", "?x=1024&y=768&empty=" },
+            { "{?list}", "?list=red,green,blue" },
+            { "{?keys}", "?keys=semi,%3B,dot,.,comma,%2C" },
+            { "{?keys*}", "?semi=%3B&dot=.&comma=%2C" },
+            { "?fixed=yes{&x}", "?fixed=yes&x=1024" },
+            { "{?x,undef}", "?x=1024" },
+            { "{undef}", "" }
+        };
+    }
+
+    @Test(dataProvider = "rfcExamples")
+    public void testRfcExamples(String template, String expected) {
+        assertEquals(new UrlTemplate(template).expand(VALUES), expected);
+    }
+
+    @Test
+    public void testPositionalExpand() {
+        UrlTemplate template = new UrlTemplate("/v1/{index}/items{?q,page}");
+        assertEquals(template.getVariables(), new String[] { "index", "q", "page" });
+        assertEquals(template.expand("books", "the old man", 2), "/v1/books/items?q=the%20old%20man&page=2");
+        assertEquals(template.expand("books", null, null), "/v1/books/items");
+    }
+
+    @Test
+    public void testRepeatedVariable() {
+        UrlTemplate template = new UrlTemplate("/{id}/copy/{id}");
+        assertEquals(template.getVariables(), new String[] { "id" });
+        assertEquals(template.expand(7), "/7/copy/7");
+    }
+
+    @Test
+    public void testCache() {
+        UrlTemplate template = new UrlTemplate("/users/{id}{?fields}", 2);
+        List<String> fields = Arrays.asList("name", "email");
+
+        String first = template.expand(42, fields);
+        assertEquals(first, "/users/42?fields=name,email");
+        assertSame(template.expand(42, fields), first);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnterminated() {
+        new UrlTemplate("/users/{id");
+    }
+
+    @Test
+    public void testInvalidPrefix() {
+        for (String prefix : new String[] { "0", "-2", "10000", "x" }) {
+            try {
+                new UrlTemplate("/users/{id:" + prefix + "}");
+                fail("Expected prefix " + prefix + " to be rejected");
+            } catch (IllegalArgumentException iaex) {
+                /* Expected */
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWrongValueCount() {
+        new UrlTemplate("/users/{id}").expand();
+    }
+}
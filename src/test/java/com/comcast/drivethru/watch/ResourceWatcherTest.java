@@ -0,0 +1,244 @@
+/**
+ * Copyright 2013 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.drivethru.watch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.drivethru.client.DefaultRestClient;
+import com.comcast.drivethru.exception.HttpException;
+import com.comcast.drivethru.utils.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ResourceWatcherTest {
+
+    private HttpServer server;
+    private DefaultRestClient client;
+    private ResourceWatcher watcher;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> preferences = new CopyOnWriteArrayList<>();
+    private volatile int version;
+    private volatile int status;
+    private volatile boolean validators;
+    private volatile String contentType;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        requests.set(0);
+        preferences.clear();
+        version = 1;
+        status = 200;
+        validators = true;
+        contentType = "application/json";
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/flags", new FlagsHandler());
+        server.start();
+        client = new DefaultRestClient("http://localhost:" + server.getAddress().getPort());
+
+        watcher = new ResourceWatcher(client);
+        watcher.setInterval(20, TimeUnit.MILLISECONDS);
+        watcher.setJitter(0.1);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        watcher.close();
+        client.close();
+        server.stop(0);
+    }
+
+    private static void await(Watch<?> watch, long polls) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while ((watch.getPollCount() < polls) && (System.currentTimeMillis() < end)) {
+            Thread.sleep(5);
+        }
+        assertTrue(watch.getPollCount() >= polls, "Only " + watch.getPollCount() + " polls");
+    }
+
+    @Test
+    public void testOnlyChangesReachListener() throws Exception {
+        Recorder recorder = new Recorder();
+        Watch<Flags> watch = watcher.watch("/flags", Flags.class, recorder);
+        await(watch, 5);
+        assertEquals(recorder.versions.toString(), "[1]");
+        assertTrue(watch.getNotModifiedCount() >= 3);
+
+        version = 2;
+        long polls = watch.getPollCount();
+        await(watch, polls + 3);
+        assertEquals(recorder.versions.toString(), "[1, 2]");
+        assertEquals(watch.getValue().version, 2);
+        assertEquals(watch.getChangeCount(), 2);
+    }
+
+    @Test
+    public void testIdenticalBodiesAreNotRead() throws Exception {
+        validators = false;
+        Recorder recorder = new Recorder();
+        Watch<Flags> watch = watcher.watch("/flags", Flags.class, recorder);
+        await(watch, 5);
+
+        assertEquals(recorder.versions.toString(), "[1]");
+        assertEquals(watch.getNotModifiedCount(), 0);
+        assertTrue(watch.getUnchangedCount() >= 3);
+    }
+
+    @Test
+    public void testErrorsKeepPolling() throws Exception {
+        status = 503;
+        Recorder recorder = new Recorder();
+        Watch<Flags> watch = watcher.watch("/flags", Flags.class, recorder);
+        await(watch, 3);
+        assertTrue(recorder.errors.get() >= 2);
+        assertTrue(recorder.versions.isEmpty());
+
+        status = 200;
+        long polls = watch.getPollCount();
+        await(watch, polls + 2);
+        assertEquals(recorder.versions.toString(), "[1]");
+    }
+
+    @Test
+    public void testUnreadableBodyIsFetchedAgain() throws Exception {
+        contentType = "text/plain";
+        Recorder recorder = new Recorder();
+        Watch<Flags> watch = watcher.watch("/flags", Flags.class, recorder);
+        await(watch, 3);
+        assertTrue(recorder.errors.get() >= 2);
+        assertEquals(watch.getNotModifiedCount(), 0);
+
+        /* The entity tag of the body that couldn't be read was not kept */
+        contentType = "application/json";
+        long polls = watch.getPollCount();
+        await(watch, polls + 2);
+        assertEquals(recorder.versions.toString(), "[1]");
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Watch<Flags> watch = watcher.watch("/flags", Flags.class, new Recorder());
+        await(watch, 2);
+        assertEquals(watcher.getWatchCount(), 1);
+
+        watch.cancel();
+        assertEquals(watcher.getWatchCount(), 0);
+        Thread.sleep(50);
+        int sent = requests.get();
+        Thread.sleep(100);
+        assertEquals(requests.get(), sent);
+    }
+
+    @Test
+    public void testLongPoll() throws Exception {
+        watcher.setLongPoll(30, TimeUnit.SECONDS);
+        Watch<Flags> watch = watcher.watch("/flags", Flags.class, new Recorder());
+        await(watch, 2);
+        assertEquals(preferences.get(0), "wait=30");
+    }
+
+    @Test
+    public void testManyWatches() throws Exception {
+        Recorder recorder = new Recorder();
+        List<Watch<Flags>> watches = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            watches.add(watcher.watch("/flags/" + i, Flags.class, recorder));
+        }
+        for (Watch<Flags> watch : watches) {
+            await(watch, 2);
+        }
+        assertEquals(recorder.versions.size(), 50);
+        assertEquals(watcher.getWatchCount(), 50);
+    }
+
+    public static class Flags {
+        int version;
+    }
+
+    /**
+     * Records the version of each change and counts errors.
+     */
+    private static class Recorder implements ChangeListener<Flags> {
+
+        private final List<Integer> versions = new CopyOnWriteArrayList<>();
+        private final AtomicInteger errors = new AtomicInteger();
+
+        @Override
+        public void onChange(String url, Flags value) {
+            versions.add(value.version);
+        }
+
+        @Override
+        public void onError(String url, HttpException exception) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Serves the current version, with an entity tag unless validators are turned off.
+     */
+    private class FlagsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() >= 0) {
+                    continue;
+                }
+            }
+            String prefer = exchange.getRequestHeaders().getFirst(Headers.PREFER);
+            if (null != prefer) {
+                preferences.add(prefer);
+            }
+
+            String etag = "\"v" + version + "\"";
+            if (200 != status) {
+                exchange.sendResponseHeaders(status, -1);
+            } else if (validators && etag.equals(exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH))) {
+                exchange.getResponseHeaders().set(Headers.ETAG, etag);
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                if (validators) {
+                    exchange.getResponseHeaders().set(Headers.ETAG, etag);
+                }
+                byte[] body = ("{\"version\":" + version + "}").getBytes();
+                exchange.getResponseHeaders().set(Headers.CONTENT_TYPE, contentType);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        }
+    }
+}